@@ -0,0 +1,14 @@
+package com.example.iotserver.cache;
+
+/**
+ * Phát thông điệp invalidation tới các node khác.
+ */
+@FunctionalInterface
+public interface CacheInvalidationPublisher {
+
+    /**
+     * @param cacheName tên cache
+     * @param key       key bị thay đổi, null nghĩa là xóa toàn bộ cache
+     */
+    void publish(String cacheName, String key);
+}
@@ -0,0 +1,203 @@
+package com.example.iotserver.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Cache 2 tầng: L1 là Caffeine (giới hạn kích thước + TTL) trong từng node,
+ * L2 là Redis dùng chung. Mọi thay đổi (put/evict/clear) được phát qua Redis pub/sub
+ * để các node khác xóa bản sao L1 đã cũ.
+ *
+ * Key luôn được chuẩn hóa thành String để thông điệp invalidation giữa các node khớp với L1.
+ */
+@Slf4j
+public class TwoLevelCache extends AbstractValueAdaptingCache {
+
+    private final String name;
+    private final Cache<String, Object> local;
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final Duration remoteTtl;
+    private final CacheInvalidationPublisher invalidationPublisher;
+
+    private final Counter localHits;
+    private final Counter remoteHits;
+    private final Counter misses;
+
+    public TwoLevelCache(String name,
+            Cache<String, Object> local,
+            RedisTemplate<String, Object> redisTemplate,
+            Duration remoteTtl,
+            CacheInvalidationPublisher invalidationPublisher,
+            MeterRegistry meterRegistry) {
+        super(true);
+        this.name = name;
+        this.local = local;
+        this.redisTemplate = redisTemplate;
+        this.remoteTtl = remoteTtl;
+        this.invalidationPublisher = invalidationPublisher;
+        this.localHits = resultCounter(meterRegistry, name, "l1_hit");
+        this.remoteHits = resultCounter(meterRegistry, name, "l2_hit");
+        this.misses = resultCounter(meterRegistry, name, "miss");
+    }
+
+    private static Counter resultCounter(MeterRegistry registry, String cacheName, String result) {
+        return Counter.builder("cache.two_level.requests")
+                .description("Số lần đọc cache theo tầng trả kết quả")
+                .tag("cache", cacheName)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return local;
+    }
+
+    @Override
+    protected Object lookup(Object key) {
+        String cacheKey = key.toString();
+        Object value = local.getIfPresent(cacheKey);
+        if (value != null) {
+            localHits.increment();
+            return value;
+        }
+
+        value = remoteGet(cacheKey);
+        if (value != null) {
+            remoteHits.increment();
+            local.put(cacheKey, value);
+            return value;
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        String cacheKey = key.toString();
+        Object cached = local.getIfPresent(cacheKey);
+        if (cached != null) {
+            localHits.increment();
+            return (T) fromStoreValue(cached);
+        }
+
+        // Caffeine đảm bảo chỉ một luồng nạp giá trị cho mỗi key trên node này
+        Object stored = local.get(cacheKey, k -> {
+            Object remote = remoteGet(k);
+            if (remote != null) {
+                remoteHits.increment();
+                return remote;
+            }
+            misses.increment();
+            try {
+                Object storeValue = toStoreValue(valueLoader.call());
+                remotePut(k, storeValue);
+                return storeValue;
+            } catch (Exception e) {
+                throw new ValueRetrievalException(key, valueLoader, e);
+            }
+        });
+        return (T) fromStoreValue(stored);
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        String cacheKey = key.toString();
+        Object storeValue = toStoreValue(value);
+        local.put(cacheKey, storeValue);
+        remotePut(cacheKey, storeValue);
+        invalidationPublisher.publish(name, cacheKey);
+    }
+
+    @Override
+    public void evict(Object key) {
+        String cacheKey = key.toString();
+        local.invalidate(cacheKey);
+        remoteDelete(cacheKey);
+        invalidationPublisher.publish(name, cacheKey);
+    }
+
+    @Override
+    public void clear() {
+        local.invalidateAll();
+        remoteClear();
+        invalidationPublisher.publish(name, null);
+    }
+
+    /**
+     * Chỉ xóa bản sao L1 (được gọi khi nhận invalidation từ node khác).
+     */
+    void evictLocal(String key) {
+        local.invalidate(key);
+    }
+
+    void clearLocal() {
+        local.invalidateAll();
+    }
+
+    private String redisKey(String key) {
+        return "cache::" + name + "::" + key;
+    }
+
+    // Redis lỗi thì chỉ giảm về cache L1, không làm hỏng request
+    private Object remoteGet(String key) {
+        try {
+            Object value = redisTemplate.opsForValue().get(redisKey(key));
+            // fromStoreValue so sánh NullValue theo tham chiếu
+            return value instanceof NullValue ? NullValue.INSTANCE : value;
+        } catch (RuntimeException e) {
+            log.warn("Không đọc được cache L2 '{}' key {}: {}", name, key, e.getMessage());
+            return null;
+        }
+    }
+
+    private void remotePut(String key, Object storeValue) {
+        try {
+            redisTemplate.opsForValue().set(redisKey(key), storeValue, remoteTtl);
+        } catch (RuntimeException e) {
+            log.warn("Không ghi được cache L2 '{}' key {}: {}", name, key, e.getMessage());
+        }
+    }
+
+    private void remoteDelete(String key) {
+        try {
+            redisTemplate.delete(redisKey(key));
+        } catch (RuntimeException e) {
+            log.warn("Không xóa được cache L2 '{}' key {}: {}", name, key, e.getMessage());
+        }
+    }
+
+    private void remoteClear() {
+        try {
+            List<String> keys = new ArrayList<>();
+            ScanOptions options = ScanOptions.scanOptions().match(redisKey("*")).count(500).build();
+            try (Cursor<String> cursor = redisTemplate.scan(options)) {
+                cursor.forEachRemaining(keys::add);
+            }
+            if (!keys.isEmpty()) {
+                redisTemplate.delete(keys);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Không xóa được cache L2 '{}': {}", name, e.getMessage());
+        }
+    }
+}
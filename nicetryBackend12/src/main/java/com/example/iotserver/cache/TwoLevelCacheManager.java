@@ -0,0 +1,119 @@
+package com.example.iotserver.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * CacheManager tạo {@link TwoLevelCache} theo tên và lắng nghe kênh invalidation
+ * trên Redis để đồng bộ L1 giữa các node.
+ *
+ * Thông điệp có dạng {@code nodeId|cacheName|key}; key rỗng nghĩa là xóa toàn bộ cache.
+ */
+@Slf4j
+public class TwoLevelCacheManager implements CacheManager, MessageListener {
+
+    private static final String SEPARATOR = "|";
+
+    private final ConcurrentMap<String, TwoLevelCache> caches = new ConcurrentHashMap<>();
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final String invalidationChannel;
+    private final long localMaximumSize;
+    private final Duration localExpireAfterWrite;
+    private final Duration remoteTtl;
+
+    public TwoLevelCacheManager(RedisTemplate<String, Object> redisTemplate,
+            StringRedisTemplate stringRedisTemplate,
+            MeterRegistry meterRegistry,
+            String invalidationChannel,
+            long localMaximumSize,
+            Duration localExpireAfterWrite,
+            Duration remoteTtl,
+            List<String> initialCacheNames) {
+        this.redisTemplate = redisTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.invalidationChannel = invalidationChannel;
+        this.localMaximumSize = localMaximumSize;
+        this.localExpireAfterWrite = localExpireAfterWrite;
+        this.remoteTtl = remoteTtl;
+        initialCacheNames.forEach(this::getCache);
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, this::createCache);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return Collections.unmodifiableSet(caches.keySet());
+    }
+
+    private TwoLevelCache createCache(String name) {
+        com.github.benmanes.caffeine.cache.Cache<String, Object> local = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(localExpireAfterWrite)
+                .build();
+
+        Gauge.builder("cache.two_level.local.size", local, c -> c.estimatedSize())
+                .description("Số phần tử đang nằm trong cache L1")
+                .tag("cache", name)
+                .register(meterRegistry);
+
+        log.info("Khởi tạo cache 2 tầng '{}' (L1 tối đa {} phần tử, TTL L1 {}, TTL L2 {})",
+                name, localMaximumSize, localExpireAfterWrite, remoteTtl);
+        return new TwoLevelCache(name, local, redisTemplate, remoteTtl, this::publishInvalidation, meterRegistry);
+    }
+
+    private void publishInvalidation(String cacheName, String key) {
+        String message = nodeId + SEPARATOR + cacheName + SEPARATOR + (key != null ? key : "");
+        try {
+            stringRedisTemplate.convertAndSend(invalidationChannel, message);
+        } catch (RuntimeException e) {
+            // Các node khác vẫn tự hết hạn theo TTL của L1
+            log.warn("Không gửi được invalidation cho cache '{}': {}", cacheName, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String[] parts = body.split("\\|", 3);
+        if (parts.length < 3 || nodeId.equals(parts[0])) {
+            return;
+        }
+
+        TwoLevelCache cache = caches.get(parts[1]);
+        if (cache == null) {
+            return;
+        }
+
+        if (parts[2].isEmpty()) {
+            cache.clearLocal();
+        } else {
+            cache.evictLocal(parts[2]);
+        }
+        log.debug("Nhận invalidation cache '{}' key '{}' từ node {}", parts[1], parts[2], parts[0]);
+    }
+}
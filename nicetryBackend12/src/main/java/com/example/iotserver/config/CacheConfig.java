@@ -0,0 +1,82 @@
+package com.example.iotserver.config;
+
+import com.example.iotserver.cache.TwoLevelCacheManager;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.jsontype.BasicPolymorphicTypeValidator;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Cấu hình cache 2 tầng (Caffeine + Redis) thay cho ConcurrentMapCache mặc định.
+ */
+@Configuration
+public class CacheConfig {
+
+    public static final List<String> CACHE_NAMES = List.of("devices", "farms", "zones", "rules", "settings");
+
+    @Value("${cache.local.maximum-size:10000}")
+    private long localMaximumSize;
+
+    @Value("${cache.local.expire-after-write:10m}")
+    private Duration localExpireAfterWrite;
+
+    @Value("${cache.remote.ttl:30m}")
+    private Duration remoteTtl;
+
+    @Value("${cache.invalidation-channel:cache:invalidation}")
+    private String invalidationChannel;
+
+    @Bean
+    public RedisTemplate<String, Object> cacheRedisTemplate(RedisConnectionFactory connectionFactory,
+            ObjectMapper objectMapper) {
+        // Lưu kèm thông tin kiểu để đọc lại đúng DTO từ L2
+        ObjectMapper mapper = objectMapper.copy();
+        mapper.activateDefaultTyping(
+                BasicPolymorphicTypeValidator.builder()
+                        .allowIfSubType("com.example.iotserver.")
+                        .allowIfSubType("java.util.")
+                        .allowIfSubType("java.lang.")
+                        .allowIfSubType("java.time.")
+                        .allowIfSubType("org.springframework.cache.support.NullValue")
+                        .build(),
+                ObjectMapper.DefaultTyping.EVERYTHING,
+                JsonTypeInfo.As.PROPERTY);
+        GenericJackson2JsonRedisSerializer.registerNullValueSerializer(mapper, "@class");
+
+        RedisTemplate<String, Object> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new GenericJackson2JsonRedisSerializer(mapper));
+        return template;
+    }
+
+    @Bean
+    public TwoLevelCacheManager cacheManager(RedisTemplate<String, Object> cacheRedisTemplate,
+            StringRedisTemplate stringRedisTemplate,
+            MeterRegistry meterRegistry) {
+        return new TwoLevelCacheManager(cacheRedisTemplate, stringRedisTemplate, meterRegistry,
+                invalidationChannel, localMaximumSize, localExpireAfterWrite, remoteTtl, CACHE_NAMES);
+    }
+
+    @Bean
+    public RedisMessageListenerContainer cacheInvalidationListenerContainer(RedisConnectionFactory connectionFactory,
+            TwoLevelCacheManager cacheManager) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(cacheManager, new ChannelTopic(invalidationChannel));
+        return container;
+    }
+}
@@ -62,11 +62,15 @@ public class MqttConfig {
                 clientId + "_inbound",
                 mqttClientFactory(),
                 "sensor/+/data", // Subscribe to all sensor data
+                "sensor/+/bin", // Dữ liệu cảm biến dạng nhị phân gọn
                 "device/+/status" // Subscribe to device status
         );
 
         adapter.setCompletionTimeout(5000);
-        adapter.setConverter(new DefaultPahoMessageConverter());
+        // Giữ payload dạng byte[] để đọc được cả payload nhị phân; JSON được parse thẳng từ byte
+        DefaultPahoMessageConverter converter = new DefaultPahoMessageConverter();
+        converter.setPayloadAsBytes(true);
+        adapter.setConverter(converter);
         adapter.setQos(1);
         adapter.setOutputChannel(mqttInputChannel());
 
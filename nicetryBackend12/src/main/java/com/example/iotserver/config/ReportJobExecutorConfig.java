@@ -0,0 +1,48 @@
+package com.example.iotserver.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Thread pool giới hạn cho các job tạo báo cáo và xuất dữ liệu, tách khỏi thread của Tomcat.
+ */
+@Configuration
+public class ReportJobExecutorConfig {
+
+    @Value("${report.job.concurrency:2}")
+    private int concurrency;
+
+    @Value("${report.job.queue-capacity:50}")
+    private int queueCapacity;
+
+    @Bean
+    public ThreadPoolTaskExecutor reportJobExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        // Hàng đợi đầy thì từ chối job mới (mặc định AbortPolicy)
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("report-job-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Pool cho các truy vấn xuất dữ liệu theo thiết bị (ZIP của nông trại), tách khỏi sensorQueryExecutor
+     * để các lần xuất kéo dài không chiếm luồng của truy vấn dashboard.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor reportExportExecutor(
+            @Value("${report.export.concurrency:4}") int exportConcurrency,
+            @Value("${report.export.queue-capacity:100}") int exportQueueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(exportConcurrency);
+        executor.setMaxPoolSize(exportConcurrency);
+        executor.setQueueCapacity(exportQueueCapacity);
+        executor.setThreadNamePrefix("report-export-");
+        executor.initialize();
+        return executor;
+    }
+}
@@ -2,6 +2,7 @@ package com.example.iotserver.config;
 
 import com.example.iotserver.security.JwtAuthenticationFilter;
 import lombok.RequiredArgsConstructor;
+import jakarta.servlet.DispatcherType;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -29,6 +30,10 @@ public class SecurityConfig {
 
                                 // Configure authorization
                                 .authorizeHttpRequests(auth -> auth
+                                                // Async dispatch (CompletableFuture, StreamingResponseBody) của
+                                                // request đã được xác thực ở lần dispatch đầu
+                                                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+
                                                 // Public endpoints - không cần authentication
                                                 .requestMatchers(
                                                                 "/actuator/**",
@@ -0,0 +1,35 @@
+package com.example.iotserver.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Thread pool riêng cho các truy vấn InfluxDB chạy song song,
+ * giới hạn số truy vấn đồng thời để không làm quá tải InfluxDB.
+ */
+@Configuration
+public class SensorQueryExecutorConfig {
+
+    @Value("${sensor.query.concurrency:8}")
+    private int concurrency;
+
+    @Value("${sensor.query.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Bean
+    public ThreadPoolTaskExecutor sensorQueryExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("sensor-query-");
+        // Hàng đợi đầy thì từ chối ngay (503), không để luồng Tomcat tự chạy truy vấn mà không có timeout
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+}
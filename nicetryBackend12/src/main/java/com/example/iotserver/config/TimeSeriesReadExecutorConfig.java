@@ -0,0 +1,69 @@
+package com.example.iotserver.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Thread pool riêng cho các endpoint đọc dữ liệu chuỗi thời gian (InfluxDB), tách khỏi thread pool
+ * của Tomcat để một loạt truy vấn dashboard chậm không làm treo các API CRUD khác.
+ *
+ * Response dạng StreamingResponseBody (NDJSON, binary) chạy trên pool riêng {@code timeSeriesStreamExecutor}:
+ * một stream giữ luồng tới khi client đọc xong nên không được chiếm luồng của các truy vấn ngắn.
+ */
+@Configuration
+public class TimeSeriesReadExecutorConfig implements WebMvcConfigurer {
+
+    @Value("${timeseries.read.concurrency:16}")
+    private int concurrency;
+
+    @Value("${timeseries.read.queue-capacity:200}")
+    private int queueCapacity;
+
+    @Value("${timeseries.stream.concurrency:8}")
+    private int streamConcurrency;
+
+    @Value("${timeseries.stream.queue-capacity:20}")
+    private int streamQueueCapacity;
+
+    // Thời gian tối đa cho một response stream (NDJSON, binary)
+    @Value("${timeseries.stream.timeout:5m}")
+    private Duration streamTimeout;
+
+    @Bean
+    public ThreadPoolTaskExecutor timeSeriesReadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ts-read-");
+        // Quá tải thì từ chối (503) thay vì chạy trên luồng request của Tomcat
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor timeSeriesStreamExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(streamConcurrency);
+        executor.setMaxPoolSize(streamConcurrency);
+        executor.setQueueCapacity(streamQueueCapacity);
+        executor.setThreadNamePrefix("ts-stream-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(timeSeriesStreamExecutor());
+        configurer.setDefaultTimeout(streamTimeout.toMillis());
+    }
+}
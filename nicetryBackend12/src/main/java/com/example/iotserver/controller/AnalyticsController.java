@@ -1,15 +1,24 @@
 package com.example.iotserver.controller;
 
+import com.example.iotserver.dto.ColumnarSeriesDTO;
+import com.example.iotserver.dto.PercentileStatsDTO;
 import com.example.iotserver.dto.SensorDataDTO;
 import com.example.iotserver.dto.response.ApiResponse;
 import com.example.iotserver.service.SensorDataService;
+import com.example.iotserver.service.SensorStatisticsService;
+import com.example.iotserver.timeseries.SeriesBinaryEncoder;
+import com.example.iotserver.timeseries.SeriesChunk;
+import com.example.iotserver.timeseries.TimeSeriesReads;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/analytics")
@@ -17,17 +26,90 @@ import java.util.Map;
 public class AnalyticsController {
 
     private final SensorDataService sensorDataService;
+    private final TimeSeriesReads timeSeriesReads;
+    private final SensorStatisticsService sensorStatisticsService;
 
     @GetMapping("/history")
-    public ResponseEntity<ApiResponse<Map<String, List<SensorDataDTO>>>> getHistoricalData(
+    public CompletableFuture<ResponseEntity<?>> getHistoricalData(
             @RequestParam List<String> deviceIds,
             @RequestParam List<String> fields,
             @RequestParam Instant start,
             @RequestParam Instant end,
-            @RequestParam(defaultValue = "1h") String window) {
+            @RequestParam(defaultValue = "1h") String window,
+            // Giới hạn số điểm mỗi chuỗi (LTTB), 0 để lấy tất cả
+            @RequestParam(defaultValue = "0") int maxPoints,
+            // json (mặc định) hoặc columnar (mảng song song); binary do getHistoricalDataBinary xử lý
+            @RequestParam(defaultValue = "json") String format) {
+
+        // Truy vấn chạy trên thread pool riêng cho chuỗi thời gian, không giữ luồng request
+        return timeSeriesReads.submit(() -> historyResponse(deviceIds, fields, start, end, window, maxPoints, format));
+    }
+
+    /**
+     * Như {@link #getHistoricalData} với {@code format=binary}: body là {@link SeriesBinaryEncoder}.
+     * Tách riêng để kiểu trả về là {@code byte[]} cụ thể thay vì {@code ResponseEntity<?>}.
+     */
+    @GetMapping(value = "/history", params = "format=binary")
+    public CompletableFuture<ResponseEntity<byte[]>> getHistoricalDataBinary(
+            @RequestParam List<String> deviceIds,
+            @RequestParam List<String> fields,
+            @RequestParam Instant start,
+            @RequestParam Instant end,
+            @RequestParam(defaultValue = "1h") String window,
+            @RequestParam(defaultValue = "0") int maxPoints) {
+
+        return timeSeriesReads.submit(() -> ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(SeriesBinaryEncoder.CONTENT_TYPE))
+                .body(SeriesBinaryEncoder.encode(
+                        sensorDataService.getMultiSeries(deviceIds, fields, start, end, window, maxPoints))));
+    }
+
+    private ResponseEntity<?> historyResponse(List<String> deviceIds, List<String> fields, Instant start,
+            Instant end, String window, int maxPoints, String format) {
+        if ("columnar".equalsIgnoreCase(format)) {
+            Map<String, SeriesChunk> series = sensorDataService.getMultiSeries(deviceIds, fields, start, end, window,
+                    maxPoints);
+            Map<String, ColumnarSeriesDTO> columns = new LinkedHashMap<>();
+            series.forEach((key, chunk) -> columns.put(key, ColumnarSeriesDTO.from(chunk)));
+            return ResponseEntity.ok(ApiResponse.success("Lấy dữ liệu lịch sử thành công", columns));
+        }
 
         Map<String, List<SensorDataDTO>> data = sensorDataService.getMultiSeriesData(deviceIds, fields, start, end,
-                window);
+                window, maxPoints);
         return ResponseEntity.ok(ApiResponse.success("Lấy dữ liệu lịch sử thành công", data));
     }
-}
\ No newline at end of file
+
+    /**
+     * Percentile và histogram của một field trong khoảng bất kỳ, gộp từ sketch theo giờ/ngày.
+     */
+    @GetMapping("/percentiles")
+    public CompletableFuture<ResponseEntity<?>> getPercentiles(
+            @RequestParam String deviceId,
+            @RequestParam String field,
+            @RequestParam Instant start,
+            @RequestParam Instant end,
+            @RequestParam(defaultValue = "0.5,0.95,0.99") List<Double> quantiles) {
+        return timeSeriesReads.submit(() -> {
+            PercentileStatsDTO stats = sensorStatisticsService.getDevicePercentiles(deviceId, field, start, end,
+                    quantiles);
+            return ResponseEntity.ok(ApiResponse.success("Lấy thống kê phân phối thành công", stats));
+        });
+    }
+
+    /**
+     * Percentile của cả farm, gộp sketch của mọi thiết bị trong farm.
+     */
+    @GetMapping("/farms/{farmId}/percentiles")
+    public CompletableFuture<ResponseEntity<?>> getFarmPercentiles(
+            @PathVariable Long farmId,
+            @RequestParam String field,
+            @RequestParam Instant start,
+            @RequestParam Instant end,
+            @RequestParam(defaultValue = "0.5,0.95,0.99") List<Double> quantiles) {
+        return timeSeriesReads.submit(() -> {
+            PercentileStatsDTO stats = sensorStatisticsService.getFarmPercentiles(farmId, field, start, end,
+                    quantiles);
+            return ResponseEntity.ok(ApiResponse.success("Lấy thống kê phân phối thành công", stats));
+        });
+    }
+}
@@ -4,6 +4,7 @@ import com.example.iotserver.service.DeviceService;
 import com.example.iotserver.service.SensorDataService;
 import com.example.iotserver.repository.DeviceRepository;
 import com.example.iotserver.enums.*;
+import com.example.iotserver.timeseries.TimeSeriesReads;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -13,6 +14,7 @@ import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/dashboard")
@@ -23,6 +25,7 @@ public class DashboardController {
         private final DeviceService deviceService;
         private final SensorDataService sensorDataService;
         private final DeviceRepository deviceRepository;
+        private final TimeSeriesReads timeSeriesReads;
 
         /**
          * Get dashboard overview for a farm
@@ -30,7 +33,7 @@ public class DashboardController {
          */
         @GetMapping("/farm/{farmId}")
         @Operation(summary = "Lấy tổng quan dashboard cho nông trại")
-        public ResponseEntity<Map<String, Object>> getFarmDashboard(@PathVariable Long farmId) {
+        public CompletableFuture<ResponseEntity<Map<String, Object>>> getFarmDashboard(@PathVariable Long farmId) {
                 Map<String, Object> dashboard = new HashMap<>();
 
                 // Device statistics
@@ -43,14 +46,15 @@ public class DashboardController {
                 dashboard.put("onlineDevices", onlineDevices);
                 dashboard.put("offlineDevices", offlineDevices);
 
-                // Latest sensor data for all devices
-                Map<String, Map<String, Object>> latestData = sensorDataService.getFarmLatestData(farmId);
-                dashboard.put("latestSensorData", latestData);
-
                 // Device list
                 dashboard.put("devices", deviceService.getDevicesByFarm(farmId));
 
-                return ResponseEntity.ok(dashboard);
+                // Latest sensor data for all devices (InfluxDB, chạy trên thread pool riêng)
+                return timeSeriesReads.submit(() -> sensorDataService.getFarmLatestData(farmId))
+                                .thenApply(latestData -> {
+                                        dashboard.put("latestSensorData", latestData);
+                                        return ResponseEntity.ok(dashboard);
+                                });
         }
 
         /**
@@ -59,12 +63,16 @@ public class DashboardController {
          */
         @GetMapping("/stats")
         @Operation(summary = "Lấy thống kê real-time")
-        public ResponseEntity<Map<String, Object>> getRealtimeStats(
+        public CompletableFuture<ResponseEntity<Map<String, Object>>> getRealtimeStats(
                         @Parameter(description = "ID nông trại") @RequestParam Long farmId) {
+                return timeSeriesReads.submit(() -> sensorDataService.getFarmLatestData(farmId))
+                                .thenApply(latestData -> ResponseEntity.ok(realtimeStats(latestData)));
+        }
+
+        private Map<String, Object> realtimeStats(Map<String, Map<String, Object>> latestData) {
                 Map<String, Object> stats = new HashMap<>();
 
                 // Calculate averages from latest data
-                Map<String, Map<String, Object>> latestData = sensorDataService.getFarmLatestData(farmId);
 
                 double avgTemperature = latestData.values().stream()
                                 .filter(data -> data.containsKey("temperature"))
@@ -101,6 +109,6 @@ public class DashboardController {
                 stats.put("avgSoilPH", Math.round(avgSoilPH * 10) / 10.0);
                 stats.put("timestamp", System.currentTimeMillis());
 
-                return ResponseEntity.ok(stats);
+                return stats;
         }
 }
@@ -1,23 +1,32 @@
 package com.example.iotserver.controller;
 
+import com.example.iotserver.dto.ColumnarSeriesDTO;
 import com.example.iotserver.dto.DeviceDTO;
 import com.example.iotserver.dto.SensorDataDTO;
 import com.example.iotserver.dto.response.ApiResponse;
+import com.example.iotserver.dto.response.CursorPageResponse;
 import com.example.iotserver.service.DeviceService;
 import com.example.iotserver.service.SensorDataService;
+import com.example.iotserver.timeseries.SeriesBinaryEncoder;
+import com.example.iotserver.timeseries.SeriesChunk;
+import com.example.iotserver.timeseries.TimeSeriesReads;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @RestController
@@ -28,6 +37,11 @@ public class DeviceController {
 
     private final DeviceService deviceService;
     private final SensorDataService sensorDataService;
+    private final TimeSeriesReads timeSeriesReads;
+    private final ObjectMapper objectMapper;
+
+    // Số dòng NDJSON giữa hai lần flush
+    private static final int NDJSON_FLUSH_ROWS = 500;
 
     /**
      * Create new device
@@ -111,6 +125,22 @@ public class DeviceController {
         return ResponseEntity.ok(ApiResponse.success(devices));
     }
 
+    /**
+     * Get devices page (keyset pagination)
+     * GET /api/devices/page?farmId=1&afterId=120&size=50
+     */
+    @GetMapping("/page")
+    @Operation(summary = "Lấy danh sách thiết bị theo trang", description = "Phân trang keyset theo id, truyền nextCursor vào afterId để lấy trang tiếp theo")
+    public ResponseEntity<ApiResponse<CursorPageResponse<DeviceDTO>>> getDevicesPage(
+            @Parameter(description = "ID nông trại") @RequestParam Long farmId,
+            @Parameter(description = "Loại thiết bị (SENSOR_DHT22, ACTUATOR_PUMP,...)") @RequestParam(required = false) String type,
+            @Parameter(description = "Trạng thái (ONLINE, OFFLINE,...)") @RequestParam(required = false) String status,
+            @Parameter(description = "ID thiết bị cuối cùng của trang trước") @RequestParam(required = false) Long afterId,
+            @Parameter(description = "Số thiết bị mỗi trang") @RequestParam(defaultValue = "50") int size) {
+        CursorPageResponse<DeviceDTO> page = deviceService.getDevicesPage(farmId, type, status, afterId, size);
+        return ResponseEntity.ok(ApiResponse.success(page));
+    }
+
     /**
      * Get online devices
      * GET /api/devices/online?farmId=1
@@ -147,9 +177,9 @@ public class DeviceController {
      */
     @GetMapping("/{deviceId}/data/latest")
     @Operation(summary = "Lấy dữ liệu cảm biến mới nhất")
-    public ResponseEntity<ApiResponse<SensorDataDTO>> getLatestData(@PathVariable String deviceId) {
-        SensorDataDTO data = sensorDataService.getLatestSensorData(deviceId);
-        return ResponseEntity.ok(ApiResponse.success(data));
+    public CompletableFuture<ResponseEntity<ApiResponse<SensorDataDTO>>> getLatestData(@PathVariable String deviceId) {
+        return timeSeriesReads.submit(() -> sensorDataService.getLatestSensorData(deviceId))
+                .thenApply(data -> ResponseEntity.ok(ApiResponse.success(data)));
     }
 
     /**
@@ -158,15 +188,43 @@ public class DeviceController {
      */
     @GetMapping("/{deviceId}/data")
     @Operation(summary = "Lấy dữ liệu cảm biến theo khoảng thời gian")
-    public ResponseEntity<ApiResponse<List<SensorDataDTO>>> getSensorDataRange(
+    public CompletableFuture<ResponseEntity<ApiResponse<List<SensorDataDTO>>>> getSensorDataRange(
             @PathVariable String deviceId,
             @Parameter(description = "Thời gian bắt đầu (ISO format)") @RequestParam String start,
             @Parameter(description = "Thời gian kết thúc (ISO format)") @RequestParam String end) {
         Instant startTime = Instant.parse(start);
         Instant endTime = Instant.parse(end);
 
-        List<SensorDataDTO> data = sensorDataService.getSensorDataRange(deviceId, startTime, endTime);
-        return ResponseEntity.ok(ApiResponse.success(data));
+        return timeSeriesReads.submit(() -> sensorDataService.getSensorDataRange(deviceId, startTime, endTime))
+                .thenApply(data -> ResponseEntity.ok(ApiResponse.success(data)));
+    }
+
+    /**
+     * Stream sensor data for time range as NDJSON (một dòng JSON cho mỗi timestamp)
+     * GET /api/devices/{deviceId}/data/stream?start=...&end=...
+     */
+    @GetMapping(value = "/{deviceId}/data/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Stream dữ liệu cảm biến theo khoảng thời gian (NDJSON)",
+            description = "Dữ liệu được ghi ra ngay khi đọc được từ InfluxDB, không gom cả khoảng vào bộ nhớ")
+    public ResponseEntity<StreamingResponseBody> streamSensorDataRange(
+            @PathVariable String deviceId,
+            @Parameter(description = "Thời gian bắt đầu (ISO format)") @RequestParam String start,
+            @Parameter(description = "Thời gian kết thúc (ISO format)") @RequestParam String end) {
+        Instant startTime = Instant.parse(start);
+        Instant endTime = Instant.parse(end);
+
+        StreamingResponseBody body = out -> {
+            long[] rows = { 0 };
+            sensorDataService.streamSensorDataRange(deviceId, startTime, endTime, row -> {
+                out.write(objectMapper.writeValueAsBytes(row));
+                out.write('\n');
+                if (++rows[0] % NDJSON_FLUSH_ROWS == 0) {
+                    out.flush();
+                }
+            });
+            out.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
     /**
@@ -175,15 +233,49 @@ public class DeviceController {
      */
     @GetMapping("/{deviceId}/data/aggregated")
     @Operation(summary = "Lấy dữ liệu tổng hợp cho biểu đồ")
-    public ResponseEntity<ApiResponse<List<SensorDataDTO>>> getAggregatedData(
+    public CompletableFuture<ResponseEntity<?>> getAggregatedData(
             @PathVariable String deviceId,
             @Parameter(description = "Trường dữ liệu (temperature, humidity,...)") @RequestParam String field,
             @Parameter(description = "Hàm tổng hợp (mean, max, min)") @RequestParam(defaultValue = "mean") String aggregation,
-            @Parameter(description = "Cửa sổ thời gian (1h, 1d,...)") @RequestParam(defaultValue = "1h") String window) {
+            @Parameter(description = "Cửa sổ thời gian (1h, 1d,...)") @RequestParam(defaultValue = "1h") String window,
+            @Parameter(description = "Số điểm tối đa (giảm điểm bằng LTTB)") @RequestParam(defaultValue = "0") int maxPoints,
+            @Parameter(description = "Định dạng trả về (json, columnar, binary)") @RequestParam(defaultValue = "json") String format) {
 
+        return timeSeriesReads.submit(() -> aggregatedResponse(deviceId, field, aggregation, window, maxPoints, format));
+    }
+
+    /**
+     * Như {@link #getAggregatedData} với {@code format=binary}; tách riêng để kiểu trả về là {@code byte[]}.
+     */
+    @GetMapping(value = "/{deviceId}/data/aggregated", params = "format=binary")
+    @Operation(summary = "Lấy dữ liệu tổng hợp cho biểu đồ (nhị phân)")
+    public CompletableFuture<ResponseEntity<byte[]>> getAggregatedDataBinary(
+            @PathVariable String deviceId,
+            @RequestParam String field,
+            @RequestParam(defaultValue = "mean") String aggregation,
+            @RequestParam(defaultValue = "1h") String window,
+            @RequestParam(defaultValue = "0") int maxPoints) {
+
+        return timeSeriesReads.submit(() -> {
+            SeriesChunk series = sensorDataService.getAggregatedSeries(deviceId, field, aggregation, window,
+                    maxPoints);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(SeriesBinaryEncoder.CONTENT_TYPE))
+                    .body(SeriesBinaryEncoder.encode(Map.of(deviceId + "_" + field, series)));
+        });
+    }
+
+    private ResponseEntity<?> aggregatedResponse(String deviceId, String field, String aggregation, String window,
+            int maxPoints, String format) {
         try {
+            if ("columnar".equalsIgnoreCase(format)) {
+                SeriesChunk series = sensorDataService.getAggregatedSeries(deviceId, field, aggregation, window,
+                        maxPoints);
+                return ResponseEntity.ok(ApiResponse.success(ColumnarSeriesDTO.from(series)));
+            }
+
             List<SensorDataDTO> data = sensorDataService.getAggregatedData(
-                    deviceId, field, aggregation, window);
+                    deviceId, field, aggregation, window, maxPoints);
 
             // ✅ THÊM: Kiểm tra dữ liệu rỗng
             if (data.isEmpty()) {
@@ -205,6 +297,6 @@ public class DeviceController {
     @GetMapping("/debug/influx-raw")
     @Operation(summary = "[DEBUG] Lấy dữ liệu thô từ InfluxDB", description = "Lấy 10 điểm dữ liệu gần nhất để kiểm tra tags")
     public ResponseEntity<Object> debugInfluxData() {
-        return ResponseEntity.ok(sensorDataService.getRawInfluxDataForDebug());
+        return ResponseEntity.ok(sensorDataService.getRecentSensorDataForDebug());
     }
 }
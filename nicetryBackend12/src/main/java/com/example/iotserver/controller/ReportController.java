@@ -1,15 +1,22 @@
 package com.example.iotserver.controller;
 
+import com.example.iotserver.dto.ReportJobDTO;
 import com.example.iotserver.dto.response.ApiResponse;
+import com.example.iotserver.enums.ReportFormat;
+import com.example.iotserver.service.ReportJobService;
 import com.example.iotserver.service.ReportService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -25,6 +32,7 @@ import java.util.Map;
 public class ReportController {
 
     private final ReportService reportService;
+    private final ReportJobService reportJobService;
 
     /**
      * Lấy dữ liệu tóm tắt cho dashboard hoặc báo cáo
@@ -65,4 +73,47 @@ public class ReportController {
             throws IOException {
         reportService.createSensorDataPdf(response, deviceId, start, end);
     }
+
+    @GetMapping("/export/farm-zip")
+    @Operation(summary = "Xuất dữ liệu cảm biến của toàn bộ thiết bị trong nông trại ra file ZIP (mỗi thiết bị một CSV)")
+    @PreAuthorize("isAuthenticated()")
+    public void exportFarmSensorDataToZip(
+            HttpServletResponse response,
+            @Parameter(description = "ID nông trại", required = true) @RequestParam Long farmId,
+            @Parameter(description = "Thời gian bắt đầu (ISO 8601 format)", required = true) @RequestParam Instant start,
+            @Parameter(description = "Thời gian kết thúc (ISO 8601 format)", required = true) @RequestParam Instant end)
+            throws IOException {
+        reportService.writeFarmSensorDataZip(response, farmId, start, end);
+    }
+
+    // --- JOB BÁO CÁO CHẠY NỀN ---
+    @PostMapping("/jobs")
+    @Operation(summary = "Tạo job xuất báo cáo chạy nền (CSV hoặc PDF)")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<ApiResponse<ReportJobDTO>> submitReportJob(
+            @Parameter(description = "Định dạng báo cáo (CSV, PDF)", required = true) @RequestParam ReportFormat format,
+            @Parameter(description = "ID của thiết bị", required = true) @RequestParam String deviceId,
+            @Parameter(description = "Thời gian bắt đầu (ISO 8601 format)", required = true) @RequestParam Instant start,
+            @Parameter(description = "Thời gian kết thúc (ISO 8601 format)", required = true) @RequestParam Instant end) {
+        ReportJobDTO job = reportJobService.submit(format, deviceId, start, end);
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(ApiResponse.success("Đã nhận yêu cầu tạo báo cáo", job));
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    @Operation(summary = "Xem trạng thái job báo cáo")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<ApiResponse<ReportJobDTO>> getReportJob(@PathVariable String jobId) {
+        return ResponseEntity.ok(ApiResponse.success(reportJobService.getJob(jobId)));
+    }
+
+    @GetMapping("/jobs/{jobId}/download")
+    @Operation(summary = "Tải file báo cáo đã tạo (hỗ trợ header Range)")
+    @PreAuthorize("isAuthenticated()")
+    public void downloadReportJob(
+            @PathVariable String jobId,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        reportJobService.writeArtifact(jobId, request, response);
+    }
 }
\ No newline at end of file
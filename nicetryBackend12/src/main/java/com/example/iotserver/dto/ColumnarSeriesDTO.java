@@ -0,0 +1,24 @@
+package com.example.iotserver.dto;
+
+import com.example.iotserver.timeseries.SeriesChunk;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Một chuỗi dữ liệu dạng cột: hai mảng song song thời gian (epoch millis) và giá trị
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ColumnarSeriesDTO {
+
+    private long[] timestamps;
+    private double[] values;
+
+    public static ColumnarSeriesDTO from(SeriesChunk chunk) {
+        return new ColumnarSeriesDTO(chunk.copyTimes(), chunk.copyValues());
+    }
+}
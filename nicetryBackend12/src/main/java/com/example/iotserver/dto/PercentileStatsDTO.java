@@ -0,0 +1,48 @@
+package com.example.iotserver.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Thống kê phân phối của một field trong một khoảng thời gian, gộp từ các sketch theo giờ/ngày.
+ * start/end là khoảng thực sự được tính (đã làm tròn ra theo giờ, hoặc theo ngày với dữ liệu cũ).
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PercentileStatsDTO {
+
+    private String deviceId;
+    private Long farmId;
+    private String field;
+    private Instant start;
+    private Instant end;
+    private long count;
+    private Double min;
+    private Double max;
+    private Double mean;
+
+    // Nhãn dạng "p50", "p95", "p99.9" -> giá trị
+    private Map<String, Double> percentiles;
+
+    private Histogram histogram;
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Histogram {
+        // Các bucket bằng nhau trong [lower, upper)
+        private double lower;
+        private double upper;
+        private long[] counts;
+        private long underflow;
+        private long overflow;
+    }
+}
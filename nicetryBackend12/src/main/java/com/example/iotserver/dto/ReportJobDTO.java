@@ -0,0 +1,42 @@
+package com.example.iotserver.dto;
+
+import com.example.iotserver.enums.ReportFormat;
+import com.example.iotserver.enums.ReportJobStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Trạng thái một job tạo báo cáo chạy nền
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReportJobDTO {
+
+    private String jobId;
+    private ReportFormat format;
+    private String deviceId;
+    private Instant start;
+    private Instant end;
+    private ReportJobStatus status;
+
+    /**
+     * Số dòng dữ liệu đã ghi
+     */
+    private long rowsWritten;
+
+    /**
+     * Kích thước file (byte), chỉ có khi job hoàn thành
+     */
+    private Long fileSize;
+
+    private String error;
+    private Instant createdAt;
+    private Instant completedAt;
+    private String downloadUrl;
+}
@@ -9,7 +9,6 @@ import lombok.NoArgsConstructor;
 
 import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.HashMap;
 import java.util.Map;
 import java.io.Serializable; // <-- THÊM IMPORT NÀY
 
@@ -51,9 +50,8 @@ public class SensorDataDTO implements Serializable { // <-- THÊM "implements Se
     private Double avgValue;
     private Long count;
 
-    // Flexible values map for custom sensors
-    @Builder.Default
-    private Map<String, Object> additionalValues = new HashMap<>();
+    // Flexible values map for custom sensors (null khi không dùng, tránh cấp phát map rỗng cho mỗi điểm)
+    private Map<String, Object> additionalValues;
 
     // Helper method to create from MQTT payload
     public static SensorDataDTO fromMqttPayload(String deviceId, Map<String, Object> payload) {
@@ -97,24 +95,50 @@ public class SensorDataDTO implements Serializable { // <-- THÊM "implements Se
             builder.farmId(Long.parseLong(record.get("farm_id").toString()));
         }
         if (record.containsKey("_time")) {
-            builder.timestamp(Instant.parse(record.get("_time").toString()));
+            Object time = record.get("_time");
+            builder.timestamp(time instanceof Instant instant ? instant : Instant.parse(time.toString()));
         }
         if (record.containsKey("_value")) {
             Double value = parseDouble(record.get("_value"));
             String field = record.getOrDefault("_field", "").toString();
 
-            switch (field) {
-                case "temperature" -> builder.temperature(value);
-                case "humidity" -> builder.humidity(value);
-                case "soil_moisture" -> builder.soilMoisture(value);
-                case "light_intensity" -> builder.lightIntensity(value);
-                case "soilPH" -> builder.soilPH(value);
-            }
+            SensorDataDTO dto = builder.build();
+            dto.setFieldValue(field, value);
+            return dto;
         }
 
         return builder.build();
     }
 
+    /**
+     * Giá trị theo tên _field trong InfluxDB; null nếu field không xác định hoặc chưa có giá trị.
+     */
+    public Double getFieldValue(String field) {
+        return switch (field) {
+            case "temperature" -> temperature;
+            case "humidity" -> humidity;
+            case "soil_moisture" -> soilMoisture;
+            case "light_intensity" -> lightIntensity;
+            case "soilPH" -> soilPH;
+            default -> null;
+        };
+    }
+
+    /**
+     * Gán giá trị theo tên _field trong InfluxDB; field không xác định bị bỏ qua.
+     */
+    public void setFieldValue(String field, Double value) {
+        switch (field) {
+            case "temperature" -> temperature = value;
+            case "humidity" -> humidity = value;
+            case "soil_moisture" -> soilMoisture = value;
+            case "light_intensity" -> lightIntensity = value;
+            case "soilPH" -> soilPH = value;
+            default -> {
+            }
+        }
+    }
+
     private static Double parseDouble(Object value) {
         if (value == null)
             return null;
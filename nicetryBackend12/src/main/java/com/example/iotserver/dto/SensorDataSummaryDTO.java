@@ -0,0 +1,29 @@
+package com.example.iotserver.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Một dòng tổng hợp min / trung bình / max của các cảm biến trong một khoảng thời gian
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SensorDataSummaryDTO {
+
+    private String deviceId;
+
+    /**
+     * Thời điểm kết thúc của khoảng tổng hợp
+     */
+    private Instant timestamp;
+
+    private SensorDataDTO min;
+    private SensorDataDTO avg;
+    private SensorDataDTO max;
+}
@@ -0,0 +1,22 @@
+package com.example.iotserver.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Trang dữ liệu phân trang theo keyset: client gửi lại nextCursor để lấy trang tiếp theo.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageResponse<T> {
+    private List<T> content;
+    private int size;
+    private Long nextCursor;
+    private boolean hasMore;
+}
@@ -0,0 +1,13 @@
+package com.example.iotserver.enums;
+
+/**
+ * Cách nén một field khi ingest, trước khi ghi vào store.
+ */
+public enum CompressionMode {
+    // Ghi mọi điểm
+    OFF,
+    // Chỉ ghi khi giá trị lệch khỏi giá trị đã ghi gần nhất quá tolerance
+    DEADBAND,
+    // Swinging-door: chỉ ghi các điểm gãy, nội suy tuyến tính giữa chúng lệch không quá tolerance
+    SWINGING_DOOR
+}
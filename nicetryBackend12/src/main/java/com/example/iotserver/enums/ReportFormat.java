@@ -0,0 +1,6 @@
+package com.example.iotserver.enums;
+
+public enum ReportFormat {
+    CSV,
+    PDF
+}
@@ -0,0 +1,8 @@
+package com.example.iotserver.enums;
+
+public enum ReportJobStatus {
+    PENDING,
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
@@ -0,0 +1,13 @@
+package com.example.iotserver.enums;
+
+/**
+ * Mức tần suất gửi dữ liệu gợi ý cho thiết bị, từ nhanh tới chậm.
+ */
+public enum ReportingLevel {
+    // Gần ngưỡng cảnh báo/quy tắc hoặc đang biến động mạnh
+    FAST,
+    // Mặc định của firmware
+    NORMAL,
+    // Các field đều ổn định
+    SLOW
+}
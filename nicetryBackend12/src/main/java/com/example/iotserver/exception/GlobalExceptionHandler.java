@@ -6,9 +6,12 @@ import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 @RestControllerAdvice
 public class GlobalExceptionHandler {
@@ -33,6 +36,22 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error);
     }
 
+    // Truy vấn chuỗi thời gian vượt quá deadline
+    @ExceptionHandler({ TimeoutException.class, AsyncRequestTimeoutException.class })
+    public ResponseEntity<?> handleTimeoutException(Exception ex) {
+        Map<String, String> error = new HashMap<>();
+        error.put("message", "Truy vấn dữ liệu quá thời gian cho phép, vui lòng thu hẹp khoảng thời gian");
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(error);
+    }
+
+    // Thread pool truy vấn chuỗi thời gian đã đầy
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<?> handleRejectedExecutionException(RejectedExecutionException ex) {
+        Map<String, String> error = new HashMap<>();
+        error.put("message", "Hệ thống đang quá tải, vui lòng thử lại sau");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(error);
+    }
+
     // Xử lý resource not found
     @ExceptionHandler(ResourceNotFoundException.class)
     public ResponseEntity<?> handleResourceNotFoundException(ResourceNotFoundException ex) {
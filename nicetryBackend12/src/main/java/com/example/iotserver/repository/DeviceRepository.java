@@ -3,6 +3,9 @@ package com.example.iotserver.repository;
 import com.example.iotserver.entity.Device;
 import com.example.iotserver.enums.DeviceStatus; // Thêm import
 import com.example.iotserver.enums.DeviceType; // Thêm import
+import com.example.iotserver.repository.projection.DeviceLastSeen;
+import com.example.iotserver.repository.projection.DeviceSummary;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -11,6 +14,7 @@ import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -52,7 +56,38 @@ public interface DeviceRepository extends JpaRepository<Device, Long> {
     // THÊM PHƯƠNG THỨC NÀY
     long countByStatus(DeviceStatus status); // Sửa nốt phương thức này
 
+    /**
+     * Danh sách thiết bị dạng projection, phân trang theo keyset (id tăng dần).
+     * Các tham số lọc null sẽ bị bỏ qua.
+     */
+    @Query("SELECT d.id AS id, d.deviceId AS deviceId, d.name AS name, d.description AS description, " +
+            "d.type AS type, d.status AS status, " +
+            "f.id AS farmId, f.name AS farmName, f.location AS farmLocation, " +
+            "z.id AS zoneId, z.name AS zoneName, " +
+            "d.lastSeen AS lastSeen, d.currentState AS currentState, " +
+            "d.createdAt AS createdAt, d.updatedAt AS updatedAt " +
+            "FROM Device d JOIN d.farm f LEFT JOIN d.zone z " +
+            "WHERE f.id = :farmId " +
+            "AND (:type IS NULL OR d.type = :type) " +
+            "AND (:status IS NULL OR d.status = :status) " +
+            "AND (:afterId IS NULL OR d.id > :afterId) " +
+            "ORDER BY d.id")
+    List<DeviceSummary> findSummariesByFarm(@Param("farmId") Long farmId,
+            @Param("type") DeviceType type,
+            @Param("status") DeviceStatus status,
+            @Param("afterId") Long afterId,
+            Pageable pageable);
+
     @Query("SELECT d FROM Device d WHERE d.farm.id IN :farmIds AND (LOWER(d.name) LIKE :keyword OR LOWER(d.deviceId) LIKE :keyword)")
     List<Device> searchDevicesInFarms(@Param("farmIds") List<Long> farmIds, @Param("keyword") String keyword);
 
+    @Query("SELECT d.lastSeen FROM Device d WHERE d.deviceId = :deviceId")
+    Optional<LocalDateTime> findLastSeenByDeviceId(@Param("deviceId") String deviceId);
+
+    @Query("SELECT d.deviceId AS deviceId, d.lastSeen AS lastSeen FROM Device d WHERE d.deviceId IN :deviceIds")
+    List<DeviceLastSeen> findLastSeenByDeviceIdIn(@Param("deviceIds") Collection<String> deviceIds);
+
+    @Query("SELECT MAX(d.lastSeen) FROM Device d WHERE d.farm.id = :farmId")
+    Optional<LocalDateTime> findMaxLastSeenByFarmId(@Param("farmId") Long farmId);
+
 }
\ No newline at end of file
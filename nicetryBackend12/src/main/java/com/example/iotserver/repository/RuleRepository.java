@@ -1,6 +1,7 @@
 package com.example.iotserver.repository;
 
 import com.example.iotserver.entity.Rule;
+import com.example.iotserver.entity.RuleCondition;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
@@ -25,6 +26,11 @@ public interface RuleRepository extends JpaRepository<Rule, Long> {
     @Query("SELECT r FROM Rule r WHERE r.farm.id = :farmId AND r.enabled = true ORDER BY r.priority DESC")
     List<Rule> findEnabledRulesByFarmOrderByPriority(Long farmId);
 
+    // Điều kiện giá trị cảm biến của các quy tắc đang bật gắn với một thiết bị
+    @Query("SELECT c FROM RuleCondition c WHERE c.rule.enabled = true AND c.deviceId = :deviceId "
+            + "AND c.type = com.example.iotserver.entity.RuleCondition.ConditionType.SENSOR_VALUE")
+    List<RuleCondition> findEnabledSensorConditionsByDeviceId(String deviceId);
+
     // Kiểm tra tồn tại
     boolean existsByIdAndFarmId(Long id, Long farmId);
 
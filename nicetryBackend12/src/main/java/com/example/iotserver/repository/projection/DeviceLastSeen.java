@@ -0,0 +1,13 @@
+package com.example.iotserver.repository.projection;
+
+import java.time.LocalDateTime;
+
+/**
+ * Projection thời điểm thiết bị gửi dữ liệu gần nhất, dùng để thu hẹp range truy vấn InfluxDB.
+ */
+public interface DeviceLastSeen {
+
+    String getDeviceId();
+
+    LocalDateTime getLastSeen();
+}
@@ -0,0 +1,43 @@
+package com.example.iotserver.repository.projection;
+
+import com.example.iotserver.enums.DeviceStatus;
+import com.example.iotserver.enums.DeviceType;
+
+import java.time.LocalDateTime;
+
+/**
+ * Projection chỉ chứa các cột hiển thị trong danh sách thiết bị.
+ * Farm/zone được JOIN ngay trong query nên không kích hoạt lazy loading.
+ */
+public interface DeviceSummary {
+
+    Long getId();
+
+    String getDeviceId();
+
+    String getName();
+
+    String getDescription();
+
+    DeviceType getType();
+
+    DeviceStatus getStatus();
+
+    Long getFarmId();
+
+    String getFarmName();
+
+    String getFarmLocation();
+
+    Long getZoneId();
+
+    String getZoneName();
+
+    LocalDateTime getLastSeen();
+
+    String getCurrentState();
+
+    LocalDateTime getCreatedAt();
+
+    LocalDateTime getUpdatedAt();
+}
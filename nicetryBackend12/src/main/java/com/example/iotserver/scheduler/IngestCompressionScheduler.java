@@ -0,0 +1,22 @@
+package com.example.iotserver.scheduler;
+
+import com.example.iotserver.service.SensorDataService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class IngestCompressionScheduler {
+
+    private final SensorDataService sensorDataService;
+
+    // Mỗi phút ghi các điểm bộ nén đang giữ của thiết bị đã ngừng gửi quá max interval
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void flushIdleSeries() {
+        log.debug("Flushing points held by ingest compression...");
+        sensorDataService.flushCompressedPoints();
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.iotserver.scheduler;
+
+import com.example.iotserver.service.ReportJobService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ReportJobScheduler {
+
+    private final ReportJobService reportJobService;
+
+    // Dọn các file báo cáo đã hết hạn mỗi 5 phút
+    @Scheduled(fixedDelay = 300000, initialDelay = 60000)
+    public void cleanupExpiredReports() {
+        log.debug("Running scheduled task to clean up expired report jobs...");
+        reportJobService.cleanupExpiredJobs();
+    }
+}
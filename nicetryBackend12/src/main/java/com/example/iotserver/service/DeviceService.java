@@ -2,17 +2,21 @@ package com.example.iotserver.service;
 
 import com.example.iotserver.dto.DeviceDTO;
 import com.example.iotserver.dto.SensorDataDTO;
+import com.example.iotserver.dto.response.CursorPageResponse;
 import com.example.iotserver.enums.DeviceStatus;
 import com.example.iotserver.enums.DeviceType;
 import com.example.iotserver.repository.DeviceRepository;
 import com.example.iotserver.repository.FarmRepository;
 import com.example.iotserver.repository.ZoneRepository;
+import com.example.iotserver.repository.projection.DeviceSummary;
 import com.fasterxml.jackson.databind.ObjectMapper;
 // <<<< THÊM IMPORT
 import com.example.iotserver.entity.*;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -25,6 +29,7 @@ import java.util.UUID;
 import java.util.stream.Collectors;
 import org.springframework.cache.annotation.Cacheable; // <-- THÊM IMPORT
 import org.springframework.cache.annotation.CacheEvict; // <-- THÊM IMPORT
+import org.springframework.cache.annotation.Caching;
 import java.time.temporal.ChronoUnit; // <<<< 1. THÊM IMPORT
 
 import com.example.iotserver.enums.FarmRole; // <<<< THÊM IMPORT
@@ -52,7 +57,10 @@ public class DeviceService {
     // ✅ THÊM: Inject MQTT Gateway
     private final MqttGateway mqttGateway;
 
+    private static final int MAX_PAGE_SIZE = 500;
+
     @Transactional
+    @CacheEvict(value = "zones", key = "#farmId") // deviceCount của zone trong farm thay đổi
     public DeviceDTO createDevice(Long farmId, DeviceDTO dto) {
 
         User currentUser = authenticationService.getCurrentAuthenticatedUser();
@@ -100,7 +108,9 @@ public class DeviceService {
     }
 
     @Transactional
-    @CacheEvict(value = "devices", key = "#deviceId") // <-- THÊM ANNOTATION NÀY
+    @Caching(evict = {
+            @CacheEvict(value = "devices", key = "#deviceId"),
+            @CacheEvict(value = "zones", allEntries = true) }) // Thiết bị có thể đổi zone
     public DeviceDTO updateDevice(Long deviceId, DeviceDTO dto) {
         Device device = deviceRepository.findById(deviceId)
                 .orElseThrow(() -> new RuntimeException("Device not found"));
@@ -137,7 +147,9 @@ public class DeviceService {
     }
 
     @Transactional
-    @CacheEvict(value = "devices", key = "#deviceId") // ✅ SỬA: Đổi thành #deviceId
+    @Caching(evict = {
+            @CacheEvict(value = "devices", key = "#deviceId"),
+            @CacheEvict(value = "zones", allEntries = true) })
     public void deleteDevice(Long deviceId) {
         Device device = deviceRepository.findById(deviceId)
                 .orElseThrow(() -> new RuntimeException("Device not found"));
@@ -172,55 +184,70 @@ public class DeviceService {
     }
 
     public List<DeviceDTO> getDevicesByFarm(Long farmId) {
-        return deviceRepository.findByFarmId(farmId)
+        return findDeviceSummaries(farmId, null, null, null, Pageable.unpaged());
+    }
+
+    /**
+     * Danh sách thiết bị phân trang theo keyset (id tăng dần).
+     *
+     * @param afterId id của thiết bị cuối cùng ở trang trước (null cho trang đầu)
+     * @param size    số phần tử mỗi trang, tối đa {@link #MAX_PAGE_SIZE}
+     */
+    public CursorPageResponse<DeviceDTO> getDevicesPage(Long farmId, String type, String status, Long afterId,
+            int size) {
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        DeviceType deviceType = type != null ? parseDeviceType(type) : null;
+        DeviceStatus deviceStatus = status != null ? DeviceStatus.valueOf(status.toUpperCase()) : null;
+
+        // Lấy dư 1 phần tử để biết còn trang sau hay không
+        List<DeviceDTO> rows = findDeviceSummaries(farmId, deviceType, deviceStatus, afterId,
+                PageRequest.of(0, pageSize + 1));
+
+        boolean hasMore = rows.size() > pageSize;
+        List<DeviceDTO> content = hasMore ? rows.subList(0, pageSize) : rows;
+
+        return CursorPageResponse.<DeviceDTO>builder()
+                .content(content)
+                .size(content.size())
+                .nextCursor(hasMore ? content.get(content.size() - 1).getId() : null)
+                .hasMore(hasMore)
+                .build();
+    }
+
+    private List<DeviceDTO> findDeviceSummaries(Long farmId, DeviceType type, DeviceStatus status, Long afterId,
+            Pageable pageable) {
+        return deviceRepository.findSummariesByFarm(farmId, type, status, afterId, pageable)
                 .stream()
-                .map(this::mapToDTO)
+                .map(this::mapSummaryToDTO)
                 .collect(Collectors.toList());
     }
 
     // ✅ SỬA: Method này để lấy devices với data dạng Map
     public List<DeviceDTO> getDevicesByFarmWithData(Long farmId) {
-        List<Device> devices = deviceRepository.findByFarmId(farmId);
-
-        return devices.stream()
-                .map(device -> {
-                    DeviceDTO dto = mapToDTO(device);
-
-                    // Get latest sensor data for this device
-                    try {
-                        SensorDataDTO sensorData = sensorDataService.getLatestSensorData(device.getDeviceId());
-
-                        if (sensorData != null) {
-                            // Set as SensorDataDTO object
-                            dto.setLatestSensorData(sensorData);
-
-                            // Also convert to Map for backward compatibility
-                            Map<String, Object> dataMap = convertSensorDataToMap(sensorData);
-                            dto.setLatestData(dataMap);
-                        }
-                    } catch (Exception e) {
-                        log.warn("Failed to get sensor data for device {}: {}",
-                                device.getDeviceId(), e.getMessage());
-                    }
-
-                    return dto;
-                })
-                .collect(Collectors.toList());
+        List<DeviceDTO> devices = getDevicesByFarm(farmId);
+
+        // Truy vấn song song có giới hạn, thiết bị chậm không chặn cả danh sách
+        Map<String, SensorDataDTO> latestData = sensorDataService.getLatestSensorDataForDevices(
+                devices.stream().map(DeviceDTO::getDeviceId).collect(Collectors.toList()));
+
+        for (DeviceDTO dto : devices) {
+            SensorDataDTO sensorData = latestData.get(dto.getDeviceId());
+            if (sensorData != null) {
+                dto.setLatestSensorData(sensorData);
+                // Also convert to Map for backward compatibility
+                dto.setLatestData(convertSensorDataToMap(sensorData));
+            }
+        }
+        return devices;
     }
 
     public List<DeviceDTO> getDevicesByFarmAndType(Long farmId, String type) {
         DeviceType deviceType = DeviceType.valueOf(type);
-        return deviceRepository.findByFarmIdAndType(farmId, deviceType)
-                .stream()
-                .map(this::mapToDTO)
-                .collect(Collectors.toList());
+        return findDeviceSummaries(farmId, deviceType, null, null, Pageable.unpaged());
     }
 
     public List<DeviceDTO> getOnlineDevices(Long farmId) {
-        return deviceRepository.findOnlineDevicesByFarmId(farmId)
-                .stream()
-                .map(this::mapToDTO)
-                .collect(Collectors.toList());
+        return findDeviceSummaries(farmId, null, DeviceStatus.ONLINE, null, Pageable.unpaged());
     }
 
     @Transactional
@@ -377,6 +404,28 @@ public class DeviceService {
         return dto;
     }
 
+    private DeviceDTO mapSummaryToDTO(DeviceSummary summary) {
+        DeviceDTO dto = DeviceDTO.builder()
+                .id(summary.getId())
+                .deviceId(summary.getDeviceId())
+                .name(summary.getName())
+                .description(summary.getDescription())
+                .type(summary.getType().name())
+                .status(summary.getStatus().name())
+                .farmId(summary.getFarmId())
+                .farmName(summary.getFarmName())
+                .farmLocation(summary.getFarmLocation())
+                .zoneId(summary.getZoneId())
+                .zoneName(summary.getZoneName())
+                .lastSeen(summary.getLastSeen())
+                .currentState(summary.getCurrentState())
+                .createdAt(summary.getCreatedAt())
+                .updatedAt(summary.getUpdatedAt())
+                .build();
+        dto.calculateDerivedFields();
+        return dto;
+    }
+
     private DeviceDTO mapToDetailedDTO(Device device) {
         DeviceDTO dto = mapToDTO(device);
 
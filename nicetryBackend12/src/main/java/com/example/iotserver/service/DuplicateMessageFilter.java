@@ -0,0 +1,104 @@
+package com.example.iotserver.service;
+
+import com.example.iotserver.timeseries.SensorReadings;
+import com.example.iotserver.timeseries.sketch.RotatingBloomFilter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Nhận diện message cảm biến bị gửi lặp (QoS 1 gửi lại sau khi mất kết nối) để không lưu và xử lý hai lần.
+ *
+ * Mỗi message được ghi nhớ bằng dấu vân tay 64 bit (theo thiết bị) trong {@link RotatingBloomFilter} dùng chung:
+ * <ul>
+ * <li>Payload có timestamp hợp lệ của thiết bị cho mọi lần đo (trong khoảng chấp nhận, không phải dời do lệch
+ * đồng hồ): hash của deviceId + payload, nên cùng nội dung là cùng lần đo, kể cả khi thiết bị tự gửi lại với
+ * message id mới.</li>
+ * <li>Payload không có timestamp, hoặc timestamp phải dời (thiết bị không có đồng hồ thực gửi mốc 0, ts cố
+ * định): nội dung giống nhau vẫn có thể là lần đo mới, nên chỉ bỏ khi broker đánh dấu gửi lại (cờ DUP) và cùng
+ * message id + payload đã được nhận gần đây.</li>
+ * </ul>
+ * Bloom filter có thể báo nhầm (xác suất ~2 × {@code fpp}) nên một message mới rất hiếm khi bị bỏ nhầm;
+ * đổi lại bộ nhớ cố định bất kể số thiết bị.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DuplicateMessageFilter {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${sensor.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${sensor.dedup.window:10m}")
+    private Duration window;
+
+    @Value("${sensor.dedup.expected-messages:200000}")
+    private int expectedMessages;
+
+    @Value("${sensor.dedup.fpp:0.0005}")
+    private double fpp;
+
+    private RotatingBloomFilter seen;
+
+    @PostConstruct
+    public void init() {
+        seen = new RotatingBloomFilter(expectedMessages, fpp, window.toMillis());
+        Gauge.builder("sensor.ingest.dedup_bytes", seen, RotatingBloomFilter::sizeInBytes)
+                .description("Bộ nhớ của bộ lọc message trùng")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ghi nhận message và trả về true nếu đó là bản gửi lặp của một message đã nhận gần đây.
+     *
+     * @param messageId   message id MQTT (null nếu QoS 0)
+     * @param redelivered cờ DUP của MQTT
+     */
+    public boolean isDuplicate(String deviceId, byte[] payload, SensorReadings readings, Integer messageId,
+            boolean redelivered) {
+        if (!enabled) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long content = hash(deviceId, payload);
+        boolean duplicate = false;
+        if (readings.deviceTimed()) {
+            duplicate = seen.put(content, now);
+        }
+        if (messageId != null && messageId != 0) {
+            long delivery = RotatingBloomFilter.mix(content ^ (0x9e3779b97f4a7c15L * messageId));
+            boolean deliverySeen = seen.put(delivery, now);
+            duplicate |= redelivered && deliverySeen;
+        }
+        if (duplicate) {
+            meterRegistry.counter("sensor.ingest.duplicates", "device", deviceId).increment();
+            log.info("Bỏ message trùng từ thiết bị {} (message id {}, DUP={})", deviceId, messageId, redelivered);
+        }
+        return duplicate;
+    }
+
+    // FNV-1a trên deviceId và payload, trộn lại để bit thấp phân bố đều
+    private static long hash(String deviceId, byte[] payload) {
+        long h = FNV_OFFSET;
+        for (byte b : deviceId.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xFF)) * FNV_PRIME;
+        }
+        h = (h ^ 0xFF) * FNV_PRIME;
+        for (byte b : payload) {
+            h = (h ^ (b & 0xFF)) * FNV_PRIME;
+        }
+        return RotatingBloomFilter.mix(h);
+    }
+}
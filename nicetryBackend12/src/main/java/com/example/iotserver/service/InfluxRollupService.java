@@ -0,0 +1,436 @@
+package com.example.iotserver.service;
+
+import com.example.iotserver.config.InfluxDBConfig;
+import com.example.iotserver.timeseries.FluxQuery;
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.domain.Bucket;
+import com.influxdb.client.domain.BucketRetentionRules;
+import com.influxdb.client.domain.Organization;
+import com.influxdb.client.domain.Task;
+import com.influxdb.client.domain.TaskCreateRequest;
+import com.influxdb.client.domain.TaskStatusType;
+import com.influxdb.client.domain.TaskUpdateRequest;
+import com.influxdb.query.FluxRecord;
+import com.influxdb.query.FluxTable;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Quản lý các bucket rollup (1m, 1h, 1d) được InfluxDB task tính sẵn từ dữ liệu thô,
+ * và chọn bucket thô nhất đáp ứng được {@code window} của truy vấn biểu đồ.
+ *
+ * Mỗi tier lưu 3 measurement {@code sensor_data_mean/min/max} với cùng tag như dữ liệu thô; điểm rollup
+ * mang mốc đầu cửa sổ ({@code timeSrc: "_start"}), tức điểm tại t là tổng hợp của [t, t + resolution).
+ * Một tier chỉ được dùng khi dữ liệu của nó đã phủ tới thời điểm bắt đầu truy vấn;
+ * phần cuối chưa được task xử lý luôn đọc từ bucket thô.
+ *
+ * Task chỉ xử lý mỗi cửa sổ một lần, nên điểm ghi muộn (lô gửi dồn, replay spool) được ghi nhận theo
+ * thiết bị qua {@link #recordWrite} và job backfill chỉ tính lại các cửa sổ của từng tier chứa điểm muộn,
+ * cho đúng thiết bị đó; trong lúc chờ, truy vấn đọc dữ liệu thô từ điểm muộn sớm nhất trở đi.
+ * Điểm muộn hơn {@code backfill-max-age} không được tính lại tự động (nhập dữ liệu lịch sử thì gọi
+ * {@link #backfill(Instant, Instant)}).
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "sensor.store.type", havingValue = "influx", matchIfMissing = true)
+public class InfluxRollupService {
+
+    private static final Set<String> ROLLUP_FUNCTIONS = Set.of("mean", "min", "max");
+    // Task tạo trước khi có tham số này đóng mốc cuối cửa sổ
+    private static final String TIME_SRC = "timeSrc: \"_start\"";
+
+    private static final List<Tier> TIERS = List.of(
+            new Tier("1d", Duration.ofDays(1)),
+            new Tier("1h", Duration.ofHours(1)),
+            new Tier("1m", Duration.ofMinutes(1)));
+
+    private final InfluxDBClient influxDBClient;
+    private final InfluxDBConfig influxDBConfig;
+
+    @Value("${influxdb.rollup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${influxdb.rollup.retention.1m:30d}")
+    private Duration retention1m;
+
+    @Value("${influxdb.rollup.retention.1h:365d}")
+    private Duration retention1h;
+
+    // 0 = giữ vĩnh viễn
+    @Value("${influxdb.rollup.retention.1d:0d}")
+    private Duration retention1d;
+
+    // Độ trễ chạy task để chờ dữ liệu đến muộn
+    @Value("${influxdb.rollup.task-offset:1m}")
+    private Duration taskOffset;
+
+    // Điểm ghi muộn cũ hơn khoảng này không được tính lại rollup tự động
+    @Value("${influxdb.rollup.backfill-max-age:7d}")
+    private Duration backfillMaxAge;
+
+    // Số thiết bị tối đa được backfill trong một lần chạy, phần còn lại chờ lần sau
+    @Value("${influxdb.rollup.backfill-devices:50}")
+    private int backfillDevices;
+
+    // Thời điểm sớm nhất mà mỗi tier đã có dữ liệu
+    private final Map<String, Instant> coverageStart = new ConcurrentHashMap<>();
+
+    // deviceId -> khoảng [from, to] (epoch millis) có điểm ghi sau khi task của cửa sổ đã chạy, chờ backfill
+    private final Map<String, long[]> lateRanges = new LinkedHashMap<>();
+    // Điểm muộn sớm nhất chưa backfill xong (kể cả lô đang backfill), Long.MAX_VALUE nếu không có
+    private long lateFrom = Long.MAX_VALUE;
+
+    private volatile boolean ready;
+
+    record Tier(String suffix, Duration resolution) {
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void provision() {
+        if (!enabled) {
+            log.info("Rollup InfluxDB bị tắt (influxdb.rollup.enabled=false), mọi truy vấn đọc dữ liệu thô");
+            return;
+        }
+        try {
+            Organization org = influxDBClient.getOrganizationsApi().findOrganizations().stream()
+                    .filter(o -> influxDBConfig.getOrg().equals(o.getName()))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("Không tìm thấy organization " + influxDBConfig.getOrg()));
+
+            List<Task> existingTasks = influxDBClient.getTasksApi().findTasksByOrganizationID(org.getId());
+            for (Tier tier : TIERS) {
+                Task task = existingTasks.stream()
+                        .filter(t -> taskName(tier).equals(t.getName()))
+                        .findFirst()
+                        .orElse(null);
+                if (task != null && (task.getFlux() == null || !task.getFlux().contains(TIME_SRC))) {
+                    // Không xóa bucket: rollup 1h/1d có thể giữ lâu hơn dữ liệu thô nên không tính lại được
+                    log.warn("Task rollup {} phiên bản cũ đóng mốc cuối cửa sổ, sẽ được cập nhật; các điểm đã có "
+                            + "trong bucket {} lệch {} so với cách đọc hiện tại", taskName(tier), bucketName(tier),
+                            tier.resolution());
+                }
+                ensureBucket(tier, org);
+                ensureTask(tier, org, task);
+            }
+            ready = true;
+            refreshCoverage();
+            log.info("✅ Đã sẵn sàng rollup InfluxDB, độ phủ hiện tại: {}", coverageStart);
+        } catch (Exception e) {
+            // Thiếu quyền hoặc InfluxDB không hỗ trợ task: vẫn chạy bình thường với dữ liệu thô
+            ready = false;
+            log.warn("⚠️ Không khởi tạo được rollup InfluxDB, truy vấn sẽ đọc dữ liệu thô: {}", e.getMessage());
+        }
+    }
+
+    private void ensureBucket(Tier tier, Organization org) {
+        String name = bucketName(tier);
+        Bucket bucket = influxDBClient.getBucketsApi().findBucketByName(name);
+        if (bucket != null) {
+            return;
+        }
+        BucketRetentionRules retention = new BucketRetentionRules();
+        retention.setEverySeconds((int) retentionOf(tier).getSeconds());
+        influxDBClient.getBucketsApi().createBucket(name, retention, org);
+        log.info("Đã tạo bucket rollup {} (retention {})", name, retentionOf(tier));
+    }
+
+    private void ensureTask(Tier tier, Organization org, Task existing) {
+        String name = taskName(tier);
+        String flux = String.format("option task = {name: %s, every: %s, offset: %s}\n",
+                FluxQuery.string(name), toFluxDuration(tier.resolution()), toFluxDuration(taskOffset))
+                + rollupFlux(tier, FluxQuery.from(influxDBConfig.getBucket()).then("range(start: -task.every)"),
+                        "task.every", false);
+
+        if (existing != null) {
+            if (!flux.equals(existing.getFlux())) {
+                influxDBClient.getTasksApi().updateTask(existing.getId(), new TaskUpdateRequest().flux(flux));
+                log.info("Đã cập nhật task rollup {}", name);
+            }
+            return;
+        }
+        influxDBClient.getTasksApi().createTask(new TaskCreateRequest()
+                .orgID(org.getId())
+                .status(TaskStatusType.ACTIVE)
+                .description("Rollup " + tier.suffix() + " cho sensor_data")
+                .flux(flux));
+        log.info("Đã tạo task rollup {}", name);
+    }
+
+    // Tính mean/min/max theo resolution của tier từ source (bucket thô, đã có range) và ghi vào bucket rollup
+    private String rollupFlux(Tier tier, FluxQuery source, String every, boolean yield) {
+        StringBuilder flux = new StringBuilder();
+        flux.append("data = ").append(source.measurement("sensor_data").build()).append("\n");
+        for (String fn : List.of("mean", "min", "max")) {
+            flux.append(String.format(
+                    "data |> aggregateWindow(every: %s, fn: %s, createEmpty: false, %s) " +
+                            "|> set(key: \"_measurement\", value: \"sensor_data_%s\") " +
+                            "|> to(bucket: %s, org: %s)",
+                    every, fn, TIME_SRC, fn, FluxQuery.string(bucketName(tier)),
+                    FluxQuery.string(influxDBConfig.getOrg())));
+            // Truy vấn (không phải task) cần tên yield riêng; count() để không kéo cả dữ liệu đã ghi về
+            flux.append(yield ? " |> count() |> yield(name: \"" + fn + "\")\n" : "\n");
+        }
+        return flux.toString();
+    }
+
+    /**
+     * Ghi nhận các điểm của một thiết bị vừa ghi vào bucket thô. Điểm cũ hơn cửa sổ 1m mà task đã xử lý
+     * (now - offset - 1m) được đưa vào khoảng chờ backfill của thiết bị, trong giới hạn {@code backfill-max-age}.
+     */
+    public void recordWrite(String deviceId, long oldest, long newest) {
+        if (!ready) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long processedBefore = now - taskOffset.toMillis() - Duration.ofMinutes(1).toMillis();
+        if (oldest >= processedBefore) {
+            return;
+        }
+        long floor = now - backfillMaxAge.toMillis();
+        if (newest < floor) {
+            log.debug("Điểm ghi muộn của {} cũ hơn {}, không backfill rollup", deviceId, backfillMaxAge);
+            return;
+        }
+        long from = Math.max(oldest, floor);
+        long to = Math.min(newest, processedBefore);
+        synchronized (this) {
+            lateRanges.merge(deviceId, new long[] { from, to },
+                    (a, b) -> new long[] { Math.min(a[0], b[0]), Math.max(a[1], b[1]) });
+            lateFrom = Math.min(lateFrom, from);
+        }
+    }
+
+    /**
+     * Tính lại rollup cho các cửa sổ có điểm ghi muộn, từng thiết bị và chỉ các cửa sổ của từng tier
+     * chứa điểm muộn, tối đa {@code backfill-devices} thiết bị mỗi lần. Ghi đè cùng series và mốc thời gian
+     * nên chạy lại nhiều lần không sao.
+     */
+    @Scheduled(fixedDelay = 300000, initialDelay = 300000)
+    public void backfillLate() {
+        Map<String, long[]> batch = new LinkedHashMap<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, long[]>> it = lateRanges.entrySet().iterator();
+            while (it.hasNext() && batch.size() < backfillDevices) {
+                Map.Entry<String, long[]> entry = it.next();
+                batch.put(entry.getKey(), entry.getValue());
+                it.remove();
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Iterator<Map.Entry<String, long[]>> pending = batch.entrySet().iterator();
+        try {
+            while (pending.hasNext()) {
+                Map.Entry<String, long[]> entry = pending.next();
+                backfillDevice(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+                pending.remove();
+            }
+            log.info("Đã backfill rollup cho dữ liệu ghi muộn của {} thiết bị", batch.size());
+        } catch (Exception e) {
+            log.warn("Backfill rollup lỗi, còn {} thiết bị thử lại lần sau: {}", batch.size(), e.getMessage());
+        }
+
+        synchronized (this) {
+            // Thiết bị chưa backfill được quay lại hàng chờ, gộp với điểm muộn mới đến trong lúc backfill
+            batch.forEach((deviceId, range) -> lateRanges.merge(deviceId, range,
+                    (a, b) -> new long[] { Math.min(a[0], b[0]), Math.max(a[1], b[1]) }));
+            lateFrom = lateRanges.values().stream().mapToLong(range -> range[0]).min().orElse(Long.MAX_VALUE);
+        }
+    }
+
+    private void backfillDevice(String deviceId, long from, long to) {
+        for (Tier tier : TIERS) {
+            Instant covered = coverageStart.get(tier.suffix());
+            if (covered == null || to < covered.toEpochMilli()) {
+                continue;
+            }
+            backfill(tier, deviceId, Instant.ofEpochMilli(Math.max(from, covered.toEpochMilli())),
+                    Instant.ofEpochMilli(to));
+        }
+    }
+
+    /**
+     * Tính lại rollup của mọi tier cho các cửa sổ giao với [from, to], vd: sau khi nhập dữ liệu lịch sử.
+     * Chỉ tính trong phần tier đã phủ để không tạo rollup rời rạc trước mốc {@code coverageStart}.
+     */
+    public void backfill(Instant from, Instant to) {
+        if (!ready) {
+            return;
+        }
+        for (Tier tier : TIERS) {
+            Instant covered = coverageStart.get(tier.suffix());
+            if (covered == null || to.isBefore(covered)) {
+                continue;
+            }
+            backfill(tier, null, from.isBefore(covered) ? covered : from, to);
+        }
+    }
+
+    // Tính lại các cửa sổ của tier giao với [from, to]; deviceId null là mọi thiết bị
+    private void backfill(Tier tier, String deviceId, Instant from, Instant to) {
+        long resolution = tier.resolution().toMillis();
+        Instant start = Instant.ofEpochMilli(Math.floorDiv(from.toEpochMilli(), resolution) * resolution);
+        Instant stop = Instant.ofEpochMilli((Math.floorDiv(to.toEpochMilli(), resolution) + 1) * resolution);
+        FluxQuery source = FluxQuery.from(influxDBConfig.getBucket()).range(start, stop);
+        if (deviceId != null) {
+            source.tag("device_id", deviceId);
+        }
+        String flux = rollupFlux(tier, source, toFluxDuration(tier.resolution()), true);
+        influxDBClient.getQueryApi().query(flux, influxDBConfig.getOrg());
+    }
+
+    /**
+     * Cập nhật thời điểm sớm nhất có dữ liệu trong từng bucket rollup.
+     */
+    @Scheduled(fixedDelay = 3600000, initialDelay = 3600000)
+    public void refreshCoverage() {
+        if (!ready) {
+            return;
+        }
+        for (Tier tier : TIERS) {
+            String flux = FluxQuery.from(bucketName(tier))
+                    .range(Instant.EPOCH, null)
+                    .measurement("sensor_data_mean")
+                    .then("first()")
+                    .build();
+            try {
+                Instant earliest = null;
+                for (FluxTable table : influxDBClient.getQueryApi().query(flux, influxDBConfig.getOrg())) {
+                    for (FluxRecord record : table.getRecords()) {
+                        Instant time = record.getTime();
+                        if (time != null && (earliest == null || time.isBefore(earliest))) {
+                            earliest = time;
+                        }
+                    }
+                }
+                if (earliest != null) {
+                    coverageStart.put(tier.suffix(), earliest);
+                } else {
+                    coverageStart.remove(tier.suffix());
+                }
+            } catch (Exception e) {
+                log.warn("Không đọc được độ phủ của bucket {}: {}", bucketName(tier), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tạo đoạn Flux trả về dữ liệu đã aggregateWindow theo {@code window},
+     * đọc từ tier rollup thô nhất phù hợp và phần cuối từ bucket thô.
+     *
+     * @param filters thêm các filter tag/field (device_id, _field) vào truy vấn
+     */
+    public String aggregatedSource(UnaryOperator<FluxQuery> filters, String fn, Instant start, Instant stop,
+            String window) {
+        FluxQuery.duration(window);
+        FluxQuery.aggregate(fn);
+        Duration every = FluxQuery.parseDuration(window);
+        Tier tier = every != null ? selectTier(fn, every, start) : null;
+
+        if (tier == null) {
+            return rawSource(filters, start, stop).aggregateWindow(window, fn).build();
+        }
+
+        // Task của khoảng [t, t + resolution) chạy sau t + resolution + offset; căn theo window để không có
+        // cửa sổ nào trộn giữa rollup và dữ liệu thô. Có điểm ghi muộn chưa backfill thì đọc thô từ đó.
+        Instant watermark = Instant.now().minus(taskOffset).minus(tier.resolution());
+        if (stop.isBefore(watermark)) {
+            watermark = stop;
+        }
+        synchronized (this) {
+            if (lateFrom < watermark.toEpochMilli()) {
+                watermark = Instant.ofEpochMilli(lateFrom);
+            }
+        }
+        long everyMillis = every.toMillis();
+        Instant split = Instant.ofEpochMilli(Math.floorDiv(watermark.toEpochMilli(), everyMillis) * everyMillis);
+        if (!split.isAfter(start)) {
+            return rawSource(filters, start, stop).aggregateWindow(window, fn).build();
+        }
+
+        log.debug("Truy vấn {} window {} dùng rollup {} tới {}", fn, window, tier.suffix(), split);
+        // Gộp lại mean của rollup là trung bình không trọng số, đúng khi tần suất gửi đều
+        FluxQuery rolled = filters.apply(FluxQuery.from(bucketName(tier))
+                .range(start, split)
+                .measurement("sensor_data_" + fn))
+                .then("set(key: \"_measurement\", value: \"sensor_data\")");
+        if (!split.isBefore(stop)) {
+            return rolled.aggregateWindow(window, fn).build();
+        }
+        String tail = rawSource(filters, split, stop).build();
+        return String.format(
+                "union(tables: [%s, %s])\n" +
+                        "  |> group(columns: [\"_measurement\", \"_field\", \"device_id\", \"sensor_type\", \"farm_id\"])\n" +
+                        "  |> sort(columns: [\"_time\"])\n" +
+                        "  |> aggregateWindow(every: %s, fn: %s, createEmpty: false)",
+                rolled.build(), tail, window, fn);
+    }
+
+    private FluxQuery rawSource(UnaryOperator<FluxQuery> filters, Instant start, Instant stop) {
+        return filters.apply(FluxQuery.from(influxDBConfig.getBucket())
+                .range(start, stop)
+                .measurement("sensor_data"));
+    }
+
+    private Tier selectTier(String fn, Duration every, Instant start) {
+        if (!ready || !ROLLUP_FUNCTIONS.contains(fn)) {
+            return null;
+        }
+        Instant now = Instant.now();
+        for (Tier tier : TIERS) {
+            Duration resolution = tier.resolution();
+            if (every.compareTo(resolution) < 0 || every.toMillis() % resolution.toMillis() != 0) {
+                continue;
+            }
+            Instant covered = coverageStart.get(tier.suffix());
+            if (covered == null || start.isBefore(covered)) {
+                continue;
+            }
+            Duration retention = retentionOf(tier);
+            if (!retention.isZero() && start.isBefore(now.minus(retention))) {
+                continue;
+            }
+            return tier;
+        }
+        return null;
+    }
+
+    private Duration retentionOf(Tier tier) {
+        return switch (tier.suffix()) {
+            case "1m" -> retention1m;
+            case "1h" -> retention1h;
+            default -> retention1d;
+        };
+    }
+
+    private String bucketName(Tier tier) {
+        return influxDBConfig.getBucket() + "_" + tier.suffix();
+    }
+
+    private String taskName(Tier tier) {
+        return "rollup_" + influxDBConfig.getBucket() + "_" + tier.suffix();
+    }
+
+    private static String toFluxDuration(Duration duration) {
+        return duration.getSeconds() + "s";
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.iotserver.service;
+
+import com.example.iotserver.dto.SensorDataDTO;
+import com.example.iotserver.enums.CompressionMode;
+import com.example.iotserver.timeseries.CompressionFilter;
+import com.example.iotserver.timeseries.SensorDataStore;
+import com.example.iotserver.timeseries.SensorReading;
+import com.example.iotserver.timeseries.SensorReadings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Nén dữ liệu cảm biến khi ingest: bỏ các điểm nằm trong dung sai để giảm dung lượng và chi phí truy vấn
+ * của store, với sai số khi dựng lại bị chặn bởi tolerance.
+ *
+ * Cấu hình theo từng field qua {@link SettingService} (tên field viết hoa, vd: SOIL_MOISTURE):
+ * <ul>
+ * <li>{@code INGEST_COMPRESSION_<FIELD>_MODE}: OFF (mặc định), DEADBAND hoặc SWINGING_DOOR</li>
+ * <li>{@code INGEST_COMPRESSION_<FIELD>_TOLERANCE}: dung sai theo đơn vị của field</li>
+ * <li>{@code INGEST_COMPRESSION_<FIELD>_MAX_INTERVAL_SECONDS}: khoảng tối đa giữa hai điểm được ghi</li>
+ * </ul>
+ *
+ * Chỉ áp dụng cho dữ liệu ghi vào store; WebSocket, rule và thống kê phân phối vẫn dùng mọi điểm.
+ * Bộ nén có thể giữ lại điểm mới nhất tới max interval, nên giá trị gốc cuối cùng của từng field được nhớ riêng
+ * và {@link #overlayLatest} đè lên kết quả "mới nhất" đọc từ store. Truy vấn khác (range, tổng hợp, mới nhất
+ * của cả farm) chỉ thấy các điểm đã ghi.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IngestCompressionService {
+
+    private final SettingService settingService;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, DeviceFilters> devices = new ConcurrentHashMap<>();
+    private final Counter[] receivedCounters = new Counter[SensorReading.FIELD_COUNT];
+    private final Counter[] storedCounters = new Counter[SensorReading.FIELD_COUNT];
+
+    /**
+     * Bộ lọc của một thiết bị theo thứ tự {@link SensorDataStore#FIELDS}, cùng tag của bản ghi gần nhất
+     * để dùng khi ghi các điểm bị giữ lại, và giá trị gốc mới nhất của từng field.
+     */
+    private static final class DeviceFilters {
+        final CompressionFilter[] fields = new CompressionFilter[SensorReading.FIELD_COUNT];
+        final SensorReading tags = new SensorReading();
+        final long[] lastTimes = new long[SensorReading.FIELD_COUNT];
+        final double[] lastValues = new double[SensorReading.FIELD_COUNT];
+
+        DeviceFilters() {
+            Arrays.fill(lastTimes, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Đích ghi của các filter: gom các field cùng timestamp (ghi trong cùng một lần gọi) vào một bản ghi.
+     */
+    private final class Emitter implements CompressionFilter.PointSink {
+        SensorReadings out;
+        SensorReading tags;
+        int from;
+        int field;
+
+        @Override
+        public void accept(long time, double value) {
+            SensorReading row = null;
+            for (int i = out.size() - 1; i >= from; i--) {
+                if (out.get(i).timestamp() == time) {
+                    row = out.get(i);
+                    break;
+                }
+            }
+            if (row == null) {
+                row = out.add();
+                row.deviceId(tags.deviceId());
+                row.sensorType(tags.sensorType());
+                row.farmId(tags.farmId());
+                row.timestamp(time);
+            }
+            row.set(field, value);
+            storedCounters[field].increment();
+        }
+    }
+
+    // Các filter chỉ được gọi trong synchronized(device) trên luồng gọi nên mỗi luồng dùng một emitter
+    private final ThreadLocal<Emitter> emitters = ThreadLocal.withInitial(Emitter::new);
+
+    // Khóa cài đặt theo field, dựng sẵn để không nối chuỗi mỗi điểm
+    private final String[] modeKeys = new String[SensorReading.FIELD_COUNT];
+    private final String[] toleranceKeys = new String[SensorReading.FIELD_COUNT];
+    private final String[] maxIntervalKeys = new String[SensorReading.FIELD_COUNT];
+
+    @PostConstruct
+    public void init() {
+        for (int f = 0; f < SensorReading.FIELD_COUNT; f++) {
+            String field = SensorDataStore.FIELDS.get(f);
+            receivedCounters[f] = Counter.builder("sensor.ingest.compression.points")
+                    .description("Số điểm nhận được / được ghi vào store sau khi nén")
+                    .tag("field", field)
+                    .tag("result", "received")
+                    .register(meterRegistry);
+            storedCounters[f] = Counter.builder("sensor.ingest.compression.points")
+                    .description("Số điểm nhận được / được ghi vào store sau khi nén")
+                    .tag("field", field)
+                    .tag("result", "stored")
+                    .register(meterRegistry);
+            String prefix = "INGEST_COMPRESSION_" + field.toUpperCase(Locale.ROOT) + "_";
+            modeKeys[f] = prefix + "MODE";
+            toleranceKeys[f] = prefix + "TOLERANCE";
+            maxIntervalKeys[f] = prefix + "MAX_INTERVAL_SECONDS";
+        }
+    }
+
+    /**
+     * Lọc một bản ghi mới, thêm vào {@code out} các bản ghi cần ghi vào store: có thể không có,
+     * và với swinging-door có thể gồm điểm nhận trước đó (được ghi trễ một nhịp).
+     * Các bản ghi thêm vào trong một lần gọi có timestamp khác nhau nhưng chưa chắc theo thứ tự.
+     */
+    public void compress(SensorReading data, SensorReadings out) {
+        long time = data.timestamp();
+        DeviceFilters device = devices.computeIfAbsent(data.deviceId(), id -> new DeviceFilters());
+        Emitter sink = emitters.get();
+
+        synchronized (device) {
+            device.tags.copyFrom(data);
+            sink.out = out;
+            sink.tags = device.tags;
+            sink.from = out.size();
+            CompressionFilter[] deviceFilters = device.fields;
+            for (int f = 0; f < deviceFilters.length; f++) {
+                if (!data.has(f)) {
+                    continue;
+                }
+                double value = data.value(f);
+                receivedCounters[f].increment();
+                if (time >= device.lastTimes[f]) {
+                    device.lastTimes[f] = time;
+                    device.lastValues[f] = value;
+                }
+                sink.field = f;
+
+                CompressionMode mode = mode(modeKeys[f]);
+                double tolerance = settingService.getCachedDouble(toleranceKeys[f], 0);
+                long maxInterval = (long) (settingService.getCachedDouble(maxIntervalKeys[f], 900) * 1000);
+
+                CompressionFilter filter = deviceFilters[f];
+                if (filter != null && !filter.sameConfig(mode, tolerance, maxInterval)) {
+                    // Đổi cấu hình: ghi nốt điểm đang giữ rồi bắt đầu lại
+                    filter.flushPending(sink);
+                    filter = null;
+                }
+                if (mode == CompressionMode.OFF) {
+                    deviceFilters[f] = null;
+                    sink.accept(time, value);
+                    continue;
+                }
+                if (filter == null) {
+                    filter = new CompressionFilter(mode, tolerance, maxInterval);
+                    deviceFilters[f] = filter;
+                }
+                filter.offer(time, value, sink);
+            }
+            sink.out = null;
+            sink.tags = null;
+        }
+    }
+
+    /**
+     * Thêm vào {@code out} các điểm đang bị giữ của những chuỗi đã ngừng gửi quá max interval, để ghi vào store.
+     */
+    public void flushIdle(SensorReadings out) {
+        long now = System.currentTimeMillis();
+        Emitter sink = emitters.get();
+        devices.values().forEach(device -> {
+            synchronized (device) {
+                sink.out = out;
+                sink.tags = device.tags;
+                sink.from = out.size();
+                for (int f = 0; f < device.fields.length; f++) {
+                    if (device.fields[f] != null) {
+                        sink.field = f;
+                        device.fields[f].flushIdle(now, sink);
+                    }
+                }
+                sink.out = null;
+                sink.tags = null;
+            }
+        });
+    }
+
+    /**
+     * Đè giá trị gốc mới nhất (kể từ {@code since}) của từng field lên {@code stored} — kết quả "mới nhất" đọc
+     * từ store, có thể null — vì điểm mới nhất có thể đang bị bộ nén giữ lại chưa ghi.
+     * Trả về {@code stored} (đã cập nhật), hoặc bản ghi mới nếu store không có dữ liệu; null nếu cả hai đều không có.
+     */
+    public SensorDataDTO overlayLatest(String deviceId, SensorDataDTO stored, long since) {
+        DeviceFilters device = devices.get(deviceId);
+        if (device == null) {
+            return stored;
+        }
+        SensorDataDTO result = stored;
+        synchronized (device) {
+            for (int f = 0; f < SensorReading.FIELD_COUNT; f++) {
+                long time = device.lastTimes[f];
+                if (time == Long.MIN_VALUE || time < since) {
+                    continue;
+                }
+                if (result == null) {
+                    result = SensorDataDTO.builder()
+                            .deviceId(deviceId)
+                            .sensorType(device.tags.sensorType())
+                            .farmId(device.tags.farmId())
+                            .timestamp(Instant.ofEpochMilli(time))
+                            .build();
+                }
+                result.setFieldValue(SensorDataStore.FIELDS.get(f), device.lastValues[f]);
+                if (result.getTimestamp() == null || result.getTimestamp().toEpochMilli() < time) {
+                    result.setTimestamp(Instant.ofEpochMilli(time));
+                }
+            }
+        }
+        return result;
+    }
+
+    private CompressionMode mode(String key) {
+        String value = settingService.getString(key, "OFF");
+        try {
+            return CompressionMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("Giá trị {} không hợp lệ: {}, bỏ qua nén", key, value);
+            return CompressionMode.OFF;
+        }
+    }
+}
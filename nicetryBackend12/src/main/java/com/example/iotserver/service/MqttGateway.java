@@ -7,4 +7,8 @@ import org.springframework.messaging.handler.annotation.Header;
 @MessagingGateway(defaultRequestChannel = "mqttOutboundChannel")
 public interface MqttGateway {
     void sendToMqtt(String data, @Header(MqttHeaders.TOPIC) String topic);
+
+    // Message retained: broker giữ lại bản cuối để thiết bị nhận ngay khi (re)connect
+    void sendRetained(String data, @Header(MqttHeaders.TOPIC) String topic,
+            @Header(MqttHeaders.RETAINED) boolean retained);
 }
@@ -3,16 +3,18 @@
 package com.example.iotserver.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.example.iotserver.dto.SensorDataDTO;
 import com.example.iotserver.entity.Device;
 import com.example.iotserver.entity.Farm;
 import com.example.iotserver.repository.DeviceRepository;
 import com.example.iotserver.repository.FarmRepository;
+import com.example.iotserver.timeseries.SensorReading;
+import com.example.iotserver.timeseries.SensorReadings;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.integration.annotation.ServiceActivator;
+import org.springframework.integration.mqtt.support.MqttHeaders;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.stereotype.Service;
@@ -21,6 +23,7 @@ import com.example.iotserver.enums.DeviceStatus;
 import com.example.iotserver.entity.User;
 import com.example.iotserver.entity.Notification; // <<<< Thêm vào
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
@@ -42,6 +45,9 @@ public class MqttMessageHandler {
     private final NotificationService notificationService; // <<<< THÊM DÒNG NÀY
     private final SettingService settingService; // Service để lấy ngưỡng cài đặt
     private final StringRedisTemplate redisTemplate; // Redis để quản lý cooldown
+    private final ReportingRateService reportingRateService;
+    private final SensorPayloadParser sensorPayloadParser;
+    private final DuplicateMessageFilter duplicateMessageFilter;
 
     private static final int SENSOR_NOTIFICATION_COOLDOWN_HOURS = 4;
 
@@ -50,14 +56,25 @@ public class MqttMessageHandler {
         try {
             MessageHeaders headers = message.getHeaders();
             String topic = (String) headers.get("mqtt_receivedTopic");
-            String payload = message.getPayload().toString();
-
-            log.info("Received MQTT message - Topic: {}, Payload: {}", topic, payload);
+            // Inbound adapter giữ payload dạng byte[] (xem MqttConfig)
+            byte[] payload = message.getPayload() instanceof byte[] bytes
+                    ? bytes
+                    : message.getPayload().toString().getBytes(StandardCharsets.UTF_8);
+            boolean binary = topic.startsWith("sensor/") && topic.endsWith("/bin");
+
+            // Log mỗi message ở mức debug; chỉ dựng String của payload khi debug đang bật
+            if (binary) {
+                log.debug("Received MQTT message - Topic: {}, {} bytes", topic, payload.length);
+            } else if (log.isDebugEnabled()) {
+                log.debug("Received MQTT message - Topic: {}, Payload: {}", topic,
+                        new String(payload, StandardCharsets.UTF_8));
+            }
 
             if (topic.startsWith("sensor/")) {
-                handleSensorData(topic, payload);
+                handleSensorData(topic, payload, binary, headers.get(MqttHeaders.ID, Integer.class),
+                        Boolean.TRUE.equals(headers.get(MqttHeaders.DUPLICATE, Boolean.class)));
             } else if (topic.startsWith("device/")) {
-                handleDeviceStatus(topic, payload);
+                handleDeviceStatus(topic, new String(payload, StandardCharsets.UTF_8));
             }
 
         } catch (Exception e) {
@@ -66,7 +83,8 @@ public class MqttMessageHandler {
     }
 
     @Transactional
-    private void handleSensorData(String topic, String payload) {
+    private void handleSensorData(String topic, byte[] payload, boolean binary, Integer messageId,
+            boolean redelivered) {
         try {
             String deviceId = topic.split("/")[1];
             Device device = deviceRepository.findByDeviceIdWithFarmAndOwner(deviceId)
@@ -77,13 +95,34 @@ public class MqttMessageHandler {
                 return;
             }
 
-            Map<String, Object> data = objectMapper.readValue(payload, Map.class);
-            SensorDataDTO sensorData = SensorDataDTO.fromMqttPayload(deviceId, data);
+            // Một lần đo hoặc cả lô gửi dồn, đã sắp theo thời gian
+            // Bộ đệm của parser được tái sử dụng cho message sau: chỉ đổi sang DTO khi gửi ra WebSocket
+            SensorReadings readings = binary
+                    ? sensorPayloadParser.parseBinary(deviceId, payload)
+                    : sensorPayloadParser.parse(deviceId, payload);
+            if (readings.isEmpty()) {
+                return;
+            }
+            // QoS 1 có thể gửi lại sau khi mất kết nối: bỏ trước mọi thao tác lưu và cảnh báo
+            if (duplicateMessageFilter.isDuplicate(deviceId, payload, readings, messageId, redelivered)) {
+                return;
+            }
 
             Long farmId = device.getFarm().getId();
-            sensorData.setFarmId(farmId);
+            // Payload nhị phân không mang sensorType: dùng loại thiết bị đã đăng ký
+            String deviceType = binary && device.getType() != null ? device.getType().name() : null;
+            for (int i = 0; i < readings.size(); i++) {
+                SensorReading reading = readings.get(i);
+                reading.farmId(farmId);
+                if (deviceType != null) {
+                    reading.sensorType(deviceType);
+                }
+            }
 
-            sensorDataService.saveSensorData(sensorData);
+            sensorDataService.saveSensorData(readings);
+            for (int i = 0; i < readings.size(); i++) {
+                reportingRateService.observe(readings.get(i));
+            }
 
             device.setLastSeen(LocalDateTime.now());
             if (device.getStatus() != DeviceStatus.ONLINE) {
@@ -92,14 +131,15 @@ public class MqttMessageHandler {
             }
             deviceRepository.save(device);
 
-            webSocketService.sendSensorData(farmId, sensorData);
+            // Cả lô chỉ đẩy bản ghi mới nhất và phân tích sức khỏe một lần
+            webSocketService.sendSensorData(farmId, readings.last().toDTO());
             plantHealthService.analyzeHealth(farmId);
 
             // VVVV--- GỌI LOGIC KIỂM TRA CẢNH BÁO TỨC THỜI ---VVVV
-            checkForSensorAnomaliesAndNotify(device.getFarm(), device, sensorData);
+            checkForSensorAnomaliesAndNotify(device.getFarm(), device, readings);
             // ^^^^--------------------------------------------^^^^
 
-            log.info("Xử lý thành công dữ liệu cảm biến từ thiết bị: {}", deviceId);
+            log.info("Xử lý thành công {} bản ghi cảm biến từ thiết bị: {}", readings.size(), deviceId);
 
         } catch (Exception e) {
             log.error("Lỗi khi xử lý dữ liệu cảm biến: {}", e.getMessage(), e);
@@ -161,21 +201,38 @@ public class MqttMessageHandler {
     // VVVV--- ĐÂY LÀ PHẦN LOGIC MỚI ĐƯỢC THÊM VÀO ---VVVV
     /**
      * Kiểm tra các ngưỡng tức thời từ dữ liệu cảm biến và tạo thông báo nếu cần.
+     * Với một lô, dùng giá trị bất lợi nhất: nhiệt độ và độ ẩm không khí cao nhất, độ ẩm đất thấp nhất.
      */
-    private void checkForSensorAnomaliesAndNotify(Farm farm, Device device, SensorDataDTO data) {
+    private void checkForSensorAnomaliesAndNotify(Farm farm, Device device, SensorReadings readings) {
         User owner = farm.getOwner();
         if (owner == null)
             return;
 
+        double maxTemperature = Double.NaN;
+        double maxHumidity = Double.NaN;
+        double minSoilMoisture = Double.NaN;
+        for (int i = 0; i < readings.size(); i++) {
+            SensorReading reading = readings.get(i);
+            if (reading.has(SensorReading.TEMPERATURE)) {
+                maxTemperature = maxIgnoringNaN(maxTemperature, reading.value(SensorReading.TEMPERATURE));
+            }
+            if (reading.has(SensorReading.HUMIDITY)) {
+                maxHumidity = maxIgnoringNaN(maxHumidity, reading.value(SensorReading.HUMIDITY));
+            }
+            if (reading.has(SensorReading.SOIL_MOISTURE)) {
+                minSoilMoisture = minIgnoringNaN(minSoilMoisture, reading.value(SensorReading.SOIL_MOISTURE));
+            }
+        }
+
         // 1. Kiểm tra nhiệt độ cao
         double highTempThreshold = settingService.getDouble("SENSOR_HIGH_TEMP_THRESHOLD", 38.0);
-        if (data.getTemperature() != null && data.getTemperature() > highTempThreshold) {
+        if (maxTemperature > highTempThreshold) {
             String alertType = "SENSOR_HIGH_TEMP";
             if (canSendNotification(farm.getId(), alertType, device.getDeviceId())) {
                 String title = String.format("Cảnh Báo: Nhiệt độ cao tại %s", device.getName());
                 String message = String.format(
                         "Nhiệt độ đo được là %.1f°C, vượt ngưỡng %.1f°C. Hãy kiểm tra hệ thống làm mát.",
-                        data.getTemperature(), highTempThreshold);
+                        maxTemperature, highTempThreshold);
                 notificationService.createAndSendNotification(owner, title, message,
                         Notification.NotificationType.DEVICE_STATUS, "/devices",
                         true);
@@ -185,12 +242,12 @@ public class MqttMessageHandler {
 
         // 2. Kiểm tra độ ẩm đất thấp
         double lowSoilThreshold = settingService.getDouble("SENSOR_LOW_SOIL_MOISTURE_THRESHOLD", 20.0);
-        if (data.getSoilMoisture() != null && data.getSoilMoisture() < lowSoilThreshold) {
+        if (minSoilMoisture < lowSoilThreshold) {
             String alertType = "SENSOR_LOW_SOIL";
             if (canSendNotification(farm.getId(), alertType, device.getDeviceId())) {
                 String title = String.format("Cảnh Báo: Độ ẩm đất thấp tại %s", device.getName());
                 String message = String.format("Độ ẩm đất chỉ còn %.1f%%, dưới ngưỡng %.1f%%. Cần tưới nước ngay.",
-                        data.getSoilMoisture(), lowSoilThreshold);
+                        minSoilMoisture, lowSoilThreshold);
                 notificationService.createAndSendNotification(owner, title, message,
                         Notification.NotificationType.DEVICE_STATUS, "/devices",
                         true);
@@ -200,12 +257,12 @@ public class MqttMessageHandler {
 
         // 3. Kiểm tra độ ẩm không khí cao
         double highHumidityThreshold = settingService.getDouble("SENSOR_HIGH_HUMIDITY_THRESHOLD", 90.0);
-        if (data.getHumidity() != null && data.getHumidity() > highHumidityThreshold) {
+        if (maxHumidity > highHumidityThreshold) {
             String alertType = "SENSOR_HIGH_HUMIDITY";
             if (canSendNotification(farm.getId(), alertType, device.getDeviceId())) {
                 String title = String.format("Cảnh Báo: Độ ẩm cao tại %s", device.getName());
                 String message = String.format("Độ ẩm không khí là %.1f%%, vượt ngưỡng %.1f%%, có nguy cơ nấm bệnh.",
-                        data.getHumidity(), highHumidityThreshold);
+                        maxHumidity, highHumidityThreshold);
                 notificationService.createAndSendNotification(owner, title, message,
                         Notification.NotificationType.DEVICE_STATUS, "/devices",
                         true);
@@ -214,6 +271,15 @@ public class MqttMessageHandler {
         }
     }
 
+    // NaN nghĩa là chưa có giá trị
+    private static double maxIgnoringNaN(double current, double value) {
+        return Double.isNaN(current) || value > current ? value : current;
+    }
+
+    private static double minIgnoringNaN(double current, double value) {
+        return Double.isNaN(current) || value < current ? value : current;
+    }
+
     private boolean canSendNotification(Long farmId, String alertType, String deviceId) {
         String redisKey = "cooldown:notification:" + farmId + ":" + alertType + ":" + deviceId;
         return !Boolean.TRUE.equals(redisTemplate.hasKey(redisKey));
@@ -0,0 +1,396 @@
+package com.example.iotserver.service;
+
+import com.example.iotserver.dto.ReportJobDTO;
+import com.example.iotserver.entity.Device;
+import com.example.iotserver.enums.ReportFormat;
+import com.example.iotserver.enums.ReportJobStatus;
+import com.example.iotserver.exception.ResourceNotFoundException;
+import com.example.iotserver.repository.DeviceRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Tạo báo cáo CSV/PDF chạy nền trên thread pool giới hạn, ghi ra file trên đĩa.
+ * Các yêu cầu giống hệt nhau (cùng định dạng, thiết bị và khoảng thời gian) dùng chung một job;
+ * tạo, xem và tải job đều kiểm tra quyền truy cập farm của thiết bị nên job dùng chung chỉ đến được
+ * những người vốn được xem dữ liệu đó.
+ * File hết hạn sau {@code report.job.ttl} và được dọn bởi {@link com.example.iotserver.scheduler.ReportJobScheduler};
+ * job chỉ nằm trong bộ nhớ nên file còn sót từ lần chạy trước bị xóa khi khởi động.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ReportJobService {
+
+    // Thuộc tính request Tomcat dùng để gửi file bằng sendfile (zero-copy)
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // Tên file do service tạo: <jobId UUID>.part|csv|pdf
+    private static final Pattern JOB_FILE =
+            Pattern.compile("[0-9a-f]{8}(-[0-9a-f]{4}){3}-[0-9a-f]{12}\\.(part|csv|pdf)");
+
+    private final ReportService reportService;
+    private final DeviceRepository deviceRepository;
+    private final WebSocketService webSocketService;
+    private final ThreadPoolTaskExecutor reportJobExecutor;
+    private final AuthenticationService authenticationService;
+    private final FarmService farmService;
+
+    @Value("${report.job.dir:${java.io.tmpdir}/iot-reports}")
+    private String storageDir;
+
+    @Value("${report.job.ttl:1h}")
+    private Duration ttl;
+
+    // Gửi tiến độ qua WebSocket sau mỗi ngần này dòng
+    @Value("${report.job.progress-interval:5000}")
+    private long progressInterval;
+
+    private final Map<String, ReportJob> jobsById = new ConcurrentHashMap<>();
+    private final Map<String, ReportJob> jobsByKey = new ConcurrentHashMap<>();
+
+    private Path storagePath;
+
+    @PostConstruct
+    void init() throws IOException {
+        storagePath = Paths.get(storageDir).toAbsolutePath();
+        Files.createDirectories(storagePath);
+        int purged = 0;
+        try (Stream<Path> files = Files.list(storagePath)) {
+            for (Path file : files.toList()) {
+                if (JOB_FILE.matcher(file.getFileName().toString()).matches()) {
+                    deleteQuietly(file);
+                    purged++;
+                }
+            }
+        }
+        log.info("Thư mục lưu báo cáo: {} (đã xóa {} file của lần chạy trước)", storagePath, purged);
+    }
+
+    /**
+     * Tạo (hoặc dùng lại) job báo cáo cho thiết bị và khoảng thời gian.
+     */
+    public ReportJobDTO submit(ReportFormat format, String deviceId, Instant start, Instant end) {
+        if (!start.isBefore(end)) {
+            throw new RuntimeException("Thời gian bắt đầu phải trước thời gian kết thúc");
+        }
+        // Lấy kèm farm vì job chạy ngoài transaction của request
+        Device device = deviceRepository.findByDeviceIdWithFarmAndOwner(deviceId)
+                .orElseThrow(() -> new ResourceNotFoundException("Device", "deviceId", deviceId));
+        Long farmId = device.getFarm().getId();
+        checkAccess(farmId);
+
+        String key = format + "|" + deviceId + "|" + start + "|" + end;
+        Instant now = Instant.now();
+        AtomicBoolean created = new AtomicBoolean(false);
+        ReportJob job = jobsByKey.compute(key, (k, existing) -> {
+            if (existing != null && existing.status != ReportJobStatus.FAILED && !existing.isExpired(now, ttl)) {
+                return existing;
+            }
+            created.set(true);
+            return new ReportJob(UUID.randomUUID().toString(), key, format, deviceId, farmId, start, end, now);
+        });
+
+        if (!created.get()) {
+            log.debug("Dùng lại job báo cáo {} cho {}", job.id, key);
+            return job.toDTO();
+        }
+
+        jobsById.put(job.id, job);
+        try {
+            reportJobExecutor.execute(() -> run(job, device));
+        } catch (RejectedExecutionException e) {
+            jobsById.remove(job.id);
+            jobsByKey.remove(key, job);
+            log.warn("Hàng đợi báo cáo đã đầy, từ chối job {} ({} {})", job.id, format, deviceId);
+            throw e;
+        }
+        log.info("Đã tạo job báo cáo {} ({} {} từ {} đến {})", job.id, format, deviceId, start, end);
+        return job.toDTO();
+    }
+
+    public ReportJobDTO getJob(String jobId) {
+        return findJob(jobId).toDTO();
+    }
+
+    private ReportJob findJob(String jobId) {
+        ReportJob job = jobsById.get(jobId);
+        if (job == null) {
+            throw new ResourceNotFoundException("ReportJob", "jobId", jobId);
+        }
+        checkAccess(job.farmId);
+        return job;
+    }
+
+    private void checkAccess(Long farmId) {
+        farmService.checkUserAccessToFarm(authenticationService.getCurrentAuthenticatedUser().getId(), farmId);
+    }
+
+    private void run(ReportJob job, Device device) {
+        job.status = ReportJobStatus.RUNNING;
+        publishProgress(job);
+
+        Path tmp = storagePath.resolve(job.id + ".part");
+        try {
+            long rows;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                if (job.format == ReportFormat.CSV) {
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                    rows = reportService.writeSensorDataCsv(writer, job.deviceId, job.start, job.end,
+                            written -> onRows(job, written));
+                    writer.flush();
+                } else {
+                    rows = reportService.writeSensorDataPdf(out, device, job.start, job.end,
+                            added -> onRows(job, added));
+                }
+            }
+
+            Path target = storagePath.resolve(job.id + "." + job.format.name().toLowerCase());
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            job.rowsWritten.set(rows);
+            job.file = target;
+            job.fileSize = Files.size(target);
+            job.completedAt = Instant.now();
+            job.status = ReportJobStatus.COMPLETED;
+            log.info("Job báo cáo {} hoàn thành: {} dòng, {} byte", job.id, rows, job.fileSize);
+        } catch (Exception e) {
+            job.error = e.getMessage();
+            job.completedAt = Instant.now();
+            job.status = ReportJobStatus.FAILED;
+            deleteQuietly(tmp);
+            log.error("Job báo cáo {} thất bại: {}", job.id, e.getMessage(), e);
+        }
+        publishProgress(job);
+    }
+
+    private void onRows(ReportJob job, long rows) {
+        long previous = job.rowsWritten.getAndSet(rows);
+        if (rows / progressInterval != previous / progressInterval) {
+            publishProgress(job);
+        }
+    }
+
+    private void publishProgress(ReportJob job) {
+        try {
+            webSocketService.sendReportJobProgress(job.toDTO());
+        } catch (Exception e) {
+            log.warn("Không gửi được tiến độ job báo cáo {}: {}", job.id, e.getMessage());
+        }
+    }
+
+    /**
+     * Gửi file báo cáo đã tạo, hỗ trợ header Range (một khoảng byte).
+     * Dùng sendfile của Tomcat khi có thể, nếu không thì {@link FileChannel#transferTo}.
+     */
+    public void writeArtifact(String jobId, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        ReportJob job = findJob(jobId);
+        if (job.status != ReportJobStatus.COMPLETED || job.file == null) {
+            throw new RuntimeException("Báo cáo chưa sẵn sàng, trạng thái hiện tại: " + job.status);
+        }
+
+        Path file = job.file;
+        long size = Files.size(file);
+        long first = 0;
+        long last = size - 1;
+
+        String range = request.getHeader("Range");
+        if (range != null) {
+            long[] parsed = parseRange(range, size);
+            if (parsed == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader("Content-Range", "bytes */" + size);
+                return;
+            }
+            first = parsed[0];
+            last = parsed[1];
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + first + "-" + last + "/" + size);
+        }
+
+        long length = last - first + 1;
+        response.setContentType(job.format == ReportFormat.CSV ? "text/csv; charset=UTF-8" : "application/pdf");
+        response.setHeader("Content-Disposition", "attachment; filename=\"report_" + job.deviceId + "."
+                + job.format.name().toLowerCase() + "\"");
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setContentLengthLong(length);
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.toString());
+            request.setAttribute(SENDFILE_START_ATTR, first);
+            request.setAttribute(SENDFILE_END_ATTR, last + 1);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+            long position = first;
+            long remaining = length;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, target);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    /**
+     * Phân tích header Range dạng {@code bytes=a-b}, {@code bytes=a-} hoặc {@code bytes=-n}.
+     *
+     * @return [first, last] hoặc null nếu không hợp lệ
+     */
+    private long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.contains(",") || size == 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String from = spec.substring(0, dash).trim();
+            String to = spec.substring(dash + 1).trim();
+            long first;
+            long last;
+            if (from.isEmpty()) {
+                long suffix = Long.parseLong(to);
+                if (suffix <= 0) {
+                    return null;
+                }
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(from);
+                last = to.isEmpty() ? size - 1 : Math.min(Long.parseLong(to), size - 1);
+            }
+            if (first < 0 || first > last) {
+                return null;
+            }
+            return new long[] { first, last };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Xóa các job đã kết thúc quá TTL cùng file của chúng.
+     */
+    public void cleanupExpiredJobs() {
+        Instant now = Instant.now();
+        int removed = 0;
+        for (ReportJob job : jobsById.values()) {
+            if (job.isExpired(now, ttl)) {
+                jobsById.remove(job.id);
+                jobsByKey.remove(job.key, job);
+                if (job.file != null) {
+                    deleteQuietly(job.file);
+                }
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            log.info("Đã dọn {} job báo cáo hết hạn", removed);
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Không xóa được file báo cáo {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static final class ReportJob {
+        private final String id;
+        private final String key;
+        private final ReportFormat format;
+        private final String deviceId;
+        private final Long farmId;
+        private final Instant start;
+        private final Instant end;
+        private final Instant createdAt;
+        private final AtomicLong rowsWritten = new AtomicLong();
+
+        private volatile ReportJobStatus status = ReportJobStatus.PENDING;
+        private volatile Path file;
+        private volatile Long fileSize;
+        private volatile String error;
+        private volatile Instant completedAt;
+
+        private ReportJob(String id, String key, ReportFormat format, String deviceId, Long farmId,
+                Instant start, Instant end, Instant createdAt) {
+            this.id = id;
+            this.key = key;
+            this.format = format;
+            this.deviceId = deviceId;
+            this.farmId = farmId;
+            this.start = start;
+            this.end = end;
+            this.createdAt = createdAt;
+        }
+
+        // Chỉ job đã kết thúc mới hết hạn, job đang chạy luôn được giữ lại
+        private boolean isExpired(Instant now, Duration ttl) {
+            Instant finished = completedAt;
+            return finished != null && finished.plus(ttl).isBefore(now);
+        }
+
+        private ReportJobDTO toDTO() {
+            return ReportJobDTO.builder()
+                    .jobId(id)
+                    .format(format)
+                    .deviceId(deviceId)
+                    .start(start)
+                    .end(end)
+                    .status(status)
+                    .rowsWritten(rowsWritten.get())
+                    .fileSize(fileSize)
+                    .error(error)
+                    .createdAt(createdAt)
+                    .completedAt(completedAt)
+                    .downloadUrl(status == ReportJobStatus.COMPLETED ? "/api/reports/jobs/" + id + "/download" : null)
+                    .build();
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package com.example.iotserver.service;
 
 import com.example.iotserver.dto.SensorDataDTO;
+import com.example.iotserver.dto.SensorDataSummaryDTO;
 import com.example.iotserver.entity.Device;
 import com.example.iotserver.exception.ResourceNotFoundException;
 import com.example.iotserver.repository.DeviceRepository;
+import com.example.iotserver.repository.FarmRepository;
 import com.example.iotserver.repository.RuleExecutionLogRepository;
 import com.example.iotserver.repository.RuleRepository;
+import com.example.iotserver.repository.projection.DeviceSummary;
 import com.itextpdf.kernel.colors.ColorConstants;
 import com.itextpdf.kernel.geom.PageSize;
 import com.itextpdf.kernel.pdf.PdfDocument;
@@ -21,14 +24,29 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -45,6 +63,10 @@ public class ReportService {
     private final RuleRepository ruleRepository;
     private final RuleExecutionLogRepository logRepository;
     private final SensorDataService sensorDataService;
+    private final FarmRepository farmRepository;
+    private final ThreadPoolTaskExecutor reportExportExecutor;
+    private final AuthenticationService authenticationService;
+    private final FarmService farmService;
 
     public Map<String, Object> getDashboardSummary(Long farmId) {
         Map<String, Object> summary = new HashMap<>();
@@ -124,8 +146,20 @@ public class ReportService {
             .ofPattern("yyyy-MM-dd HH:mm:ss")
             .withZone(ZoneId.systemDefault());
 
+    private static final LongConsumer NO_PROGRESS = rows -> {
+    };
+
+    private static final String[] CSV_HEADERS = {
+            "Thời gian", "Nhiệt độ (°C)", "Độ ẩm (%)", "Độ ẩm đất (%)", "Ánh sáng (lux)", "pH đất" };
+
+    // Số dòng giữa hai lần flush khi stream CSV
+    @Value("${report.csv.flush-interval:1000}")
+    private int csvFlushInterval;
+
     /**
-     * Ghi dữ liệu cảm biến vào response dưới dạng file CSV
+     * Ghi dữ liệu cảm biến vào response dưới dạng file CSV.
+     * Dữ liệu được stream từ InfluxDB và ghi từng dòng nên bộ nhớ dùng không phụ thuộc
+     * độ dài khoảng thời gian. Client ngắt kết nối sẽ hủy query bên dưới.
      * 
      * @param response HttpServletResponse để ghi file
      * @param deviceId ID của thiết bị
@@ -136,23 +170,42 @@ public class ReportService {
     public void writeSensorDataToCsv(HttpServletResponse response, String deviceId, Instant start, Instant end)
             throws IOException {
         log.info("Bắt đầu xuất CSV cho thiết bị {} từ {} đến {}", deviceId, start, end);
-        Device device = deviceRepository.findByDeviceId(deviceId)
+        deviceRepository.findByDeviceId(deviceId)
                 .orElseThrow(() -> new ResourceNotFoundException("Device", "deviceId", deviceId));
 
-        List<SensorDataDTO> dataList = sensorDataService.getSensorDataRange(deviceId, start, end);
-
         response.setContentType("text/csv; charset=UTF-8");
         response.setHeader("Content-Disposition", "attachment; filename=\"report_" + deviceId + ".csv\"");
         response.setCharacterEncoding("UTF-8"); // Đảm bảo hỗ trợ tiếng Việt
 
-        PrintWriter writer = response.getWriter();
+        try {
+            long rows = writeSensorDataCsv(response.getWriter(), deviceId, start, end, NO_PROGRESS);
+            log.info("Đã xuất thành công {} dòng dữ liệu ra CSV.", rows);
+        } catch (IOException e) {
+            log.error("Lỗi khi ghi file CSV cho thiết bị {}: {}", deviceId, e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Stream dữ liệu cảm biến của một thiết bị ra writer bất kỳ dưới dạng CSV (có BOM).
+     *
+     * @param onProgress nhận số dòng đã ghi sau mỗi lần flush
+     * @return số dòng dữ liệu đã ghi
+     */
+    public long writeSensorDataCsv(Writer writer, String deviceId, Instant start, Instant end,
+            LongConsumer onProgress) throws IOException {
         // Ghi BOM để Excel nhận diện UTF-8
         writer.write('\ufeff');
 
-        try (CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT
-                .withHeader("Thời gian", "Nhiệt độ (°C)", "Độ ẩm (%)", "Độ ẩm đất (%)", "Ánh sáng (lux)", "pH đất"))) {
+        CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT.builder()
+                .setHeader(CSV_HEADERS)
+                .build());
+
+        long rows = sensorDataService.streamSensorDataRange(deviceId, start, end, new SensorDataService.RowHandler<>() {
+            private long written;
 
-            for (SensorDataDTO data : dataList) {
+            @Override
+            public void onRow(SensorDataDTO data) throws IOException {
                 csvPrinter.printRecord(
                         data.getTimestamp() != null ? DATE_TIME_FORMATTER.format(data.getTimestamp()) : "N/A",
                         data.getTemperature(),
@@ -160,16 +213,187 @@ public class ReportService {
                         data.getSoilMoisture(),
                         data.getLightIntensity(),
                         data.getSoilPH());
+                // Flush định kỳ để dữ liệu đi ra client thay vì dồn trong buffer
+                if (++written % csvFlushInterval == 0) {
+                    csvPrinter.flush();
+                    onProgress.accept(written);
+                }
             }
-            log.info("Đã xuất thành công {} dòng dữ liệu ra CSV.", dataList.size());
-        } catch (IOException e) {
-            log.error("Lỗi khi ghi file CSV: {}", e.getMessage());
-            throw e;
+        });
+        csvPrinter.flush();
+        return rows;
+    }
+
+    // Số dòng giữa hai lần flush bảng PDF xuống output stream
+    @Value("${report.pdf.flush-interval:100}")
+    private int pdfFlushInterval;
+
+    // Khoảng thời gian dài hơn ngưỡng này sẽ xuất dòng tổng hợp thay vì dữ liệu thô
+    @Value("${report.pdf.summary-threshold:2d}")
+    private Duration pdfSummaryThreshold;
+
+    // Số dòng tổng hợp tối đa (quyết định độ rộng mỗi khoảng tổng hợp)
+    @Value("${report.pdf.summary-max-rows:2000}")
+    private int pdfSummaryMaxRows;
+
+    // Số thiết bị được query song song khi xuất ZIP cho cả nông trại
+    @Value("${report.zip.parallelism:4}")
+    private int zipParallelism;
+
+    /**
+     * Xuất dữ liệu của tất cả thiết bị trong nông trại thành một file ZIP, mỗi thiết bị một file CSV.
+     * Mỗi thiết bị được stream ra file tạm trên reportExportExecutor (tối đa {@code report.zip.parallelism}
+     * thiết bị cùng lúc), file nào xong trước được ghi vào ZIP trước nên bộ nhớ không phụ thuộc số thiết bị.
+     *
+     * Pool không nhận được thiết bị nào thì ném {@link RejectedExecutionException} (503) trước khi ghi header.
+     * Khi đã bắt đầu ghi ZIP, thiết bị bị pool từ chối được gửi lại sau khi có phần xong; nếu mọi phần đã
+     * xong mà pool vẫn đầy thì xuất ngay trên luồng request để ZIP luôn đủ thiết bị.
+     */
+    public void writeFarmSensorDataZip(HttpServletResponse response, Long farmId, Instant start, Instant end)
+            throws IOException {
+        log.info("Bắt đầu xuất ZIP cho nông trại {} từ {} đến {}", farmId, start, end);
+        farmRepository.findById(farmId)
+                .orElseThrow(() -> new ResourceNotFoundException("Farm", "id", farmId));
+        farmService.checkUserAccessToFarm(authenticationService.getCurrentAuthenticatedUser().getId(), farmId);
+
+        // Chỉ cần deviceId nên dùng projection, không nạp entity
+        List<String> deviceIds = deviceRepository.findSummariesByFarm(farmId, null, null, null, Pageable.unpaged())
+                .stream()
+                .map(DeviceSummary::getDeviceId)
+                .toList();
+
+        ExecutorCompletionService<FarmExportPart> completion = new ExecutorCompletionService<>(reportExportExecutor);
+        List<Future<FarmExportPart>> futures = new ArrayList<>();
+        Set<Future<FarmExportPart>> consumed = new HashSet<>();
+        List<String> failedDevices = new ArrayList<>();
+        Deque<String> pending = new ArrayDeque<>(deviceIds);
+        long totalRows = 0;
+
+        int inFlight = submitParts(completion, futures, pending, zipParallelism, start, end);
+        if (inFlight == 0 && !pending.isEmpty()) {
+            throw new RejectedExecutionException("Hàng đợi xuất báo cáo đã đầy");
+        }
+
+        response.setContentType("application/zip");
+        response.setHeader("Content-Disposition", "attachment; filename=\"farm_" + farmId + "_report.zip\"");
+
+        try (ZipOutputStream zip = new ZipOutputStream(response.getOutputStream())) {
+            while (inFlight > 0 || !pending.isEmpty()) {
+                FarmExportPart part;
+                if (inFlight == 0) {
+                    part = exportDeviceToTempFile(pending.poll(), start, end);
+                } else {
+                    Future<FarmExportPart> done = completion.take();
+                    consumed.add(done);
+                    inFlight--;
+                    part = done.get();
+                }
+                inFlight += submitParts(completion, futures, pending, zipParallelism - inFlight, start, end);
+
+                if (part.file() == null) {
+                    failedDevices.add(part.deviceId());
+                    continue;
+                }
+                try {
+                    zip.putNextEntry(new ZipEntry(safeFileName(part.deviceId()) + ".csv"));
+                    Files.copy(part.file(), zip);
+                    zip.closeEntry();
+                    totalRows += part.rows();
+                } finally {
+                    Files.deleteIfExists(part.file());
+                }
+            }
+
+            if (!failedDevices.isEmpty()) {
+                zip.putNextEntry(new ZipEntry("errors.txt"));
+                zip.write(("Không xuất được dữ liệu cho các thiết bị: " + String.join(", ", failedDevices) + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Bị gián đoạn khi xuất ZIP", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Lỗi khi xuất ZIP: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            // Client ngắt kết nối giữa chừng: hủy các query còn lại và dọn file tạm
+            for (Future<FarmExportPart> future : futures) {
+                if (consumed.contains(future)) {
+                    continue;
+                }
+                future.cancel(true);
+                if (future.isDone() && !future.isCancelled()) {
+                    try {
+                        Path file = future.get().file();
+                        if (file != null) {
+                            Files.deleteIfExists(file);
+                        }
+                    } catch (Exception ignored) {
+                        // Task lỗi đã tự dọn file tạm
+                    }
+                }
+            }
+        }
+        log.info("Đã xuất ZIP cho nông trại {}: {} thiết bị, {} dòng dữ liệu", farmId, deviceIds.size(), totalRows);
+    }
+
+    /**
+     * Gửi tối đa {@code slots} thiết bị đầu hàng đợi lên reportExportExecutor; dừng ở thiết bị đầu tiên
+     * bị từ chối (giữ lại trong hàng đợi để gửi lại sau).
+     *
+     * @return số thiết bị đã gửi
+     */
+    private int submitParts(ExecutorCompletionService<FarmExportPart> completion, List<Future<FarmExportPart>> futures,
+            Deque<String> pending, int slots, Instant start, Instant end) {
+        int submitted = 0;
+        while (submitted < slots && !pending.isEmpty()) {
+            String deviceId = pending.peek();
+            try {
+                futures.add(completion.submit(() -> exportDeviceToTempFile(deviceId, start, end)));
+            } catch (RejectedExecutionException e) {
+                log.debug("reportExportExecutor đầy, gửi lại thiết bị {} sau", deviceId);
+                break;
+            }
+            pending.poll();
+            submitted++;
+        }
+        return submitted;
+    }
+
+    // Lỗi của một thiết bị không làm hỏng cả ZIP: trả về part không có file để ghi vào errors.txt
+    private FarmExportPart exportDeviceToTempFile(String deviceId, Instant start, Instant end) {
+        Path file = null;
+        try {
+            file = Files.createTempFile("farm-export-", ".csv");
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                long rows = writeSensorDataCsv(writer, deviceId, start, end, NO_PROGRESS);
+                return new FarmExportPart(deviceId, file, rows);
+            }
+        } catch (Exception e) {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {
+                    // File tạm sẽ bị hệ điều hành dọn
+                }
+            }
+            log.warn("Không xuất được dữ liệu thiết bị {} vào ZIP: {}", deviceId, e.getMessage());
+            return new FarmExportPart(deviceId, null, 0);
         }
     }
 
+    private String safeFileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private record FarmExportPart(String deviceId, Path file, long rows) {
+    }
+
     /**
-     * Tạo báo cáo PDF từ dữ liệu cảm biến
+     * Tạo báo cáo PDF từ dữ liệu cảm biến.
+     * Bảng được tạo ở chế độ large table và flush định kỳ trong khi stream từ InfluxDB
+     * nên bộ nhớ không tăng theo số dòng. Khoảng thời gian dài tự chuyển sang dòng
+     * tổng hợp min / TB / max theo từng khoảng.
      * 
      * @param response HttpServletResponse để ghi file
      * @param deviceId ID của thiết bị
@@ -183,51 +407,121 @@ public class ReportService {
         Device device = deviceRepository.findByDeviceId(deviceId)
                 .orElseThrow(() -> new ResourceNotFoundException("Device", "deviceId", deviceId));
 
-        List<SensorDataDTO> dataList = sensorDataService.getSensorDataRange(deviceId, start, end);
-
         response.setContentType("application/pdf");
         response.setHeader("Content-Disposition", "attachment; filename=\"report_" + deviceId + ".pdf\"");
 
-        PdfWriter writer = new PdfWriter(response.getOutputStream());
+        long rows = writeSensorDataPdf(response.getOutputStream(), device, start, end, NO_PROGRESS);
+        log.info("Đã tạo thành công file PDF với {} dòng dữ liệu.", rows);
+    }
+
+    /**
+     * Ghi báo cáo PDF của một thiết bị ra output stream bất kỳ.
+     *
+     * @param onProgress nhận số dòng đã thêm sau mỗi lần flush bảng
+     * @return số dòng dữ liệu trong bảng
+     */
+    public long writeSensorDataPdf(OutputStream out, Device device, Instant start, Instant end,
+            LongConsumer onProgress) throws IOException {
+        String deviceId = device.getDeviceId();
+        Duration range = Duration.between(start, end);
+        boolean summary = range.compareTo(pdfSummaryThreshold) > 0;
+
+        PdfWriter writer = new PdfWriter(out);
         PdfDocument pdf = new PdfDocument(writer);
         Document document = new Document(pdf, PageSize.A4);
 
-        // --- Tiêu đề ---
-        document.add(new Paragraph("BÁO CÁO DỮ LIỆU CẢM BIẾN")
-                .setTextAlignment(TextAlignment.CENTER)
-                .setBold()
-                .setFontSize(20));
-
-        // --- Thông tin báo cáo ---
-        document.add(new Paragraph("Thiết bị: " + device.getName() + " (" + deviceId + ")"));
-        document.add(new Paragraph("Loại: " + device.getType().name()));
-        document.add(new Paragraph("Nông trại: " + device.getFarm().getName()));
-        document.add(new Paragraph(
-                "Thời gian: từ " + DATE_TIME_FORMATTER.format(start) + " đến " + DATE_TIME_FORMATTER.format(end)));
-
-        // --- Tạo bảng ---
-        float[] columnWidths = { 3, 2, 2, 2, 2, 2 };
-        Table table = new Table(UnitValue.createPercentArray(columnWidths));
-        table.setWidth(UnitValue.createPercentValue(100));
-        table.setMarginTop(20);
-
-        // --- Header của bảng ---
-        addTableHeader(table, "Thời gian", "Nhiệt độ (°C)", "Độ ẩm (%)", "Độ ẩm đất (%)", "Ánh sáng (lux)", "pH đất");
-
-        // --- Dữ liệu của bảng ---
-        for (SensorDataDTO data : dataList) {
-            addTableRow(table,
-                    data.getTimestamp() != null ? DATE_TIME_FORMATTER.format(data.getTimestamp()) : "N/A",
-                    data.getTemperature() != null ? data.getTemperature().toString() : "",
-                    data.getHumidity() != null ? data.getHumidity().toString() : "",
-                    data.getSoilMoisture() != null ? data.getSoilMoisture().toString() : "",
-                    data.getLightIntensity() != null ? data.getLightIntensity().toString() : "",
-                    data.getSoilPH() != null ? data.getSoilPH().toString() : "");
+        try {
+            // --- Tiêu đề ---
+            document.add(new Paragraph("BÁO CÁO DỮ LIỆU CẢM BIẾN")
+                    .setTextAlignment(TextAlignment.CENTER)
+                    .setBold()
+                    .setFontSize(20));
+
+            // --- Thông tin báo cáo ---
+            document.add(new Paragraph("Thiết bị: " + device.getName() + " (" + deviceId + ")"));
+            document.add(new Paragraph("Loại: " + device.getType().name()));
+            document.add(new Paragraph("Nông trại: " + device.getFarm().getName()));
+            document.add(new Paragraph(
+                    "Thời gian: từ " + DATE_TIME_FORMATTER.format(start) + " đến " + DATE_TIME_FORMATTER.format(end)));
+
+            Duration window = null;
+            if (summary) {
+                // Làm tròn lên theo phút để mốc thời gian dễ đọc
+                long minutes = Math.max(1, (range.getSeconds() / pdfSummaryMaxRows + 59) / 60);
+                window = Duration.ofMinutes(minutes);
+                document.add(new Paragraph("Mỗi dòng tổng hợp " + minutes + " phút, giá trị dạng min / TB / max"));
+            }
+
+            // --- Tạo bảng (large table: các dòng đã flush được giải phóng khỏi bộ nhớ) ---
+            float[] columnWidths = { 3, 2, 2, 2, 2, 2 };
+            Table table = new Table(UnitValue.createPercentArray(columnWidths), true);
+            table.setWidth(UnitValue.createPercentValue(100));
+            table.setMarginTop(20);
+
+            // --- Header của bảng ---
+            addTableHeader(table, CSV_HEADERS);
+            document.add(table);
+
+            // --- Dữ liệu của bảng ---
+            long rows;
+            if (summary) {
+                rows = sensorDataService.streamSensorDataSummary(deviceId, start, end, window,
+                        new SensorDataService.RowHandler<>() {
+                            private long added;
+
+                            @Override
+                            public void onRow(SensorDataSummaryDTO data) {
+                                addTableRow(table,
+                                        data.getTimestamp() != null ? DATE_TIME_FORMATTER.format(data.getTimestamp()) : "N/A",
+                                        formatSummary(data.getMin().getTemperature(), data.getAvg().getTemperature(), data.getMax().getTemperature()),
+                                        formatSummary(data.getMin().getHumidity(), data.getAvg().getHumidity(), data.getMax().getHumidity()),
+                                        formatSummary(data.getMin().getSoilMoisture(), data.getAvg().getSoilMoisture(), data.getMax().getSoilMoisture()),
+                                        formatSummary(data.getMin().getLightIntensity(), data.getAvg().getLightIntensity(), data.getMax().getLightIntensity()),
+                                        formatSummary(data.getMin().getSoilPH(), data.getAvg().getSoilPH(), data.getMax().getSoilPH()));
+                                if (++added % pdfFlushInterval == 0) {
+                                    table.flush();
+                                    onProgress.accept(added);
+                                }
+                            }
+                        });
+            } else {
+                rows = sensorDataService.streamSensorDataRange(deviceId, start, end,
+                        new SensorDataService.RowHandler<>() {
+                            private long added;
+
+                            @Override
+                            public void onRow(SensorDataDTO data) {
+                                addTableRow(table,
+                                        data.getTimestamp() != null ? DATE_TIME_FORMATTER.format(data.getTimestamp()) : "N/A",
+                                        data.getTemperature() != null ? data.getTemperature().toString() : "",
+                                        data.getHumidity() != null ? data.getHumidity().toString() : "",
+                                        data.getSoilMoisture() != null ? data.getSoilMoisture().toString() : "",
+                                        data.getLightIntensity() != null ? data.getLightIntensity().toString() : "",
+                                        data.getSoilPH() != null ? data.getSoilPH().toString() : "");
+                                if (++added % pdfFlushInterval == 0) {
+                                    table.flush();
+                                    onProgress.accept(added);
+                                }
+                            }
+                        });
+            }
+
+            table.complete();
+            return rows;
+        } finally {
+            document.close();
         }
+    }
+
+    private String formatSummary(Double min, Double avg, Double max) {
+        if (min == null && avg == null && max == null) {
+            return "";
+        }
+        return formatNumber(min) + " / " + formatNumber(avg) + " / " + formatNumber(max);
+    }
 
-        document.add(table);
-        document.close();
-        log.info("Đã tạo thành công file PDF với {} dòng dữ liệu.", dataList.size());
+    private String formatNumber(Double value) {
+        return value != null ? String.format(Locale.ROOT, "%.1f", value) : "-";
     }
 
     // Helper method cho việc tạo bảng PDF
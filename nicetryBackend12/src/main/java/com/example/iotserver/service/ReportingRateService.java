@@ -0,0 +1,315 @@
+package com.example.iotserver.service;
+
+import com.example.iotserver.entity.RuleCondition;
+import com.example.iotserver.enums.ReportingLevel;
+import com.example.iotserver.repository.RuleRepository;
+import com.example.iotserver.timeseries.SensorDataStore;
+import com.example.iotserver.timeseries.SensorReading;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Điều chỉnh tần suất gửi dữ liệu của thiết bị theo diễn biến của chính nó: gửi thưa khi các field ổn định,
+ * gửi dày khi đang biến động mạnh hoặc gần ngưỡng cảnh báo / ngưỡng của quy tắc đang bật.
+ *
+ * Gợi ý được publish dạng retained lên {@code device/{deviceId}/config} để thiết bị nhận ngay cả khi
+ * kết nối lại. Để tránh dao động qua lại: tăng tần suất chỉ khi lần đổi trước đã qua {@code speed-up-hold},
+ * giảm tần suất chỉ khi mức chậm hơn được duy trì liên tục trong {@code slow-down-hold}.
+ *
+ * Mặc định tắt ({@code reporting.adaptive.enabled=false}): chỉ bật sau khi firmware của thiết bị đã xử lý
+ * topic config; nên bật trước cho một nhóm thiết bị thử và theo dõi {@code sensor.reporting.interval_changes}.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReportingRateService {
+
+    // Tốc độ thay đổi (đơn vị/phút) được coi là ổn định, theo thứ tự SensorDataStore.FIELDS
+    private static final double[] STABLE_RATE_PER_MINUTE = { 0.05, 0.2, 0.1, 200, 0.01 };
+    // Khoảng cách tới ngưỡng được coi là "gần ngưỡng"
+    private static final double[] NEAR_THRESHOLD_BAND = { 1.5, 5, 3, 2000, 0.2 };
+    // Biến động gấp bao nhiêu lần mức ổn định thì chuyển sang gửi nhanh
+    private static final double VOLATILE_FACTOR = 5;
+
+    private final MqttGateway mqttGateway;
+    private final RuleRepository ruleRepository;
+    private final SettingService settingService;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${reporting.adaptive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${reporting.interval.fast:10s}")
+    private Duration fastInterval;
+
+    @Value("${reporting.interval.normal:60s}")
+    private Duration normalInterval;
+
+    @Value("${reporting.interval.slow:300s}")
+    private Duration slowInterval;
+
+    @Value("${reporting.speed-up-hold:60s}")
+    private Duration speedUpHold;
+
+    @Value("${reporting.slow-down-hold:10m}")
+    private Duration slowDownHold;
+
+    @Value("${reporting.ewma-alpha:0.2}")
+    private double alpha;
+
+    @Value("${reporting.threshold-cache:5m}")
+    private Duration thresholdCacheTtl;
+
+    private final Map<String, DeviceState> devices = new ConcurrentHashMap<>();
+    private Cache<String, double[][]> ruleThresholds;
+
+    private static final class DeviceState {
+        final int n = SensorDataStore.FIELDS.size();
+        final boolean[] seen = new boolean[n];
+        final double[] lastValue = new double[n];
+        final long[] lastTime = new long[n];
+        // EWMA của |tốc độ thay đổi| theo đơn vị/phút; NaN khi chưa đủ 2 điểm
+        final double[] rate = new double[n];
+
+        // Mức đã publish; chưa publish thì thiết bị đang chạy mức mặc định NORMAL
+        ReportingLevel current = ReportingLevel.NORMAL;
+        long changedAt;
+
+        // Thời điểm bắt đầu chuỗi mục tiêu chậm hơn mức hiện tại, và mục tiêu nhanh nhất trong chuỗi đó
+        long slowerSince = -1;
+        Decision slowerTarget;
+
+        DeviceState() {
+            Arrays.fill(rate, Double.NaN);
+        }
+    }
+
+    private record Decision(ReportingLevel level, String reason) {
+    }
+
+    @PostConstruct
+    public void init() {
+        ruleThresholds = Caffeine.newBuilder()
+                .expireAfterWrite(thresholdCacheTtl)
+                .maximumSize(10_000)
+                .build();
+    }
+
+    /**
+     * Cập nhật độ biến động của thiết bị từ bản ghi mới và publish mức gửi mới nếu cần.
+     * Không ném lỗi ra ngoài để không ảnh hưởng luồng ingest.
+     */
+    public void observe(SensorReading data) {
+        observe(data, System.currentTimeMillis());
+    }
+
+    // Tách thời điểm hiện tại ra để kiểm thử được luật chống dao động
+    void observe(SensorReading data, long now) {
+        if (!enabled || data.deviceId() == null) {
+            return;
+        }
+        try {
+            long time = data.timestamp();
+            DeviceState state = devices.computeIfAbsent(data.deviceId(), id -> new DeviceState());
+            double[][] thresholds = thresholds(data.deviceId());
+
+            Decision publish = null;
+            synchronized (state) {
+                Decision target = update(state, data, time, thresholds);
+                if (target != null) {
+                    publish = apply(state, target, now);
+                }
+            }
+            if (publish != null) {
+                publish(data.deviceId(), publish.level(), publish.reason());
+            }
+        } catch (Exception e) {
+            log.warn("Không cập nhật được tần suất gửi cho thiết bị {}: {}", data.deviceId(), e.getMessage());
+        }
+    }
+
+    // Cập nhật EWMA và tính mức mục tiêu; null khi chưa đủ dữ liệu để đánh giá
+    private Decision update(DeviceState state, SensorReading data, long time, double[][] thresholds) {
+        Decision near = null;
+        double activity = Double.NaN;
+        String activeField = null;
+
+        for (int f = 0; f < state.n; f++) {
+            String field = SensorDataStore.FIELDS.get(f);
+            if (!data.has(f) || Double.isNaN(data.value(f))) {
+                continue;
+            }
+            double value = data.value(f);
+            if (state.seen[f] && time > state.lastTime[f]) {
+                double perMinute = Math.abs(value - state.lastValue[f]) * 60_000.0 / (time - state.lastTime[f]);
+                state.rate[f] = Double.isNaN(state.rate[f]) ? perMinute
+                        : alpha * perMinute + (1 - alpha) * state.rate[f];
+            }
+            if (!state.seen[f] || time > state.lastTime[f]) {
+                state.seen[f] = true;
+                state.lastValue[f] = value;
+                state.lastTime[f] = time;
+            }
+
+            if (near == null) {
+                for (double threshold : thresholds[f]) {
+                    if (Math.abs(value - threshold) <= NEAR_THRESHOLD_BAND[f]) {
+                        near = new Decision(ReportingLevel.FAST, "NEAR_THRESHOLD:" + field);
+                        break;
+                    }
+                }
+            }
+            if (!Double.isNaN(state.rate[f])) {
+                double score = state.rate[f] / STABLE_RATE_PER_MINUTE[f];
+                if (Double.isNaN(activity) || score > activity) {
+                    activity = score;
+                    activeField = field;
+                }
+            }
+        }
+
+        if (near != null) {
+            return near;
+        }
+        if (Double.isNaN(activity)) {
+            return null;
+        }
+        if (activity >= VOLATILE_FACTOR) {
+            return new Decision(ReportingLevel.FAST, "VOLATILE:" + activeField);
+        }
+        return activity <= 1
+                ? new Decision(ReportingLevel.SLOW, "STABLE")
+                : new Decision(ReportingLevel.NORMAL, "CHANGING:" + activeField);
+    }
+
+    // Áp dụng luật chống dao động; trả về mục tiêu vừa được áp dụng, null nếu giữ nguyên mức hiện tại
+    private Decision apply(DeviceState state, Decision target, long now) {
+        ReportingLevel level = target.level();
+        if (level == state.current) {
+            state.slowerSince = -1;
+            return null;
+        }
+        if (level.ordinal() < state.current.ordinal()) {
+            state.slowerSince = -1;
+            if (now - state.changedAt < speedUpHold.toMillis()) {
+                return null;
+            }
+            change(state, level, now);
+            return target;
+        }
+
+        if (state.slowerSince < 0) {
+            state.slowerSince = now;
+            state.slowerTarget = target;
+        } else if (level.ordinal() < state.slowerTarget.level().ordinal()) {
+            state.slowerTarget = target;
+        }
+        long hold = slowDownHold.toMillis();
+        if (now - state.slowerSince < hold || now - state.changedAt < hold) {
+            return null;
+        }
+        Decision applied = state.slowerTarget;
+        change(state, applied.level(), now);
+        return applied;
+    }
+
+    private void change(DeviceState state, ReportingLevel level, long now) {
+        state.current = level;
+        state.changedAt = now;
+        state.slowerSince = -1;
+        meterRegistry.counter("sensor.reporting.interval_changes", "level", level.name()).increment();
+    }
+
+    private void publish(String deviceId, ReportingLevel level, String reason) throws Exception {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("reportIntervalSeconds", interval(level).toSeconds());
+        payload.put("level", level.name());
+        payload.put("reason", reason);
+        payload.put("timestamp", System.currentTimeMillis());
+
+        String topic = "device/" + deviceId + "/config";
+        mqttGateway.sendRetained(objectMapper.writeValueAsString(payload), topic, true);
+        log.info("Đổi tần suất gửi của thiết bị {} sang {} ({})", deviceId, level, reason);
+    }
+
+    private Duration interval(ReportingLevel level) {
+        return switch (level) {
+            case FAST -> fastInterval;
+            case NORMAL -> normalInterval;
+            case SLOW -> slowInterval;
+        };
+    }
+
+    // Ngưỡng theo field: ngưỡng cảnh báo chung trong cài đặt + ngưỡng của các quy tắc gắn với thiết bị
+    private double[][] thresholds(String deviceId) {
+        double[][] rules = ruleThresholds.get(deviceId, this::loadRuleThresholds);
+        double[][] result = new double[rules.length][];
+        for (int f = 0; f < rules.length; f++) {
+            // Cùng khóa và mặc định với MqttMessageHandler
+            Double setting = switch (SensorDataStore.FIELDS.get(f)) {
+                case "temperature" -> settingService.getCachedDouble("SENSOR_HIGH_TEMP_THRESHOLD", 38.0);
+                case "humidity" -> settingService.getCachedDouble("SENSOR_HIGH_HUMIDITY_THRESHOLD", 90.0);
+                case "soil_moisture" -> settingService.getCachedDouble("SENSOR_LOW_SOIL_MOISTURE_THRESHOLD", 20.0);
+                default -> null;
+            };
+            if (setting == null) {
+                result[f] = rules[f];
+            } else {
+                result[f] = Arrays.copyOf(rules[f], rules[f].length + 1);
+                result[f][rules[f].length] = setting;
+            }
+        }
+        return result;
+    }
+
+    private double[][] loadRuleThresholds(String deviceId) {
+        List<List<Double>> values = new ArrayList<>();
+        SensorDataStore.FIELDS.forEach(f -> values.add(new ArrayList<>()));
+        for (RuleCondition condition : ruleRepository.findEnabledSensorConditionsByDeviceId(deviceId)) {
+            int f = fieldIndex(condition.getField());
+            if (f < 0 || condition.getValue() == null) {
+                continue;
+            }
+            try {
+                values.get(f).add(Double.parseDouble(condition.getValue().trim()));
+            } catch (NumberFormatException e) {
+                // Giá trị không phải số (vd: BETWEEN dạng chuỗi) thì bỏ qua
+            }
+        }
+        double[][] result = new double[values.size()][];
+        for (int f = 0; f < result.length; f++) {
+            result[f] = values.get(f).stream().mapToDouble(Double::doubleValue).toArray();
+        }
+        return result;
+    }
+
+    // Tên field trong quy tắc được so sánh sau khi bỏ "_" và viết thường, giống RuleEngineService
+    private static int fieldIndex(String field) {
+        if (field == null) {
+            return -1;
+        }
+        String normalized = field.toLowerCase().replace("_", "");
+        for (int f = 0; f < SensorDataStore.FIELDS.size(); f++) {
+            if (SensorDataStore.FIELDS.get(f).toLowerCase().replace("_", "").equals(normalized)) {
+                return f;
+            }
+        }
+        return -1;
+    }
+}
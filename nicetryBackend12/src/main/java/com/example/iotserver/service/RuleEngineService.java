@@ -13,6 +13,8 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -41,6 +43,7 @@ public class RuleEngineService {
     // private final EmailService emailService;
     private final NotificationService notificationService; // <<<< THÊM DÒNG NÀY
     private final DeviceRepository deviceRepository; // VVVV--- THÊM DEPENDENCY NÀY ---VVVV
+    private final CacheManager cacheManager;
 
     /**
      * Chạy tất cả quy tắc đang kích hoạt
@@ -120,6 +123,11 @@ public class RuleEngineService {
                 rule.setLastExecutedAt(LocalDateTime.now());
                 rule.setExecutionCount(rule.getExecutionCount() + 1);
                 ruleRepository.save(rule);
+                // RuleService.getRule cache cả executionCount/lastExecutedAt (gọi nội bộ nên không dùng @CacheEvict)
+                Cache rules = cacheManager.getCache("rules");
+                if (rules != null) {
+                    rules.evict(rule.getId());
+                }
 
                 // Lưu log thành công
                 saveExecutionLog(rule, RuleExecutionLog.ExecutionStatus.SUCCESS,
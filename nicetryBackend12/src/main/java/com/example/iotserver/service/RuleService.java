@@ -10,6 +10,8 @@ import com.example.iotserver.repository.FarmRepository;
 import com.example.iotserver.repository.RuleExecutionLogRepository;
 import com.example.iotserver.repository.RuleRepository;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
@@ -109,6 +111,7 @@ public class RuleService {
      * Cập nhật quy tắc
      */
     @Transactional
+    @CacheEvict(value = "rules", key = "#ruleId")
     public RuleDTO updateRule(Long ruleId, RuleDTO dto) {
         Rule rule = ruleRepository.findById(ruleId)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy quy tắc"));
@@ -171,6 +174,7 @@ public class RuleService {
      * Xóa quy tắc
      */
     @Transactional // Đảm bảo toàn bộ thao tác là một transaction
+    @CacheEvict(value = "rules", key = "#ruleId")
     public void deleteRule(Long ruleId) {
         Rule rule = ruleRepository.findById(ruleId)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy quy tắc"));
@@ -201,6 +205,7 @@ public class RuleService {
     /**
      * Lấy chi tiết quy tắc
      */
+    @Cacheable(value = "rules", key = "#ruleId")
     public RuleDTO getRule(Long ruleId) {
         Rule rule = ruleRepository.findById(ruleId)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy quy tắc"));
@@ -231,6 +236,7 @@ public class RuleService {
      * Bật/tắt quy tắc
      */
     @Transactional
+    @CacheEvict(value = "rules", key = "#ruleId")
     public RuleDTO toggleRule(Long ruleId, Boolean enabled) {
         Rule rule = ruleRepository.findById(ruleId)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy quy tắc"));
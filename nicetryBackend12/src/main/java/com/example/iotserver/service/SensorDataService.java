@@ -1,171 +1,427 @@
 package com.example.iotserver.service;
 
-import com.influxdb.client.InfluxDBClient;
-import com.influxdb.client.QueryApi;
-import com.influxdb.client.WriteApiBlocking;
-import com.influxdb.client.domain.WritePrecision;
-import com.influxdb.client.write.Point;
-import com.influxdb.query.FluxRecord;
-import com.influxdb.query.FluxTable;
-import com.example.iotserver.config.InfluxDBConfig;
 import com.example.iotserver.dto.SensorDataDTO;
+import com.example.iotserver.dto.SensorDataSummaryDTO;
 import com.example.iotserver.entity.Device;
+import com.example.iotserver.timeseries.ChunkedSeriesCache;
+import com.example.iotserver.timeseries.FluxQuery;
+import com.example.iotserver.timeseries.LttbDownsampler;
+import com.example.iotserver.timeseries.SensorDataStore;
+import com.example.iotserver.timeseries.SensorReadings;
+import com.example.iotserver.timeseries.SeriesChunk;
+import com.example.iotserver.timeseries.SeriesKey;
+import com.example.iotserver.timeseries.hot.HotWindowStore;
+import com.example.iotserver.timeseries.spool.SensorWriteSpool;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import com.example.iotserver.repository.DeviceRepository; // Thêm import này
 
-import com.influxdb.query.FluxRecord;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class SensorDataService {
 
-    private final WriteApiBlocking writeApi;
-    private final InfluxDBClient influxDBClient;
-    private final InfluxDBConfig influxDBConfig;
+    private final SensorDataStore sensorDataStore;
+    private final HotWindowStore hotWindowStore;
+    private final SensorWriteSpool sensorWriteSpool;
+    private final SensorStatisticsService sensorStatisticsService;
+    private final IngestCompressionService ingestCompressionService;
+    private final ChunkedSeriesCache chunkedSeriesCache;
     private final DeviceRepository deviceRepository; // Inject DeviceRepository
+    private final ThreadPoolTaskExecutor sensorQueryExecutor;
+
+    // Bộ đệm các điểm cần ghi sau khi nén, tái sử dụng theo luồng
+    private final ThreadLocal<SensorReadings> writeBuffers = ThreadLocal.withInitial(SensorReadings::new);
+
+    @Value("${sensor.query.per-device-timeout-ms:3000}")
+    private long perDeviceTimeoutMs;
+
+    // Số truy vấn "mới nhất" tối đa một lời gọi được giữ trong sensorQueryExecutor cùng lúc
+    @Value("${sensor.query.max-in-flight:8}")
+    private int maxInFlight;
+
+    // Thời gian tối đa cho cả lời gọi lấy dữ liệu mới nhất của nhiều thiết bị
+    @Value("${sensor.query.latest-deadline-ms:10000}")
+    private long latestDeadlineMs;
+
+    // Range tối đa cho truy vấn "dữ liệu mới nhất" khi không biết lastSeen
+    @Value("${sensor.query.latest-lookback:30d}")
+    private Duration latestLookback;
+
+    // Khoảng dự phòng trước lastSeen (lệch giờ giữa thiết bị, InfluxDB và MySQL)
+    @Value("${sensor.query.last-seen-margin:10m}")
+    private Duration lastSeenMargin;
 
     /**
      * Save sensor data to InfluxDB
      */
     public void saveSensorData(SensorDataDTO data) {
+        SensorReadings batch = new SensorReadings();
+        batch.add().fromDTO(data);
+        saveSensorData(batch);
+    }
+
+    /**
+     * Lưu các lần đo của cùng thiết bị (đã sắp theo thời gian) bằng một lần ghi vào store.
+     * Không giữ tham chiếu tới {@code batch} sau khi trả về.
+     */
+    public void saveSensorData(SensorReadings batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
         try {
-            Point point = Point.measurement("sensor_data")
-                    .addTag("device_id", data.getDeviceId())
-                    .addTag("sensor_type", data.getSensorType() != null ? data.getSensorType() : "UNKNOWN") // Thêm kiểm
-                                                                                                            // tra null
-                    .addTag("farm_id", String.valueOf(data.getFarmId()))
-                    .time(data.getTimestamp(), WritePrecision.MS);
-
-            // VVVV--- THÊM LOG DEBUG CHI TIẾT ---VVVV
-            log.info(">>>> [INFLUX WRITE] Preparing to write Point for device {}", data.getDeviceId());
-            // ^^^^-------------------------------^^^^
-
-            // VVVV--- THÊM ĐẦY ĐỦ CÁC TRƯỜNG ---VVVV
-            if (data.getTemperature() != null)
-                point.addField("temperature", data.getTemperature());
-            if (data.getHumidity() != null)
-                point.addField("humidity", data.getHumidity());
-            if (data.getSoilMoisture() != null)
-                point.addField("soil_moisture", data.getSoilMoisture());
-            if (data.getLightIntensity() != null)
-                point.addField("light_intensity", data.getLightIntensity());
-            if (data.getSoilPH() != null)
-                point.addField("soilPH", data.getSoilPH());
-            // ^^^^-----------------------------^^^^
-
-            // Nếu không có field nào được thêm, không ghi để tránh lỗi
-            if (point.hasFields()) {
-                writeApi.writePoint(point);
-                log.debug("Saved sensor data for device: {}", data.getDeviceId());
-            } else {
-                log.warn("No fields to write for device {}, skipping InfluxDB write.", data.getDeviceId());
+            log.info(">>>> [STORE WRITE] Writing {} readings for device {}", batch.size(), batch.get(0).deviceId());
+            // Nén theo cấu hình từng field: có thể không ghi gì, hoặc ghi thêm điểm trước đó
+            SensorReadings points = writeBuffers.get();
+            points.clear();
+            for (int i = 0; i < batch.size(); i++) {
+                ingestCompressionService.compress(batch.get(i), points);
+            }
+            points.sortByTime();
+            writePoints(points);
+            // Thống kê phân phối dùng dữ liệu gốc, không qua nén
+            for (int i = 0; i < batch.size(); i++) {
+                sensorStatisticsService.record(batch.get(i));
             }
-
         } catch (Exception e) {
-            log.error("Error saving sensor data to InfluxDB: {}", e.getMessage(), e);
+            log.error("Error saving sensor data: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to save sensor data", e);
         }
     }
 
+    /**
+     * Ghi các điểm bị bộ nén giữ lại của những thiết bị đã ngừng gửi dữ liệu.
+     */
+    public void flushCompressedPoints() {
+        SensorReadings points = writeBuffers.get();
+        points.clear();
+        ingestCompressionService.flushIdle(points);
+        if (points.isEmpty()) {
+            return;
+        }
+        try {
+            writePoints(points);
+            log.debug("Đã ghi {} điểm bị giữ lại bởi bộ nén", points.size());
+        } catch (Exception e) {
+            log.error("Lỗi ghi {} điểm bị giữ lại bởi bộ nén: {}", points.size(), e.getMessage());
+        }
+    }
+
+    private void writePoints(SensorReadings points) {
+        if (points.isEmpty()) {
+            return;
+        }
+        // Store chậm/lỗi thì điểm được giữ trong spool trên đĩa và ghi lại sau
+        sensorWriteSpool.write(points);
+        // Chỉ đưa vào hot window sau khi đã ghi vào store chính hoặc spool
+        for (int i = 0; i < points.size(); i++) {
+            hotWindowStore.write(points.get(i));
+        }
+    }
+
     // File: SensorDataService.java
 
     /**
      * Get latest sensor data for a device by pivoting fields into a single record.
-     * ✅ SỬA: Tăng range lên 24h để đảm bảo có dữ liệu
+     * Range bắt đầu từ lastSeen của thiết bị (nếu biết) thay vì quét cố định 30 ngày.
      */
     public SensorDataDTO getLatestSensorData(String deviceId) {
+        return latestSince(deviceRepository.findLastSeenByDeviceId(deviceId),
+                since -> queryLatestSensorData(deviceId, since));
+    }
+
+    private SensorDataDTO queryLatestSensorData(String deviceId, Instant since) {
         try {
-            log.info("🔍 [InfluxDB] Getting latest data for device: {}", deviceId);
-
-            // ✅ SỬA ĐỔI QUERY: Thêm pivot() để gộp các fields lại thành một hàng duy nhất
-            String query = String.format(
-                    "from(bucket: \"%s\")\n" +
-                            "  |> range(start: -30d)\n" +
-                            "  |> filter(fn: (r) => r._measurement == \"sensor_data\" and r.device_id == \"%s\")\n" + // <--
-                                                                                                                      // GỘP
-                                                                                                                      // LẠI
-                                                                                                                      // BẰNG
-                                                                                                                      // "and"
-                            "  |> last()\n" +
-                            "  |> pivot(rowKey:[\"_time\"], columnKey: [\"_field\"], valueColumn: \"_value\")",
-                    influxDBConfig.getBucket(), deviceId);
-
-            log.debug("🔍 [InfluxDB] Executing Pivot Query: {}", query);
-
-            QueryApi queryApi = influxDBClient.getQueryApi();
-            List<FluxTable> tables = queryApi.query(query, influxDBConfig.getOrg());
-
-            if (tables.isEmpty() || tables.get(0).getRecords().isEmpty()) {
-                log.warn("❌ [InfluxDB] No data found for device: {} in the last hour.", deviceId);
+            log.info("🔍 [Store] Getting latest data for device: {}", deviceId);
+            SensorDataDTO sensorData = since.toEpochMilli() >= hotCoverage(deviceId)
+                    ? hotWindowStore.latest(deviceId, since.toEpochMilli())
+                    : sensorDataStore.latest(deviceId, since);
+            // Điểm mới nhất có thể đang bị bộ nén giữ lại, chưa có trong store
+            sensorData = ingestCompressionService.overlayLatest(deviceId, sensorData, since.toEpochMilli());
+            if (sensorData == null) {
+                log.warn("❌ [Store] No data found for device: {} since {}.", deviceId, since);
                 return null;
             }
-
-            // Với pivot(), chúng ta chỉ cần xử lý record đầu tiên
-            FluxRecord record = tables.get(0).getRecords().get(0);
-            Map<String, Object> values = record.getValues();
-
-            SensorDataDTO sensorData = SensorDataDTO.builder()
-                    .deviceId(deviceId)
-                    .timestamp(record.getTime())
-                    .temperature(getDoubleValue(values, "temperature"))
-                    .humidity(getDoubleValue(values, "humidity"))
-                    .soilMoisture(getDoubleValue(values, "soil_moisture"))
-                    .lightIntensity(getDoubleValue(values, "light_intensity"))
-                    .soilPH(getDoubleValue(values, "soilPH"))
-                    .build();
-
-            log.info("✅ [InfluxDB] Successfully retrieved latest data for {}: {}", deviceId, sensorData);
+            log.info("✅ [Store] Successfully retrieved latest data for {}: {}", deviceId, sensorData);
             return sensorData;
 
         } catch (Exception e) {
-            log.error("❌ [InfluxDB] Error querying latest sensor data for {}: {}", deviceId, e.getMessage(), e);
+            log.error("❌ [Store] Error querying latest sensor data for {}: {}", deviceId, e.getMessage(), e);
             return null; // Trả về null khi có lỗi
         }
     }
 
-    // ✅ THÊM HELPER METHOD NÀY: Lấy giá trị Double từ map một cách an toàn
-    private Double getDoubleValue(Map<String, Object> map, String key) {
-        Object value = map.get(key);
-        if (value instanceof Number) {
-            return ((Number) value).doubleValue();
+    /**
+     * Chạy truy vấn "dữ liệu mới nhất" với range bắt đầu từ lastSeen trừ đi một khoảng dự phòng,
+     * không sớm hơn {@code sensor.query.latest-lookback}. Không biết lastSeen thì dùng lookback.
+     *
+     * lastSeen còn được cập nhật bởi heartbeat trạng thái và batch gửi trễ, nên lần đo cuối có thể cũ hơn
+     * lastSeen nhiều: range thu hẹp không có dữ liệu thì chạy lại với toàn bộ lookback.
+     */
+    private <T> T latestSince(Optional<LocalDateTime> lastSeen, Function<Instant, T> query) {
+        Instant earliest = Instant.now().minus(latestLookback);
+        Instant narrowed = lastSeen
+                .map(seen -> toInstant(seen).minus(lastSeenMargin))
+                .filter(start -> start.isAfter(earliest))
+                .orElse(earliest);
+        T result = query.apply(narrowed);
+        if (result == null && narrowed.isAfter(earliest)) {
+            log.debug("Không có dữ liệu từ {} (lastSeen), truy vấn lại từ {}", narrowed, earliest);
+            result = query.apply(earliest);
         }
-        return null;
+        return result;
+    }
+
+    // Device.lastSeen và thời điểm truyền vào getSensorDataAt đều lấy từ LocalDateTime.now(), tức giờ hệ thống
+    private static Instant toInstant(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant();
+    }
+
+    /**
+     * Lấy dữ liệu mới nhất cho nhiều thiết bị cùng lúc.
+     * Các truy vấn chạy song song trên sensorQueryExecutor, mỗi lời gọi chỉ giữ tối đa
+     * {@code sensor.query.max-in-flight} truy vấn trong pool (đã gửi mà chưa xong) nên farm nhiều thiết bị
+     * không chiếm hết hàng đợi. Truy vấn nào chạy quá perDeviceTimeoutMs (tính từ lúc bắt đầu chạy) bị hủy;
+     * hết {@code sensor.query.latest-deadline-ms} cho cả lời gọi thì các thiết bị chưa có kết quả bị bỏ qua.
+     * Hàng đợi của pool đầy thì ném {@link java.util.concurrent.RejectedExecutionException} (503).
+     *
+     * @return Map deviceId -> dữ liệu mới nhất (chỉ chứa các thiết bị có dữ liệu)
+     */
+    public Map<String, SensorDataDTO> getLatestSensorDataForDevices(Collection<String> deviceIds) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latestDeadlineMs);
+
+        // Lấy lastSeen của tất cả thiết bị bằng một query để thu hẹp range từng truy vấn
+        Map<String, LocalDateTime> lastSeen = new HashMap<>();
+        deviceRepository.findLastSeenByDeviceIdIn(deviceIds).forEach(row -> {
+            if (row.getLastSeen() != null) {
+                lastSeen.put(row.getDeviceId(), row.getLastSeen());
+            }
+        });
+
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        Map<String, CompletableFuture<SensorDataDTO>> futures = new LinkedHashMap<>();
+        List<Future<?>> tasks = new ArrayList<>();
+        try {
+            for (String deviceId : deviceIds) {
+                if (!inFlight.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    break;
+                }
+                Optional<LocalDateTime> seen = Optional.ofNullable(lastSeen.get(deviceId));
+                CompletableFuture<SensorDataDTO> result = new CompletableFuture<>();
+                result.whenComplete((data, error) -> inFlight.release());
+                Future<?> task;
+                try {
+                    task = sensorQueryExecutor.submit(() -> {
+                        result.orTimeout(perDeviceTimeoutMs, TimeUnit.MILLISECONDS);
+                        try {
+                            result.complete(latestSince(seen, since -> queryLatestSensorData(deviceId, since)));
+                        } catch (RuntimeException e) {
+                            result.completeExceptionally(e);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                tasks.add(task);
+                futures.put(deviceId, result
+                        .whenComplete((data, error) -> {
+                            if (error instanceof TimeoutException) {
+                                // Interrupt để hủy HTTP call tới InfluxDB và trả luồng về pool
+                                task.cancel(true);
+                            }
+                        })
+                        .exceptionally(e -> {
+                            log.warn("Lỗi lấy dữ liệu mới nhất cho device {}: {}", deviceId, e.toString());
+                            return null;
+                        }));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException e) {
+            tasks.forEach(task -> task.cancel(true));
+            throw e;
+        }
+
+        try {
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0]))
+                    .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Hết {} ms khi lấy dữ liệu mới nhất, bỏ qua các thiết bị chưa có kết quả", latestDeadlineMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Không xảy ra: lỗi từng thiết bị đã được chuyển thành null ở trên
+        }
+        // Truy vấn còn trong hàng đợi hoặc đang chạy sau deadline không còn cần nữa
+        tasks.forEach(task -> task.cancel(true));
+
+        Map<String, SensorDataDTO> result = new HashMap<>();
+        futures.forEach((deviceId, future) -> {
+            SensorDataDTO data = future.getNow(null);
+            if (data != null) {
+                result.put(deviceId, data);
+            }
+        });
+        log.debug("Lấy dữ liệu mới nhất cho {}/{} thiết bị", result.size(), deviceIds.size());
+        return result;
     }
 
     /**
-     * Get sensor data for a time range
+     * Get sensor data for a time range.
+     * Mỗi timestamp là một SensorDataDTO chứa đủ các trường, thay vì một DTO cho mỗi field.
      */
     public List<SensorDataDTO> getSensorDataRange(
             String deviceId,
             Instant start,
             Instant end) {
-        String flux = String.format(
-                "from(bucket: \"%s\") " +
-                        "|> range(start: %s, stop: %s) " +
-                        "|> filter(fn: (r) => r[\"device_id\"] == \"%s\") " +
-                        "|> sort(columns: [\"_time\"])",
-                influxDBConfig.getBucket(),
-                start.toString(),
-                end.toString(),
-                deviceId);
-
-        List<Map<String, Object>> rawDataList = executeQueryList(flux);
-        return rawDataList.stream()
-                .map(SensorDataDTO::fromInfluxRecord)
-                .collect(Collectors.toList());
+        try {
+            List<SensorDataDTO> results = new ArrayList<>();
+            range(deviceId, start, end, results::add);
+            log.debug("🔍 [Store] Range query cho device {} trả về {} dòng", deviceId, results.size());
+            return results;
+        } catch (Exception e) {
+            log.error("❌ [Store] Lỗi query range cho device {}: {}", deviceId, e.getMessage(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Xử lý từng dòng dữ liệu khi stream kết quả query.
+     * Ném exception (vd: client ngắt kết nối) sẽ hủy query bên dưới.
+     */
+    @FunctionalInterface
+    public interface RowHandler<T> extends SensorDataStore.RowHandler<T> {
+    }
+
+    /**
+     * Stream dữ liệu range từng dòng một, không giữ toàn bộ kết quả trong bộ nhớ.
+     * Hàm block tới khi query kết thúc.
+     *
+     * @return số dòng đã xử lý
+     */
+    public long streamSensorDataRange(String deviceId, Instant start, Instant end,
+            RowHandler<SensorDataDTO> handler) throws IOException {
+        return range(deviceId, start, end, handler);
+    }
+
+    private long hotCoverage(String deviceId) {
+        return hotWindowStore.coverageStart(List.of(deviceId), SensorDataStore.FIELDS);
+    }
+
+    /**
+     * Đọc range: phần nằm trong hot window lấy từ bộ nhớ, phần cũ hơn lấy từ store chính.
+     */
+    private long range(String deviceId, Instant start, Instant end, SensorDataStore.RowHandler<SensorDataDTO> handler)
+            throws IOException {
+        long split = Math.max(hotCoverage(deviceId), start.toEpochMilli());
+        if (split >= end.toEpochMilli()) {
+            return sensorDataStore.range(deviceId, start, end, handler);
+        }
+        long rows = 0;
+        if (split > start.toEpochMilli()) {
+            rows += sensorDataStore.range(deviceId, start, Instant.ofEpochMilli(split), handler);
+        }
+        return rows + hotWindowStore.range(deviceId, split, end.toEpochMilli(), handler);
+    }
+
+    /**
+     * Tổng hợp theo cửa sổ: các cửa sổ nằm trọn trong hot window tính từ bộ nhớ, phần cũ hơn
+     * lấy từ store chính. Mốc tách được làm tròn lên theo {@code window} để không cửa sổ nào bị chia đôi.
+     */
+    private Map<SeriesKey, SeriesChunk> aggregate(Collection<String> deviceIds, Collection<String> fields,
+            String aggregation, String window, Instant from, Instant to) {
+        Duration every = FluxQuery.parseDuration(window);
+        long coverage = every != null ? hotWindowStore.coverageStart(deviceIds, fields) : Long.MAX_VALUE;
+        long split = coverage == Long.MAX_VALUE ? Long.MAX_VALUE
+                : Math.max(Math.floorDiv(coverage + every.toMillis() - 1, every.toMillis()) * every.toMillis(),
+                        from.toEpochMilli());
+        if (split >= to.toEpochMilli()) {
+            return sensorDataStore.aggregate(deviceIds, fields, aggregation, window, from, to);
+        }
+        Map<SeriesKey, SeriesChunk> recent = hotWindowStore.aggregate(deviceIds, fields, aggregation, window,
+                split, to.toEpochMilli());
+        if (split == from.toEpochMilli()) {
+            return recent;
+        }
+        Map<SeriesKey, SeriesChunk> result = new HashMap<>(sensorDataStore.aggregate(deviceIds, fields,
+                aggregation, window, from, Instant.ofEpochMilli(split)));
+        recent.forEach((key, chunk) -> result.merge(key, chunk,
+                (older, newer) -> SeriesChunk.builder().addAll(older).addAll(newer).build()));
+        return result;
+    }
+
+    /**
+     * Stream các dòng tổng hợp min/mean/max theo từng khoảng {@code window},
+     * dùng cho báo cáo khoảng thời gian dài thay vì dữ liệu thô.
+     */
+    public long streamSensorDataSummary(String deviceId, Instant start, Instant end, Duration window,
+            RowHandler<SensorDataSummaryDTO> handler) throws IOException {
+        String every = Math.max(1, window.getSeconds()) + "s";
+        List<String> devices = List.of(deviceId);
+
+        // Gộp kết quả min/mean/max của mọi field theo mốc thời gian của cửa sổ
+        TreeMap<Long, SensorDataSummaryDTO> rows = new TreeMap<>();
+        for (String fn : List.of("min", "mean", "max")) {
+            aggregate(devices, SensorDataStore.FIELDS, fn, every, start, end).forEach((key, chunk) -> {
+                for (int i = 0; i < chunk.size(); i++) {
+                    SensorDataSummaryDTO row = rows.computeIfAbsent(chunk.timeAt(i), time -> summaryRow(deviceId, time));
+                    SensorDataDTO target = switch (fn) {
+                        case "min" -> row.getMin();
+                        case "max" -> row.getMax();
+                        default -> row.getAvg();
+                    };
+                    target.setFieldValue(key.field(), chunk.valueAt(i));
+                }
+            });
+        }
+
+        for (SensorDataSummaryDTO row : rows.values()) {
+            handler.onRow(row);
+        }
+        return rows.size();
+    }
+
+    private SensorDataSummaryDTO summaryRow(String deviceId, long time) {
+        Instant timestamp = Instant.ofEpochMilli(time);
+        return SensorDataSummaryDTO.builder()
+                .deviceId(deviceId)
+                .timestamp(timestamp)
+                .min(SensorDataDTO.builder().deviceId(deviceId).timestamp(timestamp).build())
+                .avg(SensorDataDTO.builder().deviceId(deviceId).timestamp(timestamp).build())
+                .max(SensorDataDTO.builder().deviceId(deviceId).timestamp(timestamp).build())
+                .build();
     }
 
     /**
@@ -175,205 +431,142 @@ public class SensorDataService {
             String deviceId,
             String field,
             String aggregation, // mean, max, min
-            String window // 1m, 5m, 1h, 1d
+            String window, // 1m, 5m, 1h, 1d
+            int maxPoints // <= 0: không giảm điểm
     ) {
-        String flux = String.format(
-                "from(bucket: \"%s\") " +
-                        "|> range(start: -7d) " +
-                        "|> filter(fn: (r) => r[\"device_id\"] == \"%s\") " +
-                        "|> filter(fn: (r) => r[\"_field\"] == \"%s\") " +
-                        "|> aggregateWindow(every: %s, fn: %s, createEmpty: false)",
-                influxDBConfig.getBucket(),
-                deviceId,
-                field,
-                window,
-                aggregation);
-
-        List<Map<String, Object>> rawDataList = executeQueryList(flux);
+        SeriesChunk series = getAggregatedSeries(deviceId, field, aggregation, window, maxPoints);
 
         // ✅ THÊM: Log debug
         log.info("🔍 [Aggregated Query] Device: {}, Field: {}, Window: {}, Results: {}",
-                deviceId, field, window, rawDataList.size());
+                deviceId, field, window, series.size());
 
-        if (rawDataList.isEmpty()) {
+        if (series.size() == 0) {
             log.warn("⚠️ Không có dữ liệu aggregated cho device: {}, field: {}", deviceId, field);
             return Collections.emptyList(); // ✅ Trả về list rỗng thay vì lỗi
         }
 
-        return rawDataList.stream()
-                .map(data -> {
-                    SensorDataDTO dto = SensorDataDTO.fromInfluxRecord(data);
-
-                    // ✅ SỬA: Xử lý null
-                    Object valueObj = data.get("_value");
-                    if (valueObj != null) {
-                        if (valueObj instanceof Number) {
-                            dto.setAvgValue(((Number) valueObj).doubleValue());
-                        } else {
-                            log.warn("⚠️ Value không phải số: {}", valueObj);
-                        }
-                    }
+        List<SensorDataDTO> results = new ArrayList<>(series.size());
+        for (int i = 0; i < series.size(); i++) {
+            double value = series.valueAt(i);
+            SensorDataDTO dto = SensorDataDTO.builder()
+                    .deviceId(deviceId)
+                    .timestamp(Instant.ofEpochMilli(series.timeAt(i)))
+                    .avgValue(value)
+                    .build();
+            dto.setFieldValue(field, value);
+            results.add(dto);
+        }
+        return results;
+    }
 
-                    return dto;
-                })
-                .filter(dto -> dto.getAvgValue() != null) // ✅ Lọc bỏ các record null
-                .collect(Collectors.toList());
+    /**
+     * Dữ liệu tổng hợp 7 ngày gần nhất của một trường, dạng mảng nguyên thủy (không tạo DTO).
+     *
+     * @param maxPoints nếu > 0 thì giảm còn tối đa ngần ấy điểm bằng LTTB
+     */
+    public SeriesChunk getAggregatedSeries(String deviceId, String field, String aggregation, String window,
+            int maxPoints) {
+        // Chunk đã đóng lấy từ cache, phần còn lại truy vấn từ store (Influx: router chọn bucket rollup)
+        Instant end = Instant.now();
+        SeriesKey key = new SeriesKey(deviceId, field, aggregation, window);
+        SeriesChunk series = chunkedSeriesCache.get(List.of(key), end.minus(Duration.ofDays(7)), end,
+                FluxQuery.parseDuration(window),
+                (from, to) -> aggregate(List.of(deviceId), List.of(field), aggregation, window, from, to))
+                .getOrDefault(key, SeriesChunk.EMPTY);
+        return LttbDownsampler.downsample(series, maxPoints);
     }
 
     /**
      * Get all devices data for a farm
      */
     public Map<String, Map<String, Object>> getFarmLatestData(Long farmId) {
-        String flux = String.format(
-                "from(bucket: \"%s\") " +
-                        "|> range(start: -1h) " +
-                        "|> filter(fn: (r) => r[\"farm_id\"] == \"%s\") " +
-                        "|> last()",
-                influxDBConfig.getBucket(),
-                farmId);
-
-        List<Map<String, Object>> results = executeQueryList(flux);
+        List<String> deviceIds = farmDeviceIds(farmId);
         Map<String, Map<String, Object>> deviceDataMap = new HashMap<>();
-
-        for (Map<String, Object> record : results) {
-            String deviceId = (String) record.get("device_id");
-            deviceDataMap.putIfAbsent(deviceId, new HashMap<>());
-
-            String field = record.get("_field").toString();
-            Object value = record.get("_value");
-
-            deviceDataMap.get(deviceId).put(field, value);
-            deviceDataMap.get(deviceId).put("device_id", deviceId);
-            deviceDataMap.get(deviceId).put("timestamp", record.get("_time"));
+        if (deviceIds.isEmpty()) {
+            return deviceDataMap;
+        }
+        try {
+            sensorDataStore.latest(deviceIds, Instant.now().minus(Duration.ofHours(1)), null)
+                    .forEach((deviceId, data) -> deviceDataMap.put(deviceId, toValueMap(data)));
+        } catch (Exception e) {
+            log.error("❌ [Store] Lỗi lấy dữ liệu mới nhất của farm {}: {}", farmId, e.getMessage(), e);
         }
 
         return deviceDataMap;
     }
 
-    // Helper methods
-    private Map<String, Object> executeQuery(String flux) {
-        QueryApi queryApi = influxDBClient.getQueryApi();
-        List<FluxTable> tables = queryApi.query(flux, influxDBConfig.getOrg());
-
-        if (tables.isEmpty() || tables.get(0).getRecords().isEmpty()) {
-            return new HashMap<>();
+    /**
+     * Lấy dữ liệu cảm biến mới nhất theo farmId
+     */
+    public SensorDataDTO getLatestSensorDataByFarmId(Long farmId) {
+        List<String> deviceIds = farmDeviceIds(farmId);
+        if (deviceIds.isEmpty()) {
+            log.warn("⚠️ Farm {} không có thiết bị nào.", farmId);
+            return null;
         }
-
-        return fluxRecordToMap(tables.get(0).getRecords().get(0));
+        return latestSince(deviceRepository.findMaxLastSeenByFarmId(farmId),
+                since -> queryFarmLatest(farmId, deviceIds, since, null));
     }
 
-    private List<Map<String, Object>> executeQueryList(String flux) {
+    /**
+     * Giá trị mới nhất của từng field trong [since, until) trên các thiết bị của farm: mỗi field lấy từ thiết bị
+     * có điểm mới nhất. Đọc từ hot window khi cửa sổ nằm trọn trong vùng nó phủ, ngược lại từ store.
+     */
+    private SensorDataDTO queryFarmLatest(Long farmId, List<String> deviceIds, Instant since, Instant until) {
         try {
-            QueryApi queryApi = influxDBClient.getQueryApi();
-            List<FluxTable> tables = queryApi.query(flux, influxDBConfig.getOrg());
-
-            // ✅ THÊM: Log debug
-            log.debug("🔍 [InfluxDB] Query executed, tables count: {}", tables.size());
-
-            if (tables.isEmpty()) {
-                return Collections.emptyList(); // ✅ Trả về list rỗng
+            if (since.toEpochMilli() >= hotWindowStore.farmCoverageStart(farmId)) {
+                return hotWindowStore.farmLatest(farmId, since.toEpochMilli(),
+                        until != null ? until.toEpochMilli() : Long.MAX_VALUE);
             }
 
-            List<Map<String, Object>> results = new ArrayList<>();
-            for (FluxTable table : tables) {
-                for (FluxRecord record : table.getRecords()) {
-                    Map<String, Object> data = new HashMap<>();
-
-                    // ✅ SỬA: Xử lý null an toàn
-                    Object value = record.getValue();
+            List<SensorDataDTO> latest = new ArrayList<>(sensorDataStore.latest(deviceIds, since, until).values());
+            if (latest.isEmpty()) {
+                log.warn("⚠️ [Store] Không có dữ liệu cho farmId {} từ {}", farmId, since);
+                return null;
+            }
+            // Thiết bị cũ trước, mới sau: field của thiết bị mới ghi đè
+            latest.sort(Comparator.comparing(SensorDataDTO::getTimestamp));
+            SensorDataDTO newest = latest.get(latest.size() - 1);
+            SensorDataDTO data = SensorDataDTO.builder()
+                    .deviceId(newest.getDeviceId())
+                    .farmId(farmId)
+                    .timestamp(newest.getTimestamp())
+                    .build();
+            for (SensorDataDTO device : latest) {
+                for (String field : SensorDataStore.FIELDS) {
+                    Double value = device.getFieldValue(field);
                     if (value != null) {
-                        data.put("_value", value);
-                    } else {
-                        log.warn("⚠️ Record có value null, bỏ qua");
-                        continue; // Skip record này
+                        data.setFieldValue(field, value);
                     }
-
-                    data.put("_time", record.getTime());
-                    data.put("_field", record.getField());
-                    data.put("device_id", record.getValueByKey("device_id"));
-
-                    results.add(data);
                 }
             }
 
-            return results;
+            log.info("✅ [Store] Lấy dữ liệu thành công cho farmId: {}", farmId);
+            return data;
 
         } catch (Exception e) {
-            log.error("❌ [InfluxDB] Lỗi query: {}", e.getMessage(), e);
-            return Collections.emptyList(); // ✅ Trả về list rỗng thay vì throw exception
+            log.error("❌ [Store] Lỗi khi lấy dữ liệu farmId {}: {}", farmId, e.getMessage());
+            return null;
         }
     }
 
-    private Map<String, Object> fluxRecordToMap(FluxRecord record) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("_time", record.getTime());
-        map.put("_value", record.getValue());
-        map.put("_field", record.getField());
-        map.putAll(record.getValues());
-        return map;
+    private List<String> farmDeviceIds(Long farmId) {
+        return deviceRepository.findByFarmId(farmId).stream()
+                .map(Device::getDeviceId)
+                .collect(Collectors.toList());
     }
 
-    /**
-     * Lấy dữ liệu cảm biến mới nhất theo farmId
-     */
-    public SensorDataDTO getLatestSensorDataByFarmId(Long farmId) {
-        try {
-            String query = String.format(
-                    "from(bucket: \"%s\") " +
-                            "|> range(start: -30d) " +
-                            "|> filter(fn: (r) => r._measurement == \"sensor_data\" and r.farm_id == \"%s\") ", // Giữ
-                                                                                                                // nguyên
-                                                                                                                // %s
-                    influxDBConfig.getBucket(),
-                    String.valueOf(farmId));
-
-            log.debug("🔍 [InfluxDB] Query for latest farm data {}: {}", farmId, query);
-
-            QueryApi queryApi = influxDBClient.getQueryApi();
-            List<FluxTable> tables = queryApi.query(query);
-
-            if (tables == null || tables.isEmpty()) {
-                log.warn("⚠️ [InfluxDB] Không có dữ liệu cho farmId: {}", farmId);
-                return null;
-            }
-
-            // Parse dữ liệu
-            SensorDataDTO data = new SensorDataDTO();
-            data.setFarmId(farmId);
-            data.setTimestamp(Instant.now());
-
-            for (FluxTable table : tables) {
-                for (FluxRecord record : table.getRecords()) {
-                    String field = (String) record.getField();
-                    Object value = record.getValue();
-
-                    switch (field) {
-                        case "temperature":
-                            data.setTemperature(((Number) value).doubleValue());
-                            break;
-                        case "humidity":
-                            data.setHumidity(((Number) value).doubleValue());
-                            break;
-                        case "soil_moisture":
-                            data.setSoilMoisture(((Number) value).doubleValue());
-                            break;
-                        case "light_intensity":
-                            data.setLightIntensity(((Number) value).doubleValue());
-                            break;
-                        case "soilPH":
-                            data.setSoilPH(((Number) value).doubleValue());
-                            break;
-                    }
-                }
+    private static Map<String, Object> toValueMap(SensorDataDTO data) {
+        Map<String, Object> values = new HashMap<>();
+        for (String field : SensorDataStore.FIELDS) {
+            Double value = data.getFieldValue(field);
+            if (value != null) {
+                values.put(field, value);
             }
-
-            log.info("✅ [InfluxDB] Lấy dữ liệu thành công cho farmId: {}", farmId);
-            return data;
-
-        } catch (Exception e) {
-            log.error("❌ [InfluxDB] Lỗi khi lấy dữ liệu farmId {}: {}", farmId, e.getMessage());
-            return null;
         }
+        values.put("device_id", data.getDeviceId());
+        values.put("timestamp", data.getTimestamp());
+        return values;
     }
 
     /**
@@ -381,135 +574,56 @@ public class SensorDataService {
      * (Dùng cho quy tắc 5: độ ẩm dao động)
      */
     public SensorDataDTO getSensorDataAt(Long farmId, LocalDateTime dateTime) {
-        try {
-            String query = String.format(
-                    "from(bucket: \"%s\") " +
-                            "|> range(start: %s, stop: %s) " +
-                            "|> filter(fn: (r) => r[\"_measurement\"] == \"sensor_data\") " +
-                            "|> filter(fn: (r) => r[\"farm_id\"] == \"%s\") " +
-                            "|> last()",
-                    influxDBConfig.getBucket(),
-                    dateTime.minusMinutes(30).toString() + "Z",
-                    dateTime.plusMinutes(30).toString() + "Z",
-                    farmId);
-
-            log.debug("🔍 [InfluxDB] Query for farmId {}: {}", farmId, query);
-
-            QueryApi queryApi = influxDBClient.getQueryApi();
-            List<FluxTable> tables = queryApi.query(query);
-
-            if (tables == null || tables.isEmpty()) {
-                log.warn("⚠️ [InfluxDB] Không có dữ liệu cho farmId: {}", farmId);
-                return null;
-            }
-
-            // Parse dữ liệu
-            SensorDataDTO data = new SensorDataDTO();
-            data.setFarmId(farmId);
-            data.setTimestamp(Instant.now());
-
-            for (FluxTable table : tables) {
-                for (FluxRecord record : table.getRecords()) {
-                    String field = (String) record.getField();
-                    Object value = record.getValue();
-
-                    switch (field) {
-                        case "temperature":
-                            data.setTemperature(((Number) value).doubleValue());
-                            break;
-                        case "humidity":
-                            data.setHumidity(((Number) value).doubleValue());
-                            break;
-                        case "soil_moisture":
-                            data.setSoilMoisture(((Number) value).doubleValue());
-                            break;
-                        case "light_intensity":
-                            data.setLightIntensity(((Number) value).doubleValue());
-                            break;
-                        case "soilPh":
-                            data.setSoilPH(((Number) value).doubleValue());
-                            break;
-                    }
-                }
-            }
-
-            log.info("✅ [InfluxDB] Lấy dữ liệu thành công cho farmId: {}", farmId);
-            return data;
-
-        } catch (Exception e) {
-            log.error("❌ [InfluxDB] Lỗi khi lấy dữ liệu farmId {}: {}", farmId, e.getMessage());
+        Instant at = toInstant(dateTime);
+        List<String> deviceIds = farmDeviceIds(farmId);
+        if (deviceIds.isEmpty()) {
             return null;
         }
+        return queryFarmLatest(farmId, deviceIds, at.minus(Duration.ofMinutes(30)), at.plus(Duration.ofMinutes(30)));
     }
 
     /**
      * 🔍 DEBUG: Kiểm tra dữ liệu sensor có tồn tại không
      */
     public boolean hasRecentData(String deviceId, int hoursBack) {
-        try {
-            String query = String.format(
-                    "from(bucket: \"%s\")\n" +
-                            "  |> range(start: -%dh)\n" +
-                            "  |> filter(fn: (r) => r[\"_measurement\"] == \"sensor_data\")\n" +
-                            "  |> filter(fn: (r) => r[\"device_id\"] == \"%s\")\n" +
-                            "  |> count()",
-                    influxDBConfig.getBucket(), hoursBack, deviceId);
-
-            QueryApi queryApi = influxDBClient.getQueryApi();
-            List<FluxTable> tables = queryApi.query(query, influxDBConfig.getOrg());
-
-            if (!tables.isEmpty() && !tables.get(0).getRecords().isEmpty()) {
-                Object count = tables.get(0).getRecords().get(0).getValue();
-                long recordCount = count != null ? ((Number) count).longValue() : 0;
-                log.info("🔍 Device {} có {} bản ghi trong {}h qua", deviceId, recordCount, hoursBack);
-                return recordCount > 0;
-            }
-
+        boolean found = queryLatestSensorData(deviceId, Instant.now().minus(Duration.ofHours(hoursBack))) != null;
+        if (!found) {
             log.warn("⚠️ Không có dữ liệu nào cho device {} trong {}h qua", deviceId, hoursBack);
-            return false;
-
-        } catch (Exception e) {
-            log.error("❌ Lỗi kiểm tra dữ liệu: {}", e.getMessage());
-            return false;
         }
+        return found;
     }
 
-    // VVVV--- THÊM PHƯƠNG THỨC DEBUG NÀY VÀO CUỐI CLASS ---VVVV
-    public List<Map<String, Object>> getRawInfluxDataForDebug() {
-        String query = String.format(
-                "from(bucket: \"%s\")\n" +
-                        "  |> range(start: -30d)\n" +
-                        "  |> filter(fn: (r) => r._measurement == \"sensor_data\")\n" +
-                        "  |> limit(n: 10)\n" +
-                        "  |> sort(columns: [\"_time\"], desc: true)",
-                influxDBConfig.getBucket());
-
-        log.info(">>>> [DEBUG_INFLUX] Executing raw query: {}", query);
+    /**
+     * 🔍 DEBUG: 10 thiết bị có dữ liệu gần nhất trong 30 ngày, mỗi thiết bị một dòng giá trị mới nhất.
+     */
+    public List<Map<String, Object>> getRecentSensorDataForDebug() {
+        List<String> deviceIds = deviceRepository.findAll().stream()
+                .map(Device::getDeviceId)
+                .collect(Collectors.toList());
+        if (deviceIds.isEmpty()) {
+            return List.of();
+        }
 
         try {
-            QueryApi queryApi = influxDBClient.getQueryApi();
-            List<FluxTable> tables = queryApi.query(query);
-
-            List<Map<String, Object>> results = new ArrayList<>();
-            for (FluxTable table : tables) {
-                for (FluxRecord record : table.getRecords()) {
-                    results.add(record.getValues());
-                }
-            }
-            log.info(">>>> [DEBUG_INFLUX] Found {} raw records.", results.size());
+            List<Map<String, Object>> results = sensorDataStore
+                    .latest(deviceIds, Instant.now().minus(Duration.ofDays(30)), null).values().stream()
+                    .sorted(Comparator.comparing(SensorDataDTO::getTimestamp).reversed())
+                    .limit(10)
+                    .map(SensorDataService::toValueMap)
+                    .collect(Collectors.toList());
+            log.info(">>>> [DEBUG_STORE] Found {} devices with recent data.", results.size());
             return results;
         } catch (Exception e) {
-            log.error(">>>> [DEBUG_INFLUX] Error executing raw query", e);
-            return List.of(Map.of("error", e.getMessage()));
+            log.error(">>>> [DEBUG_STORE] Error reading latest data", e);
+            return List.of(Map.of("error", String.valueOf(e.getMessage())));
         }
     }
-    // ^^^^-----------------------------------------------------^^^^
 
     // VVVV--- THÊM HÀM MỚI NÀY ---VVVV
     public SensorDataDTO getLatestSensorDataForFarmDevices(Long farmId) {
         // 1. Lấy danh sách deviceId từ MySQL (giữ nguyên)
-        List<String> deviceIds = deviceRepository.findByFarmId(farmId)
-                .stream()
+        List<Device> devices = deviceRepository.findByFarmId(farmId);
+        List<String> deviceIds = devices.stream()
                 .map(Device::getDeviceId)
                 .collect(Collectors.toList());
 
@@ -518,75 +632,12 @@ public class SensorDataService {
             return null;
         }
 
-        String deviceIdFilter = deviceIds.stream()
-                .map(id -> String.format("r.device_id == \"%s\"", id))
-                .collect(Collectors.joining(" or "));
-
-        // 2. Câu query Flux (giữ nguyên, nó đã đúng)
-        String query = String.format(
-                "from(bucket: \"%s\") " +
-                        "|> range(start: -30d) " +
-                        "|> filter(fn: (r) => r._measurement == \"sensor_data\" and (%s)) " +
-                        "|> last()", // Bỏ pivot đi để xử lý thô cho chắc chắn
-                influxDBConfig.getBucket(),
-                deviceIdFilter);
-
-        log.debug("🔍 [InfluxDB] Query for latest farm devices data: {}", query);
-
-        try {
-            QueryApi queryApi = influxDBClient.getQueryApi();
-            List<FluxTable> tables = queryApi.query(query);
-
-            if (tables.isEmpty()) {
-                log.warn("❌ [InfluxDB] Query không trả về bảng nào cho các thiết bị của farm: {}", farmId);
-                return null;
-            }
-
-            // 3. Logic xử lý kết quả MỚI và AN TOÀN
-            var dtoBuilder = SensorDataDTO.builder();
-            boolean hasData = false;
-
-            // Duyệt qua tất cả các bảng (mỗi bảng cho một _field)
-            for (FluxTable table : tables) {
-                // Duyệt qua tất cả các record trong bảng
-                for (FluxRecord record : table.getRecords()) {
-                    hasData = true; // Đánh dấu là đã tìm thấy dữ liệu
-
-                    // Lấy các thông tin chung từ record đầu tiên tìm thấy
-                    if (dtoBuilder.build().getDeviceId() == null) {
-                        dtoBuilder.deviceId((String) record.getValueByKey("device_id"));
-                        dtoBuilder.timestamp(record.getTime());
-                    }
-
-                    String field = record.getField();
-                    Object value = record.getValue();
-
-                    if (field != null && value instanceof Number) {
-                        switch (field) {
-                            case "temperature" -> dtoBuilder.temperature(((Number) value).doubleValue());
-                            case "humidity" -> dtoBuilder.humidity(((Number) value).doubleValue());
-                            case "soil_moisture" -> dtoBuilder.soilMoisture(((Number) value).doubleValue());
-                            case "light_intensity" -> dtoBuilder.lightIntensity(((Number) value).doubleValue());
-                            case "soilPH" -> dtoBuilder.soilPH(((Number) value).doubleValue());
-                        }
-                    }
-                }
-            }
-
-            if (!hasData) {
-                log.warn("❌ [InfluxDB] Query trả về bảng nhưng không có record nào cho farm: {}", farmId);
-                return null;
-            }
-
-            SensorDataDTO finalDto = dtoBuilder.build();
-            log.info("✅ [InfluxDB] Đã xử lý thành công dữ liệu thô thành DTO: {}", finalDto);
-            return finalDto;
-
-        } catch (Exception e) {
-            log.error("❌ [InfluxDB] Lỗi nghiêm trọng khi xử lý kết quả query cho farm {}: {}", farmId, e.getMessage(),
-                    e);
-            return null;
-        }
+        // 2. Range bắt đầu từ lastSeen mới nhất trong farm
+        Optional<LocalDateTime> lastSeen = devices.stream()
+                .map(Device::getLastSeen)
+                .filter(Objects::nonNull)
+                .max(Comparator.naturalOrder());
+        return latestSince(lastSeen, since -> queryFarmLatest(farmId, deviceIds, since, null));
     }
 
     // VVVV--- THÊM PHƯƠNG THỨC MỚI NÀY ---VVVV
@@ -599,64 +650,60 @@ public class SensorDataService {
      * @param start     Thời gian bắt đầu.
      * @param end       Thời gian kết thúc.
      * @param window    Khoảng thời gian tổng hợp (vd: "10m", "1h").
+     * @param maxPoints Số điểm tối đa mỗi chuỗi (LTTB), <= 0 để giữ nguyên.
      * @return Một Map với key là "deviceId_field" và value là danh sách các điểm dữ
      *         liệu.
      */
     public Map<String, List<SensorDataDTO>> getMultiSeriesData(List<String> deviceIds, List<String> fields,
-            Instant start, Instant end, String window) {
+            Instant start, Instant end, String window, int maxPoints) {
+        // Nhóm kết quả lại theo "deviceId_field"
+        Map<String, List<SensorDataDTO>> result = new HashMap<>();
+        getMultiSeries(deviceIds, fields, start, end, window, maxPoints).forEach((key, chunk) -> {
+            List<SensorDataDTO> points = new ArrayList<>(chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                points.add(SensorDataDTO.builder()
+                        .timestamp(Instant.ofEpochMilli(chunk.timeAt(i)))
+                        .avgValue(chunk.valueAt(i))
+                        .build());
+            }
+            result.put(key, points);
+        });
+        return result;
+    }
+
+    /**
+     * Giống {@link #getMultiSeriesData} nhưng trả về mảng nguyên thủy theo key "deviceId_field",
+     * bỏ qua chuỗi không có dữ liệu. Dùng cho các định dạng columnar/binary.
+     *
+     * @param maxPoints nếu > 0 thì mỗi chuỗi được giảm còn tối đa ngần ấy điểm bằng LTTB (song song)
+     */
+    public Map<String, SeriesChunk> getMultiSeries(List<String> deviceIds, List<String> fields,
+            Instant start, Instant end, String window, int maxPoints) {
         if (deviceIds == null || deviceIds.isEmpty() || fields == null || fields.isEmpty()) {
             return Collections.emptyMap();
         }
 
-        // Tạo các chuỗi filter cho Flux query
-        String deviceIdFilter = deviceIds.stream()
-                .map(id -> String.format("r.device_id == \"%s\"", id))
-                .collect(Collectors.joining(" or "));
-
-        String fieldFilter = fields.stream()
-                .map(field -> String.format("r._field == \"%s\"", field))
-                .collect(Collectors.joining(" or "));
-
-        String query = String.format(
-                "from(bucket: \"%s\")\n" +
-                        "  |> range(start: %s, stop: %s)\n" +
-                        "  |> filter(fn: (r) => r._measurement == \"sensor_data\")\n" +
-                        "  |> filter(fn: (r) => %s)\n" + // Filter theo device_id
-                        "  |> filter(fn: (r) => %s)\n" + // Filter theo _field
-                        "  |> aggregateWindow(every: %s, fn: mean, createEmpty: false)\n" +
-                        "  |> yield(name: \"mean\")",
-                influxDBConfig.getBucket(),
-                start.toString(),
-                end.toString(),
-                deviceIdFilter,
-                fieldFilter,
-                window);
+        List<SeriesKey> keys = new ArrayList<>(deviceIds.size() * fields.size());
+        for (String deviceId : deviceIds) {
+            for (String field : fields) {
+                keys.add(new SeriesKey(deviceId, field, "mean", window));
+            }
+        }
 
         log.info("Executing multi-series query for {} devices and {} fields.", deviceIds.size(), fields.size());
 
-        QueryApi queryApi = influxDBClient.getQueryApi();
-        List<FluxTable> tables = queryApi.query(query, influxDBConfig.getOrg());
+        // Chunk theo ngày đã đóng lấy từ cache, chỉ truy vấn lại các ngày thiếu và phần đuôi
+        Map<SeriesKey, SeriesChunk> series = chunkedSeriesCache.get(keys, start, end,
+                FluxQuery.parseDuration(window),
+                (from, to) -> aggregate(deviceIds, fields, "mean", window, from, to));
 
-        // Nhóm kết quả lại theo "deviceId_field"
-        Map<String, List<SensorDataDTO>> result = new HashMap<>();
-        for (FluxTable table : tables) {
-            for (FluxRecord record : table.getRecords()) {
-                String deviceId = (String) record.getValueByKey("device_id");
-                String field = record.getField();
-                String key = deviceId + "_" + field;
-
-                result.putIfAbsent(key, new ArrayList<>());
-
-                SensorDataDTO dto = SensorDataDTO.builder()
-                        .timestamp(record.getTime())
-                        .avgValue(
-                                record.getValue() instanceof Number ? ((Number) record.getValue()).doubleValue() : null)
-                        .build();
-
-                result.get(key).add(dto);
+        Map<String, SeriesChunk> result = new LinkedHashMap<>();
+        series.forEach((key, chunk) -> {
+            if (chunk.size() > 0) {
+                result.put(key.deviceId() + "_" + key.field(), chunk);
             }
-        }
-        return result;
+        });
+        return LttbDownsampler.downsampleAll(result, maxPoints);
     }
     // ^^^^---------------------------------------------------^^^^
 
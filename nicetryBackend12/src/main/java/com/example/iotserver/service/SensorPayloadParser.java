@@ -0,0 +1,307 @@
+package com.example.iotserver.service;
+
+import com.example.iotserver.timeseries.SensorReading;
+import com.example.iotserver.timeseries.SensorReadings;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Đọc payload cảm biến thành các {@link SensorReading} theo thứ tự thời gian.
+ *
+ * <p>JSON trên {@code sensor/{deviceId}/data}: một object (một lần đo) hoặc một mảng object (gateway gửi dồn
+ * nhiều lần đo). Mỗi object có thể mang {@code timestamp} (hoặc {@code ts}): epoch giây/mili giây hoặc chuỗi
+ * ISO-8601; thiếu thì dùng thời điểm nhận. JSON được đọc theo token (streaming), không dựng Map.
+ *
+ * <p>Nhị phân trên {@code sensor/{deviceId}/bin} (số nguyên nhiều byte theo big-endian):
+ * <pre>
+ * byte     version = 1
+ * byte     flags: bit 0 = thời gian theo mili giây (mặc định: giây)
+ * varint   mốc thời gian epoch (0 nếu thiết bị không có đồng hồ thực)
+ * lặp tới hết payload:
+ *   varint   khoảng cách tới lần đo trước (lần đầu: tới mốc)
+ *   byte     mask field: bit (id − 1) bật nếu có field id
+ *   float32  giá trị từng field có mặt, theo thứ tự id
+ * </pre>
+ * Field id: 1 temperature, 2 humidity, 3 soil_moisture, 4 light_intensity, 5 soilPH. Varint là LEB128 không dấu.
+ *
+ * Đồng hồ thiết bị có thể lệch: nếu bản ghi mới nhất của payload nằm ngoài
+ * [now − {@code max-reading-age}, now + {@code max-clock-skew}] thì cả payload được dời để bản ghi mới nhất
+ * trùng thời điểm nhận, giữ nguyên khoảng cách giữa các lần đo. Sau đó lần đo nào vẫn cũ hơn
+ * {@code max-reading-age} bị bỏ qua.
+ *
+ * Kết quả nằm trong bộ đệm riêng của luồng gọi và bị ghi đè ở lần parse sau trên cùng luồng.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SensorPayloadParser {
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    private static final byte BINARY_VERSION = 1;
+    private static final int FIELD_MASK_ALL = (1 << SensorReading.FIELD_COUNT) - 1;
+    // Lần đo không mang timestamp: dùng thời điểm nhận
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    @Value("${sensor.ingest.max-clock-skew:30s}")
+    private Duration maxClockSkew;
+
+    @Value("${sensor.ingest.max-reading-age:7d}")
+    private Duration maxReadingAge;
+
+    @Value("${sensor.ingest.max-batch-size:1000}")
+    private int maxBatchSize;
+
+    private final ThreadLocal<SensorReadings> buffers = ThreadLocal.withInitial(SensorReadings::new);
+
+    private DistributionSummary jsonBytes;
+    private DistributionSummary binaryBytes;
+    private Counter clockSkewAdjusted;
+    private Counter staleReadings;
+
+    @PostConstruct
+    public void init() {
+        jsonBytes = DistributionSummary.builder("sensor.ingest.payload_bytes").tag("format", "json")
+                .register(meterRegistry);
+        binaryBytes = DistributionSummary.builder("sensor.ingest.payload_bytes").tag("format", "binary")
+                .register(meterRegistry);
+        clockSkewAdjusted = meterRegistry.counter("sensor.ingest.clock_skew_adjusted");
+        staleReadings = meterRegistry.counter("sensor.ingest.stale_readings");
+    }
+
+    public SensorReadings parse(String deviceId, byte[] payload) throws IOException {
+        jsonBytes.record(payload.length);
+        SensorReadings readings = buffers.get();
+        readings.clear();
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                readObject(parser, readings.add());
+            } else if (token == JsonToken.START_ARRAY) {
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+                    if (token != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    if (readings.size() == maxBatchSize) {
+                        throw new IllegalArgumentException("Payload vượt giới hạn " + maxBatchSize + " bản ghi");
+                    }
+                    readObject(parser, readings.add());
+                }
+            } else {
+                throw new IllegalArgumentException("Payload phải là object hoặc mảng object");
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        long newest = NO_TIME;
+        boolean deviceTimed = true;
+        for (int i = 0; i < readings.size(); i++) {
+            newest = Math.max(newest, readings.get(i).timestamp());
+            deviceTimed &= readings.get(i).timestamp() != NO_TIME;
+        }
+        long shift = clockShift(deviceId, newest, now);
+        // Timestamp phải dời (đồng hồ sai, ts cố định/rác) thì không dùng để nhận diện lần đo
+        readings.deviceTimed(deviceTimed && shift == 0 && !readings.isEmpty());
+        for (int i = 0; i < readings.size(); i++) {
+            SensorReading reading = readings.get(i);
+            reading.deviceId(deviceId);
+            reading.timestamp(reading.timestamp() == NO_TIME ? now : reading.timestamp() + shift);
+        }
+        dropStale(readings, now);
+        readings.sortByTime();
+        return readings;
+    }
+
+    /**
+     * Đọc payload nhị phân (định dạng ở đầu class). Payload sai định dạng ném {@link IllegalArgumentException}.
+     */
+    public SensorReadings parseBinary(String deviceId, byte[] payload) {
+        binaryBytes.record(payload.length);
+        SensorReadings readings = buffers.get();
+        readings.clear();
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        try {
+            if (in.get() != BINARY_VERSION) {
+                throw new IllegalArgumentException("Phiên bản payload nhị phân không được hỗ trợ");
+            }
+            long unit = (in.get() & 1) != 0 ? 1 : 1000;
+            long time = readVarint(in);
+            while (in.hasRemaining()) {
+                if (readings.size() == maxBatchSize) {
+                    throw new IllegalArgumentException("Payload vượt giới hạn " + maxBatchSize + " bản ghi");
+                }
+                time += readVarint(in);
+                int mask = in.get() & 0xFF;
+                if ((mask & ~FIELD_MASK_ALL) != 0) {
+                    throw new IllegalArgumentException("Field id không hợp lệ trong payload nhị phân");
+                }
+                SensorReading reading = readings.add();
+                reading.deviceId(deviceId);
+                reading.timestamp(time * unit);
+                for (int f = 0; mask != 0; f++, mask >>>= 1) {
+                    if ((mask & 1) != 0) {
+                        // NaN: cảm biến lỗi ở lần đo này, coi như không có giá trị
+                        float value = in.getFloat();
+                        if (!Float.isNaN(value)) {
+                            reading.set(f, widen(value));
+                        }
+                    }
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Payload nhị phân bị cắt cụt", e);
+        }
+        if (readings.isEmpty()) {
+            return readings;
+        }
+
+        // Khoảng cách không âm nên lần đo cuối là mới nhất và danh sách đã theo thứ tự thời gian
+        long now = System.currentTimeMillis();
+        long shift = clockShift(deviceId, readings.last().timestamp(), now);
+        // Mốc 0 (thiết bị không có đồng hồ thực) luôn bị dời: payload giống nhau có thể là lần đo mới
+        readings.deviceTimed(shift == 0);
+        for (int i = 0; i < readings.size(); i++) {
+            SensorReading reading = readings.get(i);
+            reading.timestamp(reading.timestamp() + shift);
+        }
+        dropStale(readings, now);
+        return readings;
+    }
+
+    private void readObject(JsonParser parser, SensorReading reading) throws IOException {
+        reading.timestamp(NO_TIME);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (name) {
+                case "temperature" -> readNumber(parser, value, reading, SensorReading.TEMPERATURE);
+                case "humidity" -> readNumber(parser, value, reading, SensorReading.HUMIDITY);
+                case "soilMoisture" -> readNumber(parser, value, reading, SensorReading.SOIL_MOISTURE);
+                case "lightIntensity" -> readNumber(parser, value, reading, SensorReading.LIGHT_INTENSITY);
+                case "soilPH" -> readNumber(parser, value, reading, SensorReading.SOIL_PH);
+                case "sensorType" -> {
+                    if (value != JsonToken.VALUE_NULL) {
+                        reading.sensorType(parser.getValueAsString());
+                    }
+                }
+                // "timestamp" được ưu tiên hơn "ts" nếu có cả hai
+                case "timestamp", "ts" -> {
+                    if (reading.timestamp() == NO_TIME || name.equals("timestamp")) {
+                        reading.timestamp(readTimestamp(parser, value));
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    // Số hoặc chuỗi số; giá trị khác (null, chuỗi không phải số) coi như không có
+    private static void readNumber(JsonParser parser, JsonToken token, SensorReading reading, int field)
+            throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            reading.set(field, parser.getDoubleValue());
+        } else if (token == JsonToken.VALUE_STRING) {
+            try {
+                reading.set(field, Double.parseDouble(parser.getText().trim()));
+            } catch (NumberFormatException e) {
+                // bỏ qua
+            }
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    // Epoch mili giây; NO_TIME nếu không đọc được
+    private static long readTimestamp(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return epochMillis(parser.getDoubleValue());
+        }
+        if (token != JsonToken.VALUE_STRING) {
+            parser.skipChildren();
+            return NO_TIME;
+        }
+        String text = parser.getText().trim();
+        try {
+            return epochMillis(Double.parseDouble(text));
+        } catch (NumberFormatException e) {
+            // Không phải số: thử ISO-8601
+        }
+        try {
+            return Instant.parse(text).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return NO_TIME;
+        }
+    }
+
+    // Độ dời (ms) cần cộng vào thời gian thiết bị, 0 nếu lần đo mới nhất nằm trong khoảng chấp nhận được
+    private long clockShift(String deviceId, long newest, long now) {
+        if (newest == NO_TIME
+                || (newest <= now + maxClockSkew.toMillis() && newest >= now - maxReadingAge.toMillis())) {
+            return 0;
+        }
+        long shift = now - newest;
+        clockSkewAdjusted.increment();
+        log.warn("Đồng hồ thiết bị {} lệch {} ms, dời thời gian của payload", deviceId, -shift);
+        return shift;
+    }
+
+    // Bỏ các lần đo cũ hơn max-reading-age dù payload đã được chỉnh lệch đồng hồ, giữ nguyên thứ tự còn lại
+    private void dropStale(SensorReadings readings, long now) {
+        long cutoff = now - maxReadingAge.toMillis();
+        int kept = 0;
+        for (int i = 0; i < readings.size(); i++) {
+            if (readings.get(i).timestamp() < cutoff) {
+                staleReadings.increment();
+                continue;
+            }
+            if (kept != i) {
+                readings.get(kept).copyFrom(readings.get(i));
+            }
+            kept++;
+        }
+        while (readings.size() > kept) {
+            readings.removeLast();
+        }
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint quá dài trong payload nhị phân");
+    }
+
+    // float32 -> double theo giá trị thập phân ngắn nhất của float (23.4f thành 23.4, không phải 23.399999618...)
+    private static double widen(float value) {
+        return Double.parseDouble(Float.toString(value));
+    }
+
+    // Giá trị nhỏ hơn 1e11 được coi là epoch giây (tới năm 5138), còn lại là mili giây
+    private static long epochMillis(double value) {
+        return value < 1e11 ? Math.round(value * 1000) : Math.round(value);
+    }
+}
@@ -0,0 +1,394 @@
+package com.example.iotserver.service;
+
+import com.example.iotserver.dto.PercentileStatsDTO;
+import com.example.iotserver.entity.Device;
+import com.example.iotserver.repository.DeviceRepository;
+import com.example.iotserver.timeseries.SensorDataStore;
+import com.example.iotserver.timeseries.SensorReading;
+import com.example.iotserver.timeseries.sketch.DistributionSketch;
+import com.example.iotserver.timeseries.sketch.FixedHistogram;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thống kê phân phối (quantile, histogram) của từng chuỗi (device, field), cập nhật khi nhận dữ liệu.
+ *
+ * Mỗi chuỗi có một {@link DistributionSketch} cho mỗi giờ và mỗi ngày (UTC), lưu trong Redis.
+ * Khi ingest chỉ cộng điểm vào sketch "chờ ghi" trong bộ nhớ; định kỳ các sketch này được gộp vào
+ * bản trong Redis. Truy vấn p50/p95/p99 trên khoảng bất kỳ gộp sketch ngày cho các ngày trọn vẹn
+ * và sketch giờ cho phần lẻ, không quét dữ liệu thô. Percentile cấp farm gộp sketch của mọi thiết bị.
+ *
+ * Việc gộp vào Redis là read-modify-write trong WATCH/MULTI: instance khác ghi cùng key xen vào giữa
+ * thì transaction bị hủy và lô được gộp lại từ bản mới, nên nhiều instance có thể cùng ghi sketch.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SensorStatisticsService {
+
+    private static final String KEY_PREFIX = "sensor:sketch:";
+    private static final long HOUR = 3_600_000L;
+    private static final long DAY = 86_400_000L;
+    private static final int REDIS_BATCH = 500;
+    private static final int MAX_FLUSH_ATTEMPTS = 5;
+
+    // Histogram của từng field: [lower, upper) và số bucket
+    private static final Map<String, double[]> HISTOGRAM_LAYOUTS = Map.of(
+            "temperature", new double[] { -20, 60, 80 },
+            "humidity", new double[] { 0, 100, 50 },
+            "soil_moisture", new double[] { 0, 100, 50 },
+            "light_intensity", new double[] { 0, 100000, 100 },
+            "soilPH", new double[] { 0, 14, 56 });
+
+    private final StringRedisTemplate redisTemplate;
+    private final DeviceRepository deviceRepository;
+
+    @Value("${sensor.stats.enabled:true}")
+    private boolean enabled;
+
+    @Value("${sensor.stats.compression:100}")
+    private double compression;
+
+    @Value("${sensor.stats.hour-retention:14d}")
+    private Duration hourRetention;
+
+    @Value("${sensor.stats.day-retention:400d}")
+    private Duration dayRetention;
+
+    // Số sketch tối đa một truy vấn percentile được đọc (số thiết bị x số bucket)
+    @Value("${sensor.stats.max-query-keys:20000}")
+    private int maxQueryKeys;
+
+    // Key Redis -> các điểm mới chưa gộp vào Redis
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Điểm mới của một bucket, bị đóng lại khi luồng flush lấy ra để ghi.
+     */
+    private static final class Pending {
+        final DistributionSketch sketch;
+        boolean closed;
+
+        Pending(DistributionSketch sketch) {
+            this.sketch = sketch;
+        }
+    }
+
+    /**
+     * Cộng một bản ghi vào sketch giờ và ngày của từng field có giá trị.
+     */
+    public void record(SensorReading data) {
+        if (!enabled) {
+            return;
+        }
+        long time = data.timestamp();
+        for (int f = 0; f < SensorReading.FIELD_COUNT; f++) {
+            if (!data.has(f) || Double.isNaN(data.value(f))) {
+                continue;
+            }
+            String field = SensorDataStore.FIELDS.get(f);
+            add(key("h", data.deviceId(), field, Math.floorDiv(time, HOUR) * HOUR), field, data.value(f));
+            add(key("d", data.deviceId(), field, Math.floorDiv(time, DAY) * DAY), field, data.value(f));
+        }
+    }
+
+    private void add(String key, String field, double value) {
+        while (true) {
+            Pending bucket = pending.computeIfAbsent(key, k -> new Pending(newSketch(field)));
+            synchronized (bucket) {
+                // Luồng flush vừa lấy bucket này đi: tạo bucket mới
+                if (!bucket.closed) {
+                    bucket.sketch.add(value);
+                    return;
+                }
+            }
+        }
+    }
+
+    private DistributionSketch newSketch(String field) {
+        double[] layout = HISTOGRAM_LAYOUTS.get(field);
+        return new DistributionSketch(compression, layout[0], layout[1], (int) layout[2]);
+    }
+
+    /**
+     * Gộp các sketch chờ ghi vào bản trong Redis. Nếu Redis lỗi thì trả chúng lại hàng đợi để lần sau ghi tiếp.
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, DistributionSketch> batch = new LinkedHashMap<>();
+        for (String key : new ArrayList<>(pending.keySet())) {
+            Pending bucket = pending.remove(key);
+            if (bucket != null) {
+                synchronized (bucket) {
+                    bucket.closed = true;
+                }
+                batch.put(key, bucket.sketch);
+                if (batch.size() == REDIS_BATCH) {
+                    flushBatch(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            flushBatch(batch);
+        }
+    }
+
+    private void flushBatch(Map<String, DistributionSketch> batch) {
+        List<String> keys = new ArrayList<>(batch.keySet());
+        try {
+            for (int attempt = 1; !mergeIntoRedis(keys, batch); attempt++) {
+                if (attempt == MAX_FLUSH_ATTEMPTS) {
+                    throw new IllegalStateException("sketch bị instance khác ghi đồng thời " + attempt + " lần");
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Không ghi được {} sketch thống kê vào Redis, thử lại lần sau: {}", keys.size(), e.getMessage());
+            batch.forEach((key, sketch) -> {
+                Pending bucket = pending.computeIfAbsent(key, k -> new Pending(sketch));
+                if (bucket.sketch != sketch) {
+                    synchronized (bucket) {
+                        bucket.sketch.merge(sketch);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Đọc, gộp và ghi lại một lô key trong WATCH/MULTI/EXEC.
+     *
+     * @return false nếu key bị ghi bởi client khác trong lúc gộp (EXEC bị hủy, chưa ghi gì)
+     */
+    private boolean mergeIntoRedis(List<String> keys, Map<String, DistributionSketch> batch) {
+        byte[][] raw = rawKeys(keys);
+        Boolean committed = redisTemplate.execute((RedisCallback<Boolean>) connection -> {
+            connection.watch(raw);
+            List<byte[]> merged = new ArrayList<>(keys.size());
+            try {
+                List<byte[]> stored = connection.stringCommands().mGet(raw);
+                if (stored == null || stored.size() != keys.size()) {
+                    throw new IllegalStateException("Redis trả về kết quả MGET không hợp lệ");
+                }
+                // Gộp vào bản đọc từ Redis, không sửa sketch chờ ghi để có thể trả lại hàng đợi nếu ghi lỗi
+                for (int i = 0; i < keys.size(); i++) {
+                    DistributionSketch sketch = batch.get(keys.get(i));
+                    if (stored.get(i) != null) {
+                        DistributionSketch combined = DistributionSketch.fromBytes(stored.get(i));
+                        combined.merge(sketch);
+                        sketch = combined;
+                    }
+                    merged.add(sketch.toBytes());
+                }
+            } catch (RuntimeException e) {
+                connection.unwatch();
+                throw e;
+            }
+
+            long now = System.currentTimeMillis();
+            connection.multi();
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                long ttl = bucketEnd(key) + (isHourKey(key) ? hourRetention : dayRetention).toMillis() - now;
+                if (ttl > 0) {
+                    connection.stringCommands().set(raw[i], merged.get(i), Expiration.milliseconds(ttl),
+                            RedisStringCommands.SetOption.upsert());
+                }
+            }
+            // EXEC trả null khi transaction bị hủy do key đang WATCH đã thay đổi
+            return connection.exec() != null;
+        });
+        return Boolean.TRUE.equals(committed);
+    }
+
+    // ---------------------------------------------------------------- truy vấn
+
+    public PercentileStatsDTO getDevicePercentiles(String deviceId, String field, Instant start, Instant end,
+            List<Double> quantiles) {
+        PercentileStatsDTO stats = percentiles(List.of(deviceId), field, start, end, quantiles);
+        stats.setDeviceId(deviceId);
+        return stats;
+    }
+
+    /**
+     * Percentile của cả farm: gộp sketch của mọi thiết bị thuộc farm.
+     */
+    public PercentileStatsDTO getFarmPercentiles(Long farmId, String field, Instant start, Instant end,
+            List<Double> quantiles) {
+        List<String> deviceIds = deviceRepository.findByFarmId(farmId).stream()
+                .map(Device::getDeviceId)
+                .toList();
+        PercentileStatsDTO stats = percentiles(deviceIds, field, start, end, quantiles);
+        stats.setFarmId(farmId);
+        return stats;
+    }
+
+    private PercentileStatsDTO percentiles(Collection<String> deviceIds, String field, Instant start, Instant end,
+            List<Double> quantiles) {
+        if (!HISTOGRAM_LAYOUTS.containsKey(field)) {
+            throw new RuntimeException("Field không hợp lệ: " + field);
+        }
+        if (!start.isBefore(end)) {
+            throw new RuntimeException("Thời gian bắt đầu phải trước thời gian kết thúc");
+        }
+        // Sketch ngoài thời gian lưu đã hết hạn: không đọc các bucket chắc chắn rỗng
+        long now = System.currentTimeMillis();
+        long startMillis = Math.max(start.toEpochMilli(), now - dayRetention.toMillis());
+        long endMillis = Math.min(end.toEpochMilli(), now + HOUR);
+        if (startMillis >= endMillis) {
+            throw new RuntimeException("Khoảng thời gian nằm ngoài thời gian lưu thống kê (" + dayRetention.toDays()
+                    + " ngày)");
+        }
+        for (Double q : quantiles) {
+            if (q == null || q < 0 || q > 1) {
+                throw new RuntimeException("Quantile phải nằm trong [0, 1]: " + q);
+            }
+        }
+
+        // Ngày trọn vẹn dùng sketch ngày, phần lẻ dùng sketch giờ; giờ đã hết hạn lưu thì dùng cả ngày chứa nó
+        long from = Math.floorDiv(startMillis, HOUR) * HOUR;
+        long to = Math.floorDiv(endMillis + HOUR - 1, HOUR) * HOUR;
+        long hourHorizon = now - hourRetention.toMillis();
+        List<String> granularities = new ArrayList<>();
+        List<Long> starts = new ArrayList<>();
+        long coveredFrom = Long.MAX_VALUE;
+        long coveredTo = Long.MIN_VALUE;
+        long t = from;
+        while (t < to) {
+            long day = Math.floorDiv(t, DAY) * DAY;
+            long next;
+            if (t == day && t + DAY <= to) {
+                granularities.add("d");
+                starts.add(t);
+                next = t + DAY;
+            } else if (t + HOUR > hourHorizon) {
+                granularities.add("h");
+                starts.add(t);
+                next = t + HOUR;
+            } else {
+                granularities.add("d");
+                starts.add(day);
+                coveredFrom = Math.min(coveredFrom, day);
+                next = day + DAY;
+            }
+            coveredFrom = Math.min(coveredFrom, t);
+            coveredTo = Math.max(coveredTo, next);
+            t = next;
+        }
+
+        if ((long) deviceIds.size() * starts.size() > maxQueryKeys) {
+            throw new RuntimeException("Khoảng thời gian quá lớn cho " + deviceIds.size()
+                    + " thiết bị, hãy thu hẹp khoảng truy vấn");
+        }
+        List<String> keys = new ArrayList<>();
+        for (String deviceId : deviceIds) {
+            for (int i = 0; i < starts.size(); i++) {
+                keys.add(key(granularities.get(i), deviceId, field, starts.get(i)));
+            }
+        }
+
+        DistributionSketch merged = newSketch(field);
+        for (int i = 0; i < keys.size(); i += REDIS_BATCH) {
+            List<String> batch = keys.subList(i, Math.min(keys.size(), i + REDIS_BATCH));
+            List<byte[]> stored = multiGet(batch);
+            for (int j = 0; j < batch.size(); j++) {
+                if (stored.get(j) != null) {
+                    merged.merge(DistributionSketch.fromBytes(stored.get(j)));
+                }
+                // Cộng cả các điểm chưa kịp ghi vào Redis
+                Pending bucket = pending.get(batch.get(j));
+                if (bucket != null) {
+                    synchronized (bucket) {
+                        merged.merge(bucket.sketch);
+                    }
+                }
+            }
+        }
+
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Double q : quantiles) {
+            values.put(label(q), finite(merged.quantile(q)));
+        }
+        FixedHistogram histogram = merged.histogram();
+        return PercentileStatsDTO.builder()
+                .field(field)
+                .start(Instant.ofEpochMilli(coveredFrom))
+                .end(Instant.ofEpochMilli(coveredTo))
+                .count(merged.count())
+                .min(finite(merged.min()))
+                .max(finite(merged.max()))
+                .mean(finite(merged.mean()))
+                .percentiles(values)
+                .histogram(PercentileStatsDTO.Histogram.builder()
+                        .lower(histogram.lower())
+                        .upper(histogram.upper())
+                        .counts(histogram.counts())
+                        .underflow(histogram.underflow())
+                        .overflow(histogram.overflow())
+                        .build())
+                .build();
+    }
+
+    private List<byte[]> multiGet(List<String> keys) {
+        byte[][] raw = rawKeys(keys);
+        List<byte[]> values = redisTemplate.execute(
+                (RedisCallback<List<byte[]>>) connection -> connection.stringCommands().mGet(raw));
+        if (values == null || values.size() != keys.size()) {
+            throw new IllegalStateException("Redis trả về kết quả MGET không hợp lệ");
+        }
+        return values;
+    }
+
+    // ---------------------------------------------------------------- key
+
+    private static byte[][] rawKeys(List<String> keys) {
+        byte[][] raw = new byte[keys.size()][];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return raw;
+    }
+
+    private static String key(String granularity, String deviceId, String field, long bucketStart) {
+        return KEY_PREFIX + granularity + ":" + deviceId + ":" + field + ":" + bucketStart;
+    }
+
+    private static boolean isHourKey(String key) {
+        return key.startsWith(KEY_PREFIX + "h:");
+    }
+
+    private static long bucketEnd(String key) {
+        long start = Long.parseLong(key.substring(key.lastIndexOf(':') + 1));
+        return start + (isHourKey(key) ? HOUR : DAY);
+    }
+
+    // 0.5 -> "p50", 0.999 -> "p99.9"
+    private static String label(double q) {
+        String percent = String.valueOf(Math.round(q * 1_000_000) / 10_000.0);
+        return "p" + (percent.endsWith(".0") ? percent.substring(0, percent.length() - 2) : percent);
+    }
+
+    private static Double finite(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+}
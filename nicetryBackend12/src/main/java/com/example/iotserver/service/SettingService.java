@@ -4,8 +4,10 @@ import com.example.iotserver.entity.SystemSetting;
 import com.example.iotserver.repository.SystemSettingRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -14,6 +16,11 @@ import org.springframework.stereotype.Service;
 public class SettingService {
     private final SystemSettingRepository settingRepository;
 
+    // Proxy của chính service, để lời gọi nội bộ tới getString vẫn đi qua cache
+    @Lazy
+    @Autowired
+    private SettingService self;
+
     @Cacheable(value = "settings", key = "#key")
     public String getString(String key, String defaultValue) {
         log.debug("Database hit for setting: {}", key);
@@ -30,6 +37,18 @@ public class SettingService {
         }
     }
 
+    /**
+     * Như {@link #getDouble} nhưng đọc qua cache của {@link #getString} (getDouble gọi getString nội bộ nên
+     * không đi qua cache), dùng cho các cài đặt được đọc trên mỗi message.
+     */
+    public double getCachedDouble(String key, double defaultValue) {
+        try {
+            return Double.parseDouble(self.getString(key, String.valueOf(defaultValue)).trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     public Integer getInteger(String key, Integer defaultValue) {
         try {
             return Integer.parseInt(getString(key, defaultValue.toString()));
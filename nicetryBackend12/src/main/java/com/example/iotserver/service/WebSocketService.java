@@ -1,5 +1,6 @@
 package com.example.iotserver.service;
 
+import com.example.iotserver.dto.ReportJobDTO;
 import com.example.iotserver.dto.SensorDataDTO;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -76,4 +77,13 @@ public class WebSocketService {
     }
     // ^^^^-----------------------------^^^^
 
+    /**
+     * Gửi tiến độ job tạo báo cáo
+     */
+    public void sendReportJobProgress(ReportJobDTO job) {
+        String destination = "/topic/reports/" + job.getJobId();
+        messagingTemplate.convertAndSend(destination, job);
+        log.debug("Sent report job progress to {}: {}", destination, job.getStatus());
+    }
+
 }
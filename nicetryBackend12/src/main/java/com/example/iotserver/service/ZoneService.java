@@ -10,6 +10,9 @@ import com.example.iotserver.exception.ResourceNotFoundException;
 import com.example.iotserver.repository.FarmRepository;
 import com.example.iotserver.repository.ZoneRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -26,6 +29,7 @@ public class ZoneService {
 
     // CRUD operations...
     @Transactional
+    @CacheEvict(value = "zones", key = "#farmId")
     public ZoneDTO createZone(Long farmId, ZoneDTO zoneDTO) {
         User currentUser = authenticationService.getCurrentAuthenticatedUser();
         farmService.checkUserPermissionForFarm(currentUser.getId(), farmId, FarmRole.OPERATOR);
@@ -40,6 +44,7 @@ public class ZoneService {
         return mapToDTO(zoneRepository.save(zone));
     }
 
+    @Cacheable(value = "zones", key = "#farmId")
     public List<ZoneDTO> getZonesByFarm(Long farmId) {
         // Check permission
         return zoneRepository.findByFarmId(farmId).stream()
@@ -59,6 +64,9 @@ public class ZoneService {
     }
 
     @Transactional
+    @Caching(evict = {
+            @CacheEvict(value = "zones", allEntries = true),
+            @CacheEvict(value = "devices", allEntries = true) })
     public ZoneDTO updateZone(Long zoneId, ZoneDTO zoneDTO) {
         User currentUser = authenticationService.getCurrentAuthenticatedUser();
         Zone zone = zoneRepository.findById(zoneId)
@@ -73,6 +81,9 @@ public class ZoneService {
     }
 
     @Transactional
+    @Caching(evict = {
+            @CacheEvict(value = "zones", allEntries = true),
+            @CacheEvict(value = "devices", allEntries = true) })
     public void deleteZone(Long zoneId) {
         User currentUser = authenticationService.getCurrentAuthenticatedUser();
         Zone zone = zoneRepository.findById(zoneId)
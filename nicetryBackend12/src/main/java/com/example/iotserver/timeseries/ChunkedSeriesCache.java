@@ -0,0 +1,214 @@
+package com.example.iotserver.timeseries;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache kết quả truy vấn chuỗi thời gian đã tổng hợp theo từng chunk 1 ngày (UTC).
+ *
+ * Chunk đã đóng (kết thúc trước {@code now - window - settle}) được cache không hết hạn, chỉ bị loại khi
+ * vượt giới hạn bộ nhớ hoặc khi có điểm ghi muộn vào ngày đó ({@link #invalidateLate}, vd: lô gửi dồn hay
+ * replay spool). Chunk đang mở luôn được truy vấn lại.
+ * Chỉ áp dụng khi window chia hết 1 ngày để không có cửa sổ nào nằm vắt qua hai chunk.
+ */
+@Slf4j
+@Component
+public class ChunkedSeriesCache {
+
+    private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+
+    /**
+     * Nạp dữ liệu của tất cả chuỗi được yêu cầu trong khoảng [from, to).
+     * Chuỗi không có dữ liệu có thể vắng mặt trong kết quả.
+     */
+    @FunctionalInterface
+    public interface RangeLoader {
+        Map<SeriesKey, SeriesChunk> load(Instant from, Instant to);
+    }
+
+    private record ChunkKey(SeriesKey series, long epochDay) {
+    }
+
+    private final Cache<ChunkKey, SeriesChunk> chunks;
+    private final boolean enabled;
+    private final Duration settle;
+
+    public ChunkedSeriesCache(
+            @Value("${analytics.chunk-cache.enabled:true}") boolean enabled,
+            @Value("${analytics.chunk-cache.max-bytes:67108864}") long maxBytes,
+            @Value("${analytics.chunk-cache.settle:10m}") Duration settle,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.settle = settle;
+        this.chunks = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((ChunkKey key, SeriesChunk chunk) -> chunk.weight())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, chunks, "analytics_chunks");
+    }
+
+    /**
+     * Lấy dữ liệu các chuỗi trong khoảng [start, end), dùng chunk đã cache khi có thể.
+     * Kết quả gồm các cửa sổ giao với khoảng yêu cầu, theo thứ tự thời gian.
+     */
+    public Map<SeriesKey, SeriesChunk> get(Collection<SeriesKey> series, Instant start, Instant end,
+            Duration window, RangeLoader loader) {
+        if (!enabled || window == null || window.toMillis() <= 0 || DAY_MILLIS % window.toMillis() != 0
+                || !start.isBefore(end)) {
+            return loader.load(start, end);
+        }
+
+        long windowMillis = window.toMillis();
+        long startMillis = start.toEpochMilli();
+        long endMillis = end.toEpochMilli();
+
+        long firstDay = Math.floorDiv(startMillis, DAY_MILLIS);
+        long closedBefore = Instant.now().minus(settle).toEpochMilli() - windowMillis;
+        // Ngày cuối cùng đã đóng hoàn toàn và nằm trong khoảng truy vấn
+        long lastClosedDay = Math.min(Math.floorDiv(closedBefore, DAY_MILLIS) - 1,
+                Math.floorDiv(endMillis - 1, DAY_MILLIS));
+
+        Map<ChunkKey, SeriesChunk> resolved = new HashMap<>();
+        int loadedDays = 0;
+        long runStart = -1;
+        for (long day = firstDay; day <= lastClosedDay + 1; day++) {
+            boolean missing = day <= lastClosedDay && !allCached(series, day, resolved);
+            if (missing && runStart < 0) {
+                runStart = day;
+            } else if (!missing && runStart >= 0) {
+                loadClosedDays(series, runStart, day, loader, resolved);
+                loadedDays += (int) (day - runStart);
+                runStart = -1;
+            }
+        }
+
+        Map<SeriesKey, SeriesChunk.Builder> builders = new LinkedHashMap<>();
+        series.forEach(key -> builders.put(key, SeriesChunk.builder()));
+
+        for (long day = firstDay; day <= lastClosedDay; day++) {
+            for (SeriesKey key : series) {
+                SeriesChunk chunk = resolved.get(new ChunkKey(key, day));
+                appendOverlapping(builders.get(key), chunk, startMillis, endMillis, windowMillis);
+            }
+        }
+
+        // Phần đuôi (chunk còn mở) luôn được truy vấn lại
+        long tailStart = Math.max(startMillis, (lastClosedDay + 1) * DAY_MILLIS);
+        if (tailStart < endMillis) {
+            Map<SeriesKey, SeriesChunk> tail = loader.load(Instant.ofEpochMilli(tailStart), end);
+            for (SeriesKey key : series) {
+                appendOverlapping(builders.get(key), tail.get(key), startMillis, endMillis, windowMillis);
+            }
+        }
+
+        log.debug("Chunk cache: {} ngày đã đóng ({} nạp mới), đuôi từ {}",
+                Math.max(0, lastClosedDay - firstDay + 1), loadedDays, Instant.ofEpochMilli(tailStart));
+
+        Map<SeriesKey, SeriesChunk> result = new LinkedHashMap<>();
+        builders.forEach((key, builder) -> result.put(key, builder.build()));
+        return result;
+    }
+
+    /**
+     * Bỏ các chunk đã cache của những ngày vừa nhận điểm ghi muộn, gọi sau khi các điểm đã vào store.
+     */
+    public void invalidateLate(SensorReadings points) {
+        if (!enabled || points.isEmpty()) {
+            return;
+        }
+        // Ngày kết thúc sau mốc này chưa thể được coi là đã đóng với bất kỳ window nào
+        long closedBefore = Instant.now().minus(settle).toEpochMilli();
+        Map<String, Set<Long>> lateDays = null;
+        for (int i = 0; i < points.size(); i++) {
+            SensorReading reading = points.get(i);
+            long day = Math.floorDiv(reading.timestamp(), DAY_MILLIS);
+            if ((day + 1) * DAY_MILLIS > closedBefore) {
+                continue;
+            }
+            if (lateDays == null) {
+                lateDays = new HashMap<>();
+            }
+            lateDays.computeIfAbsent(reading.deviceId(), id -> new HashSet<>()).add(day);
+        }
+        if (lateDays == null) {
+            return;
+        }
+        Map<String, Set<Long>> days = lateDays;
+        chunks.asMap().keySet().removeIf(key -> {
+            Set<Long> deviceDays = days.get(key.series().deviceId());
+            return deviceDays != null && deviceDays.contains(key.epochDay());
+        });
+        log.debug("Bỏ chunk đã cache do dữ liệu ghi muộn: {}", days);
+    }
+
+    private boolean allCached(Collection<SeriesKey> series, long day, Map<ChunkKey, SeriesChunk> resolved) {
+        boolean all = true;
+        for (SeriesKey key : series) {
+            ChunkKey chunkKey = new ChunkKey(key, day);
+            SeriesChunk chunk = chunks.getIfPresent(chunkKey);
+            if (chunk == null) {
+                all = false;
+            } else {
+                // Giữ tham chiếu để không bị loại giữa lúc kiểm tra và lúc ghép kết quả
+                resolved.put(chunkKey, chunk);
+            }
+        }
+        return all;
+    }
+
+    // Nạp một dải ngày liên tiếp [fromDay, toDay) bằng một truy vấn rồi tách theo ngày
+    private void loadClosedDays(Collection<SeriesKey> series, long fromDay, long toDay, RangeLoader loader,
+            Map<ChunkKey, SeriesChunk> resolved) {
+        Map<SeriesKey, SeriesChunk> loaded = loader.load(
+                Instant.ofEpochMilli(fromDay * DAY_MILLIS), Instant.ofEpochMilli(toDay * DAY_MILLIS));
+
+        for (SeriesKey key : series) {
+            Map<Long, SeriesChunk.Builder> byDay = new HashMap<>();
+            SeriesChunk data = loaded.get(key);
+            if (data != null) {
+                for (int i = 0; i < data.size(); i++) {
+                    long time = data.timeAt(i);
+                    // _time của aggregateWindow là mốc kết thúc cửa sổ, nên mốc 00:00 thuộc ngày trước
+                    long day = Math.floorDiv(time - 1, DAY_MILLIS);
+                    byDay.computeIfAbsent(day, d -> SeriesChunk.builder()).add(time, data.valueAt(i));
+                }
+            }
+            for (long day = fromDay; day < toDay; day++) {
+                SeriesChunk.Builder builder = byDay.get(day);
+                SeriesChunk chunk = builder != null ? builder.build() : SeriesChunk.EMPTY;
+                ChunkKey chunkKey = new ChunkKey(key, day);
+                chunks.put(chunkKey, chunk);
+                resolved.put(chunkKey, chunk);
+            }
+        }
+    }
+
+    // Giữ các cửa sổ [t - window, t) giao với [start, end)
+    private void appendOverlapping(SeriesChunk.Builder builder, SeriesChunk chunk, long startMillis, long endMillis,
+            long windowMillis) {
+        if (chunk == null) {
+            return;
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            long time = chunk.timeAt(i);
+            if (time > startMillis && time - windowMillis < endMillis) {
+                builder.add(time, chunk.valueAt(i));
+            }
+        }
+    }
+}
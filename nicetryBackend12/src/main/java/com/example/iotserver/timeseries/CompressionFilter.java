@@ -0,0 +1,138 @@
+package com.example.iotserver.timeseries;
+
+import com.example.iotserver.enums.CompressionMode;
+
+/**
+ * Bộ lọc nén của một chuỗi (device, field) khi ingest, quyết định điểm nào cần ghi vào store.
+ *
+ * <ul>
+ * <li>{@link CompressionMode#DEADBAND}: ghi khi |v − giá trị đã ghi| &gt; tolerance; đọc lại theo kiểu
+ * giữ giá trị (step) thì sai số không quá tolerance.</li>
+ * <li>{@link CompressionMode#SWINGING_DOOR}: giữ một "hành lang" các độ dốc hợp lệ từ điểm đã ghi gần nhất;
+ * khi đoạn thẳng tới điểm mới ra khỏi hành lang thì ghi điểm ngay trước nó. Nội suy tuyến tính giữa các điểm
+ * đã ghi lệch khỏi dữ liệu gốc không quá tolerance. Điểm được ghi trễ một nhịp.</li>
+ * </ul>
+ *
+ * Ở cả hai chế độ, khoảng cách giữa hai điểm đã ghi không vượt quá {@code maxIntervalMillis} (heartbeat),
+ * và điểm nhận được cuối cùng được ghi ra bởi {@link #flushIdle} khi chuỗi ngừng gửi.
+ * Điểm đến trễ (timestamp không sau điểm trước) được ghi nguyên, không ảnh hưởng trạng thái.
+ *
+ * Không thread-safe.
+ */
+public final class CompressionFilter {
+
+    @FunctionalInterface
+    public interface PointSink {
+        void accept(long time, double value);
+    }
+
+    private final CompressionMode mode;
+    private final double tolerance;
+    private final long maxIntervalMillis;
+
+    // Điểm đã ghi gần nhất
+    private boolean archived;
+    private long archiveTime;
+    private double archiveValue;
+
+    // Điểm nhận được gần nhất chưa được ghi
+    private boolean pending;
+    private long pendingTime;
+    private double pendingValue;
+
+    // Khoảng độ dốc còn hợp lệ của hành lang swinging-door
+    private double slopeLow = Double.NEGATIVE_INFINITY;
+    private double slopeHigh = Double.POSITIVE_INFINITY;
+
+    public CompressionFilter(CompressionMode mode, double tolerance, long maxIntervalMillis) {
+        if (mode == CompressionMode.OFF) {
+            throw new IllegalArgumentException("Không cần bộ lọc cho chế độ OFF");
+        }
+        this.mode = mode;
+        this.tolerance = Math.max(0, tolerance);
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    public boolean sameConfig(CompressionMode mode, double tolerance, long maxIntervalMillis) {
+        return this.mode == mode && this.tolerance == Math.max(0, tolerance)
+                && this.maxIntervalMillis == maxIntervalMillis;
+    }
+
+    public void offer(long time, double value, PointSink sink) {
+        long last = pending ? pendingTime : archiveTime;
+        if (archived && time <= last) {
+            sink.accept(time, value);
+            return;
+        }
+        if (!archived) {
+            archive(time, value, sink);
+            return;
+        }
+        if (mode == CompressionMode.DEADBAND) {
+            if (Math.abs(value - archiveValue) > tolerance || time - archiveTime >= maxIntervalMillis) {
+                archive(time, value, sink);
+            } else {
+                hold(time, value);
+            }
+            return;
+        }
+
+        if (time - archiveTime >= maxIntervalMillis) {
+            // Heartbeat: ghi cả điểm đang giữ (để không phá hành lang cũ) và điểm hiện tại
+            flushPending(sink);
+            archive(time, value, sink);
+            return;
+        }
+        // Chỉ giữ điểm nếu đoạn thẳng từ điểm đã ghi tới nó vẫn nằm trong hành lang của mọi điểm trước,
+        // để khi ghi điểm này thì nội suy không lệch quá tolerance
+        double dt = time - archiveTime;
+        double slope = (value - archiveValue) / dt;
+        if (slope >= slopeLow && slope <= slopeHigh) {
+            slopeLow = Math.max(slopeLow, (value - archiveValue - tolerance) / dt);
+            slopeHigh = Math.min(slopeHigh, (value - archiveValue + tolerance) / dt);
+            hold(time, value);
+            return;
+        }
+        // Hành lang đóng với điểm này: ghi điểm trước đó và mở hành lang mới từ điểm đó
+        flushPending(sink);
+        dt = time - archiveTime;
+        slopeLow = (value - archiveValue - tolerance) / dt;
+        slopeHigh = (value - archiveValue + tolerance) / dt;
+        hold(time, value);
+    }
+
+    /**
+     * Ghi điểm đang giữ nếu chuỗi đã im lặng quá {@code maxIntervalMillis}.
+     */
+    public void flushIdle(long now, PointSink sink) {
+        if (pending && now - pendingTime >= maxIntervalMillis) {
+            flushPending(sink);
+        }
+    }
+
+    /**
+     * Ghi điểm đang giữ (vd: khi đổi cấu hình nén).
+     */
+    public void flushPending(PointSink sink) {
+        if (pending) {
+            pending = false;
+            archive(pendingTime, pendingValue, sink);
+        }
+    }
+
+    private void hold(long time, double value) {
+        pending = true;
+        pendingTime = time;
+        pendingValue = value;
+    }
+
+    private void archive(long time, double value, PointSink sink) {
+        sink.accept(time, value);
+        archived = true;
+        archiveTime = time;
+        archiveValue = value;
+        pending = false;
+        slopeLow = Double.NEGATIVE_INFINITY;
+        slopeHigh = Double.POSITIVE_INFINITY;
+    }
+}
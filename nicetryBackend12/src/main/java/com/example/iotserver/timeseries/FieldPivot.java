@@ -0,0 +1,49 @@
+package com.example.iotserver.timeseries;
+
+import com.example.iotserver.dto.SensorDataDTO;
+
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Ghép các chuỗi theo field của một thiết bị thành từng dòng theo timestamp
+ * (tương đương pivot của Flux), dùng cho các store đọc dữ liệu theo chuỗi riêng lẻ.
+ */
+public final class FieldPivot {
+
+    private FieldPivot() {
+    }
+
+    /**
+     * @param fields chuỗi của từng field theo thứ tự {@link SensorDataStore#FIELDS}, mỗi chuỗi đã sắp theo thời gian
+     * @return số dòng đã xử lý
+     */
+    public static long emit(String deviceId, String sensorType, SeriesChunk[] fields,
+            SensorDataStore.RowHandler<SensorDataDTO> handler) throws IOException {
+        int[] cursor = new int[fields.length];
+        long rows = 0;
+        while (true) {
+            long time = Long.MAX_VALUE;
+            for (int f = 0; f < fields.length; f++) {
+                if (cursor[f] < fields[f].size()) {
+                    time = Math.min(time, fields[f].timeAt(cursor[f]));
+                }
+            }
+            if (time == Long.MAX_VALUE) {
+                return rows;
+            }
+            SensorDataDTO row = SensorDataDTO.builder()
+                    .deviceId(deviceId)
+                    .sensorType(sensorType)
+                    .timestamp(Instant.ofEpochMilli(time))
+                    .build();
+            for (int f = 0; f < fields.length; f++) {
+                if (cursor[f] < fields[f].size() && fields[f].timeAt(cursor[f]) == time) {
+                    row.setFieldValue(SensorDataStore.FIELDS.get(f), fields[f].valueAt(cursor[f]++));
+                }
+            }
+            handler.onRow(row);
+            rows++;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package com.example.iotserver.timeseries;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Giải mã trực tiếp response annotated CSV của InfluxDB thành các bộ (epoch millis, seriesId, double),
+ * không tạo FluxTable/FluxRecord, không tạo Map và không parse thời gian qua chuỗi {@code Instant}.
+ *
+ * Các byte được đọc qua một buffer cố định; tên chuỗi (tag + _field) chỉ được giải mã thành
+ * String một lần mỗi bảng vì chúng thuộc group key. Hàng có {@code _value} rỗng hoặc không phải
+ * kiểu số bị bỏ qua.
+ */
+public final class FluxCsvDecoder {
+
+    /**
+     * Ánh xạ một bảng (giá trị tag và _field) sang id chuỗi; trả về số âm để bỏ qua bảng.
+     */
+    @FunctionalInterface
+    public interface SeriesResolver {
+        int resolve(String tagValue, String field);
+    }
+
+    @FunctionalInterface
+    public interface TupleConsumer {
+        void accept(long epochMillis, int seriesId, double value);
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long NO_TABLE = Long.MIN_VALUE;
+    private static final int TYPE_OTHER = 0;
+    private static final int TYPE_DOUBLE = 1;
+    private static final int TYPE_LONG = 2;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private final InputStream in;
+    private final String tagColumn;
+    private final SeriesResolver resolver;
+    private final TupleConsumer consumer;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPos;
+    private int bufferLimit;
+
+    // Hàng hiện tại: các byte (đã bỏ dấu nháy) và vị trí bắt đầu/kết thúc của từng cột
+    private byte[] row = new byte[256];
+    private int rowLength;
+    private int[] cellStart = new int[16];
+    private int[] cellEnd = new int[16];
+    private int cellCount;
+
+    // Trạng thái của khối bảng hiện tại (reset sau mỗi dòng trống)
+    private boolean headerRead;
+    private boolean numericValue = true;
+    private int valueType = TYPE_OTHER;
+    private String[] datatypes;
+    private int tableIndex = -1;
+    private int timeIndex = -1;
+    private int valueIndex = -1;
+    private int fieldIndex = -1;
+    private int tagIndex = -1;
+    private int errorIndex = -1;
+    private long currentTable = NO_TABLE;
+    private int currentSeries = -1;
+
+    private FluxCsvDecoder(InputStream in, String tagColumn, SeriesResolver resolver, TupleConsumer consumer) {
+        this.in = in;
+        this.tagColumn = tagColumn;
+        this.resolver = resolver;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Đọc toàn bộ stream và đẩy từng bộ giá trị vào {@code consumer}.
+     *
+     * @param tagColumn tag dùng để phân biệt chuỗi (vd: device_id), null nếu chỉ cần _field
+     * @return số bộ giá trị đã đẩy ra
+     * @throws IOException khi đọc lỗi, dữ liệu sai định dạng hoặc InfluxDB trả về bảng lỗi
+     */
+    public static long decode(InputStream in, String tagColumn, SeriesResolver resolver, TupleConsumer consumer)
+            throws IOException {
+        return new FluxCsvDecoder(in, tagColumn, resolver, consumer).run();
+    }
+
+    private long run() throws IOException {
+        long tuples = 0;
+        while (readRow()) {
+            if (isBlankRow()) {
+                resetBlock();
+            } else if (rowLength > 0 && row[cellStart[0]] == '#' && cellEnd[0] > cellStart[0]) {
+                readAnnotation();
+            } else if (!headerRead) {
+                readHeader();
+            } else if (errorIndex >= 0) {
+                throw new IOException("InfluxDB trả về lỗi: " + cellString(errorIndex));
+            } else if (readDataRow()) {
+                tuples++;
+            }
+        }
+        return tuples;
+    }
+
+    private boolean isBlankRow() {
+        return cellCount == 1 && cellEnd[0] == cellStart[0];
+    }
+
+    private void resetBlock() {
+        headerRead = false;
+        numericValue = true;
+        valueType = TYPE_OTHER;
+        datatypes = null;
+        tableIndex = timeIndex = valueIndex = fieldIndex = tagIndex = errorIndex = -1;
+        currentTable = NO_TABLE;
+        currentSeries = -1;
+    }
+
+    private void readAnnotation() {
+        if (cellEquals(0, "#datatype")) {
+            datatypes = new String[cellCount];
+            for (int i = 0; i < cellCount; i++) {
+                datatypes[i] = cellString(i);
+            }
+        }
+    }
+
+    private void readHeader() throws IOException {
+        headerRead = true;
+        for (int i = 0; i < cellCount; i++) {
+            if (cellEquals(i, "table")) {
+                tableIndex = i;
+            } else if (cellEquals(i, "_time")) {
+                timeIndex = i;
+            } else if (cellEquals(i, "_value")) {
+                valueIndex = i;
+            } else if (cellEquals(i, "_field")) {
+                fieldIndex = i;
+            } else if (cellEquals(i, "error")) {
+                errorIndex = i;
+            } else if (tagColumn != null && cellEquals(i, tagColumn)) {
+                tagIndex = i;
+            }
+        }
+        if (errorIndex >= 0) {
+            return;
+        }
+        if (timeIndex < 0 || valueIndex < 0) {
+            throw new IOException("Kết quả Flux thiếu cột _time hoặc _value");
+        }
+        if (datatypes != null && valueIndex < datatypes.length) {
+            String type = datatypes[valueIndex];
+            numericValue = type.equals("double") || type.equals("long") || type.equals("unsignedLong");
+            valueType = switch (type) {
+                case "double" -> TYPE_DOUBLE;
+                case "long" -> TYPE_LONG;
+                default -> TYPE_OTHER;
+            };
+        }
+    }
+
+    private boolean readDataRow() throws IOException {
+        if (!numericValue || cellCount <= Math.max(timeIndex, valueIndex)) {
+            return false;
+        }
+        long table = tableIndex >= 0 ? parseLong(tableIndex) : 0;
+        if (table != currentTable) {
+            currentTable = table;
+            String tag = tagIndex >= 0 && tagIndex < cellCount ? cellString(tagIndex) : null;
+            String field = fieldIndex >= 0 && fieldIndex < cellCount ? cellString(fieldIndex) : null;
+            currentSeries = resolver.resolve(tag, field);
+        }
+        if (currentSeries < 0 || cellEnd[valueIndex] == cellStart[valueIndex]
+                || cellEnd[timeIndex] == cellStart[timeIndex]) {
+            return false;
+        }
+        consumer.accept(parseTime(timeIndex), currentSeries, parseDouble(valueIndex));
+        return true;
+    }
+
+    // ---------------------------------------------------------------- đọc hàng CSV
+
+    private boolean readRow() throws IOException {
+        rowLength = 0;
+        cellCount = 0;
+        int start = 0;
+        boolean quoted = false;
+        boolean any = false;
+        while (true) {
+            if (bufferPos == bufferLimit && !fill()) {
+                if (!any) {
+                    return false;
+                }
+                endCell(start);
+                return true;
+            }
+            any = true;
+            byte b = buffer[bufferPos++];
+            if (quoted) {
+                if (b == '"') {
+                    if (bufferPos == bufferLimit && !fill()) {
+                        quoted = false;
+                        continue;
+                    }
+                    if (buffer[bufferPos] == '"') {
+                        // "" trong ô có dấu nháy là một dấu nháy
+                        bufferPos++;
+                        append(b);
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    append(b);
+                }
+            } else if (b == '"') {
+                quoted = true;
+            } else if (b == ',') {
+                endCell(start);
+                start = rowLength;
+            } else if (b == '\n') {
+                endCell(start);
+                return true;
+            } else if (b != '\r') {
+                append(b);
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        bufferPos = 0;
+        bufferLimit = read;
+        return true;
+    }
+
+    private void append(byte b) {
+        if (rowLength == row.length) {
+            row = Arrays.copyOf(row, rowLength * 2);
+        }
+        row[rowLength++] = b;
+    }
+
+    private void endCell(int start) {
+        if (cellCount == cellStart.length) {
+            cellStart = Arrays.copyOf(cellStart, cellCount * 2);
+            cellEnd = Arrays.copyOf(cellEnd, cellCount * 2);
+        }
+        cellStart[cellCount] = start;
+        cellEnd[cellCount] = rowLength;
+        cellCount++;
+    }
+
+    private boolean cellEquals(int index, String ascii) {
+        int start = cellStart[index];
+        int length = cellEnd[index] - start;
+        if (length != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (row[start + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String cellString(int index) {
+        return new String(row, cellStart[index], cellEnd[index] - cellStart[index], StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------------------------------------------- parse giá trị
+
+    private long parseLong(int index) throws IOException {
+        int pos = cellStart[index];
+        int end = cellEnd[index];
+        boolean negative = pos < end && row[pos] == '-';
+        if (negative) {
+            pos++;
+        }
+        if (pos == end) {
+            throw malformed(index);
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            int digit = row[pos] - '0';
+            if (digit < 0 || digit > 9) {
+                throw malformed(index);
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Số thập phân thông thường (≤ 15 chữ số có nghĩa, số mũ ≤ 22) được tính chính xác bằng
+     * một phép nhân/chia; các trường hợp khác dùng {@link Double#parseDouble}.
+     */
+    private double parseDouble(int index) throws IOException {
+        int pos = cellStart[index];
+        int end = cellEnd[index];
+        if (valueType == TYPE_LONG) {
+            return parseLong(index);
+        }
+        if (valueType == TYPE_DOUBLE) {
+            boolean negative = row[pos] == '-';
+            int i = negative || row[pos] == '+' ? pos + 1 : pos;
+            long mantissa = 0;
+            int digits = 0;
+            int length = 0;
+            int scale = 0;
+            boolean dot = false;
+            boolean simple = i < end;
+            for (; i < end && simple; i++) {
+                byte b = row[i];
+                if (b >= '0' && b <= '9') {
+                    if (mantissa != 0 || b != '0') {
+                        digits++;
+                    }
+                    length++;
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (dot) {
+                        scale++;
+                    }
+                } else if (b == '.' && !dot) {
+                    dot = true;
+                } else {
+                    simple = false;
+                }
+            }
+            if (simple && length > 0 && digits <= 15 && scale < POWERS_OF_TEN.length) {
+                double value = mantissa / POWERS_OF_TEN[scale];
+                return negative ? -value : value;
+            }
+        }
+        String text = new String(row, pos, end - pos, StandardCharsets.US_ASCII);
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw malformed(index);
+        }
+    }
+
+    /**
+     * RFC3339 (vd: 2024-05-01T10:00:00.123456789Z hoặc có offset +07:00) sang epoch millis.
+     */
+    private long parseTime(int index) throws IOException {
+        int pos = cellStart[index];
+        int end = cellEnd[index];
+        if (end - pos < 20 || row[pos + 4] != '-' || row[pos + 7] != '-' || row[pos + 10] != 'T'
+                || row[pos + 13] != ':' || row[pos + 16] != ':') {
+            throw malformed(index);
+        }
+        int year = digits(pos, 4, index);
+        int month = digits(pos + 5, 2, index);
+        int day = digits(pos + 8, 2, index);
+        int hour = digits(pos + 11, 2, index);
+        int minute = digits(pos + 14, 2, index);
+        int second = digits(pos + 17, 2, index);
+
+        int i = pos + 19;
+        int millis = 0;
+        if (row[i] == '.') {
+            int fractionDigits = 0;
+            for (i++; i < end && row[i] >= '0' && row[i] <= '9'; i++) {
+                if (fractionDigits < 3) {
+                    millis = millis * 10 + (row[i] - '0');
+                }
+                fractionDigits++;
+            }
+            for (; fractionDigits < 3; fractionDigits++) {
+                millis *= 10;
+            }
+        }
+        if (i >= end) {
+            throw malformed(index);
+        }
+        int offsetSeconds = 0;
+        if (row[i] == '+' || row[i] == '-') {
+            if (end - i != 6 || row[i + 3] != ':') {
+                throw malformed(index);
+            }
+            offsetSeconds = digits(i + 1, 2, index) * 3600 + digits(i + 4, 2, index) * 60;
+            if (row[i] == '-') {
+                offsetSeconds = -offsetSeconds;
+            }
+        } else if ((row[i] != 'Z' && row[i] != 'z') || i + 1 != end) {
+            throw malformed(index);
+        }
+
+        long epochSeconds = epochDay(year, month, day) * 86_400L + hour * 3600L + minute * 60L + second
+                - offsetSeconds;
+        return epochSeconds * 1000L + millis;
+    }
+
+    private int digits(int pos, int count, int index) throws IOException {
+        int value = 0;
+        for (int i = pos; i < pos + count; i++) {
+            int digit = row[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw malformed(index);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // Số ngày kể từ 1970-01-01 theo lịch Gregory (thuật toán days_from_civil)
+    static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+
+    private IOException malformed(int index) {
+        return new IOException("Giá trị không hợp lệ trong kết quả Flux: '" + cellString(index) + "'");
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.iotserver.timeseries;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Builder cho truy vấn Flux, thay cho việc ghép chuỗi bằng {@code String.format}.
+ *
+ * Mọi giá trị do người dùng truyền vào đều được escape thành string literal; window và hàm
+ * tổng hợp được kiểm tra theo danh sách cho phép. Các filter được gom lại và sinh ra ngay sau
+ * {@code range()} theo thứ tự measurement → tag → field để storage engine đẩy xuống index,
+ * tag nhiều giá trị dùng {@code contains(set:)} thay vì chuỗi {@code or}.
+ */
+public final class FluxQuery {
+
+    private static final Pattern DURATION = Pattern.compile("^(\\d+(ns|us|µs|ms|s|mo|m|h|d|w|y))+$");
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+)(ms|s|m|h|d|w)");
+    private static final Set<String> AGGREGATES = Set.of(
+            "mean", "min", "max", "sum", "count", "median", "first", "last", "spread", "stddev");
+
+    private static final int RANK_MEASUREMENT = 0;
+    private static final int RANK_TAG = 1;
+    private static final int RANK_FIELD = 2;
+
+    private record Predicate(int rank, String expression) {
+    }
+
+    private final StringBuilder flux = new StringBuilder();
+    private final List<Predicate> predicates = new ArrayList<>();
+
+    private FluxQuery(String bucket) {
+        flux.append("from(bucket: ").append(string(bucket)).append(")");
+    }
+
+    public static FluxQuery from(String bucket) {
+        return new FluxQuery(bucket);
+    }
+
+    /**
+     * Khoảng tuyệt đối [start, stop); stop null nghĩa là tới hiện tại.
+     */
+    public FluxQuery range(Instant start, Instant stop) {
+        flux.append("\n  |> range(start: ").append(time(start));
+        if (stop != null) {
+            flux.append(", stop: ").append(time(stop));
+        }
+        flux.append(")");
+        return this;
+    }
+
+    /**
+     * Khoảng tương đối tính từ hiện tại, vd: 1h gần nhất.
+     */
+    public FluxQuery rangeLast(Duration lookback) {
+        flux.append("\n  |> range(start: -").append(Math.max(1, lookback.getSeconds())).append("s)");
+        return this;
+    }
+
+    public FluxQuery measurement(String measurement) {
+        predicates.add(new Predicate(RANK_MEASUREMENT, "r._measurement == " + string(measurement)));
+        return this;
+    }
+
+    public FluxQuery tag(String tag, String value) {
+        predicates.add(new Predicate(RANK_TAG, column(tag) + " == " + string(value)));
+        return this;
+    }
+
+    public FluxQuery tagIn(String tag, Collection<String> values) {
+        predicates.add(new Predicate(RANK_TAG, membership(column(tag), values)));
+        return this;
+    }
+
+    public FluxQuery field(String field) {
+        predicates.add(new Predicate(RANK_FIELD, "r._field == " + string(field)));
+        return this;
+    }
+
+    public FluxQuery fieldIn(Collection<String> fields) {
+        predicates.add(new Predicate(RANK_FIELD, membership("r._field", fields)));
+        return this;
+    }
+
+    public FluxQuery aggregateWindow(String every, String fn) {
+        return then("aggregateWindow(every: " + duration(every) + ", fn: " + aggregate(fn) + ", createEmpty: false)");
+    }
+
+    /**
+     * Gộp các field thành một hàng cho mỗi timestamp.
+     */
+    public FluxQuery pivotFields() {
+        return pivotFields("_time");
+    }
+
+    /**
+     * Như {@link #pivotFields()} với rowKey tùy chọn; cột không thuộc group key hay rowKey bị pivot bỏ đi.
+     */
+    public FluxQuery pivotFields(String... rowKey) {
+        StringJoiner columns = new StringJoiner(", ", "[", "]");
+        for (String column : rowKey) {
+            columns.add(string(column));
+        }
+        return then("pivot(rowKey: " + columns + ", columnKey: [\"_field\"], valueColumn: \"_value\")");
+    }
+
+    /**
+     * Thêm một stage cố định (chỉ dùng với chuỗi do code tạo ra, không chứa dữ liệu người dùng).
+     */
+    public FluxQuery then(String stage) {
+        flushPredicates();
+        flux.append("\n  |> ").append(stage);
+        return this;
+    }
+
+    public String build() {
+        flushPredicates();
+        return flux.toString();
+    }
+
+    @Override
+    public String toString() {
+        return build();
+    }
+
+    private void flushPredicates() {
+        if (predicates.isEmpty()) {
+            return;
+        }
+        predicates.stream()
+                .sorted(Comparator.comparingInt(Predicate::rank))
+                .forEach(p -> flux.append("\n  |> filter(fn: (r) => ").append(p.expression()).append(")"));
+        predicates.clear();
+    }
+
+    private static String membership(String column, Collection<String> values) {
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("Danh sách giá trị lọc " + column + " không được rỗng");
+        }
+        if (values.size() == 1) {
+            return column + " == " + string(values.iterator().next());
+        }
+        return "contains(value: " + column + ", set: ["
+                + values.stream().distinct().map(FluxQuery::string).collect(Collectors.joining(", ")) + "])";
+    }
+
+    private static String column(String name) {
+        return "r[" + string(name) + "]";
+    }
+
+    /**
+     * Escape thành string literal của Flux (kể cả {@code ${} để tránh string interpolation).
+     */
+    public static String string(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Giá trị trong truy vấn Flux không được null");
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '$' -> sb.append("\\$");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public static String time(Instant instant) {
+        return instant.toString();
+    }
+
+    /**
+     * Kiểm tra duration literal của Flux (vd: 5m, 1h30m).
+     */
+    public static String duration(String value) {
+        if (value == null || !DURATION.matcher(value).matches()) {
+            throw new IllegalArgumentException("Window không hợp lệ: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Đọc duration kiểu Flux có độ dài cố định (vd: 5m, 1h30m, 1d) thành Duration.
+     * Trả về null nếu không hợp lệ hoặc dùng đơn vị không cố định (mo, y).
+     */
+    public static Duration parseDuration(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        Matcher matcher = DURATION_PART.matcher(value.trim());
+        Duration total = Duration.ZERO;
+        int end = 0;
+        while (matcher.find()) {
+            if (matcher.start() != end) {
+                return null;
+            }
+            long amount = Long.parseLong(matcher.group(1));
+            total = total.plus(switch (matcher.group(2)) {
+                case "ms" -> Duration.ofMillis(amount);
+                case "s" -> Duration.ofSeconds(amount);
+                case "m" -> Duration.ofMinutes(amount);
+                case "h" -> Duration.ofHours(amount);
+                case "d" -> Duration.ofDays(amount);
+                default -> Duration.ofDays(7 * amount);
+            });
+            end = matcher.end();
+        }
+        return end == value.trim().length() && !total.isZero() ? total : null;
+    }
+
+    public static String aggregate(String fn) {
+        if (fn == null || !AGGREGATES.contains(fn)) {
+            throw new IllegalArgumentException("Hàm tổng hợp không hợp lệ: " + fn);
+        }
+        return fn;
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.iotserver.timeseries;
+
+import com.example.iotserver.config.InfluxDBConfig;
+import com.example.iotserver.dto.SensorDataDTO;
+import com.example.iotserver.service.InfluxRollupService;
+import com.influxdb.Cancellable;
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.WriteApiBlocking;
+import com.influxdb.client.domain.Dialect;
+import com.influxdb.client.domain.Query;
+import com.influxdb.client.domain.WritePrecision;
+import com.influxdb.client.service.QueryService;
+import com.influxdb.client.write.Point;
+import com.influxdb.exceptions.InfluxException;
+import com.influxdb.query.FluxRecord;
+import com.influxdb.query.FluxTable;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ResponseBody;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import retrofit2.Call;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Lưu dữ liệu cảm biến trong InfluxDB (measurement {@code sensor_data}, tag device_id/sensor_type/farm_id).
+ * Truy vấn tổng hợp được router của {@link InfluxRollupService} chuyển sang bucket rollup khi có thể.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "sensor.store.type", havingValue = "influx", matchIfMissing = true)
+public class InfluxSensorDataStore implements SensorDataStore {
+
+    // Dialect mặc định của client: annotated CSV có header, thời gian RFC3339
+    private static final Dialect CSV_DIALECT = new Dialect()
+            .header(true)
+            .delimiter(",")
+            .commentPrefix("#")
+            .annotations(List.of(Dialect.AnnotationsEnum.DATATYPE, Dialect.AnnotationsEnum.GROUP,
+                    Dialect.AnnotationsEnum.DEFAULT))
+            .dateTimeFormat(Dialect.DateTimeFormatEnum.RFC3339);
+
+    private final WriteApiBlocking writeApi;
+    private final InfluxDBClient influxDBClient;
+    private final InfluxDBConfig influxDBConfig;
+    private final InfluxRollupService influxRollupService;
+
+    @Override
+    public void write(SensorReading reading) {
+        // Nếu không có field nào được thêm, không ghi để tránh lỗi
+        if (!reading.isEmpty()) {
+            try {
+                writeApi.writePoint(toPoint(reading));
+            } catch (InfluxException e) {
+                throw classify(e);
+            }
+            influxRollupService.recordWrite(reading.deviceId(), reading.timestamp(), reading.timestamp());
+            log.debug("Saved sensor data for device: {}", reading.deviceId());
+        } else {
+            log.warn("No fields to write for device {}, skipping InfluxDB write.", reading.deviceId());
+        }
+    }
+
+    @Override
+    public void writeAll(SensorReadings batch) {
+        // Một request line protocol cho cả lô thay vì một request mỗi điểm
+        List<Point> points = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            SensorReading reading = batch.get(i);
+            if (!reading.isEmpty()) {
+                points.add(toPoint(reading));
+            }
+        }
+        if (!points.isEmpty()) {
+            try {
+                writeApi.writePoints(points);
+            } catch (InfluxException e) {
+                throw classify(e);
+            }
+            // Điểm ghi muộn cần tính lại rollup (lô replay từ spool có thể gồm nhiều thiết bị)
+            for (int i = 0; i < batch.size(); i++) {
+                SensorReading reading = batch.get(i);
+                if (!reading.isEmpty()) {
+                    influxRollupService.recordWrite(reading.deviceId(), reading.timestamp(), reading.timestamp());
+                }
+            }
+            log.debug("Saved {} sensor points in one batch", points.size());
+        }
+    }
+
+    // 400 (sai line protocol, xung đột kiểu field), 413 (lô quá lớn), 422 (ngoài retention) không tự hết khi
+    // thử lại; các lỗi khác (mạng, 5xx, 429, xác thực) coi là tạm thời
+    private static RuntimeException classify(InfluxException e) {
+        return switch (e.status()) {
+            case 400, 413, 422 -> new PointsRejectedException("InfluxDB từ chối dữ liệu: " + e.getMessage(), e);
+            default -> e;
+        };
+    }
+
+    private static Point toPoint(SensorReading reading) {
+        Point point = Point.measurement("sensor_data")
+                .addTag("device_id", reading.deviceId())
+                .addTag("sensor_type", reading.sensorType() != null ? reading.sensorType() : "UNKNOWN")
+                .addTag("farm_id", String.valueOf(reading.farmId()))
+                .time(reading.timestamp(), WritePrecision.MS);
+
+        for (int f = 0; f < SensorReading.FIELD_COUNT; f++) {
+            if (reading.has(f)) {
+                point.addField(FIELDS.get(f), reading.value(f));
+            }
+        }
+        return point;
+    }
+
+    @Override
+    public SensorDataDTO latest(String deviceId, Instant since) {
+        // pivot() để gộp các fields lại thành một hàng duy nhất
+        String query = FluxQuery.from(influxDBConfig.getBucket())
+                .range(since, null)
+                .measurement("sensor_data")
+                .tag("device_id", deviceId)
+                .then("last()")
+                .pivotFields()
+                .build();
+
+        log.debug("🔍 [InfluxDB] Executing Pivot Query: {}", query);
+
+        List<FluxTable> tables = influxDBClient.getQueryApi().query(query, influxDBConfig.getOrg());
+        if (tables.isEmpty() || tables.get(0).getRecords().isEmpty()) {
+            return null;
+        }
+        // Với pivot(), chúng ta chỉ cần xử lý record đầu tiên
+        return mapPivotedRecord(tables.get(0).getRecords().get(0), deviceId);
+    }
+
+    /**
+     * last() trả điểm cuối của từng series (device_id, sensor_type, farm_id, _field); thiết bị đổi farm hoặc
+     * sensor_type có nhiều series cho một field nên giữ điểm có timestamp lớn nhất.
+     */
+    @Override
+    public Map<String, SensorDataDTO> latest(Collection<String> deviceIds, Instant since, Instant until) {
+        if (deviceIds.isEmpty()) {
+            return Map.of();
+        }
+        String flux = FluxQuery.from(influxDBConfig.getBucket())
+                .range(since, until)
+                .measurement("sensor_data")
+                .tagIn("device_id", deviceIds)
+                .then("last()")
+                .build();
+
+        // Mỗi bảng là một series: tra (device, field) một lần cho mỗi bảng
+        List<SeriesKey> keys = new ArrayList<>();
+        List<SeriesChunk.Builder> builders = new ArrayList<>();
+        Map<SeriesKey, Integer> ids = new HashMap<>();
+        queryTuples(flux, "device_id",
+                (deviceId, field) -> deviceId == null || !FIELDS.contains(field) ? -1
+                        : ids.computeIfAbsent(new SeriesKey(deviceId, field, "last", null), key -> {
+                            keys.add(key);
+                            builders.add(SeriesChunk.builder());
+                            return keys.size() - 1;
+                        }),
+                (time, id, value) -> builders.get(id).add(time, value));
+
+        Map<String, SensorDataDTO> result = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            SeriesChunk points = builders.get(i).build();
+            int newest = 0;
+            for (int p = 1; p < points.size(); p++) {
+                if (points.timeAt(p) >= points.timeAt(newest)) {
+                    newest = p;
+                }
+            }
+            Instant time = Instant.ofEpochMilli(points.timeAt(newest));
+            SensorDataDTO dto = result.computeIfAbsent(keys.get(i).deviceId(),
+                    deviceId -> SensorDataDTO.builder().deviceId(deviceId).timestamp(time).build());
+            dto.setFieldValue(keys.get(i).field(), points.valueAt(newest));
+            if (time.isAfter(dto.getTimestamp())) {
+                dto.setTimestamp(time);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Dữ liệu được pivot ngay trong Flux và đẩy ra qua API callback của InfluxDB client
+     * (record được parse ngay khi đọc được từ HTTP response), không giữ toàn bộ kết quả trong bộ nhớ.
+     */
+    @Override
+    public long range(String deviceId, Instant start, Instant end, RowHandler<SensorDataDTO> handler)
+            throws IOException {
+        String flux = FluxQuery.from(influxDBConfig.getBucket())
+                .range(start, end)
+                .measurement("sensor_data")
+                .tag("device_id", deviceId)
+                .then("group(columns: [\"device_id\"])")
+                // sensor_type không thuộc group key: giữ lại qua rowKey để mapPivotedRecord đọc được
+                .pivotFields("_time", "sensor_type")
+                .then("sort(columns: [\"_time\"])")
+                .build();
+        return streamRecords(flux, record -> handler.onRow(mapPivotedRecord(record, deviceId)));
+    }
+
+    /**
+     * Kết quả được giải mã thẳng từ response annotated CSV bằng {@link FluxCsvDecoder}.
+     * Giá trị không phải số bị bỏ qua.
+     */
+    @Override
+    public Map<SeriesKey, SeriesChunk> aggregate(Collection<String> deviceIds, Collection<String> fields,
+            String aggregation, String window, Instant from, Instant to) {
+        // Filter theo device_id và _field bằng contains(set:)
+        UnaryOperator<FluxQuery> filters = q -> q.tagIn("device_id", deviceIds).fieldIn(fields);
+        String flux = influxRollupService.aggregatedSource(filters, aggregation, from, to, window);
+
+        // Mỗi bảng trong kết quả là một chuỗi (device_id, _field): tra key một lần cho mỗi bảng
+        List<SeriesKey> keys = new ArrayList<>();
+        List<SeriesChunk.Builder> builders = new ArrayList<>();
+        Map<SeriesKey, Integer> ids = new HashMap<>();
+        long points = queryTuples(flux, "device_id",
+                (deviceId, field) -> deviceId == null || field == null ? -1
+                        : ids.computeIfAbsent(new SeriesKey(deviceId, field, aggregation, window), key -> {
+                            keys.add(key);
+                            builders.add(SeriesChunk.builder());
+                            return keys.size() - 1;
+                        }),
+                (time, id, value) -> builders.get(id).add(time, value));
+        log.debug("🔍 [InfluxDB] Truy vấn tổng hợp [{}, {}) trả về {} điểm / {} chuỗi", from, to, points, keys.size());
+
+        Map<SeriesKey, SeriesChunk> result = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            result.put(keys.get(i), builders.get(i).build());
+        }
+        return result;
+    }
+
+    /**
+     * Chạy query và giải mã thẳng response annotated CSV thành các bộ (thời gian, id chuỗi, giá trị)
+     * bằng {@link FluxCsvDecoder}, không qua FluxTable/FluxRecord.
+     */
+    private long queryTuples(String flux, String tagColumn, FluxCsvDecoder.SeriesResolver resolver,
+            FluxCsvDecoder.TupleConsumer consumer) {
+        Query query = new Query().query(flux).dialect(CSV_DIALECT);
+        Call<ResponseBody> call = influxDBClient.getService(QueryService.class)
+                .postQueryResponseBody(null, null, null, influxDBConfig.getOrg(), null, query);
+        try {
+            Response<ResponseBody> response = call.execute();
+            if (!response.isSuccessful()) {
+                throw new InfluxException(response);
+            }
+            try (ResponseBody body = response.body(); InputStream in = body.byteStream()) {
+                return FluxCsvDecoder.decode(in, tagColumn, resolver, consumer);
+            }
+        } catch (IOException e) {
+            call.cancel();
+            throw new RuntimeException("Lỗi đọc kết quả truy vấn InfluxDB: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Chạy query bằng API callback của InfluxDB client và chờ tới khi hoàn tất.
+     * Nếu handler ném lỗi hoặc luồng gọi bị interrupt (hết deadline) thì query bị hủy.
+     */
+    private long streamRecords(String flux, RowHandler<FluxRecord> handler) throws IOException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong rows = new AtomicLong();
+        // Client chỉ đưa Cancellable qua callback: giữ lại để hủy khi luồng gọi bỏ cuộc
+        AtomicReference<Cancellable> running = new AtomicReference<>();
+        AtomicBoolean abandoned = new AtomicBoolean();
+
+        influxDBClient.getQueryApi().query(flux, influxDBConfig.getOrg(),
+                (cancellable, record) -> {
+                    running.compareAndSet(null, cancellable);
+                    if (abandoned.get()) {
+                        cancellable.cancel();
+                        return;
+                    }
+                    try {
+                        handler.onRow(record);
+                        rows.incrementAndGet();
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                        // Query bị hủy thì client không gọi onComplete nữa
+                        cancellable.cancel();
+                        done.countDown();
+                    }
+                },
+                error -> {
+                    failure.compareAndSet(null, error);
+                    done.countDown();
+                },
+                done::countDown);
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            // Chưa có record nào thì hủy ở record đầu tiên
+            abandoned.set(true);
+            Cancellable cancellable = running.get();
+            if (cancellable != null) {
+                cancellable.cancel();
+            }
+            Thread.currentThread().interrupt();
+            throw new IOException("Bị gián đoạn khi stream dữ liệu từ InfluxDB", e);
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof IOException ioException) {
+            throw ioException;
+        }
+        if (error != null) {
+            throw new IOException("Lỗi khi stream dữ liệu từ InfluxDB: " + error.getMessage(), error);
+        }
+        return rows.get();
+    }
+
+    /**
+     * Chuyển một record đã pivot (mỗi field là một cột) thành SensorDataDTO.
+     */
+    private SensorDataDTO mapPivotedRecord(FluxRecord record, String deviceId) {
+        Map<String, Object> values = record.getValues();
+        Object sensorType = values.get("sensor_type");
+        SensorDataDTO dto = SensorDataDTO.builder()
+                .deviceId(deviceId)
+                .sensorType(sensorType != null ? sensorType.toString() : null)
+                .timestamp(record.getTime())
+                .build();
+        for (String field : FIELDS) {
+            if (values.get(field) instanceof Number number) {
+                dto.setFieldValue(field, number.doubleValue());
+            }
+        }
+        return dto;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.iotserver.timeseries;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Giảm số điểm của chuỗi thời gian bằng thuật toán Largest-Triangle-Three-Buckets:
+ * chia chuỗi thành các bucket và giữ lại điểm tạo tam giác lớn nhất với điểm đã chọn trước đó
+ * và trung bình bucket kế tiếp, nhờ vậy giữ được các đỉnh/đáy khi vẽ biểu đồ.
+ */
+public final class LttbDownsampler {
+
+    private LttbDownsampler() {
+    }
+
+    /**
+     * @param maxPoints số điểm tối đa; <= 0 nghĩa là không giảm
+     */
+    public static SeriesChunk downsample(SeriesChunk data, int maxPoints) {
+        int size = data.size();
+        if (maxPoints <= 0 || size <= maxPoints) {
+            return data;
+        }
+        if (maxPoints < 3) {
+            // Không đủ chỗ cho bucket ở giữa: chỉ giữ điểm đầu (và điểm cuối)
+            SeriesChunk.Builder edges = SeriesChunk.builder().add(data.timeAt(0), data.valueAt(0));
+            if (maxPoints == 2) {
+                edges.add(data.timeAt(size - 1), data.valueAt(size - 1));
+            }
+            return edges.build();
+        }
+        int threshold = maxPoints;
+
+        SeriesChunk.Builder out = SeriesChunk.builder();
+        long origin = data.timeAt(0);
+        double every = (double) (size - 2) / (threshold - 2);
+
+        int a = 0;
+        out.add(data.timeAt(a), data.valueAt(a));
+
+        for (int i = 0; i < threshold - 2; i++) {
+            // Trung bình của bucket kế tiếp
+            int avgStart = (int) Math.floor((i + 1) * every) + 1;
+            int avgEnd = Math.min((int) Math.floor((i + 2) * every) + 1, size);
+            double avgX = 0;
+            double avgY = 0;
+            int avgCount = avgEnd - avgStart;
+            if (avgCount <= 0) {
+                avgStart = size - 1;
+                avgCount = 1;
+                avgEnd = size;
+            }
+            for (int j = avgStart; j < avgEnd; j++) {
+                avgX += data.timeAt(j) - origin;
+                avgY += data.valueAt(j);
+            }
+            avgX /= avgCount;
+            avgY /= avgCount;
+
+            // Chọn điểm trong bucket hiện tại tạo tam giác lớn nhất
+            int rangeStart = (int) Math.floor(i * every) + 1;
+            int rangeEnd = (int) Math.floor((i + 1) * every) + 1;
+            double ax = data.timeAt(a) - origin;
+            double ay = data.valueAt(a);
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                double area = Math.abs((ax - avgX) * (data.valueAt(j) - ay)
+                        - (ax - (data.timeAt(j) - origin)) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+            out.add(data.timeAt(next), data.valueAt(next));
+            a = next;
+        }
+
+        out.add(data.timeAt(size - 1), data.valueAt(size - 1));
+        return out.build();
+    }
+
+    /**
+     * Giảm điểm song song cho nhiều chuỗi, giữ nguyên thứ tự key.
+     */
+    public static <K> Map<K, SeriesChunk> downsampleAll(Map<K, SeriesChunk> series, int maxPoints) {
+        if (maxPoints <= 0 || series.values().stream().allMatch(chunk -> chunk.size() <= maxPoints)) {
+            return series;
+        }
+        Map<K, SeriesChunk> result = new LinkedHashMap<>();
+        series.entrySet().parallelStream()
+                .map(entry -> Map.entry(entry.getKey(), downsample(entry.getValue(), maxPoints)))
+                .toList()
+                .forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+        return result;
+    }
+}
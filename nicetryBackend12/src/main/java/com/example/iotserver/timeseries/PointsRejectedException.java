@@ -0,0 +1,12 @@
+package com.example.iotserver.timeseries;
+
+/**
+ * Store từ chối vĩnh viễn các điểm được ghi (dữ liệu sai, vd: ngoài retention của bucket hay xung đột kiểu
+ * field); ghi lại cùng dữ liệu sẽ vẫn lỗi. Khác với lỗi tạm thời (mất kết nối, quá tải) có thể thử lại.
+ */
+public class PointsRejectedException extends RuntimeException {
+
+    public PointsRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
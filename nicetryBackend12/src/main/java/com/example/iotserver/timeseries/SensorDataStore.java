@@ -0,0 +1,74 @@
+package com.example.iotserver.timeseries;
+
+import com.example.iotserver.dto.SensorDataDTO;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Nơi lưu dữ liệu cảm biến: ghi, đọc điểm mới nhất, đọc theo khoảng và tổng hợp theo cửa sổ.
+ *
+ * Implementation được chọn bằng {@code sensor.store.type}: {@code influx} (mặc định) hoặc
+ * {@code embedded} (engine nhúng lưu file, không cần InfluxDB).
+ */
+public interface SensorDataStore {
+
+    /**
+     * Các field số được lưu cho mỗi thiết bị (tên theo _field trong InfluxDB).
+     */
+    List<String> FIELDS = List.of("temperature", "humidity", "soil_moisture", "light_intensity", "soilPH");
+
+    /**
+     * Xử lý từng dòng khi stream kết quả. Ném exception (vd: client ngắt kết nối) sẽ dừng truy vấn.
+     */
+    @FunctionalInterface
+    interface RowHandler<T> {
+        void onRow(T row) throws IOException;
+    }
+
+    /**
+     * @throws PointsRejectedException nếu store từ chối điểm vĩnh viễn (không nên thử lại)
+     */
+    void write(SensorReading reading);
+
+    /**
+     * Ghi nhiều bản ghi trong một lần (vd: payload gửi dồn của gateway).
+     *
+     * @throws PointsRejectedException nếu store từ chối vĩnh viễn một hoặc nhiều điểm của lô
+     */
+    default void writeAll(SensorReadings batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            write(batch.get(i));
+        }
+    }
+
+    /**
+     * Giá trị mới nhất của từng field kể từ {@code since}, gộp thành một DTO; null nếu không có dữ liệu.
+     */
+    SensorDataDTO latest(String deviceId, Instant since);
+
+    /**
+     * Giá trị mới nhất của từng field trong [since, until) cho nhiều thiết bị, mỗi thiết bị một DTO
+     * với timestamp là điểm mới nhất của thiết bị; {@code until} null là tới hiện tại.
+     * Thiết bị không có dữ liệu vắng mặt trong kết quả.
+     */
+    Map<String, SensorDataDTO> latest(Collection<String> deviceIds, Instant since, Instant until);
+
+    /**
+     * Stream dữ liệu trong [start, end) theo thứ tự thời gian, mỗi timestamp một dòng chứa đủ các field.
+     *
+     * @return số dòng đã xử lý
+     */
+    long range(String deviceId, Instant start, Instant end, RowHandler<SensorDataDTO> handler) throws IOException;
+
+    /**
+     * Tổng hợp từng chuỗi (device, field) theo cửa sổ {@code window} căn theo epoch trong [from, to).
+     * Mốc thời gian của mỗi cửa sổ là thời điểm kết thúc (như aggregateWindow của Flux).
+     * Chuỗi không có dữ liệu có thể vắng mặt trong kết quả.
+     */
+    Map<SeriesKey, SeriesChunk> aggregate(Collection<String> deviceIds, Collection<String> fields,
+            String aggregation, String window, Instant from, Instant to);
+}
@@ -0,0 +1,149 @@
+package com.example.iotserver.timeseries;
+
+import com.example.iotserver.dto.SensorDataDTO;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Một lần đo của thiết bị ở dạng nguyên thủy: timestamp epoch mili giây, mask các field có giá trị và mảng
+ * giá trị theo thứ tự {@link SensorDataStore#FIELDS}. Dùng trên đường ingest (parse, nén, lưu, hot window,
+ * thống kê) để tránh cấp phát; chỉ đổi sang {@link SensorDataDTO} ở biên API / WebSocket.
+ *
+ * Đối tượng được tái sử dụng (xem {@link SensorReadings}): nơi nhận không được giữ tham chiếu sau khi xử lý xong.
+ * Không thread-safe.
+ */
+public final class SensorReading {
+
+    public static final int TEMPERATURE = 0;
+    public static final int HUMIDITY = 1;
+    public static final int SOIL_MOISTURE = 2;
+    public static final int LIGHT_INTENSITY = 3;
+    public static final int SOIL_PH = 4;
+
+    public static final int FIELD_COUNT = SensorDataStore.FIELDS.size();
+
+    private String deviceId;
+    private String sensorType;
+    private Long farmId;
+    private long timestamp;
+    private int mask;
+    private final double[] values = new double[FIELD_COUNT];
+
+    public void clear() {
+        deviceId = null;
+        sensorType = null;
+        farmId = null;
+        timestamp = 0;
+        mask = 0;
+    }
+
+    public void copyFrom(SensorReading other) {
+        deviceId = other.deviceId;
+        sensorType = other.sensorType;
+        farmId = other.farmId;
+        timestamp = other.timestamp;
+        mask = other.mask;
+        System.arraycopy(other.values, 0, values, 0, FIELD_COUNT);
+    }
+
+    public String deviceId() {
+        return deviceId;
+    }
+
+    public void deviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public String sensorType() {
+        return sensorType;
+    }
+
+    public void sensorType(String sensorType) {
+        this.sensorType = sensorType;
+    }
+
+    public Long farmId() {
+        return farmId;
+    }
+
+    public void farmId(Long farmId) {
+        this.farmId = farmId;
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public void timestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public int mask() {
+        return mask;
+    }
+
+    public boolean isEmpty() {
+        return mask == 0;
+    }
+
+    public boolean has(int field) {
+        return (mask & (1 << field)) != 0;
+    }
+
+    // Chỉ có nghĩa khi has(field)
+    public double value(int field) {
+        return values[field];
+    }
+
+    public void set(int field, double value) {
+        values[field] = value;
+        mask |= 1 << field;
+    }
+
+    public void remove(int field) {
+        mask &= ~(1 << field);
+    }
+
+    /**
+     * Chỉ số của field theo tên _field trong InfluxDB, -1 nếu không xác định.
+     */
+    public static int fieldIndex(String field) {
+        return SensorDataStore.FIELDS.indexOf(field);
+    }
+
+    public SensorDataDTO toDTO() {
+        Instant time = Instant.ofEpochMilli(timestamp);
+        SensorDataDTO dto = SensorDataDTO.builder()
+                .deviceId(deviceId)
+                .sensorType(sensorType)
+                .farmId(farmId)
+                .timestamp(time)
+                .localTime(LocalDateTime.ofInstant(time, ZoneId.systemDefault()))
+                .build();
+        for (int f = 0; f < FIELD_COUNT; f++) {
+            if (has(f)) {
+                dto.setFieldValue(SensorDataStore.FIELDS.get(f), values[f]);
+            }
+        }
+        return dto;
+    }
+
+    /**
+     * Đọc lại từ DTO (vd: dữ liệu đến từ API); thiếu timestamp thì dùng thời điểm hiện tại.
+     */
+    public void fromDTO(SensorDataDTO dto) {
+        clear();
+        deviceId = dto.getDeviceId();
+        sensorType = dto.getSensorType();
+        farmId = dto.getFarmId();
+        timestamp = dto.getTimestamp() != null ? dto.getTimestamp().toEpochMilli() : System.currentTimeMillis();
+        for (int f = 0; f < FIELD_COUNT; f++) {
+            Double value = dto.getFieldValue(SensorDataStore.FIELDS.get(f));
+            if (value != null) {
+                set(f, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.iotserver.timeseries;
+
+import java.util.Arrays;
+
+/**
+ * Danh sách {@link SensorReading} tái sử dụng: {@link #clear()} giữ lại các đối tượng đã cấp phát để lần sau
+ * dùng tiếp, nên sau khi khởi động đường ingest gần như không cấp phát thêm.
+ *
+ * Không thread-safe; thường dùng qua ThreadLocal của nơi tạo ra nó.
+ */
+public final class SensorReadings {
+
+    private SensorReading[] items = new SensorReading[8];
+    private int size;
+    // Mọi phần tử đều mang timestamp do thiết bị gửi, dùng được nguyên trạng (không phải thời điểm nhận, không bị dời)
+    private boolean deviceTimed;
+
+    /**
+     * Thêm một phần tử rỗng vào cuối và trả về để ghi dữ liệu.
+     */
+    public SensorReading add() {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        SensorReading reading = items[size];
+        if (reading == null) {
+            reading = new SensorReading();
+            items[size] = reading;
+        }
+        reading.clear();
+        size++;
+        return reading;
+    }
+
+    /**
+     * Bỏ phần tử cuối vừa thêm (vd: bản ghi không hợp lệ); đối tượng vẫn được giữ để tái sử dụng.
+     */
+    public void removeLast() {
+        if (size > 0) {
+            size--;
+        }
+    }
+
+    public SensorReading get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return items[index];
+    }
+
+    public SensorReading last() {
+        return get(size - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean deviceTimed() {
+        return deviceTimed;
+    }
+
+    public void deviceTimed(boolean deviceTimed) {
+        this.deviceTimed = deviceTimed;
+    }
+
+    public void clear() {
+        size = 0;
+        deviceTimed = false;
+    }
+
+    /**
+     * Sắp theo timestamp tăng dần, giữ thứ tự của các phần tử cùng timestamp. Insertion sort vì payload
+     * thường đã theo thứ tự.
+     */
+    public void sortByTime() {
+        for (int i = 1; i < size; i++) {
+            SensorReading current = items[i];
+            int j = i - 1;
+            while (j >= 0 && items[j].timestamp() > current.timestamp()) {
+                items[j + 1] = items[j];
+                j--;
+            }
+            items[j + 1] = current;
+        }
+    }
+}
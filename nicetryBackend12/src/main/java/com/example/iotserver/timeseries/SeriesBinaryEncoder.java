@@ -0,0 +1,79 @@
+package com.example.iotserver.timeseries;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Mã hóa nhị phân gọn cho nhiều chuỗi thời gian (Content-Type application/octet-stream).
+ *
+ * <pre>
+ * "TSB1"                          4 byte magic
+ * varint   số chuỗi
+ * mỗi chuỗi:
+ *   varint   độ dài key, key UTF-8 ("deviceId_field")
+ *   varint   số điểm n
+ *   n varint zigzag: thời gian điểm đầu (epoch millis), sau đó là delta so với điểm trước
+ *   n float64 big-endian: giá trị
+ * </pre>
+ */
+public final class SeriesBinaryEncoder {
+
+    public static final String CONTENT_TYPE = "application/octet-stream";
+
+    private static final byte[] MAGIC = { 'T', 'S', 'B', '1' };
+
+    private SeriesBinaryEncoder() {
+    }
+
+    /**
+     * Mã hóa vào mảng byte, dùng cho response {@code ResponseEntity<byte[]>}.
+     */
+    public static byte[] encode(Map<String, SeriesChunk> series) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(series, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static void write(Map<String, SeriesChunk> series, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        writeVarLong(data, series.size());
+        for (Map.Entry<String, SeriesChunk> entry : series.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            writeVarLong(data, key.length);
+            data.write(key);
+
+            SeriesChunk chunk = entry.getValue();
+            int size = chunk.size();
+            writeVarLong(data, size);
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                long time = chunk.timeAt(i);
+                long delta = time - previous;
+                writeVarLong(data, (delta << 1) ^ (delta >> 63));
+                previous = time;
+            }
+            for (int i = 0; i < size; i++) {
+                data.writeDouble(chunk.valueAt(i));
+            }
+        }
+        data.flush();
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.iotserver.timeseries;
+
+import java.util.Arrays;
+
+/**
+ * Một đoạn chuỗi thời gian bất biến lưu dưới dạng mảng nguyên thủy
+ * (epoch millis và giá trị) để tốn ít bộ nhớ hơn danh sách DTO.
+ */
+public final class SeriesChunk {
+
+    public static final SeriesChunk EMPTY = new SeriesChunk(new long[0], new double[0]);
+
+    private final long[] times;
+    private final double[] values;
+
+    private SeriesChunk(long[] times, double[] values) {
+        this.times = times;
+        this.values = values;
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    public long timeAt(int index) {
+        return times[index];
+    }
+
+    public double valueAt(int index) {
+        return values[index];
+    }
+
+    public long[] copyTimes() {
+        return times.clone();
+    }
+
+    public double[] copyValues() {
+        return values.clone();
+    }
+
+    /**
+     * Ước lượng số byte chiếm dụng, dùng làm trọng số cho cache.
+     */
+    public int weight() {
+        return 64 + times.length * (Long.BYTES + Double.BYTES);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private long[] times = new long[16];
+        private double[] values = new double[16];
+        private int size;
+
+        public Builder add(long time, double value) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            times[size] = time;
+            values[size] = value;
+            size++;
+            return this;
+        }
+
+        public Builder addAll(SeriesChunk chunk) {
+            for (int i = 0; i < chunk.size(); i++) {
+                add(chunk.timeAt(i), chunk.valueAt(i));
+            }
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public SeriesChunk build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            return new SeriesChunk(Arrays.copyOf(times, size), Arrays.copyOf(values, size));
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.iotserver.timeseries;
+
+/**
+ * Định danh một chuỗi dữ liệu đã tổng hợp: thiết bị, trường, hàm tổng hợp và window.
+ */
+public record SeriesKey(String deviceId, String field, String aggregation, String window) {
+}
@@ -0,0 +1,60 @@
+package com.example.iotserver.timeseries;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Chạy các truy vấn đọc chuỗi thời gian trên {@code timeSeriesReadExecutor} với deadline cho từng request.
+ *
+ * Controller trả về CompletableFuture nên luồng Tomcat được giải phóng ngay; quá deadline thì future
+ * kết thúc bằng {@link TimeoutException} (504) và tác vụ bên dưới bị interrupt để hủy HTTP call tới InfluxDB.
+ * Hủy future trả về (cancel) cũng interrupt tác vụ.
+ * Pool đầy thì ném {@link java.util.concurrent.RejectedExecutionException} (503).
+ */
+@Slf4j
+@Component
+public class TimeSeriesReads {
+
+    private final ThreadPoolTaskExecutor executor;
+    private final Duration timeout;
+
+    public TimeSeriesReads(
+            @Qualifier("timeSeriesReadExecutor") ThreadPoolTaskExecutor executor,
+            @Value("${timeseries.read.timeout:15s}") Duration timeout) {
+        this.executor = executor;
+        this.timeout = timeout;
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> query) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            try {
+                result.complete(query.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        // Trả về chính result (không phải future dẫn xuất) để cancel() của người gọi tới được tác vụ
+        result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((value, error) -> {
+                    if (error instanceof TimeoutException) {
+                        log.warn("Truy vấn chuỗi thời gian vượt quá {}, hủy tác vụ", timeout);
+                        task.cancel(true);
+                    } else if (error instanceof CancellationException) {
+                        task.cancel(true);
+                    }
+                });
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.iotserver.timeseries;
+
+import java.util.Arrays;
+
+/**
+ * Tổng hợp một chuỗi điểm thô (đã sắp theo thời gian) theo cửa sổ cố định căn theo epoch,
+ * cùng ngữ nghĩa với {@code aggregateWindow(createEmpty: false)} của Flux: mốc của mỗi cửa sổ
+ * là thời điểm kết thúc, cửa sổ cuối bị cắt tại {@code to}.
+ */
+public final class WindowAggregator {
+
+    private WindowAggregator() {
+    }
+
+    /**
+     * @param fn một trong các hàm được {@link FluxQuery#aggregate} cho phép
+     */
+    public static SeriesChunk aggregate(SeriesChunk raw, String fn, long windowMillis, long from, long to) {
+        FluxQuery.aggregate(fn);
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Window phải lớn hơn 0");
+        }
+        SeriesChunk.Builder result = SeriesChunk.builder();
+        double[] bucket = new double[16];
+        int n = 0;
+        long windowStart = Long.MIN_VALUE;
+        for (int i = 0; i < raw.size(); i++) {
+            long time = raw.timeAt(i);
+            if (time < from || time >= to) {
+                continue;
+            }
+            long start = Math.floorDiv(time, windowMillis) * windowMillis;
+            if (start != windowStart) {
+                if (n > 0) {
+                    result.add(Math.min(windowStart + windowMillis, to), reduce(fn, bucket, n));
+                }
+                windowStart = start;
+                n = 0;
+            }
+            if (n == bucket.length) {
+                bucket = Arrays.copyOf(bucket, n * 2);
+            }
+            bucket[n++] = raw.valueAt(i);
+        }
+        if (n > 0) {
+            result.add(Math.min(windowStart + windowMillis, to), reduce(fn, bucket, n));
+        }
+        return result.build();
+    }
+
+    static double reduce(String fn, double[] values, int n) {
+        switch (fn) {
+            case "count":
+                return n;
+            case "first":
+                return values[0];
+            case "last":
+                return values[n - 1];
+            case "median": {
+                double[] sorted = Arrays.copyOf(values, n);
+                Arrays.sort(sorted);
+                return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+            }
+            default:
+                break;
+        }
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            sum += values[i];
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        return switch (fn) {
+            case "sum" -> sum;
+            case "min" -> min;
+            case "max" -> max;
+            case "spread" -> max - min;
+            case "stddev" -> stddev(values, n, sum / n);
+            default -> sum / n;
+        };
+    }
+
+    // Độ lệch chuẩn mẫu (n - 1) như stddev() mặc định của Flux
+    private static double stddev(double[] values, int n, double mean) {
+        if (n < 2) {
+            return 0;
+        }
+        double squares = 0;
+        for (int i = 0; i < n; i++) {
+            double d = values[i] - mean;
+            squares += d * d;
+        }
+        return Math.sqrt(squares / (n - 1));
+    }
+}
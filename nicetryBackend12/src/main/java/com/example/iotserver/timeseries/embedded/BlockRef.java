@@ -0,0 +1,19 @@
+package com.example.iotserver.timeseries.embedded;
+
+import com.example.iotserver.timeseries.gorilla.GorillaDecoder;
+
+import java.io.IOException;
+
+/**
+ * Vị trí của một block Gorilla đã ghi trong segment, kèm khoảng thời gian để bỏ qua block khi truy vấn.
+ */
+record BlockRef(Segment segment, long offset, int length, long minTime, long maxTime, int count) {
+
+    boolean overlaps(long from, long to) {
+        return maxTime >= from && minTime < to;
+    }
+
+    GorillaDecoder decoder() throws IOException {
+        return segment.decoder(this);
+    }
+}
@@ -0,0 +1,532 @@
+package com.example.iotserver.timeseries.embedded;
+
+import com.example.iotserver.dto.SensorDataDTO;
+import com.example.iotserver.timeseries.FieldPivot;
+import com.example.iotserver.timeseries.FluxQuery;
+import com.example.iotserver.timeseries.SensorDataStore;
+import com.example.iotserver.timeseries.SensorReading;
+import com.example.iotserver.timeseries.SeriesChunk;
+import com.example.iotserver.timeseries.SeriesKey;
+import com.example.iotserver.timeseries.WindowAggregator;
+import com.example.iotserver.timeseries.gorilla.GorillaDecoder;
+import com.example.iotserver.timeseries.gorilla.GorillaEncoder;
+import com.example.iotserver.timeseries.gorilla.PointBuffer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Engine lưu trữ chuỗi thời gian nhúng, dùng cho triển khai nhỏ hoặc chạy local không có InfluxDB
+ * ({@code sensor.store.type=embedded}).
+ *
+ * Mỗi chuỗi (device, field) có một block đang ghi trong bộ nhớ, nén Gorilla. Block được ghi xuống
+ * segment khi đủ {@code block-points} điểm, khi nhận timestamp lùi, hoặc định kỳ mỗi {@code flush-interval}.
+ * Segment đầy thì được seal và map read-only. Luồng compaction gộp các block nhỏ của segment level 0
+ * thành block lớn ở level 1 và xóa segment đã quá {@code retention}.
+ *
+ * Dữ liệu chưa flush (tối đa một flush-interval) sẽ mất nếu tiến trình bị tắt đột ngột.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "sensor.store.type", havingValue = "embedded")
+public class EmbeddedSensorDataStore implements SensorDataStore {
+
+    private static final char KEY_SEPARATOR = '\u001F';
+
+    @Value("${sensor.store.embedded.dir:./data/tsdb}")
+    private String directory;
+
+    @Value("${sensor.store.embedded.block-points:1024}")
+    private int blockPoints;
+
+    @Value("${sensor.store.embedded.flush-interval:1m}")
+    private Duration flushInterval;
+
+    @Value("${sensor.store.embedded.segment-size:67108864}")
+    private long segmentSize;
+
+    @Value("${sensor.store.embedded.retention:30d}")
+    private Duration retention;
+
+    @Value("${sensor.store.embedded.compaction-interval:10m}")
+    private Duration compactionInterval;
+
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    // sensor_type gần nhất của mỗi thiết bị (chỉ giữ trong bộ nhớ)
+    private final Map<String, String> sensorTypes = new ConcurrentHashMap<>();
+    private final List<Segment> sealed = new CopyOnWriteArrayList<>();
+    private final Object segmentLock = new Object();
+    private Segment active;
+    private long nextSegmentId;
+    private Path dir;
+    private ScheduledExecutorService flusher;
+    private ScheduledExecutorService compactor;
+
+    @PostConstruct
+    public void open() throws IOException {
+        dir = Paths.get(directory);
+        Files.createDirectories(dir);
+
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(".seg")).sorted().toList();
+        }
+        long blocks = 0;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long id = Long.parseLong(name.substring(0, name.length() - ".seg".length()));
+            long[] count = { 0 };
+            Segment segment = Segment.open(file, id, (key, block) -> {
+                seriesFor(key).blocks.add(block);
+                count[0]++;
+            });
+            blocks += count[0];
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+            if (segment.level() == 0 && segment.size() < segmentSize && file.equals(files.get(files.size() - 1))) {
+                active = segment;
+            } else {
+                segment.seal();
+                sealed.add(segment);
+            }
+        }
+        if (active == null) {
+            active = Segment.create(dir, nextSegmentId++, 0);
+        }
+        log.info("Engine lưu trữ nhúng: {} segment, {} block, {} chuỗi tại {}", files.size(), blocks, series.size(),
+                dir.toAbsolutePath());
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "tsdb-flush"));
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval.toMillis(), flushInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "tsdb-compaction"));
+        compactor.scheduleWithFixedDelay(this::compactQuietly, compactionInterval.toMillis(),
+                compactionInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        flusher.shutdown();
+        compactor.shutdownNow();
+        flush();
+        synchronized (segmentLock) {
+            active.close();
+        }
+        for (Segment segment : sealed) {
+            segment.close();
+        }
+    }
+
+    // ---------------------------------------------------------------- SensorDataStore
+
+    @Override
+    public void write(SensorReading reading) {
+        if (reading.sensorType() != null) {
+            sensorTypes.put(reading.deviceId(), reading.sensorType());
+        }
+        try {
+            for (int f = 0; f < SensorReading.FIELD_COUNT; f++) {
+                if (reading.has(f)) {
+                    seriesFor(key(reading.deviceId(), FIELDS.get(f))).append(reading.timestamp(), reading.value(f));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Lỗi ghi dữ liệu vào engine lưu trữ nhúng: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public SensorDataDTO latest(String deviceId, Instant since) {
+        SensorDataDTO dto = SensorDataDTO.builder()
+                .deviceId(deviceId)
+                .sensorType(sensorTypes.get(deviceId))
+                .build();
+        long latestTime = Long.MIN_VALUE;
+        for (String field : FIELDS) {
+            Series s = series.get(key(deviceId, field));
+            if (s == null) {
+                continue;
+            }
+            long[] time = new long[1];
+            double[] value = new double[1];
+            if (readLast(s.snapshot(), time, value) && time[0] >= since.toEpochMilli()) {
+                dto.setFieldValue(field, value[0]);
+                latestTime = Math.max(latestTime, time[0]);
+            }
+        }
+        if (latestTime == Long.MIN_VALUE) {
+            return null;
+        }
+        dto.setTimestamp(Instant.ofEpochMilli(latestTime));
+        return dto;
+    }
+
+    @Override
+    public Map<String, SensorDataDTO> latest(Collection<String> deviceIds, Instant since, Instant until) {
+        if (until == null) {
+            Map<String, SensorDataDTO> result = new HashMap<>();
+            for (String deviceId : deviceIds) {
+                SensorDataDTO dto = latest(deviceId, since);
+                if (dto != null) {
+                    result.put(deviceId, dto);
+                }
+            }
+            return result;
+        }
+
+        long from = since.toEpochMilli();
+        long to = until.toEpochMilli();
+        Map<String, SensorDataDTO> result = new HashMap<>();
+        for (String deviceId : deviceIds) {
+            SensorDataDTO dto = null;
+            for (String field : FIELDS) {
+                Series s = series.get(key(deviceId, field));
+                SeriesChunk points = s != null ? readPoints(s.snapshot(), from, to) : SeriesChunk.EMPTY;
+                int last = points.size() - 1;
+                if (last < 0) {
+                    continue;
+                }
+                if (dto == null) {
+                    dto = SensorDataDTO.builder()
+                            .deviceId(deviceId)
+                            .sensorType(sensorTypes.get(deviceId))
+                            .timestamp(Instant.ofEpochMilli(points.timeAt(last)))
+                            .build();
+                } else if (points.timeAt(last) > dto.getTimestamp().toEpochMilli()) {
+                    dto.setTimestamp(Instant.ofEpochMilli(points.timeAt(last)));
+                }
+                dto.setFieldValue(field, points.valueAt(last));
+            }
+            if (dto != null) {
+                result.put(deviceId, dto);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long range(String deviceId, Instant start, Instant end, RowHandler<SensorDataDTO> handler)
+            throws IOException {
+        long from = start.toEpochMilli();
+        long to = end.toEpochMilli();
+        SeriesChunk[] fields = new SeriesChunk[FIELDS.size()];
+        for (int f = 0; f < fields.length; f++) {
+            Series s = series.get(key(deviceId, FIELDS.get(f)));
+            fields[f] = s != null ? readPoints(s.snapshot(), from, to) : SeriesChunk.EMPTY;
+        }
+
+        return FieldPivot.emit(deviceId, sensorTypes.get(deviceId), fields, handler);
+    }
+
+    @Override
+    public Map<SeriesKey, SeriesChunk> aggregate(Collection<String> deviceIds, Collection<String> fields,
+            String aggregation, String window, Instant from, Instant to) {
+        Duration every = FluxQuery.parseDuration(FluxQuery.duration(window));
+        if (every == null) {
+            throw new IllegalArgumentException("Window không hợp lệ: " + window);
+        }
+        FluxQuery.aggregate(aggregation);
+        long fromMillis = from.toEpochMilli();
+        long toMillis = to.toEpochMilli();
+
+        Map<SeriesKey, SeriesChunk> result = new HashMap<>();
+        for (String deviceId : deviceIds) {
+            for (String field : fields) {
+                Series s = series.get(key(deviceId, field));
+                if (s == null) {
+                    continue;
+                }
+                SeriesChunk raw = readPoints(s.snapshot(), fromMillis, toMillis);
+                if (raw.size() > 0) {
+                    result.put(new SeriesKey(deviceId, field, aggregation, window),
+                            WindowAggregator.aggregate(raw, aggregation, every.toMillis(), fromMillis, toMillis));
+                }
+            }
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------- đọc
+
+    private record Snapshot(List<BlockRef> blocks, byte[] head, int headCount, long headMin, long headMax) {
+    }
+
+    /**
+     * Đọc các điểm trong [from, to) của một chuỗi, sắp theo thời gian; timestamp trùng thì giữ giá trị ghi sau.
+     */
+    private SeriesChunk readPoints(Snapshot snapshot, long from, long to) {
+        PointBuffer points = new PointBuffer();
+        try {
+            for (BlockRef block : snapshot.blocks()) {
+                if (block.overlaps(from, to)) {
+                    points.addAll(block.decoder(), from, to);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Lỗi đọc segment của engine lưu trữ nhúng: " + e.getMessage(), e);
+        }
+        if (snapshot.headCount() > 0 && snapshot.headMax() >= from && snapshot.headMin() < to) {
+            points.addAll(new GorillaDecoder(ByteBuffer.wrap(snapshot.head()), 0, snapshot.head().length,
+                    snapshot.headCount()), from, to);
+        }
+        return points.toChunk();
+    }
+
+    // Điểm cuối cùng nằm ở block có maxTime lớn nhất; block ghi sau (và block đang mở) thắng nếu bằng nhau
+    private boolean readLast(Snapshot snapshot, long[] time, double[] value) {
+        BlockRef newest = null;
+        for (BlockRef block : snapshot.blocks()) {
+            if (newest == null || block.maxTime() >= newest.maxTime()) {
+                newest = block;
+            }
+        }
+        if (snapshot.headCount() > 0 && (newest == null || snapshot.headMax() >= newest.maxTime())) {
+            return readLastPoint(new GorillaDecoder(ByteBuffer.wrap(snapshot.head()), 0, snapshot.head().length,
+                    snapshot.headCount()), time, value);
+        }
+        if (newest == null) {
+            return false;
+        }
+        try {
+            return readLastPoint(newest.decoder(), time, value);
+        } catch (IOException e) {
+            throw new RuntimeException("Lỗi đọc segment của engine lưu trữ nhúng: " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean readLastPoint(GorillaDecoder decoder, long[] time, double[] value) {
+        boolean any = false;
+        while (decoder.next()) {
+            // Trong block timestamp không giảm nên điểm cuối có timestamp lớn nhất
+            time[0] = decoder.time();
+            value[0] = decoder.value();
+            any = true;
+        }
+        return any;
+    }
+
+    // ---------------------------------------------------------------- ghi
+
+    private Series seriesFor(String key) {
+        return series.computeIfAbsent(key, Series::new);
+    }
+
+    private static String key(String deviceId, String field) {
+        return deviceId + KEY_SEPARATOR + field;
+    }
+
+    private BlockRef writeBlock(String key, GorillaEncoder block) throws IOException {
+        synchronized (segmentLock) {
+            if (active.size() >= segmentSize) {
+                active.seal();
+                sealed.add(active);
+                active = Segment.create(dir, nextSegmentId++, 0);
+            }
+            return active.append(key, block.firstTime(), block.lastTime(), block.count(), block.toByteArray());
+        }
+    }
+
+    /**
+     * Ghi các block đang mở của mọi chuỗi xuống segment và fsync.
+     */
+    void flush() throws IOException {
+        for (Series s : series.values()) {
+            s.sealHead();
+        }
+        synchronized (segmentLock) {
+            active.force();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Lỗi flush engine lưu trữ nhúng: {}", e.getMessage(), e);
+        }
+    }
+
+    // ---------------------------------------------------------------- compaction
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            log.error("Lỗi compaction engine lưu trữ nhúng: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gộp block của các segment level 0 đã seal thành block đầy ở level 1 (bỏ điểm quá hạn),
+     * rồi xóa các segment level 1 đã hết hạn hoàn toàn.
+     */
+    void compact() throws IOException {
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+
+        Set<Segment> expired = new HashSet<>();
+        for (Segment segment : sealed) {
+            if (segment.level() == 1 && segment.maxTime() < cutoff) {
+                expired.add(segment);
+            }
+        }
+        if (!expired.isEmpty()) {
+            for (Series s : series.values()) {
+                s.replaceBlocks(expired, List.of());
+            }
+            retire(expired);
+            log.info("Engine lưu trữ nhúng: xóa {} segment hết hạn", expired.size());
+        }
+
+        Set<Segment> inputs = new HashSet<>();
+        for (Segment segment : sealed) {
+            if (segment.level() == 0) {
+                inputs.add(segment);
+            }
+        }
+        if (inputs.isEmpty()) {
+            return;
+        }
+
+        long started = System.nanoTime();
+        List<Segment> outputs = new ArrayList<>();
+        Map<Series, List<BlockRef>> replacements = new HashMap<>();
+        Segment output = null;
+        long points = 0;
+        for (Series s : series.values()) {
+            List<BlockRef> blocks = s.blocksIn(inputs);
+            if (blocks.isEmpty()) {
+                continue;
+            }
+            SeriesChunk merged = readPoints(new Snapshot(blocks, null, 0, 0, 0), cutoff, Long.MAX_VALUE);
+            List<BlockRef> rewritten = new ArrayList<>();
+            for (int start = 0; start < merged.size(); start += blockPoints) {
+                GorillaEncoder encoder = new GorillaEncoder(blockPoints);
+                for (int i = start; i < Math.min(merged.size(), start + blockPoints); i++) {
+                    encoder.append(merged.timeAt(i), merged.valueAt(i));
+                }
+                if (output == null || output.size() >= segmentSize) {
+                    output = newSegment(1);
+                    outputs.add(output);
+                }
+                rewritten.add(output.append(s.key, encoder.firstTime(), encoder.lastTime(), encoder.count(),
+                        encoder.toByteArray()));
+            }
+            points += merged.size();
+            replacements.put(s, rewritten);
+        }
+        for (Segment segment : outputs) {
+            segment.seal();
+            sealed.add(segment);
+        }
+        replacements.forEach((s, blocks) -> s.replaceBlocks(inputs, blocks));
+        retire(inputs);
+        log.info("Engine lưu trữ nhúng: compact {} segment thành {} ({} điểm) trong {} ms", inputs.size(),
+                outputs.size(), points, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private Segment newSegment(int level) throws IOException {
+        long id;
+        synchronized (segmentLock) {
+            id = nextSegmentId++;
+        }
+        return Segment.create(dir, id, level);
+    }
+
+    private void retire(Set<Segment> segments) throws IOException {
+        sealed.removeAll(segments);
+        for (Segment segment : segments) {
+            segment.delete();
+        }
+    }
+
+    // ---------------------------------------------------------------- chuỗi
+
+    private final class Series {
+
+        private final String key;
+        private final List<BlockRef> blocks = new ArrayList<>();
+        private GorillaEncoder head;
+
+        private Series(String key) {
+            this.key = key;
+        }
+
+        synchronized void append(long time, double value) throws IOException {
+            if (head == null) {
+                head = new GorillaEncoder(blockPoints);
+            }
+            // Block đầy hoặc timestamp lùi (Gorilla cần thời gian không giảm) thì mở block mới
+            if (head.count() >= blockPoints || !head.append(time, value)) {
+                sealHead();
+                head = new GorillaEncoder(blockPoints);
+                head.append(time, value);
+            }
+        }
+
+        synchronized void sealHead() throws IOException {
+            if (head != null && head.count() > 0) {
+                blocks.add(writeBlock(key, head));
+            }
+            head = null;
+        }
+
+        synchronized Snapshot snapshot() {
+            if (head == null || head.count() == 0) {
+                return new Snapshot(List.copyOf(blocks), null, 0, 0, 0);
+            }
+            return new Snapshot(List.copyOf(blocks), head.toByteArray(), head.count(), head.firstTime(),
+                    head.lastTime());
+        }
+
+        synchronized List<BlockRef> blocksIn(Set<Segment> segments) {
+            List<BlockRef> result = new ArrayList<>();
+            for (BlockRef block : blocks) {
+                if (segments.contains(block.segment())) {
+                    result.add(block);
+                }
+            }
+            return result;
+        }
+
+        // Thay các block thuộc {@code segments} bằng {@code replacement} tại vị trí block đầu tiên bị thay
+        synchronized void replaceBlocks(Set<Segment> segments, List<BlockRef> replacement) {
+            List<BlockRef> updated = new ArrayList<>(blocks.size());
+            boolean inserted = false;
+            for (BlockRef block : blocks) {
+                if (segments.contains(block.segment())) {
+                    if (!inserted) {
+                        updated.addAll(replacement);
+                        inserted = true;
+                    }
+                } else {
+                    updated.add(block);
+                }
+            }
+            blocks.clear();
+            blocks.addAll(updated);
+        }
+    }
+}
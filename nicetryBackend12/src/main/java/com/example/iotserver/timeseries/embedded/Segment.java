@@ -0,0 +1,217 @@
+package com.example.iotserver.timeseries.embedded;
+
+import com.example.iotserver.timeseries.gorilla.GorillaDecoder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Một file segment chỉ ghi nối (append-only) chứa các block Gorilla của nhiều chuỗi.
+ *
+ * Header: magic "GSEG", version, level (0 = block vừa flush, 1 = block đã compact).
+ * Mỗi record: magic, độ dài key, key (UTF-8), minTime, maxTime, số điểm, độ dài dữ liệu, dữ liệu, CRC32.
+ * Segment đang ghi được đọc bằng FileChannel; khi đã đóng (seal) thì được map read-only vào bộ nhớ.
+ */
+@Slf4j
+final class Segment implements Closeable {
+
+    /**
+     * Nhận các block đọc được khi mở lại segment lúc khởi động.
+     */
+    @FunctionalInterface
+    interface BlockVisitor {
+        void visit(String seriesKey, BlockRef block);
+    }
+
+    private static final int FILE_MAGIC = 0x47534547; // "GSEG"
+    private static final int RECORD_MAGIC = 0x424C4B31; // "BLK1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    // magic + keyLen(2) + minTime + maxTime + count + dataLen
+    private static final int RECORD_FIXED = 4 + 2 + 8 + 8 + 4 + 4;
+
+    private final long id;
+    private final int level;
+    private final Path path;
+    private final FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+    private long size;
+    private volatile long maxTime = Long.MIN_VALUE;
+
+    private Segment(long id, int level, Path path, FileChannel channel, long size) {
+        this.id = id;
+        this.level = level;
+        this.path = path;
+        this.channel = channel;
+        this.size = size;
+    }
+
+    static Path fileName(Path dir, long id) {
+        return dir.resolve(String.format("%016d.seg", id));
+    }
+
+    static Segment create(Path dir, long id, int level) throws IOException {
+        Path path = fileName(dir, id);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(FILE_MAGIC).putInt(VERSION).putInt(level).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        return new Segment(id, level, path, channel, HEADER_SIZE);
+    }
+
+    /**
+     * Mở segment có sẵn và duyệt các block hợp lệ. Phần đuôi hỏng (ghi dở khi tắt đột ngột)
+     * bị cắt bỏ để có thể ghi tiếp.
+     */
+    static Segment open(Path path, long id, BlockVisitor visitor) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (fileSize < HEADER_SIZE || channel.read(header, 0) < HEADER_SIZE || header.getInt(0) != FILE_MAGIC) {
+            channel.close();
+            throw new IOException("File segment không hợp lệ: " + path);
+        }
+        Segment segment = new Segment(id, header.getInt(8), path, channel, fileSize);
+
+        long position = HEADER_SIZE;
+        ByteBuffer fixed = ByteBuffer.allocate(RECORD_FIXED);
+        while (position + RECORD_FIXED <= fileSize) {
+            fixed.clear();
+            segment.readFully(fixed, position);
+            if (fixed.getInt(0) != RECORD_MAGIC) {
+                break;
+            }
+            int keyLength = Short.toUnsignedInt(fixed.getShort(4));
+            long minTime = fixed.getLong(6);
+            long maxTime = fixed.getLong(14);
+            int count = fixed.getInt(22);
+            int dataLength = fixed.getInt(26);
+            long recordEnd = position + RECORD_FIXED + keyLength + dataLength + 4;
+            if (dataLength < 0 || recordEnd > fileSize) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(keyLength + dataLength + 4);
+            segment.readFully(body, position + RECORD_FIXED);
+            CRC32 crc = new CRC32();
+            crc.update(body.array(), 0, keyLength + dataLength);
+            if ((int) crc.getValue() != body.getInt(keyLength + dataLength)) {
+                break;
+            }
+            String key = new String(body.array(), 0, keyLength, StandardCharsets.UTF_8);
+            long dataOffset = position + RECORD_FIXED + keyLength;
+            visitor.visit(key, new BlockRef(segment, dataOffset, dataLength, minTime, maxTime, count));
+            segment.maxTime = Math.max(segment.maxTime, maxTime);
+            position = recordEnd;
+        }
+        if (position < fileSize) {
+            log.warn("Segment {} có {} byte cuối không hợp lệ, cắt bỏ", path.getFileName(), fileSize - position);
+            channel.truncate(position);
+            segment.size = position;
+        }
+        return segment;
+    }
+
+    /**
+     * Ghi một block vào cuối segment.
+     */
+    synchronized BlockRef append(String seriesKey, long minTime, long maxTime, int count, byte[] data)
+            throws IOException {
+        byte[] key = seriesKey.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(data);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_FIXED + key.length + data.length + 4)
+                .putInt(RECORD_MAGIC)
+                .putShort((short) key.length)
+                .putLong(minTime)
+                .putLong(maxTime)
+                .putInt(count)
+                .putInt(data.length)
+                .put(key)
+                .put(data)
+                .putInt((int) crc.getValue())
+                .flip();
+        long position = size;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        BlockRef ref = new BlockRef(this, size + RECORD_FIXED + key.length, data.length, minTime, maxTime, count);
+        size = position;
+        this.maxTime = Math.max(this.maxTime, maxTime);
+        return ref;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Ngừng ghi và map toàn bộ file read-only để đọc không cần system call.
+     */
+    synchronized void seal() throws IOException {
+        channel.force(false);
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    GorillaDecoder decoder(BlockRef block) throws IOException {
+        MappedByteBuffer map = mapped;
+        if (map != null) {
+            return new GorillaDecoder(map, (int) block.offset(), block.length(), block.count());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(block.length());
+        readFully(buffer, block.offset());
+        return new GorillaDecoder(buffer, 0, block.length(), block.count());
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Đọc vượt quá cuối segment " + path.getFileName());
+            }
+        }
+    }
+
+    /**
+     * Timestamp lớn nhất trong segment, dùng để xóa cả segment khi hết hạn lưu trữ.
+     */
+    long maxTime() {
+        return maxTime;
+    }
+
+    long id() {
+        return id;
+    }
+
+    int level() {
+        return level;
+    }
+
+    void delete() throws IOException {
+        close();
+        // Vùng đã map vẫn đọc được cho tới khi được GC, kể cả khi file đã bị xóa
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.close();
+        }
+    }
+}
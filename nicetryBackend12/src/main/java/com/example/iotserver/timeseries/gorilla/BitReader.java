@@ -0,0 +1,38 @@
+package com.example.iotserver.timeseries.gorilla;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Đọc chuỗi bit (MSB trước) từ một ByteBuffer (có thể là vùng memory-mapped), không copy dữ liệu.
+ */
+final class BitReader {
+
+    private final ByteBuffer buffer;
+    private final int base;
+    private final long limitBits;
+    private long position;
+
+    BitReader(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.base = offset;
+        this.limitBits = (long) length << 3;
+    }
+
+    boolean readBit() {
+        if (position >= limitBits) {
+            throw new IllegalStateException("Đọc vượt quá cuối block");
+        }
+        int b = buffer.get(base + (int) (position >>> 3));
+        boolean bit = (b & (0x80 >>> (position & 7))) != 0;
+        position++;
+        return bit;
+    }
+
+    long readBits(int count) {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            value = (value << 1) | (readBit() ? 1L : 0L);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.iotserver.timeseries.gorilla;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Ghi chuỗi bit (MSB trước) vào ByteBuffer: mảng heap tự giãn, hoặc một vùng cố định
+ * của buffer có sẵn (vd: trang off-heap) mà không được ghi vượt quá.
+ */
+final class BitWriter {
+
+    private ByteBuffer buffer;
+    private final int base;
+    private final long capacityBits;
+    private final boolean growable;
+    private long bitLength;
+
+    BitWriter(int initialBytes) {
+        this.buffer = ByteBuffer.allocate(Math.max(8, initialBytes));
+        this.base = 0;
+        this.capacityBits = Long.MAX_VALUE;
+        this.growable = true;
+    }
+
+    /**
+     * Ghi vào vùng [offset, offset + capacity) của {@code buffer}. Vùng này được xóa về 0 trước.
+     */
+    BitWriter(ByteBuffer buffer, int offset, int capacity) {
+        this.buffer = buffer;
+        this.base = offset;
+        this.capacityBits = (long) capacity << 3;
+        this.growable = false;
+        for (int i = 0; i < capacity; i++) {
+            buffer.put(offset + i, (byte) 0);
+        }
+    }
+
+    void writeBit(boolean bit) {
+        ensureCapacity(1);
+        if (bit) {
+            setBit();
+        }
+        bitLength++;
+    }
+
+    /**
+     * Ghi {@code count} bit thấp của {@code value} (0..64).
+     */
+    void writeBits(long value, int count) {
+        ensureCapacity(count);
+        for (int i = count - 1; i >= 0; i--) {
+            if (((value >>> i) & 1L) != 0) {
+                setBit();
+            }
+            bitLength++;
+        }
+    }
+
+    long bitLength() {
+        return bitLength;
+    }
+
+    long remainingBits() {
+        return capacityBits - bitLength;
+    }
+
+    int byteLength() {
+        return (int) ((bitLength + 7) >>> 3);
+    }
+
+    byte[] toByteArray() {
+        byte[] bytes = new byte[byteLength()];
+        buffer.get(base, bytes);
+        return bytes;
+    }
+
+    private void setBit() {
+        int index = base + (int) (bitLength >>> 3);
+        buffer.put(index, (byte) (buffer.get(index) | (0x80 >>> (bitLength & 7))));
+    }
+
+    private void ensureCapacity(int bits) {
+        if (bitLength + bits > capacityBits) {
+            throw new IllegalStateException("Ghi vượt quá vùng nhớ của block");
+        }
+        long needed = (bitLength + bits + 7) >>> 3;
+        if (growable && needed > buffer.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate((int) Math.max(needed, buffer.capacity() * 2L));
+            grown.put(0, buffer, 0, buffer.capacity());
+            buffer = grown;
+        }
+    }
+}
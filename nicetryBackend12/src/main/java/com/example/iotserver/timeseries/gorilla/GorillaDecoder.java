@@ -0,0 +1,89 @@
+package com.example.iotserver.timeseries.gorilla;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Giải nén block do {@link GorillaEncoder} tạo ra, đọc tuần tự từng điểm.
+ */
+public final class GorillaDecoder {
+
+    private final BitReader in;
+    private final int count;
+    private int index;
+    private long time;
+    private long delta;
+    private long valueBits;
+    private int leading;
+    private int trailing;
+
+    public GorillaDecoder(ByteBuffer buffer, int offset, int length, int count) {
+        this.in = new BitReader(buffer, offset, length);
+        this.count = count;
+    }
+
+    public boolean next() {
+        if (index >= count) {
+            return false;
+        }
+        if (index == 0) {
+            time = in.readBits(64);
+            valueBits = in.readBits(64);
+        } else {
+            delta += readDeltaOfDelta();
+            time += delta;
+            readXor();
+        }
+        index++;
+        return true;
+    }
+
+    public long time() {
+        return time;
+    }
+
+    public double value() {
+        return Double.longBitsToDouble(valueBits);
+    }
+
+    private long readDeltaOfDelta() {
+        if (!in.readBit()) {
+            return 0;
+        }
+        if (!in.readBit()) {
+            return signExtend(in.readBits(7), 7);
+        }
+        if (!in.readBit()) {
+            return signExtend(in.readBits(9), 9);
+        }
+        if (!in.readBit()) {
+            return signExtend(in.readBits(12), 12);
+        }
+        return in.readBits(64);
+    }
+
+    private void readXor() {
+        if (!in.readBit()) {
+            return;
+        }
+        if (in.readBit()) {
+            leading = (int) in.readBits(5);
+            int meaningful = (int) in.readBits(6);
+            if (meaningful == 0) {
+                meaningful = 64;
+            }
+            trailing = 64 - leading - meaningful;
+        }
+        int meaningful = 64 - leading - trailing;
+        valueBits ^= in.readBits(meaningful) << trailing;
+    }
+
+    // Các khoảng dod được mã hóa lệch: [-(2^(n-1)-1), 2^(n-1)] nên bit cao = 1 nghĩa là số âm,
+    // trừ giá trị 2^(n-1) (dương lớn nhất) có bit cao = 1 và các bit còn lại = 0
+    private static long signExtend(long value, int bits) {
+        long half = 1L << (bits - 1);
+        if (value > half) {
+            return value - (1L << bits);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.iotserver.timeseries.gorilla;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Nén một block chuỗi thời gian theo Gorilla (Facebook, VLDB 2015): timestamp theo delta-of-delta,
+ * giá trị theo XOR với giá trị trước. Timestamp trong block phải không giảm.
+ *
+ * Bố cục: timestamp đầu 64 bit, giá trị đầu 64 bit, sau đó mỗi điểm là (dod, xor).
+ * dod: '0' | '10'+7 bit | '110'+9 bit | '1110'+12 bit | '1111'+64 bit.
+ * xor: '0' (bằng giá trị trước) | '10'+bit có nghĩa trong cửa sổ trước | '11'+5 bit leading+6 bit độ dài+bit.
+ */
+public final class GorillaEncoder {
+
+    // Trường hợp xấu nhất của một điểm: dod 4+64 bit, xor 2+5+6+64 bit (điểm đầu là 128 bit)
+    private static final int MAX_POINT_BITS = 145;
+
+    private final BitWriter out;
+    private int count;
+    private long firstTime;
+    private long lastTime;
+    private long lastDelta;
+    private long lastValueBits;
+    private double lastValue;
+    private int lastLeading = Integer.MAX_VALUE;
+    private int lastTrailing;
+
+    public GorillaEncoder(int expectedPoints) {
+        this.out = new BitWriter(16 + expectedPoints * 2);
+    }
+
+    /**
+     * Nén vào vùng cố định [offset, offset + capacity) của {@code buffer} (vd: một trang off-heap).
+     */
+    public GorillaEncoder(ByteBuffer buffer, int offset, int capacity) {
+        this.out = new BitWriter(buffer, offset, capacity);
+    }
+
+    /**
+     * @return false nếu timestamp nhỏ hơn điểm trước hoặc vùng nhớ cố định không còn đủ chỗ
+     *         (cần mở block mới)
+     */
+    public boolean append(long time, double value) {
+        if (out.remainingBits() < MAX_POINT_BITS) {
+            return false;
+        }
+        long bits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            out.writeBits(time, 64);
+            out.writeBits(bits, 64);
+            firstTime = time;
+        } else {
+            if (time < lastTime) {
+                return false;
+            }
+            long delta = time - lastTime;
+            writeDeltaOfDelta(delta - lastDelta);
+            lastDelta = delta;
+            writeXor(bits);
+        }
+        lastTime = time;
+        lastValueBits = bits;
+        lastValue = value;
+        count++;
+        return true;
+    }
+
+    private void writeDeltaOfDelta(long dod) {
+        if (dod == 0) {
+            out.writeBit(false);
+        } else if (dod >= -63 && dod <= 64) {
+            out.writeBits(0b10, 2);
+            out.writeBits(dod, 7);
+        } else if (dod >= -255 && dod <= 256) {
+            out.writeBits(0b110, 3);
+            out.writeBits(dod, 9);
+        } else if (dod >= -2047 && dod <= 2048) {
+            out.writeBits(0b1110, 4);
+            out.writeBits(dod, 12);
+        } else {
+            out.writeBits(0b1111, 4);
+            out.writeBits(dod, 64);
+        }
+    }
+
+    private void writeXor(long bits) {
+        long xor = bits ^ lastValueBits;
+        if (xor == 0) {
+            out.writeBit(false);
+            return;
+        }
+        out.writeBit(true);
+        int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (lastLeading != Integer.MAX_VALUE && leading >= lastLeading && trailing >= lastTrailing) {
+            out.writeBit(false);
+            out.writeBits(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+        } else {
+            int meaningful = 64 - leading - trailing;
+            out.writeBit(true);
+            out.writeBits(leading, 5);
+            // 64 bit có nghĩa được ghi là 0 (6 bit chỉ biểu diễn tới 63)
+            out.writeBits(meaningful & 63, 6);
+            out.writeBits(xor >>> trailing, meaningful);
+            lastLeading = leading;
+            lastTrailing = trailing;
+        }
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public long firstTime() {
+        return firstTime;
+    }
+
+    public long lastTime() {
+        return lastTime;
+    }
+
+    public double lastValue() {
+        return lastValue;
+    }
+
+    public int byteLength() {
+        return out.byteLength();
+    }
+
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+}
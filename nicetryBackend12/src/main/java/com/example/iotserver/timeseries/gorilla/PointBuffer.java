@@ -0,0 +1,55 @@
+package com.example.iotserver.timeseries.gorilla;
+
+import com.example.iotserver.timeseries.SeriesChunk;
+
+import java.util.Arrays;
+
+/**
+ * Bộ đệm điểm tạm khi đọc nhiều block Gorilla; sắp xếp (ổn định) và bỏ timestamp trùng khi cần.
+ */
+public final class PointBuffer {
+
+    private long[] times = new long[64];
+    private double[] values = new double[64];
+    private int size;
+    private boolean sorted = true;
+
+    public void addAll(GorillaDecoder decoder, long from, long to) {
+        while (decoder.next()) {
+            long time = decoder.time();
+            if (time < from || time >= to) {
+                continue;
+            }
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            if (size > 0 && time < times[size - 1]) {
+                sorted = false;
+            }
+            times[size] = time;
+            values[size] = decoder.value();
+            size++;
+        }
+    }
+
+    public SeriesChunk toChunk() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        if (!sorted) {
+            Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+        }
+        SeriesChunk.Builder builder = SeriesChunk.builder();
+        for (int i = 0; i < size; i++) {
+            int index = order[i];
+            // Timestamp trùng: giữ điểm cuối cùng (ghi sau)
+            if (i + 1 < size && times[order[i + 1]] == times[index]) {
+                continue;
+            }
+            builder.add(times[index], values[index]);
+        }
+        return builder.build();
+    }
+}
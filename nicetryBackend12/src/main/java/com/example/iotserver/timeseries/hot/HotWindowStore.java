@@ -0,0 +1,509 @@
+package com.example.iotserver.timeseries.hot;
+
+import com.example.iotserver.dto.SensorDataDTO;
+import com.example.iotserver.timeseries.FieldPivot;
+import com.example.iotserver.timeseries.FluxQuery;
+import com.example.iotserver.timeseries.SensorDataStore;
+import com.example.iotserver.timeseries.SensorReading;
+import com.example.iotserver.timeseries.SeriesChunk;
+import com.example.iotserver.timeseries.SeriesKey;
+import com.example.iotserver.timeseries.WindowAggregator;
+import com.example.iotserver.timeseries.gorilla.GorillaDecoder;
+import com.example.iotserver.timeseries.gorilla.GorillaEncoder;
+import com.example.iotserver.timeseries.gorilla.PointBuffer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cửa sổ dữ liệu nóng (mặc định 24 giờ) của mọi chuỗi (device, field), giữ trong bộ nhớ để trả lời
+ * truy vấn gần đây mà không cần gọi store chính (InfluxDB).
+ *
+ * Mỗi chuỗi là một vòng các trang off-heap cấp từ {@link OffHeapPagePool}; mỗi trang là một block
+ * Gorilla độc lập kèm header (số điểm, timestamp đầu, timestamp cuối). Trang cũ nhất được trả về pool
+ * khi toàn bộ điểm đã ra khỏi cửa sổ, nên heap chỉ chứa vài object nhỏ cho mỗi chuỗi.
+ *
+ * Store chỉ thấy dữ liệu ghi qua {@link #write} kể từ khi khởi động, nên mỗi chuỗi có một mốc
+ * "đủ dữ liệu từ" ({@link #coverageStart}); truy vấn bắt đầu trước mốc này phải lấy phần cũ từ store chính.
+ * Khi pool hết bộ nhớ, chuỗi đang cần trang mới bị xóa và mốc của nó dời tới lúc được cấp trang lại.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HotWindowStore {
+
+    // Header mỗi trang: số điểm (int), timestamp đầu, timestamp cuối (long)
+    private static final int PAGE_HEADER = 4 + 8 + 8;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${sensor.hot-window.enabled:true}")
+    private boolean enabled;
+
+    @Value("${sensor.hot-window.duration:24h}")
+    private Duration duration;
+
+    @Value("${sensor.hot-window.page-size:512}")
+    private int pageSize;
+
+    @Value("${sensor.hot-window.arena-size:16777216}")
+    private int arenaSize;
+
+    @Value("${sensor.hot-window.max-bytes:268435456}")
+    private long maxBytes;
+
+    private final Map<String, DeviceWindow> devices = new ConcurrentHashMap<>();
+    private final AtomicBoolean exhaustedWarned = new AtomicBoolean();
+    private OffHeapPagePool pool;
+    private Counter droppedSeries;
+    private long startedAt;
+
+    @PostConstruct
+    public void init() {
+        startedAt = System.currentTimeMillis();
+        if (!enabled) {
+            log.info("Hot window store bị tắt (sensor.hot-window.enabled=false)");
+            return;
+        }
+        if (pageSize < PAGE_HEADER + 64) {
+            throw new IllegalStateException("sensor.hot-window.page-size quá nhỏ: " + pageSize);
+        }
+        pool = new OffHeapPagePool(pageSize, arenaSize, maxBytes);
+        Gauge.builder("sensor.hot_window.bytes", pool, OffHeapPagePool::usedBytes)
+                .description("Số byte off-heap đang chứa dữ liệu của hot window")
+                .register(meterRegistry);
+        Gauge.builder("sensor.hot_window.reserved_bytes", pool, OffHeapPagePool::reservedBytes)
+                .description("Số byte off-heap đã cấp cho các arena của hot window")
+                .register(meterRegistry);
+        Gauge.builder("sensor.hot_window.devices", devices, Map::size)
+                .register(meterRegistry);
+        droppedSeries = Counter.builder("sensor.hot_window.dropped")
+                .description("Số lần một chuỗi bị xóa khỏi hot window vì hết bộ nhớ")
+                .register(meterRegistry);
+        log.info("Hot window store: cửa sổ {}, trang {} byte, tối đa {} MB off-heap", duration, pageSize,
+                maxBytes / (1024 * 1024));
+    }
+
+    // ---------------------------------------------------------------- ghi
+
+    public void write(SensorReading data) {
+        if (!enabled) {
+            return;
+        }
+        long time = data.timestamp();
+        long cutoff = System.currentTimeMillis() - duration.toMillis();
+        if (time < cutoff) {
+            return;
+        }
+        while (true) {
+            DeviceWindow device = devices.computeIfAbsent(data.deviceId(), id -> new DeviceWindow());
+            synchronized (device) {
+                // Bị sweep xóa giữa lúc lấy ra và lúc khóa: lấy window mới
+                if (device.removed) {
+                    continue;
+                }
+                if (data.sensorType() != null) {
+                    device.sensorType = data.sensorType();
+                }
+                if (data.farmId() != null) {
+                    device.farmId = data.farmId();
+                }
+                for (int f = 0; f < SensorReading.FIELD_COUNT; f++) {
+                    if (!data.has(f)) {
+                        continue;
+                    }
+                    if (device.fields[f] == null) {
+                        device.fields[f] = new FieldRing(startedAt);
+                    }
+                    append(device.fields[f], time, data.value(f), cutoff);
+                }
+                return;
+            }
+        }
+    }
+
+    private void append(FieldRing ring, long time, double value, long cutoff) {
+        evictExpired(ring, cutoff);
+        if (ring.current != null && ring.current.append(time, value)) {
+            writeHeader(ring.lastPage(), ring.current);
+            return;
+        }
+        // Trang cuối đầy hoặc điểm đến trễ (timestamp lùi): mở trang mới
+        int page = pool.allocate();
+        if (page < 0) {
+            drop(ring);
+            return;
+        }
+        if (ring.coveredFrom == Long.MAX_VALUE) {
+            ring.coveredFrom = System.currentTimeMillis();
+        }
+        ring.push(page);
+        ring.current = new GorillaEncoder(pool.arena(page), pool.offset(page) + PAGE_HEADER,
+                pageSize - PAGE_HEADER);
+        ring.current.append(time, value);
+        writeHeader(page, ring.current);
+        exhaustedWarned.set(false);
+    }
+
+    private void writeHeader(int page, GorillaEncoder encoder) {
+        ByteBuffer arena = pool.arena(page);
+        int offset = pool.offset(page);
+        arena.putInt(offset, encoder.count());
+        arena.putLong(offset + 4, encoder.firstTime());
+        arena.putLong(offset + 12, encoder.lastTime());
+    }
+
+    // Trả các trang đã ra khỏi cửa sổ về pool, theo thứ tự cấp phát
+    private void evictExpired(FieldRing ring, long cutoff) {
+        while (ring.size > 0) {
+            int page = ring.pages[ring.head];
+            long maxTime = pool.arena(page).getLong(pool.offset(page) + 12);
+            if (maxTime >= cutoff) {
+                return;
+            }
+            if (ring.coveredFrom != Long.MAX_VALUE) {
+                ring.coveredFrom = Math.max(ring.coveredFrom, maxTime + 1);
+            }
+            ring.pollFirst();
+            pool.free(page);
+        }
+        ring.current = null;
+    }
+
+    // Hết bộ nhớ: bỏ toàn bộ chuỗi, các truy vấn của chuỗi này quay về store chính
+    private void drop(FieldRing ring) {
+        while (ring.size > 0) {
+            pool.free(ring.pollFirst());
+        }
+        ring.current = null;
+        ring.coveredFrom = Long.MAX_VALUE;
+        droppedSeries.increment();
+        if (exhaustedWarned.compareAndSet(false, true)) {
+            log.warn("Hot window đã dùng hết {} MB off-heap, các chuỗi mới sẽ đọc từ store chính",
+                    maxBytes / (1024 * 1024));
+        }
+    }
+
+    /**
+     * Dọn các trang hết hạn của chuỗi không còn được ghi, và bỏ thiết bị không còn dữ liệu.
+     */
+    @Scheduled(fixedDelay = 300000, initialDelay = 300000)
+    public void sweep() {
+        if (!enabled) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - duration.toMillis();
+        devices.forEach((deviceId, device) -> {
+            synchronized (device) {
+                boolean empty = true;
+                for (int f = 0; f < device.fields.length; f++) {
+                    FieldRing ring = device.fields[f];
+                    if (ring == null) {
+                        continue;
+                    }
+                    evictExpired(ring, cutoff);
+                    // Chuỗi bị mất dữ liệu vẫn phải giữ lại để nhớ mốc coveredFrom
+                    if (ring.size == 0 && ring.coveredFrom != Long.MAX_VALUE) {
+                        device.fields[f] = null;
+                    } else {
+                        empty = false;
+                    }
+                }
+                if (empty) {
+                    device.removed = true;
+                    devices.remove(deviceId, device);
+                }
+            }
+        });
+    }
+
+    // ---------------------------------------------------------------- đọc
+
+    /**
+     * Mốc (epoch millis) mà từ đó hot window có đủ dữ liệu của mọi chuỗi được hỏi.
+     * Truy vấn có phần trước mốc này phải lấy phần đó từ store chính; {@link Long#MAX_VALUE} khi bị tắt.
+     */
+    public long coverageStart(Collection<String> deviceIds, Collection<String> fields) {
+        if (!enabled) {
+            return Long.MAX_VALUE;
+        }
+        long coverage = coverageFloor();
+        for (String deviceId : deviceIds) {
+            DeviceWindow device = devices.get(deviceId);
+            if (device != null) {
+                coverage = Math.max(coverage, device.coverage(fields));
+            }
+        }
+        return coverage;
+    }
+
+    /**
+     * Như {@link #coverageStart} cho mọi thiết bị đã ghi dữ liệu với {@code farmId}.
+     */
+    public long farmCoverageStart(Long farmId) {
+        if (!enabled) {
+            return Long.MAX_VALUE;
+        }
+        long coverage = coverageFloor();
+        for (DeviceWindow device : devices.values()) {
+            if (Objects.equals(device.farmId, farmId)) {
+                coverage = Math.max(coverage, device.coverage(SensorDataStore.FIELDS));
+            }
+        }
+        return coverage;
+    }
+
+    // Chuỗi chưa từng ghi (hoặc đã bị sweep) thì có đủ dữ liệu từ lúc khởi động, trong phạm vi cửa sổ
+    private long coverageFloor() {
+        return Math.max(startedAt, System.currentTimeMillis() - duration.toMillis());
+    }
+
+    /**
+     * Giá trị mới nhất của từng field kể từ {@code since}; null nếu không có dữ liệu.
+     * Chỉ chính xác khi {@code since} không sớm hơn {@link #coverageStart}.
+     */
+    public SensorDataDTO latest(String deviceId, long since) {
+        DeviceWindow device = devices.get(deviceId);
+        if (device == null) {
+            return null;
+        }
+        SensorDataDTO dto = SensorDataDTO.builder().deviceId(deviceId).build();
+        long latestTime = Long.MIN_VALUE;
+        synchronized (device) {
+            dto.setSensorType(device.sensorType);
+            for (int f = 0; f < device.fields.length; f++) {
+                FieldRing ring = device.fields[f];
+                if (ring == null) {
+                    continue;
+                }
+                long[] time = new long[1];
+                double[] value = new double[1];
+                if (readLast(ring, time, value) && time[0] >= since) {
+                    dto.setFieldValue(SensorDataStore.FIELDS.get(f), value[0]);
+                    latestTime = Math.max(latestTime, time[0]);
+                }
+            }
+        }
+        if (latestTime == Long.MIN_VALUE) {
+            return null;
+        }
+        dto.setTimestamp(Instant.ofEpochMilli(latestTime));
+        return dto;
+    }
+
+    /**
+     * Giá trị cuối cùng trong [from, to) của từng field, lấy điểm muộn nhất giữa các thiết bị của farm;
+     * null nếu không có dữ liệu.
+     */
+    public SensorDataDTO farmLatest(Long farmId, long from, long to) {
+        SensorDataDTO dto = SensorDataDTO.builder().farmId(farmId).timestamp(Instant.now()).build();
+        long[] latestTimes = new long[SensorDataStore.FIELDS.size()];
+        Arrays.fill(latestTimes, Long.MIN_VALUE);
+        boolean found = false;
+        for (DeviceWindow device : devices.values()) {
+            if (!Objects.equals(device.farmId, farmId)) {
+                continue;
+            }
+            synchronized (device) {
+                for (int f = 0; f < device.fields.length; f++) {
+                    if (device.fields[f] == null) {
+                        continue;
+                    }
+                    SeriesChunk points = read(device.fields[f], from, to);
+                    int last = points.size() - 1;
+                    if (last >= 0 && points.timeAt(last) > latestTimes[f]) {
+                        latestTimes[f] = points.timeAt(last);
+                        dto.setFieldValue(SensorDataStore.FIELDS.get(f), points.valueAt(last));
+                        found = true;
+                    }
+                }
+            }
+        }
+        return found ? dto : null;
+    }
+
+    /**
+     * Stream dữ liệu trong [from, to) theo thứ tự thời gian, mỗi timestamp một dòng chứa đủ các field.
+     */
+    public long range(String deviceId, long from, long to, SensorDataStore.RowHandler<SensorDataDTO> handler)
+            throws IOException {
+        DeviceWindow device = devices.get(deviceId);
+        if (device == null) {
+            return 0;
+        }
+        SeriesChunk[] fields = new SeriesChunk[SensorDataStore.FIELDS.size()];
+        String sensorType;
+        // Giải nén trong lúc giữ khóa, gọi handler (có thể ghi ra mạng) sau khi đã nhả khóa
+        synchronized (device) {
+            sensorType = device.sensorType;
+            for (int f = 0; f < fields.length; f++) {
+                fields[f] = device.fields[f] != null ? read(device.fields[f], from, to) : SeriesChunk.EMPTY;
+            }
+        }
+        return FieldPivot.emit(deviceId, sensorType, fields, handler);
+    }
+
+    /**
+     * Tổng hợp theo cùng ngữ nghĩa với {@link SensorDataStore#aggregate}.
+     */
+    public Map<SeriesKey, SeriesChunk> aggregate(Collection<String> deviceIds, Collection<String> fields,
+            String aggregation, String window, long from, long to) {
+        Duration every = FluxQuery.parseDuration(FluxQuery.duration(window));
+        if (every == null) {
+            throw new IllegalArgumentException("Window không hợp lệ: " + window);
+        }
+        FluxQuery.aggregate(aggregation);
+
+        Map<SeriesKey, SeriesChunk> result = new HashMap<>();
+        for (String deviceId : deviceIds) {
+            DeviceWindow device = devices.get(deviceId);
+            if (device == null) {
+                continue;
+            }
+            for (String field : fields) {
+                int f = SensorDataStore.FIELDS.indexOf(field);
+                SeriesChunk raw;
+                synchronized (device) {
+                    raw = f >= 0 && device.fields[f] != null ? read(device.fields[f], from, to) : SeriesChunk.EMPTY;
+                }
+                if (raw.size() > 0) {
+                    result.put(new SeriesKey(deviceId, field, aggregation, window),
+                            WindowAggregator.aggregate(raw, aggregation, every.toMillis(), from, to));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Đọc các điểm trong [from, to) của một chuỗi, sắp theo thời gian; timestamp trùng thì giữ giá trị ghi sau.
+     * Gọi khi đang giữ khóa của thiết bị.
+     */
+    private SeriesChunk read(FieldRing ring, long from, long to) {
+        PointBuffer points = new PointBuffer();
+        for (int i = 0; i < ring.size; i++) {
+            int page = ring.pageAt(i);
+            ByteBuffer arena = pool.arena(page);
+            int offset = pool.offset(page);
+            int count = arena.getInt(offset);
+            if (count > 0 && arena.getLong(offset + 12) >= from && arena.getLong(offset + 4) < to) {
+                points.addAll(new GorillaDecoder(arena, offset + PAGE_HEADER, pageSize - PAGE_HEADER, count),
+                        from, to);
+            }
+        }
+        return points.toChunk();
+    }
+
+    // Điểm cuối cùng nằm ở trang có timestamp cuối lớn nhất; trang cấp sau thắng nếu bằng nhau
+    private boolean readLast(FieldRing ring, long[] time, double[] value) {
+        int newest = -1;
+        long newestTime = Long.MIN_VALUE;
+        for (int i = 0; i < ring.size; i++) {
+            int page = ring.pageAt(i);
+            long lastTime = pool.arena(page).getLong(pool.offset(page) + 12);
+            if (newest < 0 || lastTime >= newestTime) {
+                newest = page;
+                newestTime = lastTime;
+            }
+        }
+        if (newest < 0) {
+            return false;
+        }
+        ByteBuffer arena = pool.arena(newest);
+        int offset = pool.offset(newest);
+        GorillaDecoder decoder = new GorillaDecoder(arena, offset + PAGE_HEADER, pageSize - PAGE_HEADER,
+                arena.getInt(offset));
+        boolean found = false;
+        while (decoder.next()) {
+            time[0] = decoder.time();
+            value[0] = decoder.value();
+            found = true;
+        }
+        return found;
+    }
+
+    // ---------------------------------------------------------------- cấu trúc trong heap
+
+    /**
+     * Các chuỗi của một thiết bị, theo thứ tự {@link SensorDataStore#FIELDS}. Mọi thao tác khóa trên object này.
+     */
+    private static final class DeviceWindow {
+        final FieldRing[] fields = new FieldRing[SensorDataStore.FIELDS.size()];
+        String sensorType;
+        volatile Long farmId;
+        boolean removed;
+
+        synchronized long coverage(Collection<String> names) {
+            long coverage = Long.MIN_VALUE;
+            for (String name : names) {
+                int f = SensorDataStore.FIELDS.indexOf(name);
+                if (f >= 0 && fields[f] != null) {
+                    coverage = Math.max(coverage, fields[f].coveredFrom);
+                }
+            }
+            return coverage;
+        }
+    }
+
+    /**
+     * Vòng id trang của một chuỗi theo thứ tự cấp phát; trang cuối là trang đang ghi.
+     */
+    private static final class FieldRing {
+        int[] pages = new int[4];
+        int head;
+        int size;
+        GorillaEncoder current;
+        // Có đủ dữ liệu từ mốc này; Long.MAX_VALUE khi chuỗi bị xóa vì hết bộ nhớ
+        long coveredFrom;
+
+        FieldRing(long coveredFrom) {
+            this.coveredFrom = coveredFrom;
+        }
+
+        int pageAt(int index) {
+            return pages[(head + index) % pages.length];
+        }
+
+        int lastPage() {
+            return pageAt(size - 1);
+        }
+
+        void push(int page) {
+            if (size == pages.length) {
+                int[] grown = new int[pages.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = pageAt(i);
+                }
+                pages = grown;
+                head = 0;
+            }
+            pages[(head + size) % pages.length] = page;
+            size++;
+        }
+
+        int pollFirst() {
+            int page = pages[head];
+            head = (head + 1) % pages.length;
+            size--;
+            return page;
+        }
+    }
+}
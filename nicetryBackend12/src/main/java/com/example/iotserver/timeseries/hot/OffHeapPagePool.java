@@ -0,0 +1,82 @@
+package com.example.iotserver.timeseries.hot;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cấp phát các trang kích thước cố định trong những arena {@link ByteBuffer#allocateDirect direct}
+ * lớn, nằm ngoài heap nên GC không phải quét dữ liệu. Arena được cấp dần theo nhu cầu tới
+ * {@code maxBytes} và không bao giờ trả lại; trang được giải phóng vào free list để dùng lại.
+ *
+ * Trang được định danh bằng số nguyên: {@code arena * pagesPerArena + index}.
+ */
+final class OffHeapPagePool {
+
+    private final int pageSize;
+    private final int pagesPerArena;
+    private final int maxArenas;
+    private final List<ByteBuffer> arenas = new ArrayList<>();
+    private int[] free = new int[1024];
+    private int freeCount;
+    private int nextUnused;
+    private int usedPages;
+
+    OffHeapPagePool(int pageSize, int arenaBytes, long maxBytes) {
+        if (pageSize <= 0 || arenaBytes < pageSize) {
+            throw new IllegalArgumentException("Kích thước trang/arena không hợp lệ");
+        }
+        this.pageSize = pageSize;
+        this.pagesPerArena = arenaBytes / pageSize;
+        this.maxArenas = (int) Math.max(1, maxBytes / ((long) pagesPerArena * pageSize));
+    }
+
+    /**
+     * @return id trang, hoặc -1 nếu đã dùng hết {@code maxBytes}
+     */
+    synchronized int allocate() {
+        int page;
+        if (freeCount > 0) {
+            page = free[--freeCount];
+        } else {
+            if (nextUnused == arenas.size() * pagesPerArena) {
+                if (arenas.size() == maxArenas) {
+                    return -1;
+                }
+                arenas.add(ByteBuffer.allocateDirect(pagesPerArena * pageSize));
+            }
+            page = nextUnused++;
+        }
+        usedPages++;
+        return page;
+    }
+
+    synchronized void free(int page) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = page;
+        usedPages--;
+    }
+
+    synchronized ByteBuffer arena(int page) {
+        return arenas.get(page / pagesPerArena);
+    }
+
+    int offset(int page) {
+        return (page % pagesPerArena) * pageSize;
+    }
+
+    int pageSize() {
+        return pageSize;
+    }
+
+    synchronized long usedBytes() {
+        return (long) usedPages * pageSize;
+    }
+
+    synchronized long reservedBytes() {
+        return (long) arenas.size() * pagesPerArena * pageSize;
+    }
+}
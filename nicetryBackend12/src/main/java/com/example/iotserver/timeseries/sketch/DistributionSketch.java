@@ -0,0 +1,92 @@
+package com.example.iotserver.timeseries.sketch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Thống kê phân phối gộp được của một chuỗi trong một khoảng thời gian: số điểm, tổng,
+ * t-digest cho quantile và histogram bucket cố định.
+ *
+ * Không thread-safe.
+ */
+public final class DistributionSketch {
+
+    private static final byte VERSION = 1;
+
+    private final TDigest digest;
+    private final FixedHistogram histogram;
+    private double sum;
+
+    public DistributionSketch(double compression, double histogramLower, double histogramUpper, int buckets) {
+        this(new TDigest(compression), new FixedHistogram(histogramLower, histogramUpper, buckets), 0);
+    }
+
+    private DistributionSketch(TDigest digest, FixedHistogram histogram, double sum) {
+        this.digest = digest;
+        this.histogram = histogram;
+        this.sum = sum;
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        digest.add(value);
+        histogram.add(value);
+        sum += value;
+    }
+
+    /**
+     * Gộp sketch khác vào sketch này. Histogram khác cấu hình (đã đổi bucket) được bỏ qua,
+     * quantile vẫn đúng vì chỉ dựa trên t-digest.
+     */
+    public void merge(DistributionSketch other) {
+        digest.merge(other.digest);
+        if (histogram.sameLayout(other.histogram)) {
+            histogram.merge(other.histogram);
+        }
+        sum += other.sum;
+    }
+
+    public long count() {
+        return digest.count();
+    }
+
+    public double mean() {
+        long count = count();
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    public double min() {
+        return digest.min();
+    }
+
+    public double max() {
+        return digest.max();
+    }
+
+    public double quantile(double q) {
+        return digest.quantile(q);
+    }
+
+    public FixedHistogram histogram() {
+        return histogram;
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer out = ByteBuffer.allocate(1 + 8 + digest.byteSize() + histogram.byteSize());
+        out.put(VERSION).putDouble(sum);
+        digest.writeTo(out);
+        histogram.writeTo(out);
+        return out.array();
+    }
+
+    public static DistributionSketch fromBytes(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.get() != VERSION) {
+            throw new IllegalArgumentException("Phiên bản sketch không được hỗ trợ");
+        }
+        double sum = in.getDouble();
+        TDigest digest = TDigest.readFrom(in);
+        return new DistributionSketch(digest, FixedHistogram.readFrom(in), sum);
+    }
+}
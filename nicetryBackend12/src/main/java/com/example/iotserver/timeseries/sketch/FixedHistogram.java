@@ -0,0 +1,99 @@
+package com.example.iotserver.timeseries.sketch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Histogram với các bucket cố định bằng nhau trong [lower, upper), cộng thêm bucket tràn dưới/trên.
+ * Hai histogram cùng cấu hình gộp được bằng cách cộng số đếm.
+ *
+ * Không thread-safe.
+ */
+public final class FixedHistogram {
+
+    private final double lower;
+    private final double upper;
+    private final long[] counts;
+    private long underflow;
+    private long overflow;
+
+    public FixedHistogram(double lower, double upper, int buckets) {
+        if (!(upper > lower) || buckets <= 0) {
+            throw new IllegalArgumentException("Cấu hình histogram không hợp lệ");
+        }
+        this.lower = lower;
+        this.upper = upper;
+        this.counts = new long[buckets];
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (value < lower) {
+            underflow++;
+        } else if (value >= upper) {
+            overflow++;
+        } else {
+            int bucket = (int) ((value - lower) / (upper - lower) * counts.length);
+            counts[Math.min(bucket, counts.length - 1)]++;
+        }
+    }
+
+    public boolean sameLayout(FixedHistogram other) {
+        return lower == other.lower && upper == other.upper && counts.length == other.counts.length;
+    }
+
+    public void merge(FixedHistogram other) {
+        if (!sameLayout(other)) {
+            throw new IllegalArgumentException("Không thể gộp hai histogram khác cấu hình");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        underflow += other.underflow;
+        overflow += other.overflow;
+    }
+
+    public double lower() {
+        return lower;
+    }
+
+    public double upper() {
+        return upper;
+    }
+
+    public long[] counts() {
+        return counts.clone();
+    }
+
+    public long underflow() {
+        return underflow;
+    }
+
+    public long overflow() {
+        return overflow;
+    }
+
+    // ---------------------------------------------------------------- tuần tự hóa
+
+    public int byteSize() {
+        return 8 + 8 + 4 + 8 + 8 + counts.length * 8;
+    }
+
+    public void writeTo(ByteBuffer out) {
+        out.putDouble(lower).putDouble(upper).putInt(counts.length).putLong(underflow).putLong(overflow);
+        for (long count : counts) {
+            out.putLong(count);
+        }
+    }
+
+    public static FixedHistogram readFrom(ByteBuffer in) {
+        FixedHistogram histogram = new FixedHistogram(in.getDouble(), in.getDouble(), in.getInt());
+        histogram.underflow = in.getLong();
+        histogram.overflow = in.getLong();
+        for (int i = 0; i < histogram.counts.length; i++) {
+            histogram.counts[i] = in.getLong();
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.iotserver.timeseries.sketch;
+
+import java.util.Arrays;
+
+/**
+ * Bloom filter "nhớ gần đây": hai thế hệ (hiện tại và trước đó), thế hệ hiện tại được đẩy lùi khi đã nhận
+ * đủ {@code expectedInsertions} phần tử hoặc đã tồn tại quá {@code windowMillis}. Một phần tử vì vậy được nhớ
+ * trong khoảng từ một tới hai window (ít hơn nếu lưu lượng vượt dự kiến), với bộ nhớ cố định.
+ *
+ * Phần tử là hash 64 bit do nơi gọi tính; xác suất báo nhầm "đã thấy" tối đa khoảng 2 × {@code fpp}.
+ *
+ * Thread-safe.
+ */
+public final class RotatingBloomFilter {
+
+    private final int expectedInsertions;
+    private final long windowMillis;
+    private final int bits;
+    private final int hashes;
+
+    private long[] current;
+    private long[] previous;
+    private int insertions;
+    private long createdAt;
+
+    public RotatingBloomFilter(int expectedInsertions, double fpp, long windowMillis) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("expectedInsertions > 0 và 0 < fpp < 1");
+        }
+        this.expectedInsertions = expectedInsertions;
+        this.windowMillis = windowMillis;
+        // m = -n ln p / (ln 2)^2, làm tròn lên bội 64; k = m/n ln 2
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bits = (int) Math.min((m + 63) / 64 * 64, 1L << 30);
+        this.hashes = (int) Math.max(1, Math.min(16, Math.round((double) bits / expectedInsertions * Math.log(2))));
+        this.current = new long[bits / 64];
+        this.previous = new long[bits / 64];
+    }
+
+    /**
+     * Thêm phần tử và trả về true nếu nó (có thể) đã có trong window.
+     */
+    public synchronized boolean put(long hash, long now) {
+        rotateIfNeeded(now);
+        boolean seen = contains(current, hash) || contains(previous, hash);
+        if (!contains(current, hash)) {
+            set(current, hash);
+            insertions++;
+        }
+        return seen;
+    }
+
+    public synchronized boolean mightContain(long hash, long now) {
+        rotateIfNeeded(now);
+        return contains(current, hash) || contains(previous, hash);
+    }
+
+    /**
+     * Bộ nhớ của cả hai thế hệ.
+     */
+    public long sizeInBytes() {
+        return 2L * bits / 8;
+    }
+
+    private void rotateIfNeeded(long now) {
+        if (createdAt == 0) {
+            createdAt = now;
+        }
+        if (insertions < expectedInsertions && now - createdAt < windowMillis) {
+            return;
+        }
+        long[] recycled = previous;
+        Arrays.fill(recycled, 0L);
+        if (now - createdAt >= 2 * windowMillis) {
+            // Không có gì trong hai window gần nhất: bỏ cả thế hệ hiện tại
+            Arrays.fill(current, 0L);
+        }
+        previous = current;
+        current = recycled;
+        insertions = 0;
+        createdAt = now;
+    }
+
+    // Double hashing (Kirsch–Mitzenmacher): vị trí thứ i = h1 + i * h2
+    private boolean contains(long[] words, long hash) {
+        long h2 = mix(hash) | 1;
+        long combined = hash;
+        for (int i = 0; i < hashes; i++) {
+            int bit = (int) Long.remainderUnsigned(combined, bits);
+            if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+            combined += h2;
+        }
+        return true;
+    }
+
+    private void set(long[] words, long hash) {
+        long h2 = mix(hash) | 1;
+        long combined = hash;
+        for (int i = 0; i < hashes; i++) {
+            int bit = (int) Long.remainderUnsigned(combined, bits);
+            words[bit >>> 6] |= 1L << bit;
+            combined += h2;
+        }
+    }
+
+    /**
+     * Bộ trộn 64 bit (finalizer của MurmurHash3), dùng để tạo hash thứ hai và cho nơi gọi tự tính hash.
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.iotserver.timeseries.sketch;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * t-digest dạng merging (Dunning &amp; Ertl): ước lượng quantile bằng các centroid có kích thước nhỏ
+ * ở hai đuôi phân phối, nên p95/p99 chính xác hơn nhiều so với histogram cùng dung lượng.
+ * Hai digest gộp được với nhau, dùng để cộng dồn từ sketch theo giờ/ngày.
+ *
+ * Không thread-safe.
+ */
+public final class TDigest {
+
+    private final double compression;
+    private double[] means = new double[8];
+    private double[] weights = new double[8];
+    private int centroids;
+    private double[] bufferMeans = new double[16];
+    private double[] bufferWeights = new double[16];
+    private int buffered;
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest(double compression) {
+        if (compression < 10) {
+            throw new IllegalArgumentException("Compression của t-digest phải >= 10");
+        }
+        this.compression = compression;
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    private void add(double value, double weight) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (buffered == bufferMeans.length) {
+            if (buffered >= 5 * compression) {
+                compress();
+            } else {
+                bufferMeans = Arrays.copyOf(bufferMeans, buffered * 2);
+                bufferWeights = Arrays.copyOf(bufferWeights, buffered * 2);
+            }
+        }
+        bufferMeans[buffered] = value;
+        bufferWeights[buffered] = weight;
+        buffered++;
+        totalWeight += weight;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public void merge(TDigest other) {
+        other.compress();
+        for (int i = 0; i < other.centroids; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+        // Centroid chỉ giữ trung bình: giữ đúng min/max thật của digest kia
+        if (other.totalWeight > 0) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+    }
+
+    public long count() {
+        return Math.round(totalWeight);
+    }
+
+    public double min() {
+        return totalWeight > 0 ? min : Double.NaN;
+    }
+
+    public double max() {
+        return totalWeight > 0 ? max : Double.NaN;
+    }
+
+    /**
+     * @param q trong [0, 1]
+     * @return NaN nếu digest rỗng
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile phải nằm trong [0, 1]: " + q);
+        }
+        compress();
+        if (centroids == 0) {
+            return Double.NaN;
+        }
+        if (centroids == 1) {
+            return means[0];
+        }
+        // Nội suy tuyến tính giữa tâm các centroid; hai đầu nội suy tới min/max
+        double index = q * totalWeight;
+        double cumulative = weights[0] / 2;
+        if (index < cumulative) {
+            return min + (means[0] - min) * (index / cumulative);
+        }
+        for (int i = 0; i < centroids - 1; i++) {
+            double gap = (weights[i] + weights[i + 1]) / 2;
+            if (index < cumulative + gap) {
+                return means[i] + (means[i + 1] - means[i]) * ((index - cumulative) / gap);
+            }
+            cumulative += gap;
+        }
+        int last = centroids - 1;
+        double tail = totalWeight - cumulative;
+        return means[last] + (max - means[last]) * Math.min(1, (index - cumulative) / tail);
+    }
+
+    /**
+     * Gộp buffer vào danh sách centroid đã sắp xếp, giới hạn kích thước mỗi centroid theo hàm
+     * tỉ lệ k1: k(q) = δ/(2π)·asin(2q − 1), mỗi centroid chiếm tối đa một đơn vị k.
+     */
+    private void compress() {
+        if (buffered == 0) {
+            return;
+        }
+        sort(bufferMeans, bufferWeights, 0, buffered - 1);
+        int n = centroids + buffered;
+        double[] mergedMeans = new double[n];
+        double[] mergedWeights = new double[n];
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < n; i++) {
+            if (b >= buffered || (a < centroids && means[a] <= bufferMeans[b])) {
+                mergedMeans[i] = means[a];
+                mergedWeights[i] = weights[a++];
+            } else {
+                mergedMeans[i] = bufferMeans[b];
+                mergedWeights[i] = bufferWeights[b++];
+            }
+        }
+
+        int out = 0;
+        double done = 0;
+        double mean = mergedMeans[0];
+        double weight = mergedWeights[0];
+        double kLeft = scale(0);
+        for (int i = 1; i < n; i++) {
+            double proposed = weight + mergedWeights[i];
+            if (scale((done + proposed) / totalWeight) - kLeft <= 1) {
+                mean += (mergedMeans[i] - mean) * mergedWeights[i] / proposed;
+                weight = proposed;
+            } else {
+                mergedMeans[out] = mean;
+                mergedWeights[out++] = weight;
+                done += weight;
+                kLeft = scale(done / totalWeight);
+                mean = mergedMeans[i];
+                weight = mergedWeights[i];
+            }
+        }
+        mergedMeans[out] = mean;
+        mergedWeights[out++] = weight;
+
+        means = Arrays.copyOf(mergedMeans, out);
+        weights = Arrays.copyOf(mergedWeights, out);
+        centroids = out;
+        buffered = 0;
+    }
+
+    private double scale(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * Math.min(1, q) - 1);
+    }
+
+    // Quicksort hai mảng song song theo giá trị mean
+    private static void sort(double[] keys, double[] values, int low, int high) {
+        while (low < high) {
+            double pivot = keys[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double k = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = k;
+                    double v = values[i];
+                    values[i] = values[j];
+                    values[j] = v;
+                    i++;
+                    j--;
+                }
+            }
+            // Đệ quy phần nhỏ hơn, lặp phần lớn hơn để giới hạn độ sâu stack
+            if (j - low < high - i) {
+                sort(keys, values, low, j);
+                low = i;
+            } else {
+                sort(keys, values, i, high);
+                high = j;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- tuần tự hóa
+
+    public int byteSize() {
+        compress();
+        return 8 + 8 + 8 + 4 + centroids * 16;
+    }
+
+    public void writeTo(ByteBuffer out) {
+        compress();
+        out.putDouble(compression).putDouble(min).putDouble(max).putInt(centroids);
+        for (int i = 0; i < centroids; i++) {
+            out.putDouble(means[i]).putDouble(weights[i]);
+        }
+    }
+
+    public static TDigest readFrom(ByteBuffer in) {
+        TDigest digest = new TDigest(in.getDouble());
+        digest.min = in.getDouble();
+        digest.max = in.getDouble();
+        int n = in.getInt();
+        digest.means = new double[Math.max(8, n)];
+        digest.weights = new double[Math.max(8, n)];
+        for (int i = 0; i < n; i++) {
+            digest.means[i] = in.getDouble();
+            digest.weights[i] = in.getDouble();
+            digest.totalWeight += digest.weights[i];
+        }
+        digest.centroids = n;
+        return digest;
+    }
+}
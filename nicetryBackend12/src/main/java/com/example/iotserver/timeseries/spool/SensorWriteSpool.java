@@ -0,0 +1,332 @@
+package com.example.iotserver.timeseries.spool;
+
+import com.example.iotserver.timeseries.ChunkedSeriesCache;
+import com.example.iotserver.timeseries.PointsRejectedException;
+import com.example.iotserver.timeseries.SensorDataStore;
+import com.example.iotserver.timeseries.SensorReading;
+import com.example.iotserver.timeseries.SensorReadings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ghi dữ liệu cảm biến vào {@link SensorDataStore}, đệm qua spool trên đĩa khi store chậm hoặc lỗi.
+ *
+ * Khi một lần ghi lỗi hoặc lâu hơn {@code slow-write}, các lần ghi sau được nối vào spool thay vì gọi store.
+ * Job replay đọc spool theo đúng thứ tự và ghi lại vào store với tốc độ tối đa {@code replay-rate} điểm/giây;
+ * nếu lỗi thì chờ {@code retry-interval} rồi thử lại. Khi spool rỗng, ghi trực tiếp trở lại.
+ * Trong lúc spool còn dữ liệu, mọi lần ghi mới đều vào spool để giữ thứ tự.
+ *
+ * Replay là at-least-once: điểm có thể được ghi lại lần nữa sau khi khởi động lại, vô hại vì cùng
+ * series và timestamp thì InfluxDB ghi đè.
+ *
+ * Replay chạy trên luồng riêng ({@code spool-replay}) vì có thể bị chặn lâu khi store chậm,
+ * không chiếm luồng scheduler chung của các job {@code @Scheduled} khác.
+ *
+ * Lô bị store từ chối vĩnh viễn ({@link PointsRejectedException}) được ghi lại từng điểm để tách các điểm hỏng;
+ * điểm hỏng bị bỏ (đếm ở {@code sensor.spool.rejected}) thay vì chặn replay mãi ở cùng vị trí.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SensorWriteSpool {
+
+    private static final int NULL_LENGTH = -1;
+
+    private final SensorDataStore sensorDataStore;
+    private final ChunkedSeriesCache chunkedSeriesCache;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${sensor.spool.enabled:true}")
+    private boolean enabled;
+
+    @Value("${sensor.spool.dir:./data/spool}")
+    private String directory;
+
+    @Value("${sensor.spool.segment-size:16777216}")
+    private int segmentSize;
+
+    @Value("${sensor.spool.max-bytes:1073741824}")
+    private long maxBytes;
+
+    @Value("${sensor.spool.slow-write:2s}")
+    private Duration slowWrite;
+
+    @Value("${sensor.spool.retry-interval:10s}")
+    private Duration retryInterval;
+
+    @Value("${sensor.spool.replay-rate:2000}")
+    private int replayRate;
+
+    @Value("${sensor.spool.replay-batch:500}")
+    private int replayBatch;
+
+    private SpoolLog spool;
+    private ScheduledExecutorService replayer;
+    // Thời điểm được thử ghi lại vào store; 0 khi store đang khỏe
+    private volatile long retryAt;
+    private volatile double lastReplayRate;
+
+    private final ThreadLocal<ByteBuffer> encodeBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(1024));
+    // Chỉ dùng trong replay (luồng spool-replay)
+    private final SensorReadings replayReadings = new SensorReadings();
+
+    private final SensorReadings single = new SensorReadings();
+
+    private Counter appended;
+    private Counter replayed;
+    private Counter rejected;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        spool = SpoolLog.open(Paths.get(directory), segmentSize, maxBytes);
+        appended = meterRegistry.counter("sensor.spool.appended");
+        replayed = meterRegistry.counter("sensor.spool.replayed");
+        rejected = meterRegistry.counter("sensor.spool.rejected");
+        Gauge.builder("sensor.spool.points", spool, SpoolLog::pendingRecords)
+                .description("Số điểm đang chờ replay trong spool")
+                .register(meterRegistry);
+        Gauge.builder("sensor.spool.bytes", spool, SpoolLog::pendingBytes)
+                .description("Số byte đang chờ replay trong spool")
+                .register(meterRegistry);
+        Gauge.builder("sensor.spool.segments", spool, SpoolLog::segmentCount)
+                .register(meterRegistry);
+        FunctionCounter.builder("sensor.spool.dropped", spool, SpoolLog::droppedRecords)
+                .description("Số điểm bị bỏ do spool vượt dung lượng")
+                .register(meterRegistry);
+        Gauge.builder("sensor.spool.replay_rate", this, s -> s.lastReplayRate)
+                .description("Số điểm/giây ghi lại vào store ở lần replay gần nhất")
+                .register(meterRegistry);
+        Gauge.builder("sensor.spool.active", this, s -> s.spooling() ? 1 : 0)
+                .register(meterRegistry);
+        if (!spool.isEmpty()) {
+            log.info("Spool còn {} điểm chưa ghi vào store, sẽ replay", spool.pendingRecords());
+        }
+        replayer = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "spool-replay"));
+        replayer.scheduleWithFixedDelay(this::replayQuietly, 1000, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (replayer != null) {
+            replayer.shutdown();
+            try {
+                // Chờ lần replay đang chạy ghi xong trước khi đóng file spool
+                if (!replayer.awaitTermination(retryInterval.toMillis(), TimeUnit.MILLISECONDS)) {
+                    replayer.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    /**
+     * Ghi các điểm vào store, hoặc vào spool nếu store đang chậm/lỗi hay spool còn dữ liệu chưa replay.
+     * Chỉ ném lỗi khi không ghi được cả vào spool.
+     */
+    public void write(SensorReadings points) {
+        if (spool == null) {
+            store(points);
+            return;
+        }
+        if (!spooling()) {
+            long start = System.nanoTime();
+            try {
+                store(points);
+                long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+                if (elapsedMillis > slowWrite.toMillis()) {
+                    trip("ghi mất " + elapsedMillis + " ms");
+                }
+                return;
+            } catch (RuntimeException e) {
+                trip(e.getMessage());
+            }
+        }
+        try {
+            for (int i = 0; i < points.size(); i++) {
+                spool.append(encode(points.get(i)));
+            }
+            appended.increment(points.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Không ghi được vào spool: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Ghi lại dữ liệu trong spool vào store, tối đa {@code replay-rate} điểm mỗi lần chạy (mỗi giây).
+     */
+    public void replay() {
+        if (spool == null) {
+            return;
+        }
+        spool.force();
+        long now = System.currentTimeMillis();
+        if (spool.isEmpty()) {
+            lastReplayRate = 0;
+            return;
+        }
+        if (retryAt != 0 && now < retryAt) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int written = 0;
+        try {
+            while (written < replayRate) {
+                replayReadings.clear();
+                SpoolLog.Position position = spool.read(Math.min(replayBatch, replayRate - written),
+                        payload -> decode(payload, replayReadings.add()));
+                if (position == null) {
+                    break;
+                }
+                if (!replayReadings.isEmpty()) {
+                    store(replayReadings);
+                }
+                spool.commit(position);
+                written += position.records();
+                replayed.increment(position.records());
+                retryAt = 0;
+            }
+        } catch (RuntimeException e) {
+            retryAt = now + retryInterval.toMillis();
+            log.warn("Replay spool lỗi sau {} điểm, thử lại sau {}: {}", written, retryInterval, e.getMessage());
+        }
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 1.0);
+        lastReplayRate = written / seconds;
+        if (written > 0 && spool.isEmpty()) {
+            log.info("Đã replay hết spool, ghi trực tiếp vào store trở lại");
+        }
+    }
+
+    // Lỗi ném ra khỏi task định kỳ sẽ hủy lịch chạy, nên chỉ ghi log
+    private void replayQuietly() {
+        try {
+            replay();
+        } catch (Exception e) {
+            log.error("Lỗi replay spool: {}", e.getMessage(), e);
+        }
+    }
+
+    // Ghi vào store rồi bỏ chunk cache của các ngày đã đóng mà lô này ghi muộn vào.
+    // Lô bị từ chối vĩnh viễn thì ghi từng điểm, bỏ các điểm bị từ chối; lỗi tạm thời được ném ra.
+    private void store(SensorReadings points) {
+        try {
+            sensorDataStore.writeAll(points);
+        } catch (PointsRejectedException e) {
+            if (points.size() == 1) {
+                reject(points.get(0), e);
+            } else {
+                storeEach(points);
+            }
+        }
+        chunkedSeriesCache.invalidateLate(points);
+    }
+
+    private synchronized void storeEach(SensorReadings points) {
+        for (int i = 0; i < points.size(); i++) {
+            single.clear();
+            single.add().copyFrom(points.get(i));
+            try {
+                sensorDataStore.writeAll(single);
+            } catch (PointsRejectedException e) {
+                reject(points.get(i), e);
+            }
+        }
+    }
+
+    private void reject(SensorReading reading, PointsRejectedException e) {
+        rejected.increment();
+        log.warn("Store từ chối điểm của thiết bị {} tại {}, bỏ qua: {}", reading.deviceId(),
+                Instant.ofEpochMilli(reading.timestamp()), e.getMessage());
+    }
+
+    private boolean spooling() {
+        return retryAt != 0 || !spool.isEmpty();
+    }
+
+    private void trip(String reason) {
+        if (retryAt == 0) {
+            log.warn("Store ghi không ổn định ({}), chuyển sang spool trên đĩa", reason);
+        }
+        retryAt = System.currentTimeMillis() + retryInterval.toMillis();
+    }
+
+    // deviceId, sensorType (độ dài -1 nếu null), farmId (cờ có/không), timestamp, mask, các giá trị có mặt
+    private ByteBuffer encode(SensorReading reading) {
+        byte[] deviceId = reading.deviceId().getBytes(StandardCharsets.UTF_8);
+        byte[] sensorType = reading.sensorType() != null
+                ? reading.sensorType().getBytes(StandardCharsets.UTF_8)
+                : null;
+        int size = 2 + deviceId.length + 2 + (sensorType != null ? sensorType.length : 0) + 1 + 8 + 8 + 1
+                + Integer.bitCount(reading.mask()) * 8;
+        ByteBuffer out = encodeBuffers.get();
+        if (out.capacity() < size) {
+            out = ByteBuffer.allocate(size);
+            encodeBuffers.set(out);
+        }
+        out.clear();
+        out.putShort((short) deviceId.length).put(deviceId);
+        if (sensorType != null) {
+            out.putShort((short) sensorType.length).put(sensorType);
+        } else {
+            out.putShort((short) NULL_LENGTH);
+        }
+        out.put((byte) (reading.farmId() != null ? 1 : 0)).putLong(reading.farmId() != null ? reading.farmId() : 0);
+        out.putLong(reading.timestamp()).put((byte) reading.mask());
+        for (int f = 0; f < SensorReading.FIELD_COUNT; f++) {
+            if (reading.has(f)) {
+                out.putDouble(reading.value(f));
+            }
+        }
+        return out.flip();
+    }
+
+    private static void decode(ByteBuffer in, SensorReading reading) {
+        reading.deviceId(readString(in));
+        reading.sensorType(readString(in));
+        boolean hasFarm = in.get() != 0;
+        long farmId = in.getLong();
+        reading.farmId(hasFarm ? farmId : null);
+        reading.timestamp(in.getLong());
+        int mask = in.get() & 0xFF;
+        for (int f = 0; f < SensorReading.FIELD_COUNT; f++) {
+            if ((mask & (1 << f)) != 0) {
+                reading.set(f, in.getDouble());
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,307 @@
+package com.example.iotserver.timeseries.spool;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Log chỉ ghi nối gồm nhiều {@link SpoolSegment}, đọc lại theo đúng thứ tự ghi.
+ *
+ * Vị trí đã đọc xong (cursor) được lưu trong file {@code cursor} cạnh các segment nên sau khi khởi động lại
+ * việc đọc tiếp tục từ đó (record đọc nhưng chưa {@link #commit} có thể được đọc lại: at-least-once).
+ * Segment đã đọc hết bị xóa. Khi tổng dung lượng vượt {@code maxBytes}, các segment cũ nhất bị bỏ.
+ *
+ * Thread-safe.
+ */
+@Slf4j
+public final class SpoolLog implements Closeable {
+
+    /**
+     * Nhận payload của từng record khi đọc; buffer chỉ hợp lệ trong lúc gọi.
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        void visit(ByteBuffer payload);
+    }
+
+    /**
+     * Vị trí sau record cuối cùng của một lần đọc, dùng để commit.
+     */
+    public record Position(long segmentId, int offset, int records) {
+    }
+
+    private static final int CURSOR_SIZE = 16;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final ArrayDeque<SpoolSegment> segments = new ArrayDeque<>();
+    private final FileChannel cursorChannel;
+    private final MappedByteBuffer cursor;
+
+    // Cursor: record tiếp theo cần đọc nằm ở (readSegment, readOffset)
+    private long readSegment;
+    private int readOffset;
+    private long pendingRecords;
+    private long droppedRecords;
+
+    private SpoolLog(Path dir, int segmentSize, long maxBytes, FileChannel cursorChannel, MappedByteBuffer cursor) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxBytes = Math.max(maxBytes, 2L * segmentSize);
+        this.cursorChannel = cursorChannel;
+        this.cursor = cursor;
+    }
+
+    public static SpoolLog open(Path dir, int segmentSize, long maxBytes) throws IOException {
+        Files.createDirectories(dir);
+        FileChannel channel = FileChannel.open(dir.resolve("cursor"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        SpoolLog spool = new SpoolLog(dir, segmentSize, maxBytes, channel,
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, CURSOR_SIZE));
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(dir)) {
+            files = stream.filter(p -> p.getFileName().toString().endsWith(".spool")).sorted().toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            try {
+                spool.segments.add(SpoolSegment.open(file, Long.parseLong(name.substring(0, name.indexOf('.')))));
+            } catch (IOException | NumberFormatException e) {
+                log.error("Bỏ qua file spool không đọc được {}: {}", name, e.getMessage());
+            }
+        }
+
+        long savedSegment = spool.cursor.getLong(0);
+        int savedOffset = spool.cursor.getInt(8);
+        boolean valid = spool.cursor.getInt(12) == cursorChecksum(savedSegment, savedOffset);
+        spool.dropConsumedSegments(valid ? savedSegment : Long.MIN_VALUE);
+        SpoolSegment first = spool.segments.peekFirst();
+        if (first == null) {
+            first = SpoolSegment.create(dir, valid ? savedSegment + 1 : 1, segmentSize);
+            spool.segments.add(first);
+        }
+        spool.readSegment = first.id();
+        spool.readOffset = valid && savedSegment == first.id()
+                ? Math.min(Math.max(savedOffset, SpoolSegment.HEADER_SIZE), first.writePosition())
+                : SpoolSegment.HEADER_SIZE;
+        spool.pendingRecords = spool.countPending();
+        spool.saveCursor();
+        return spool;
+    }
+
+    /**
+     * Ghi một record vào cuối log, chuyển sang segment mới khi segment hiện tại đầy.
+     */
+    public synchronized void append(ByteBuffer payload) throws IOException {
+        if (payload.remaining() + SpoolSegment.RECORD_HEADER > segmentSize - SpoolSegment.HEADER_SIZE) {
+            throw new IOException("Record quá lớn so với segment spool: " + payload.remaining() + " byte");
+        }
+        SpoolSegment head = segments.peekLast();
+        if (!head.append(payload)) {
+            head.force();
+            head = SpoolSegment.create(dir, head.id() + 1, segmentSize);
+            segments.add(head);
+            head.append(payload);
+            enforceCap();
+        }
+        pendingRecords++;
+    }
+
+    /**
+     * Đọc tối đa {@code max} record kể từ cursor mà không di chuyển cursor.
+     *
+     * @return vị trí sau record cuối đã đọc, null nếu không có record nào
+     */
+    public synchronized Position read(int max, RecordVisitor visitor) {
+        long segmentId = readSegment;
+        int offset = readOffset;
+        int read = 0;
+        Iterator<SpoolSegment> it = segments.iterator();
+        while (read < max && it.hasNext()) {
+            SpoolSegment segment = it.next();
+            if (segment.id() < segmentId) {
+                continue;
+            }
+            if (segment.id() > segmentId) {
+                segmentId = segment.id();
+                offset = SpoolSegment.HEADER_SIZE;
+            }
+            int end = segment.writePosition();
+            while (read < max && offset < end) {
+                int next = segment.next(offset);
+                if (next <= 0) {
+                    // Hỏng giữa segment (lỗi đĩa sau khi mở): bỏ phần còn lại của segment
+                    log.error("Spool segment {} hỏng tại offset {}, bỏ phần còn lại", segment.id(), offset);
+                    offset = end;
+                    break;
+                }
+                visitor.visit(segment.payload(offset));
+                offset = next;
+                read++;
+            }
+        }
+        return read == 0 && segmentId == readSegment && offset == readOffset
+                ? null
+                : new Position(segmentId, offset, read);
+    }
+
+    /**
+     * Đánh dấu đã xử lý xong tới {@code position}. Bỏ qua nếu cursor đã ở sau vị trí đó
+     * (vd: segment bị bỏ do vượt dung lượng trong lúc đang đọc).
+     */
+    public synchronized void commit(Position position) {
+        if (position.segmentId() < readSegment
+                || (position.segmentId() == readSegment && position.offset() <= readOffset)) {
+            return;
+        }
+        readSegment = position.segmentId();
+        readOffset = position.offset();
+        pendingRecords = Math.max(0, pendingRecords - position.records());
+        dropConsumedSegments(readSegment);
+        saveCursor();
+    }
+
+    public synchronized boolean isEmpty() {
+        return pendingRecords == 0;
+    }
+
+    public synchronized long pendingRecords() {
+        return pendingRecords;
+    }
+
+    /**
+     * Số byte record chưa được đọc.
+     */
+    public synchronized long pendingBytes() {
+        long bytes = 0;
+        for (SpoolSegment segment : segments) {
+            if (segment.id() == readSegment) {
+                bytes += segment.writePosition() - readOffset;
+            } else if (segment.id() > readSegment) {
+                bytes += segment.writePosition() - SpoolSegment.HEADER_SIZE;
+            }
+        }
+        return bytes;
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Tổng số record bị bỏ do vượt dung lượng kể từ khi mở.
+     */
+    public synchronized long droppedRecords() {
+        return droppedRecords;
+    }
+
+    /**
+     * Đẩy dữ liệu đã ghi xuống đĩa.
+     */
+    public synchronized void force() {
+        for (SpoolSegment segment : segments) {
+            if (segment.id() >= readSegment) {
+                segment.force();
+            }
+        }
+        cursor.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        for (SpoolSegment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        cursorChannel.close();
+    }
+
+    // Bỏ các segment cũ nhất (trừ segment đang ghi) cho tới khi tổng dung lượng không vượt maxBytes
+    private void enforceCap() throws IOException {
+        while ((long) segments.size() * segmentSize > maxBytes && segments.size() > 1) {
+            SpoolSegment oldest = segments.pollFirst();
+            long lost = oldest.id() < readSegment ? 0 : countFrom(oldest, oldest.id() == readSegment
+                    ? readOffset
+                    : SpoolSegment.HEADER_SIZE);
+            droppedRecords += lost;
+            pendingRecords = Math.max(0, pendingRecords - lost);
+            oldest.delete();
+            if (oldest.id() >= readSegment) {
+                readSegment = segments.peekFirst().id();
+                readOffset = SpoolSegment.HEADER_SIZE;
+                saveCursor();
+            }
+            log.warn("Spool vượt {} byte, bỏ segment {} ({} record)", maxBytes, oldest.id(), lost);
+        }
+    }
+
+    // Xóa các segment đã đọc hết: nằm trước segment của cursor (segment đang ghi luôn được giữ)
+    private void dropConsumedSegments(long cursorSegment) {
+        List<SpoolSegment> consumed = new ArrayList<>();
+        for (SpoolSegment segment : segments) {
+            if (segment.id() < cursorSegment && segment != segments.peekLast()) {
+                consumed.add(segment);
+            }
+        }
+        for (SpoolSegment segment : consumed) {
+            segments.remove(segment);
+            try {
+                segment.delete();
+            } catch (IOException e) {
+                log.warn("Không xóa được spool segment {}: {}", segment.id(), e.getMessage());
+            }
+        }
+    }
+
+    private long countPending() {
+        long count = 0;
+        for (SpoolSegment segment : segments) {
+            if (segment.id() == readSegment) {
+                count += countFrom(segment, readOffset);
+            } else if (segment.id() > readSegment) {
+                count += segment.records();
+            }
+        }
+        return count;
+    }
+
+    private static long countFrom(SpoolSegment segment, int offset) {
+        long count = 0;
+        int end = segment.writePosition();
+        while (offset < end) {
+            int next = segment.next(offset);
+            if (next <= 0) {
+                break;
+            }
+            offset = next;
+            count++;
+        }
+        return count;
+    }
+
+    private void saveCursor() {
+        cursor.putLong(0, readSegment).putInt(8, readOffset).putInt(12, cursorChecksum(readSegment, readOffset));
+    }
+
+    private static int cursorChecksum(long segment, int offset) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(12).putLong(segment).putInt(offset).flip());
+        return (int) crc.getValue();
+    }
+}
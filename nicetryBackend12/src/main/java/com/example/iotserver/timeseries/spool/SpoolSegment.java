@@ -0,0 +1,166 @@
+package com.example.iotserver.timeseries.spool;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Một file segment của spool, kích thước cố định và được map READ_WRITE vào bộ nhớ.
+ *
+ * Header: magic "SPOL", version, capacity. Mỗi record: độ dài payload (int), CRC32 của payload (int), payload.
+ * Độ dài được ghi sau cùng nên record ghi dở có độ dài 0 (file mới toàn byte 0) hoặc sai CRC,
+ * và bị coi là điểm kết thúc khi mở lại.
+ */
+@Slf4j
+final class SpoolSegment implements Closeable {
+
+    private static final int FILE_MAGIC = 0x53504F4C; // "SPOL"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    static final int RECORD_HEADER = 8;
+
+    private final long id;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+    private int writePosition;
+    private int records;
+
+    private SpoolSegment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static Path fileName(Path dir, long id) {
+        return dir.resolve(String.format("%016d.spool", id));
+    }
+
+    static SpoolSegment create(Path dir, long id, int capacity) throws IOException {
+        Path path = fileName(dir, id);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        SpoolSegment segment = new SpoolSegment(id, path, channel,
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        segment.buffer.putInt(0, FILE_MAGIC).putInt(4, VERSION).putInt(8, capacity);
+        segment.writePosition = HEADER_SIZE;
+        return segment;
+    }
+
+    /**
+     * Mở segment có sẵn và tìm điểm ghi tiếp theo sau record hợp lệ cuối cùng.
+     */
+    static SpoolSegment open(Path path, long id) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("File spool không hợp lệ: " + path);
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (buffer.getInt(0) != FILE_MAGIC || buffer.getInt(8) != size) {
+            channel.close();
+            throw new IOException("File spool không hợp lệ: " + path);
+        }
+        SpoolSegment segment = new SpoolSegment(id, path, channel, buffer);
+        int position = HEADER_SIZE;
+        int next;
+        while ((next = segment.next(position)) > 0) {
+            position = next;
+            segment.records++;
+        }
+        segment.writePosition = position;
+        if (next < 0) {
+            log.warn("Spool segment {} có record hỏng tại offset {}, bỏ phần sau", path.getFileName(), position);
+            // Xóa phần sau để record cũ còn nguyên CRC không bị đọc lại khi record mới ghi đè đúng chỗ hỏng
+            for (int i = position; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Ghi payload (từ position tới limit) thành một record; false nếu segment không còn đủ chỗ.
+     */
+    synchronized boolean append(ByteBuffer payload) {
+        int length = payload.remaining();
+        if (writePosition + RECORD_HEADER + length > buffer.capacity()) {
+            return false;
+        }
+        crc.reset();
+        crc.update(payload.duplicate());
+        buffer.put(writePosition + RECORD_HEADER, payload, payload.position(), length);
+        buffer.putInt(writePosition + 4, (int) crc.getValue());
+        buffer.putInt(writePosition, length);
+        writePosition += RECORD_HEADER + length;
+        records++;
+        return true;
+    }
+
+    /**
+     * Offset của record ngay sau record tại {@code offset}; 0 nếu không còn record, -1 nếu record hỏng.
+     */
+    synchronized int next(int offset) {
+        if (offset + RECORD_HEADER > buffer.capacity()) {
+            return 0;
+        }
+        int length = buffer.getInt(offset);
+        if (length == 0) {
+            return 0;
+        }
+        if (length < 0 || offset + RECORD_HEADER + length > buffer.capacity()) {
+            return -1;
+        }
+        crc.reset();
+        crc.update(buffer.slice(offset + RECORD_HEADER, length));
+        return (int) crc.getValue() == buffer.getInt(offset + 4) ? offset + RECORD_HEADER + length : -1;
+    }
+
+    /**
+     * Payload của record tại {@code offset} (đã kiểm tra bằng {@link #next}), chỉ đọc.
+     */
+    synchronized ByteBuffer payload(int offset) {
+        return buffer.slice(offset + RECORD_HEADER, buffer.getInt(offset)).asReadOnlyBuffer();
+    }
+
+    synchronized int writePosition() {
+        return writePosition;
+    }
+
+    synchronized int records() {
+        return records;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    long id() {
+        return id;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.iotserver.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TwoLevelCacheManagerTest {
+
+    private static final String CHANNEL = "cache:invalidation";
+
+    // Redis giả dùng chung cho các node: L2 và kênh pub/sub
+    private final Map<String, Object> l2 = new HashMap<>();
+    private final List<String> published = new ArrayList<>();
+
+    @Test
+    void lookupFallsBackToL2AndKeepsTheValueInL1() {
+        Node node = new Node();
+        l2.put("cache::devices::1", "device-1");
+
+        assertThat(node.cache("devices").get(1L).get()).isEqualTo("device-1");
+        assertThat(node.cache("devices").get(1L).get()).isEqualTo("device-1");
+
+        // Lần đọc thứ hai trúng L1, không gọi Redis nữa
+        verify(node.values, times(1)).get("cache::devices::1");
+        assertThat(node.meterRegistry.counter("cache.two_level.requests", "cache", "devices", "result", "l2_hit")
+                .count()).isEqualTo(1);
+        assertThat(node.meterRegistry.counter("cache.two_level.requests", "cache", "devices", "result", "l1_hit")
+                .count()).isEqualTo(1);
+    }
+
+    @Test
+    void missLoadsOnceAndWritesBothLevels() {
+        Node node = new Node();
+        AtomicInteger loads = new AtomicInteger();
+
+        assertThat(node.cache("rules").get(7L, () -> "rule-" + loads.incrementAndGet())).isEqualTo("rule-1");
+        assertThat(node.cache("rules").get(7L, () -> "rule-" + loads.incrementAndGet())).isEqualTo("rule-1");
+
+        assertThat(loads).hasValue(1);
+        assertThat(l2).containsEntry("cache::rules::7", "rule-1");
+    }
+
+    @Test
+    void invalidationEvictsOtherNodesAndIsIgnoredBySender() {
+        Node a = new Node();
+        Node b = new Node();
+        a.cache("zones").put(3L, "zones-v1");
+        b.cache("zones").get(3L);
+        assertThat(b.cache("zones").get(3L).get()).isEqualTo("zones-v1");
+
+        a.cache("zones").evict(3L);
+        l2.put("cache::zones::3", "zones-v2");
+        deliver(a, b);
+
+        // Node b đọc lại từ L2 sau khi L1 bị xóa
+        assertThat(b.cache("zones").get(3L).get()).isEqualTo("zones-v2");
+        // Node a bỏ qua thông điệp của chính nó: giá trị đặt lại vào L1 sau khi evict vẫn còn
+        a.cache("zones").put(3L, "zones-v3");
+        l2.put("cache::zones::3", "other");
+        deliver(a);
+        assertThat(a.cache("zones").get(3L).get()).isEqualTo("zones-v3");
+    }
+
+    @Test
+    void clearIsBroadcastAsEmptyKey() {
+        Node a = new Node();
+        Node b = new Node();
+        b.cache("farms").put(1L, "farm-1");
+        l2.clear();
+
+        a.cache("farms").clear();
+        assertThat(published).last().asString().endsWith("|farms|");
+        deliver(a, b);
+
+        assertThat(b.cache("farms").get(1L)).isNull();
+    }
+
+    @Test
+    void redisFailureDegradesToLocalCache() {
+        Node node = new Node();
+        when(node.values.get(anyString())).thenThrow(new RedisConnectionFailureException("down"));
+        doThrow(new RedisConnectionFailureException("down")).when(node.values)
+                .set(anyString(), any(), any(Duration.class));
+        when(node.redisTemplate.delete(anyString())).thenThrow(new RedisConnectionFailureException("down"));
+        doThrow(new RedisConnectionFailureException("down")).when(node.stringRedisTemplate)
+                .convertAndSend(eq(CHANNEL), anyString());
+        AtomicInteger loads = new AtomicInteger();
+
+        assertThat(node.cache("settings").get("k", () -> "v" + loads.incrementAndGet())).isEqualTo("v1");
+        assertThat(node.cache("settings").get("k", () -> "v" + loads.incrementAndGet())).isEqualTo("v1");
+        assertThat(loads).hasValue(1);
+
+        node.cache("settings").put("k", "v2");
+        assertThat(node.cache("settings").get("k").get()).isEqualTo("v2");
+        node.cache("settings").evict("k");
+        assertThat(node.cache("settings").get("k")).isNull();
+    }
+
+    @Test
+    void nullValuesAreCachedAndMalformedMessagesIgnored() {
+        Node node = new Node();
+        AtomicInteger loads = new AtomicInteger();
+
+        String loaded = node.cache("devices").get(9L, () -> {
+            loads.incrementAndGet();
+            return null;
+        });
+        assertThat(loaded).isNull();
+        assertThat(node.cache("devices").get(9L)).isNotNull();
+        assertThat(node.cache("devices").get(9L).get()).isNull();
+        assertThat(loads).hasValue(1);
+
+        node.manager.onMessage(message("garbage"), null);
+        node.manager.onMessage(message("other|unknown-cache|9"), null);
+        verify(node.redisTemplate, never()).delete(anyString());
+    }
+
+    // Phát mọi thông điệp đã publish tới các node (kể cả node gửi) rồi xóa hàng đợi
+    private void deliver(Node... nodes) {
+        for (String body : published) {
+            for (Node node : nodes) {
+                node.manager.onMessage(message(body), CHANNEL.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        published.clear();
+    }
+
+    private static Message message(String body) {
+        Message message = mock(Message.class);
+        when(message.getBody()).thenReturn(body.getBytes(StandardCharsets.UTF_8));
+        return message;
+    }
+
+    @SuppressWarnings("unchecked")
+    private class Node {
+        final RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+        final ValueOperations<String, Object> values = mock(ValueOperations.class);
+        final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final TwoLevelCacheManager manager;
+
+        Node() {
+            when(redisTemplate.opsForValue()).thenReturn(values);
+            when(values.get(anyString())).thenAnswer(inv -> l2.get(inv.<String>getArgument(0)));
+            doAnswer(inv -> l2.put(inv.getArgument(0), inv.getArgument(1))).when(values)
+                    .set(anyString(), any(), any(Duration.class));
+            when(redisTemplate.delete(anyString())).thenAnswer(inv -> l2.remove(inv.<String>getArgument(0)) != null);
+            when(stringRedisTemplate.convertAndSend(eq(CHANNEL), anyString())).thenAnswer(inv -> {
+                published.add(inv.getArgument(1));
+                return 1L;
+            });
+            manager = new TwoLevelCacheManager(redisTemplate, stringRedisTemplate, meterRegistry, CHANNEL,
+                    100, Duration.ofMinutes(10), Duration.ofMinutes(30), List.of("devices"));
+        }
+
+        Cache cache(String name) {
+            return manager.getCache(name);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.iotserver.controller;
+
+import com.example.iotserver.service.DeviceService;
+import com.example.iotserver.service.SensorDataService;
+import com.example.iotserver.service.SensorStatisticsService;
+import com.example.iotserver.timeseries.SeriesBinaryEncoder;
+import com.example.iotserver.timeseries.SeriesChunk;
+import com.example.iotserver.timeseries.TimeSeriesReads;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class SeriesBinaryResponseTest {
+
+    private final SensorDataService sensorDataService = mock(SensorDataService.class);
+    private final SeriesChunk series = SeriesChunk.builder().add(1_000, 21.5).add(61_000, 22.0).build();
+    private ThreadPoolTaskExecutor executor;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.initialize();
+        TimeSeriesReads reads = new TimeSeriesReads(executor, Duration.ofSeconds(5));
+        mockMvc = MockMvcBuilders.standaloneSetup(
+                new AnalyticsController(sensorDataService, reads, mock(SensorStatisticsService.class)),
+                new DeviceController(mock(DeviceService.class), sensorDataService, reads, new ObjectMapper()))
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void historyBinaryReturnsEncodedSeries() throws Exception {
+        when(sensorDataService.getMultiSeries(anyList(), anyList(), any(), any(), anyString(), anyInt()))
+                .thenReturn(Map.of("d1_temperature", series));
+
+        MvcResult async = mockMvc.perform(get("/api/analytics/history")
+                        .param("deviceIds", "d1")
+                        .param("fields", "temperature")
+                        .param("start", "2024-01-01T00:00:00Z")
+                        .param("end", "2024-01-02T00:00:00Z")
+                        .param("format", "binary"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        byte[] body = mockMvc.perform(asyncDispatch(async))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(SeriesBinaryEncoder.CONTENT_TYPE))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertThat(body).isEqualTo(SeriesBinaryEncoder.encode(Map.of("d1_temperature", series)));
+    }
+
+    @Test
+    void aggregatedBinaryReturnsEncodedSeries() throws Exception {
+        when(sensorDataService.getAggregatedSeries(eq("d1"), eq("temperature"), anyString(), anyString(), anyInt()))
+                .thenReturn(series);
+
+        MvcResult async = mockMvc.perform(get("/api/devices/d1/data/aggregated")
+                        .param("field", "temperature")
+                        .param("format", "binary"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        byte[] body = mockMvc.perform(asyncDispatch(async))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(SeriesBinaryEncoder.CONTENT_TYPE))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertThat(body).startsWith('T', 'S', 'B', '1')
+                .isEqualTo(SeriesBinaryEncoder.encode(Map.of("d1_temperature", series)));
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.iotserver.service;
+
+import com.example.iotserver.dto.ReportJobDTO;
+import com.example.iotserver.entity.Device;
+import com.example.iotserver.entity.Farm;
+import com.example.iotserver.entity.User;
+import com.example.iotserver.enums.ReportFormat;
+import com.example.iotserver.enums.ReportJobStatus;
+import com.example.iotserver.exception.ResourceNotFoundException;
+import com.example.iotserver.repository.DeviceRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReportJobServiceTest {
+
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Instant END = Instant.parse("2024-01-02T00:00:00Z");
+
+    @TempDir
+    Path dir;
+
+    private final ReportService reportService = mock(ReportService.class);
+    private final DeviceRepository deviceRepository = mock(DeviceRepository.class);
+    private final ThreadPoolTaskExecutor executor = mock(ThreadPoolTaskExecutor.class);
+    private final AuthenticationService authenticationService = mock(AuthenticationService.class);
+    private final FarmService farmService = mock(FarmService.class);
+    private final ReportJobService service = new ReportJobService(reportService, deviceRepository,
+            mock(WebSocketService.class), executor, authenticationService, farmService);
+
+    private final User user = new User();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ReflectionTestUtils.setField(service, "storageDir", dir.toString());
+        ReflectionTestUtils.setField(service, "ttl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(service, "progressInterval", 5000L);
+        service.init();
+
+        Farm farm = new Farm();
+        farm.setId(10L);
+        Device device = new Device();
+        device.setDeviceId("d1");
+        device.setFarm(farm);
+        when(deviceRepository.findByDeviceIdWithFarmAndOwner("d1")).thenReturn(Optional.of(device));
+
+        user.setId(1L);
+        when(authenticationService.getCurrentAuthenticatedUser()).thenReturn(user);
+        // Chạy job ngay trên luồng gọi
+        doAnswer(inv -> {
+            inv.<Runnable>getArgument(0).run();
+            return null;
+        }).when(executor).execute(any(Runnable.class));
+        when(reportService.writeSensorDataCsv(any(), eq("d1"), eq(START), eq(END), any())).thenAnswer(inv -> {
+            inv.<Writer>getArgument(0).write("0123456789");
+            return 10L;
+        });
+    }
+
+    @Test
+    void identicalRequestsShareOneJob() throws IOException {
+        ReportJobDTO first = service.submit(ReportFormat.CSV, "d1", START, END);
+        ReportJobDTO second = service.submit(ReportFormat.CSV, "d1", START, END);
+
+        assertThat(second.getJobId()).isEqualTo(first.getJobId());
+        assertThat(second.getStatus()).isEqualTo(ReportJobStatus.COMPLETED);
+        verify(reportService, times(1)).writeSensorDataCsv(any(), any(), any(), any(), any());
+
+        ReportJobDTO other = service.submit(ReportFormat.CSV, "d1", START, END.plusSeconds(1));
+        assertThat(other.getJobId()).isNotEqualTo(first.getJobId());
+    }
+
+    @Test
+    void usersWithoutFarmAccessCannotSubmitReadOrDownloadJobs() {
+        String jobId = service.submit(ReportFormat.CSV, "d1", START, END).getJobId();
+
+        User stranger = new User();
+        stranger.setId(2L);
+        when(authenticationService.getCurrentAuthenticatedUser()).thenReturn(stranger);
+        doThrow(new SecurityException("denied")).when(farmService).checkUserAccessToFarm(2L, 10L);
+
+        assertThatThrownBy(() -> service.submit(ReportFormat.CSV, "d1", START, END))
+                .isInstanceOf(SecurityException.class);
+        assertThatThrownBy(() -> service.getJob(jobId)).isInstanceOf(SecurityException.class);
+        assertThatThrownBy(() -> service.writeArtifact(jobId, new MockHttpServletRequest(),
+                new MockHttpServletResponse())).isInstanceOf(SecurityException.class);
+    }
+
+    @Test
+    void expiredJobsAreRemovedWithTheirFiles() throws IOException {
+        ReflectionTestUtils.setField(service, "ttl", Duration.ofMillis(1));
+        String jobId = service.submit(ReportFormat.CSV, "d1", START, END).getJobId();
+        Path file = dir.resolve(jobId + ".csv");
+        assertThat(file).exists();
+        sleep(5);
+
+        // Yêu cầu lặp lại sau khi hết hạn tạo job mới
+        String again = service.submit(ReportFormat.CSV, "d1", START, END).getJobId();
+        assertThat(again).isNotEqualTo(jobId);
+
+        sleep(5);
+        service.cleanupExpiredJobs();
+        assertThat(file).doesNotExist();
+        assertThat(dir.resolve(again + ".csv")).doesNotExist();
+        assertThatThrownBy(() -> service.getJob(jobId)).isInstanceOf(ResourceNotFoundException.class);
+    }
+
+    @Test
+    void runningJobsNeverExpire() {
+        doAnswer(inv -> null).when(executor).execute(any(Runnable.class));
+        ReflectionTestUtils.setField(service, "ttl", Duration.ZERO);
+        String jobId = service.submit(ReportFormat.CSV, "d1", START, END).getJobId();
+
+        service.cleanupExpiredJobs();
+
+        assertThat(service.getJob(jobId).getStatus()).isEqualTo(ReportJobStatus.PENDING);
+    }
+
+    @Test
+    void rejectionIsRethrownAndDoesNotPoisonDedup() {
+        doThrow(new RejectedExecutionException("full")).when(executor).execute(any(Runnable.class));
+        assertThatThrownBy(() -> service.submit(ReportFormat.CSV, "d1", START, END))
+                .isInstanceOf(RejectedExecutionException.class);
+
+        doAnswer(inv -> {
+            inv.<Runnable>getArgument(0).run();
+            return null;
+        }).when(executor).execute(any(Runnable.class));
+        assertThat(service.submit(ReportFormat.CSV, "d1", START, END).getStatus())
+                .isEqualTo(ReportJobStatus.COMPLETED);
+    }
+
+    @Test
+    void rangeHeaderServesPartialContent() throws IOException {
+        String jobId = service.submit(ReportFormat.CSV, "d1", START, END).getJobId();
+        assertThat(download(jobId, null).getContentAsString()).isEqualTo("0123456789");
+
+        MockHttpServletResponse middle = download(jobId, "bytes=2-5");
+        assertThat(middle.getStatus()).isEqualTo(206);
+        assertThat(middle.getHeader("Content-Range")).isEqualTo("bytes 2-5/10");
+        assertThat(middle.getContentAsString()).isEqualTo("2345");
+
+        assertThat(download(jobId, "bytes=7-").getContentAsString()).isEqualTo("789");
+        assertThat(download(jobId, "bytes=-3").getContentAsString()).isEqualTo("789");
+        assertThat(download(jobId, "bytes=-30").getContentAsString()).isEqualTo("0123456789");
+        assertThat(download(jobId, "bytes=8-100").getContentAsString()).isEqualTo("89");
+
+        for (String invalid : new String[] { "bytes=10-", "bytes=5-2", "bytes=0-1,3-4", "items=0-1", "bytes=x-1",
+                "bytes=-0", "bytes=3" }) {
+            MockHttpServletResponse response = download(jobId, invalid);
+            assertThat(response.getStatus()).as(invalid).isEqualTo(416);
+            assertThat(response.getHeader("Content-Range")).as(invalid).isEqualTo("bytes */10");
+        }
+    }
+
+    @Test
+    void initPurgesJobFilesLeftFromPreviousRun() throws IOException {
+        Path leftover = Files.writeString(dir.resolve("123e4567-e89b-12d3-a456-426614174000.csv"), "old");
+        Path partial = Files.writeString(dir.resolve("123e4567-e89b-12d3-a456-426614174001.part"), "old");
+        Path unrelated = Files.writeString(dir.resolve("notes.txt"), "keep");
+
+        service.init();
+
+        assertThat(leftover).doesNotExist();
+        assertThat(partial).doesNotExist();
+        assertThat(unrelated).exists();
+    }
+
+    private MockHttpServletResponse download(String jobId, String range) throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        if (range != null) {
+            request.addHeader("Range", range);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.writeArtifact(jobId, request, response);
+        return response;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.iotserver.service;
+
+import com.example.iotserver.dto.SensorDataDTO;
+import com.example.iotserver.entity.Farm;
+import com.example.iotserver.entity.User;
+import com.example.iotserver.repository.DeviceRepository;
+import com.example.iotserver.repository.FarmRepository;
+import com.example.iotserver.repository.RuleExecutionLogRepository;
+import com.example.iotserver.repository.RuleRepository;
+import com.example.iotserver.repository.projection.DeviceSummary;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReportServiceZipTest {
+
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Instant END = Instant.parse("2024-01-02T00:00:00Z");
+
+    private final DeviceRepository deviceRepository = mock(DeviceRepository.class);
+    private final FarmRepository farmRepository = mock(FarmRepository.class);
+    private final SensorDataService sensorDataService = mock(SensorDataService.class);
+    private final AuthenticationService authenticationService = mock(AuthenticationService.class);
+    private final FarmService farmService = mock(FarmService.class);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ThreadPoolTaskExecutor executor;
+    private ReportService reportService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws IOException {
+        // Một luồng, không có hàng đợi: mọi lần gửi khi luồng đang bận đều bị từ chối
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(0);
+        executor.initialize();
+        reportService = new ReportService(deviceRepository, mock(RuleRepository.class),
+                mock(RuleExecutionLogRepository.class), sensorDataService, farmRepository, executor,
+                authenticationService, farmService);
+        ReflectionTestUtils.setField(reportService, "zipParallelism", 4);
+        ReflectionTestUtils.setField(reportService, "csvFlushInterval", 1000);
+
+        User user = new User();
+        user.setId(1L);
+        when(authenticationService.getCurrentAuthenticatedUser()).thenReturn(user);
+        when(farmRepository.findById(10L)).thenReturn(Optional.of(new Farm()));
+        List<DeviceSummary> devices = new ArrayList<>();
+        for (String deviceId : List.of("d1", "d2", "d3", "d4", "d5")) {
+            DeviceSummary summary = mock(DeviceSummary.class);
+            when(summary.getDeviceId()).thenReturn(deviceId);
+            devices.add(summary);
+        }
+        when(deviceRepository.findSummariesByFarm(eq(10L), isNull(), isNull(), isNull(), any())).thenReturn(devices);
+        when(sensorDataService.streamSensorDataRange(anyString(), eq(START), eq(END), any())).thenAnswer(inv -> {
+            SensorDataService.RowHandler<SensorDataDTO> handler = inv.getArgument(3);
+            handler.onRow(SensorDataDTO.builder().timestamp(START).temperature(20.0).build());
+            return 1L;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    void rejectedPartsAreRetriedSoTheZipHasEveryDevice() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        reportService.writeFarmSensorDataZip(response, 10L, START, END);
+
+        assertThat(response.getContentType()).isEqualTo("application/zip");
+        assertThat(entries(response.getContentAsByteArray()))
+                .containsExactlyInAnyOrder("d1.csv", "d2.csv", "d3.csv", "d4.csv", "d5.csv");
+    }
+
+    @Test
+    void saturatedPoolFailsBeforeAnyHeaderIsWritten() {
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThatThrownBy(() -> reportService.writeFarmSensorDataZip(response, 10L, START, END))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThat(response.isCommitted()).isFalse();
+        assertThat(response.getContentType()).isNull();
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void usersWithoutFarmAccessGetNothing() {
+        doThrow(new SecurityException("denied")).when(farmService).checkUserAccessToFarm(1L, 10L);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThatThrownBy(() -> reportService.writeFarmSensorDataZip(response, 10L, START, END))
+                .isInstanceOf(SecurityException.class);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    private static List<String> entries(byte[] zip) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.iotserver.service;
+
+import com.example.iotserver.entity.RuleCondition;
+import com.example.iotserver.repository.RuleRepository;
+import com.example.iotserver.timeseries.SensorReading;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReportingRateServiceTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+    private static final long MIN = 60_000L;
+
+    private final MqttGateway mqttGateway = mock(MqttGateway.class);
+    private final RuleRepository ruleRepository = mock(RuleRepository.class);
+    private final SettingService settingService = mock(SettingService.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ReportingRateService service = new ReportingRateService(mqttGateway, ruleRepository,
+            settingService, objectMapper, meterRegistry);
+
+    // Các gợi ý đã publish, dạng "LEVEL reason"
+    private final List<String> published = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "fastInterval", Duration.ofSeconds(10));
+        ReflectionTestUtils.setField(service, "normalInterval", Duration.ofSeconds(60));
+        ReflectionTestUtils.setField(service, "slowInterval", Duration.ofSeconds(300));
+        ReflectionTestUtils.setField(service, "speedUpHold", Duration.ofSeconds(60));
+        ReflectionTestUtils.setField(service, "slowDownHold", Duration.ofMinutes(10));
+        ReflectionTestUtils.setField(service, "alpha", 0.2);
+        ReflectionTestUtils.setField(service, "thresholdCacheTtl", Duration.ofMinutes(5));
+        service.init();
+
+        when(settingService.getCachedDouble(anyString(), anyDouble())).thenAnswer(inv -> inv.getArgument(1));
+        doAnswer(inv -> {
+            JsonNode payload = objectMapper.readTree(inv.<String>getArgument(0));
+            published.add(payload.get("level").asText() + " " + payload.get("reason").asText());
+            return null;
+        }).when(mqttGateway).sendRetained(anyString(), eq("device/d1/config"), eq(true));
+    }
+
+    @Test
+    void ewmaSmoothsASingleJump() {
+        temperature(T0, 20.0);
+        temperature(T0 + MIN, 20.1);
+        // 0.5/phút là gấp 10 lần mức ổn định, nhưng EWMA chỉ lên 0.18/phút
+        temperature(T0 + 2 * MIN, 20.6);
+        assertThat(published).isEmpty();
+
+        // Biến động kéo dài thì EWMA vượt ngưỡng biến động mạnh
+        temperature(T0 + 3 * MIN, 21.6);
+        assertThat(published).containsExactly("FAST VOLATILE:temperature");
+        assertThat(meterRegistry.counter("sensor.reporting.interval_changes", "level", "FAST").count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void speedUpWaitsForHoldSinceLastChange() {
+        ReflectionTestUtils.setField(service, "alpha", 1.0);
+        temperature(T0, 20.0);
+        temperature(T0 + MIN, 20.0);
+        temperature(T0 + 11 * MIN, 20.0);
+        assertThat(published).containsExactly("SLOW STABLE");
+
+        // Vừa đổi sang SLOW 30 giây trước: chưa tăng tần suất
+        temperature(T0 + 11 * MIN + 30_000, 21.0);
+        assertThat(published).hasSize(1);
+
+        temperature(T0 + 12 * MIN + 10_000, 21.5);
+        assertThat(published).containsExactly("SLOW STABLE", "FAST VOLATILE:temperature");
+    }
+
+    @Test
+    void slowDownNeedsTheSlowerTargetHeldContinuously() {
+        ReflectionTestUtils.setField(service, "alpha", 1.0);
+        temperature(T0, 20.0);
+        temperature(T0 + MIN, 21.0);
+        assertThat(published).containsExactly("FAST VOLATILE:temperature");
+
+        temperature(T0 + 2 * MIN, 21.0);
+        // Một lần biến động mạnh cắt chuỗi ổn định
+        temperature(T0 + 6 * MIN, 22.0);
+        temperature(T0 + 7 * MIN, 22.0);
+        temperature(T0 + 16 * MIN, 22.0);
+        assertThat(published).hasSize(1);
+
+        temperature(T0 + 17 * MIN, 22.0);
+        assertThat(published).containsExactly("FAST VOLATILE:temperature", "SLOW STABLE");
+    }
+
+    @Test
+    void slowDownGoesToTheFastestTargetSeenDuringTheHold() {
+        ReflectionTestUtils.setField(service, "alpha", 1.0);
+        temperature(T0, 20.0);
+        temperature(T0 + MIN, 21.0);
+        temperature(T0 + 2 * MIN, 21.0);
+        // 0.1/phút: đang thay đổi, mục tiêu NORMAL
+        temperature(T0 + 3 * MIN, 21.1);
+        temperature(T0 + 12 * MIN, 21.1);
+
+        assertThat(published).containsExactly("FAST VOLATILE:temperature", "NORMAL CHANGING:temperature");
+    }
+
+    @Test
+    void readingsNearAlertOrRuleThresholdsSpeedUpImmediately() {
+        // Ngưỡng cảnh báo nhiệt độ mặc định 38
+        temperature(T0, 37.0);
+        assertThat(published).containsExactly("FAST NEAR_THRESHOLD:temperature");
+
+        RuleCondition numeric = new RuleCondition();
+        numeric.setField("soilMoisture");
+        numeric.setValue(" 45 ");
+        RuleCondition text = new RuleCondition();
+        text.setField("soil_moisture");
+        text.setValue("40-50");
+        when(ruleRepository.findEnabledSensorConditionsByDeviceId("d2")).thenReturn(List.of(numeric, text));
+        doAnswer(inv -> published.add("d2"))
+                .when(mqttGateway).sendRetained(anyString(), eq("device/d2/config"), eq(true));
+
+        observe("d2", T0, SensorReading.SOIL_MOISTURE, 60.0);
+        assertThat(published).hasSize(1);
+        observe("d2", T0 + 5 * MIN, SensorReading.SOIL_MOISTURE, 43.0);
+        assertThat(published).containsExactly("FAST NEAR_THRESHOLD:temperature", "d2");
+    }
+
+    @Test
+    void disabledServiceDoesNothing() {
+        ReflectionTestUtils.setField(service, "enabled", false);
+
+        temperature(T0, 37.0);
+
+        assertThat(published).isEmpty();
+    }
+
+    private void temperature(long time, double value) {
+        observe("d1", time, SensorReading.TEMPERATURE, value);
+    }
+
+    // Thời điểm xử lý trùng với timestamp của bản ghi
+    private void observe(String deviceId, long time, int field, double value) {
+        SensorReading reading = new SensorReading();
+        reading.deviceId(deviceId);
+        reading.timestamp(time);
+        reading.set(field, value);
+        service.observe(reading, time);
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.iotserver.service;
+
+import com.example.iotserver.timeseries.SensorReading;
+import com.example.iotserver.timeseries.SensorReadings;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class SensorPayloadParserTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SensorPayloadParser parser = new SensorPayloadParser(new ObjectMapper(), meterRegistry);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(parser, "maxClockSkew", Duration.ofSeconds(30));
+        ReflectionTestUtils.setField(parser, "maxReadingAge", Duration.ofHours(1));
+        ReflectionTestUtils.setField(parser, "maxBatchSize", 3);
+        parser.init();
+    }
+
+    // ---------------------------------------------------------------- nhị phân
+
+    @Test
+    void binaryDecodesMultiByteVarintsAndFieldMask() {
+        long base = System.currentTimeMillis() - 60_000;
+        byte[] payload = new Binary(true, base)
+                .reading(0, 0b00011, 23.4f, 61.5f)
+                .reading(300, 0b10100, 45.0f, Float.NaN)
+                .bytes();
+
+        SensorReadings readings = parser.parseBinary("d1", payload);
+
+        assertThat(readings.size()).isEqualTo(2);
+        assertThat(readings.deviceTimed()).isTrue();
+        SensorReading first = readings.get(0);
+        assertThat(first.deviceId()).isEqualTo("d1");
+        assertThat(first.timestamp()).isEqualTo(base);
+        assertThat(first.value(SensorReading.TEMPERATURE)).isEqualTo(23.4);
+        assertThat(first.value(SensorReading.HUMIDITY)).isEqualTo(61.5);
+        SensorReading second = readings.get(1);
+        assertThat(second.timestamp()).isEqualTo(base + 300);
+        assertThat(second.value(SensorReading.SOIL_MOISTURE)).isEqualTo(45.0);
+        // NaN: cảm biến lỗi, không có giá trị
+        assertThat(second.has(SensorReading.SOIL_PH)).isFalse();
+    }
+
+    @Test
+    void binaryRejectsTruncatedPayload() {
+        byte[] payload = new Binary(false, Instant.now().getEpochSecond())
+                .reading(0, 0b00001, 20.0f)
+                .reading(70_000, 0b00011, 21.0f, 55.0f)
+                .bytes();
+
+        // Cắt ở mọi vị trí sau mốc thời gian và trước khi hết bản ghi cuối
+        int end = payload.length;
+        int lastRecordStart = end - (3 + 1 + 8);
+        for (int length = lastRecordStart + 1; length < end; length++) {
+            byte[] truncated = Arrays.copyOf(payload, length);
+            assertThatThrownBy(() -> parser.parseBinary("d1", truncated))
+                    .as("cắt còn %d byte", length)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void binaryRejectsBadVersionMaskAndOverlongVarint() {
+        assertThatThrownBy(() -> parser.parseBinary("d1", new byte[] { 2, 0, 0 }))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> parser.parseBinary("d1", new Binary(false, 0).reading(0, 0b100000).bytes()))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        byte[] overlong = new byte[2 + 10];
+        overlong[0] = 1;
+        Arrays.fill(overlong, 2, overlong.length, (byte) 0x80);
+        assertThatThrownBy(() -> parser.parseBinary("d1", overlong))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Varint");
+    }
+
+    @Test
+    void binaryWithoutRealTimeClockIsShiftedToReceiveTime() {
+        // Mốc 0: thiết bị không có đồng hồ thực, chỉ gửi khoảng cách giữa các lần đo (giây)
+        byte[] payload = new Binary(false, 0)
+                .reading(0, 0b00001, 20.0f)
+                .reading(60, 0b00001, 21.0f)
+                .reading(60, 0b00001, 22.0f)
+                .bytes();
+
+        long before = System.currentTimeMillis();
+        SensorReadings readings = parser.parseBinary("d1", payload);
+        long after = System.currentTimeMillis();
+
+        assertThat(readings.size()).isEqualTo(3);
+        assertThat(readings.deviceTimed()).isFalse();
+        assertThat(readings.last().timestamp()).isBetween(before, after);
+        assertThat(readings.get(1).timestamp()).isEqualTo(readings.last().timestamp() - 60_000);
+        assertThat(readings.get(0).timestamp()).isEqualTo(readings.last().timestamp() - 120_000);
+        assertThat(meterRegistry.counter("sensor.ingest.clock_skew_adjusted").count()).isEqualTo(1);
+    }
+
+    @Test
+    void binaryDropsReadingsOlderThanMaxAgeWithoutShifting() {
+        long now = Instant.now().getEpochSecond();
+        byte[] payload = new Binary(false, now - 7200)
+                .reading(0, 0b00001, 20.0f)
+                .reading(7140, 0b00001, 21.0f)
+                .bytes();
+
+        SensorReadings readings = parser.parseBinary("d1", payload);
+
+        assertThat(readings.size()).isEqualTo(1);
+        assertThat(readings.get(0).timestamp()).isEqualTo((now - 60) * 1000);
+        assertThat(readings.get(0).value(SensorReading.TEMPERATURE)).isEqualTo(21.0);
+        assertThat(readings.deviceTimed()).isTrue();
+        assertThat(meterRegistry.counter("sensor.ingest.stale_readings").count()).isEqualTo(1);
+    }
+
+    // ---------------------------------------------------------------- JSON
+
+    @Test
+    void jsonBatchAcceptsTimestampFormatsAndSortsByTime() throws IOException {
+        long now = System.currentTimeMillis();
+        long seconds = now / 1000 - 120;
+        String json = "[{\"temperature\": 22.5, \"timestamp\": " + (now - 60_000) + "},"
+                + "{\"humidity\": \"70\", \"ts\": " + seconds + "},"
+                + "{\"soilPH\": 6.5, \"timestamp\": \"" + Instant.ofEpochMilli(now - 30_000) + "\", \"extra\": [1, 2]}]";
+
+        SensorReadings readings = parser.parse("d1", bytes(json));
+
+        assertThat(readings.size()).isEqualTo(3);
+        assertThat(readings.deviceTimed()).isTrue();
+        assertThat(readings.get(0).timestamp()).isEqualTo(seconds * 1000);
+        assertThat(readings.get(0).value(SensorReading.HUMIDITY)).isEqualTo(70.0);
+        assertThat(readings.get(1).value(SensorReading.TEMPERATURE)).isEqualTo(22.5);
+        assertThat(readings.get(2).timestamp()).isEqualTo(now - 30_000);
+        assertThat(readings.get(2).value(SensorReading.SOIL_PH)).isEqualTo(6.5);
+    }
+
+    @Test
+    void jsonWithoutTimestampUsesReceiveTimeAndIsNotDeviceTimed() throws IOException {
+        long before = System.currentTimeMillis();
+        SensorReadings readings = parser.parse("d1", bytes("{\"temperature\": 25, \"sensorType\": \"DHT22\"}"));
+
+        assertThat(readings.size()).isEqualTo(1);
+        assertThat(readings.deviceTimed()).isFalse();
+        assertThat(readings.get(0).timestamp()).isBetween(before, System.currentTimeMillis());
+        assertThat(readings.get(0).sensorType()).isEqualTo("DHT22");
+    }
+
+    @Test
+    void jsonFarFutureTimestampIsShiftedAndNotDeviceTimed() throws IOException {
+        long future = System.currentTimeMillis() + Duration.ofDays(365).toMillis();
+        String json = "[{\"temperature\": 1, \"timestamp\": " + (future - 10_000) + "},"
+                + "{\"temperature\": 2, \"timestamp\": " + future + "}]";
+
+        SensorReadings readings = parser.parse("d1", bytes(json));
+
+        assertThat(readings.deviceTimed()).isFalse();
+        assertThat(readings.last().timestamp()).isCloseTo(System.currentTimeMillis(), within(1000L));
+        assertThat(readings.last().timestamp() - readings.get(0).timestamp()).isEqualTo(10_000);
+    }
+
+    @Test
+    void jsonRejectsBatchOverLimit() {
+        String json = "[{\"temperature\": 1}, {\"temperature\": 2}, {\"temperature\": 3}, {\"temperature\": 4}]";
+
+        assertThatThrownBy(() -> parser.parse("d1", bytes(json))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Dựng payload nhị phân theo định dạng ở {@link SensorPayloadParser}.
+     */
+    private static final class Binary {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Binary(boolean millis, long base) {
+            out.write(1);
+            out.write(millis ? 1 : 0);
+            varint(base);
+        }
+
+        Binary reading(long gap, int mask, float... values) {
+            varint(gap);
+            out.write(mask);
+            for (float value : values) {
+                out.writeBytes(ByteBuffer.allocate(4).putFloat(value).array());
+            }
+            return this;
+        }
+
+        byte[] bytes() {
+            return out.toByteArray();
+        }
+
+        private void varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+}
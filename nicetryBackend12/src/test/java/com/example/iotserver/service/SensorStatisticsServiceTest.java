@@ -0,0 +1,151 @@
+package com.example.iotserver.service;
+
+import com.example.iotserver.dto.PercentileStatsDTO;
+import com.example.iotserver.entity.Device;
+import com.example.iotserver.repository.DeviceRepository;
+import com.example.iotserver.timeseries.SensorReading;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SensorStatisticsServiceTest {
+
+    private static final long HOUR = 3_600_000L;
+
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    private final DeviceRepository deviceRepository = mock(DeviceRepository.class);
+    private final RedisConnection connection = mock(RedisConnection.class);
+    private final RedisStringCommands stringCommands = mock(RedisStringCommands.class);
+    private final SensorStatisticsService service = new SensorStatisticsService(redisTemplate, deviceRepository);
+
+    // Redis giả: key -> giá trị; các lần EXEC còn lại sẽ bị hủy (giả lập instance khác ghi xen vào)
+    private final Map<String, byte[]> redis = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> queued = new ConcurrentHashMap<>();
+    private int abortedExecs;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "compression", 100.0);
+        ReflectionTestUtils.setField(service, "hourRetention", Duration.ofDays(14));
+        ReflectionTestUtils.setField(service, "dayRetention", Duration.ofDays(400));
+        ReflectionTestUtils.setField(service, "maxQueryKeys", 20_000);
+
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(inv -> ((RedisCallback<Object>) inv.getArgument(0)).doInRedis(connection));
+        when(connection.stringCommands()).thenReturn(stringCommands);
+        when(stringCommands.mGet(any(byte[][].class))).thenAnswer(inv -> Arrays.stream(inv.getArguments())
+                .map(key -> redis.get(new String((byte[]) key, StandardCharsets.UTF_8)))
+                .toList());
+        when(stringCommands.set(any(), any(), any(), any())).thenAnswer(inv -> {
+            queued.put(new String((byte[]) inv.getArgument(0), StandardCharsets.UTF_8), inv.getArgument(1));
+            return true;
+        });
+        when(connection.exec()).thenAnswer(inv -> {
+            List<Object> results = new ArrayList<>();
+            if (abortedExecs > 0) {
+                abortedExecs--;
+                queued.clear();
+                return null;
+            }
+            redis.putAll(queued);
+            queued.values().forEach(v -> results.add(true));
+            queued.clear();
+            return results;
+        });
+    }
+
+    @Test
+    void flushRetriesWhenWatchedKeyChangesAndWritesEachPointOnce() {
+        long now = System.currentTimeMillis();
+        record("d1", now, 20.0);
+        record("d1", now, 30.0);
+        abortedExecs = 2;
+
+        service.flush();
+
+        assertThat(abortedExecs).isZero();
+        assertThat(redis).hasSize(2);
+        PercentileStatsDTO stats = service.getDevicePercentiles("d1", "temperature",
+                Instant.ofEpochMilli(now - HOUR), Instant.ofEpochMilli(now + 1), List.of(0.5));
+        assertThat(stats.getCount()).isEqualTo(2);
+    }
+
+    @Test
+    void sketchesGoBackToPendingWhenEveryAttemptIsAborted() {
+        long now = System.currentTimeMillis();
+        record("d1", now, 20.0);
+        abortedExecs = Integer.MAX_VALUE;
+
+        service.flush();
+
+        assertThat(redis).isEmpty();
+        // Điểm chưa ghi vẫn được tính từ hàng đợi và được ghi ở lần flush sau
+        PercentileStatsDTO stats = service.getDevicePercentiles("d1", "temperature",
+                Instant.ofEpochMilli(now - HOUR), Instant.ofEpochMilli(now + 1), List.of(0.5));
+        assertThat(stats.getCount()).isEqualTo(1);
+
+        abortedExecs = 0;
+        service.flush();
+        assertThat(redis).hasSize(2);
+    }
+
+    @Test
+    void startIsClampedToDayRetention() {
+        long now = System.currentTimeMillis();
+        PercentileStatsDTO stats = service.getDevicePercentiles("d1", "temperature", Instant.EPOCH,
+                Instant.ofEpochMilli(now), List.of(0.5));
+
+        assertThat(stats.getStart()).isAfter(Instant.ofEpochMilli(now).minus(Duration.ofDays(402)));
+    }
+
+    @Test
+    void rangesOutsideRetentionOrTooLargeForTheFarmAreRejected() {
+        Instant now = Instant.now();
+        assertThatThrownBy(() -> service.getDevicePercentiles("d1", "temperature", Instant.EPOCH,
+                Instant.EPOCH.plus(Duration.ofDays(1)), List.of(0.5)))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("thời gian lưu");
+
+        List<Device> devices = IntStream.range(0, 100).mapToObj(i -> {
+            Device device = new Device();
+            device.setDeviceId("d" + i);
+            return device;
+        }).toList();
+        when(deviceRepository.findByFarmId(1L)).thenReturn(devices);
+        assertThatThrownBy(() -> service.getFarmPercentiles(1L, "temperature", now.minus(Duration.ofDays(365)), now,
+                List.of(0.5)))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("quá lớn");
+    }
+
+    private void record(String deviceId, long time, double temperature) {
+        SensorReading reading = new SensorReading();
+        reading.deviceId(deviceId);
+        reading.timestamp(time);
+        reading.set(SensorReading.TEMPERATURE, temperature);
+        service.record(reading);
+    }
+}
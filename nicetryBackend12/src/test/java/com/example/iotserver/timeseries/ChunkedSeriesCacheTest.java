@@ -0,0 +1,83 @@
+package com.example.iotserver.timeseries;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkedSeriesCacheTest {
+
+    private final ChunkedSeriesCache cache = new ChunkedSeriesCache(true, 1 << 20, Duration.ofMinutes(10),
+            new SimpleMeterRegistry());
+    private final SeriesKey key = new SeriesKey("d1", "temperature", "mean", "1h");
+    private final Instant start = Instant.now().truncatedTo(ChronoUnit.DAYS).minus(Duration.ofDays(5));
+    private final Instant end = start.plus(Duration.ofDays(2));
+
+    @Test
+    void closedDaysAreServedFromCache() {
+        AtomicInteger loads = new AtomicInteger();
+        ChunkedSeriesCache.RangeLoader loader = loader(loads, 20.0);
+
+        cache.get(List.of(key), start, end, Duration.ofHours(1), loader);
+        cache.get(List.of(key), start, end, Duration.ofHours(1), loader);
+
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void lateWriteInvalidatesOnlyTheAffectedDay() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(List.of(key), start, end, Duration.ofHours(1), loader(loads, 20.0));
+
+        SensorReadings late = new SensorReadings();
+        SensorReading reading = late.add();
+        reading.deviceId("d1");
+        reading.timestamp(start.plus(Duration.ofHours(30)).toEpochMilli());
+        reading.set(SensorReading.TEMPERATURE, 30.0);
+        cache.invalidateLate(late);
+
+        Map<SeriesKey, SeriesChunk> result = cache.get(List.of(key), start, end, Duration.ofHours(1),
+                loader(loads, 30.0));
+
+        assertThat(loads).hasValue(2);
+        SeriesChunk chunk = result.get(key);
+        // Ngày đầu vẫn lấy từ cache, ngày thứ hai được nạp lại
+        assertThat(chunk.valueAt(0)).isEqualTo(20.0);
+        assertThat(chunk.valueAt(chunk.size() - 1)).isEqualTo(30.0);
+    }
+
+    @Test
+    void recentWriteDoesNotTouchCache() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(List.of(key), start, end, Duration.ofHours(1), loader(loads, 20.0));
+
+        SensorReadings recent = new SensorReadings();
+        SensorReading reading = recent.add();
+        reading.deviceId("d1");
+        reading.timestamp(System.currentTimeMillis());
+        reading.set(SensorReading.TEMPERATURE, 30.0);
+        cache.invalidateLate(recent);
+
+        cache.get(List.of(key), start, end, Duration.ofHours(1), loader(loads, 30.0));
+        assertThat(loads).hasValue(1);
+    }
+
+    // Một điểm mỗi giờ trong khoảng được yêu cầu, mốc cuối cửa sổ như aggregateWindow
+    private ChunkedSeriesCache.RangeLoader loader(AtomicInteger loads, double value) {
+        return (from, to) -> {
+            loads.incrementAndGet();
+            SeriesChunk.Builder builder = SeriesChunk.builder();
+            for (Instant t = from.plus(Duration.ofHours(1)); !t.isAfter(to); t = t.plus(Duration.ofHours(1))) {
+                builder.add(t.toEpochMilli(), value);
+            }
+            return Map.of(key, builder.build());
+        };
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.iotserver.timeseries;
+
+import com.example.iotserver.enums.CompressionMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class CompressionFilterTest {
+
+    private static final double TOLERANCE = 0.5;
+    private static final long MAX_INTERVAL = 900_000;
+
+    private record Point(long time, double value) {
+    }
+
+    private final List<Point> stored = new ArrayList<>();
+    private final CompressionFilter.PointSink sink = (time, value) -> stored.add(new Point(time, value));
+
+    @Test
+    void deadbandStepReconstructionStaysWithinTolerance() {
+        List<Point> input = randomWalk(5_000, 1);
+        CompressionFilter filter = new CompressionFilter(CompressionMode.DEADBAND, TOLERANCE, MAX_INTERVAL);
+        input.forEach(p -> filter.offer(p.time(), p.value(), sink));
+        filter.flushPending(sink);
+
+        int j = 0;
+        for (Point p : input) {
+            while (j + 1 < stored.size() && stored.get(j + 1).time() <= p.time()) {
+                j++;
+            }
+            assertThat(p.value()).isCloseTo(stored.get(j).value(), within(TOLERANCE));
+        }
+        assertThat(stored.size()).isLessThan(input.size() / 2);
+    }
+
+    @Test
+    void swingingDoorInterpolationStaysWithinTolerance() {
+        List<Point> input = randomWalk(5_000, 2);
+        CompressionFilter filter = new CompressionFilter(CompressionMode.SWINGING_DOOR, TOLERANCE, MAX_INTERVAL);
+        input.forEach(p -> filter.offer(p.time(), p.value(), sink));
+        filter.flushPending(sink);
+
+        assertThat(stored).isSortedAccordingTo((a, b) -> Long.compare(a.time(), b.time()));
+        assertThat(stored.get(0)).isEqualTo(input.get(0));
+        assertThat(stored.get(stored.size() - 1)).isEqualTo(input.get(input.size() - 1));
+        int j = 0;
+        for (Point p : input) {
+            while (j + 2 < stored.size() && stored.get(j + 1).time() <= p.time()) {
+                j++;
+            }
+            Point a = stored.get(j);
+            Point b = stored.get(j + 1);
+            double interpolated = a.value() + (b.value() - a.value()) * (p.time() - a.time()) / (b.time() - a.time());
+            assertThat(p.value()).isCloseTo(interpolated, within(TOLERANCE + 1e-9));
+        }
+        assertThat(stored.size()).isLessThan(input.size() / 2);
+    }
+
+    @Test
+    void swingingDoorHoldsPointsInsideCorridorAndEmitsPreviousPointWhenItCloses() {
+        CompressionFilter filter = new CompressionFilter(CompressionMode.SWINGING_DOOR, TOLERANCE, MAX_INTERVAL);
+        // Đường thẳng độ dốc 1/giây: luôn nằm trong hành lang
+        for (int i = 0; i <= 10; i++) {
+            filter.offer(i * 1000L, i, sink);
+        }
+        assertThat(stored).containsExactly(new Point(0, 0));
+
+        // Đổi hướng đột ngột: hành lang đóng, ghi điểm ngay trước đó (ghi trễ một nhịp)
+        filter.offer(11_000, 0, sink);
+        assertThat(stored).containsExactly(new Point(0, 0), new Point(10_000, 10));
+
+        filter.flushPending(sink);
+        assertThat(stored).endsWith(new Point(11_000, 0));
+    }
+
+    @Test
+    void constantSeriesIsWrittenAtLeastEveryMaxInterval() {
+        CompressionFilter filter = new CompressionFilter(CompressionMode.DEADBAND, TOLERANCE, MAX_INTERVAL);
+        for (long t = 0; t <= 3_600_000; t += 60_000) {
+            filter.offer(t, 25.0, sink);
+        }
+
+        assertThat(stored).extracting(Point::time).containsExactly(0L, 900_000L, 1_800_000L, 2_700_000L, 3_600_000L);
+    }
+
+    @Test
+    void latePointsPassThroughWithoutChangingState() {
+        CompressionFilter filter = new CompressionFilter(CompressionMode.DEADBAND, TOLERANCE, MAX_INTERVAL);
+        filter.offer(10_000, 20.0, sink);
+        filter.offer(20_000, 20.1, sink);
+        filter.offer(15_000, 99.0, sink);
+        filter.offer(30_000, 20.2, sink);
+
+        assertThat(stored).containsExactly(new Point(10_000, 20.0), new Point(15_000, 99.0));
+    }
+
+    @Test
+    void flushIdleWritesHeldPointOnlyAfterMaxInterval() {
+        CompressionFilter filter = new CompressionFilter(CompressionMode.DEADBAND, TOLERANCE, MAX_INTERVAL);
+        filter.offer(0, 20.0, sink);
+        filter.offer(60_000, 20.1, sink);
+
+        filter.flushIdle(60_000 + MAX_INTERVAL - 1, sink);
+        assertThat(stored).hasSize(1);
+        filter.flushIdle(60_000 + MAX_INTERVAL, sink);
+        assertThat(stored).containsExactly(new Point(0, 20.0), new Point(60_000, 20.1));
+    }
+
+    private static List<Point> randomWalk(int n, long seed) {
+        Random random = new Random(seed);
+        List<Point> points = new ArrayList<>(n);
+        double value = 25;
+        long time = 0;
+        for (int i = 0; i < n; i++) {
+            time += 10_000 + random.nextInt(50_000);
+            value += random.nextGaussian() * 0.1;
+            points.add(new Point(time, value));
+        }
+        return points;
+    }
+}
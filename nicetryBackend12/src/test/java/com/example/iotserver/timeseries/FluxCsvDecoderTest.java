@@ -0,0 +1,146 @@
+package com.example.iotserver.timeseries;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FluxCsvDecoderTest {
+
+    private record Tuple(long time, int series, double value) {
+    }
+
+    private static final String CSV = String.join("\r\n",
+            "#group,false,false,true,false,false,true,true",
+            "#datatype,string,long,string,dateTime:RFC3339,double,string,string",
+            "#default,_result,,,,,,",
+            ",result,table,_measurement,_time,_value,_field,device_id",
+            ",,0,sensor_data,2024-05-01T10:00:00Z,21.5,temperature,d1",
+            ",,0,sensor_data,2024-05-01T10:00:01.5Z,,temperature,d1",
+            ",,0,sensor_data,2024-05-01T10:00:02.123456789Z,-0.125,temperature,d1",
+            ",,1,sensor_data,2024-05-01T17:00:00+07:00,60,humidity,\"d,2\"",
+            ",,2,sensor_data,2024-05-01T10:00:00Z,1,humidity,skip",
+            "",
+            "#group,false,false,true,false,false,true,true",
+            "#datatype,string,long,string,dateTime:RFC3339,long,string,string",
+            "#default,_result,,,,,,",
+            ",result,table,_measurement,_time,_value,_field,device_id",
+            ",,3,sensor_data,1969-12-31T23:59:59.999Z,42,light_intensity,d1",
+            "",
+            "#datatype,string,long,string,dateTime:RFC3339,string,string,string",
+            "#default,_result,,,,,,",
+            ",result,table,_measurement,_time,_value,_field,device_id",
+            ",,4,sensor_data,2024-05-01T10:00:00Z,on,status,d1",
+            "");
+
+    @Test
+    void decodesTablesAcrossResultBlocks() throws IOException {
+        List<String> resolved = new ArrayList<>();
+        List<Tuple> tuples = new ArrayList<>();
+
+        long count = FluxCsvDecoder.decode(stream(CSV), "device_id", (tag, field) -> {
+            resolved.add(tag + "/" + field);
+            return tag.equals("skip") ? -1 : resolved.size();
+        }, (time, series, value) -> tuples.add(new Tuple(time, series, value)));
+
+        long base = OffsetDateTime.parse("2024-05-01T10:00:00Z").toInstant().toEpochMilli();
+        assertThat(count).isEqualTo(4);
+        // Tên chuỗi chỉ được giải mã một lần mỗi bảng; bảng kiểu string bị bỏ qua
+        assertThat(resolved).containsExactly("d1/temperature", "d,2/humidity", "skip/humidity",
+                "d1/light_intensity");
+        assertThat(tuples).containsExactly(
+                new Tuple(base, 1, 21.5),
+                new Tuple(base + 2_123, 1, -0.125),
+                new Tuple(base, 2, 60),
+                new Tuple(-1, 4, 42));
+    }
+
+    @Test
+    void decodesSameResultWhenStreamReturnsOneByteAtATime() throws IOException {
+        List<Tuple> whole = new ArrayList<>();
+        List<Tuple> trickled = new ArrayList<>();
+        FluxCsvDecoder.decode(stream(CSV), "device_id", (tag, field) -> 1,
+                (time, series, value) -> whole.add(new Tuple(time, series, value)));
+
+        InputStream slow = new ByteArrayInputStream(CSV.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        FluxCsvDecoder.decode(slow, "device_id", (tag, field) -> 1,
+                (time, series, value) -> trickled.add(new Tuple(time, series, value)));
+
+        assertThat(trickled).isEqualTo(whole).hasSize(5);
+    }
+
+    @Test
+    void fastDoubleParsingMatchesParseDouble() throws IOException {
+        Random random = new Random(11);
+        List<String> texts = new ArrayList<>(List.of("0", "-0.0", "+3.5", "0.1", "123456789012345",
+                "1234567890123456789", "0.000000000000000000000001", "1e-3", "-2.5E10", "NaN", "Infinity"));
+        for (int i = 0; i < 2_000; i++) {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12));
+            texts.add(String.format("%." + random.nextInt(12) + "f", value));
+            texts.add(Double.toString(value));
+        }
+        StringBuilder csv = new StringBuilder("#datatype,string,long,dateTime:RFC3339,double\n,result,table,_time,_value\n");
+        for (String text : texts) {
+            csv.append(",,0,2024-05-01T10:00:00Z,").append(text).append('\n');
+        }
+
+        List<Double> values = new ArrayList<>();
+        FluxCsvDecoder.decode(stream(csv.toString()), null, (tag, field) -> 0,
+                (time, series, value) -> values.add(value));
+
+        assertThat(values).hasSize(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            assertThat(Double.doubleToLongBits(values.get(i)))
+                    .as(texts.get(i))
+                    .isEqualTo(Double.doubleToLongBits(Double.parseDouble(texts.get(i))));
+        }
+    }
+
+    @Test
+    void epochDayMatchesLocalDate() {
+        for (LocalDate date = LocalDate.of(1899, 12, 1); date.isBefore(LocalDate.of(2101, 3, 1));
+                date = date.plusDays(1)) {
+            assertThat(FluxCsvDecoder.epochDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth()))
+                    .as(date.toString())
+                    .isEqualTo(date.toEpochDay());
+        }
+    }
+
+    @Test
+    void errorTableIsReportedAsIOException() {
+        String csv = "#datatype,string,string\n,error,reference\n,\"query timeout\",\n";
+
+        assertThatThrownBy(() -> FluxCsvDecoder.decode(stream(csv), null, (tag, field) -> 0, (t, s, v) -> { }))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("query timeout");
+    }
+
+    @Test
+    void malformedTimeIsRejected() {
+        String csv = "#datatype,string,long,dateTime:RFC3339,double\n,result,table,_time,_value\n"
+                + ",,0,2024-05-01 10:00:00Z,1.0\n";
+
+        assertThatThrownBy(() -> FluxCsvDecoder.decode(stream(csv), null, (tag, field) -> 0, (t, s, v) -> { }))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("2024-05-01 10:00:00Z");
+    }
+
+    private static InputStream stream(String csv) {
+        return new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.iotserver.timeseries;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FluxQueryTest {
+
+    @Test
+    void stringEscapesQuotesBackslashesInterpolationAndControlCharacters() {
+        assertThat(FluxQuery.string("plain")).isEqualTo("\"plain\"");
+        assertThat(FluxQuery.string("a\"b")).isEqualTo("\"a\\\"b\"");
+        assertThat(FluxQuery.string("a\\b")).isEqualTo("\"a\\\\b\"");
+        // ${...} trong string literal của Flux là interpolation
+        assertThat(FluxQuery.string("${r._value}")).isEqualTo("\"\\${r._value}\"");
+        assertThat(FluxQuery.string("a\nb\rc\td")).isEqualTo("\"a\\nb\\rc\\td\"");
+        assertThatThrownBy(() -> FluxQuery.string(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void injectedTagValueStaysInsideLiteral() {
+        String flux = FluxQuery.from("iot")
+                .rangeLast(Duration.ofHours(1))
+                .tag("device_id", "d1\") or (r) => true or (\"")
+                .build();
+
+        assertThat(flux).contains("|> filter(fn: (r) => r[\"device_id\"] == \"d1\\\") or (r) => true or (\\\"\")");
+    }
+
+    @Test
+    void durationAcceptsFluxLiteralsAndRejectsEverythingElse() {
+        assertThat(FluxQuery.duration("5m")).isEqualTo("5m");
+        assertThat(FluxQuery.duration("1h30m")).isEqualTo("1h30m");
+        assertThat(FluxQuery.duration("1mo")).isEqualTo("1mo");
+        for (String invalid : new String[] { null, "", "5", "m", "5 m", "-5m", "5m)", "1h, fn: x" }) {
+            assertThatThrownBy(() -> FluxQuery.duration(invalid))
+                    .as("window %s", invalid)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void parseDurationReadsFixedUnitsOnly() {
+        assertThat(FluxQuery.parseDuration("500ms")).isEqualTo(Duration.ofMillis(500));
+        assertThat(FluxQuery.parseDuration("1h30m")).isEqualTo(Duration.ofMinutes(90));
+        assertThat(FluxQuery.parseDuration("2d")).isEqualTo(Duration.ofDays(2));
+        assertThat(FluxQuery.parseDuration("1w")).isEqualTo(Duration.ofDays(7));
+        assertThat(FluxQuery.parseDuration(" 10s ")).isEqualTo(Duration.ofSeconds(10));
+        // Đơn vị không cố định, sai định dạng hoặc bằng 0
+        assertThat(FluxQuery.parseDuration("1mo")).isNull();
+        assertThat(FluxQuery.parseDuration("1y")).isNull();
+        assertThat(FluxQuery.parseDuration("5x")).isNull();
+        assertThat(FluxQuery.parseDuration("m5")).isNull();
+        assertThat(FluxQuery.parseDuration("0m")).isNull();
+        assertThat(FluxQuery.parseDuration(null)).isNull();
+        assertThat(FluxQuery.parseDuration("")).isNull();
+    }
+
+    @Test
+    void tagInUsesContainsSetForSeveralValuesAndEqualityForOne() {
+        String many = FluxQuery.from("iot")
+                .rangeLast(Duration.ofHours(1))
+                .tagIn("device_id", List.of("d1", "d2", "d1"))
+                .build();
+        assertThat(many).endsWith("|> filter(fn: (r) => contains(value: r[\"device_id\"], set: [\"d1\", \"d2\"]))");
+
+        String one = FluxQuery.from("iot")
+                .rangeLast(Duration.ofHours(1))
+                .fieldIn(List.of("temperature"))
+                .build();
+        assertThat(one).endsWith("|> filter(fn: (r) => r._field == \"temperature\")");
+
+        assertThatThrownBy(() -> FluxQuery.from("iot").tagIn("device_id", List.of()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void predicatesAreEmittedAfterRangeInMeasurementTagFieldOrder() {
+        String flux = FluxQuery.from("iot")
+                .range(Instant.parse("2024-01-01T00:00:00Z"), Instant.parse("2024-01-02T00:00:00Z"))
+                .field("temperature")
+                .tag("device_id", "d1")
+                .measurement("sensor_data")
+                .aggregateWindow("5m", "mean")
+                .build();
+
+        assertThat(flux).isEqualTo("from(bucket: \"iot\")"
+                + "\n  |> range(start: 2024-01-01T00:00:00Z, stop: 2024-01-02T00:00:00Z)"
+                + "\n  |> filter(fn: (r) => r._measurement == \"sensor_data\")"
+                + "\n  |> filter(fn: (r) => r[\"device_id\"] == \"d1\")"
+                + "\n  |> filter(fn: (r) => r._field == \"temperature\")"
+                + "\n  |> aggregateWindow(every: 5m, fn: mean, createEmpty: false)");
+    }
+
+    @Test
+    void predicatesAddedAfterAStageFollowThatStage() {
+        String flux = FluxQuery.from("iot")
+                .rangeLast(Duration.ofMinutes(30))
+                .measurement("sensor_data")
+                .then("last()")
+                .field("humidity")
+                .build();
+
+        assertThat(flux).isEqualTo("from(bucket: \"iot\")"
+                + "\n  |> range(start: -1800s)"
+                + "\n  |> filter(fn: (r) => r._measurement == \"sensor_data\")"
+                + "\n  |> last()"
+                + "\n  |> filter(fn: (r) => r._field == \"humidity\")");
+    }
+
+    @Test
+    void aggregateWindowRejectsUnknownFunction() {
+        assertThatThrownBy(() -> FluxQuery.from("iot").aggregateWindow("5m", "mean) |> drop(columns: [\"x\"]"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> FluxQuery.from("iot").aggregateWindow("5m; x", "mean"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
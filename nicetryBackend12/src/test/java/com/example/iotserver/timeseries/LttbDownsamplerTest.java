@@ -0,0 +1,92 @@
+package com.example.iotserver.timeseries;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LttbDownsamplerTest {
+
+    @Test
+    void seriesWithinBudgetIsReturnedUnchanged() {
+        SeriesChunk data = series(100);
+
+        assertThat(LttbDownsampler.downsample(data, 100)).isSameAs(data);
+        assertThat(LttbDownsampler.downsample(data, 0)).isSameAs(data);
+    }
+
+    @Test
+    void keepsExactlyMaxPointsFromInputInTimeOrder() {
+        SeriesChunk data = series(10_000);
+
+        SeriesChunk result = LttbDownsampler.downsample(data, 500);
+
+        assertThat(result.size()).isEqualTo(500);
+        assertThat(result.timeAt(0)).isEqualTo(data.timeAt(0));
+        assertThat(result.timeAt(499)).isEqualTo(data.timeAt(9_999));
+        for (int i = 0; i < result.size(); i++) {
+            if (i > 0) {
+                assertThat(result.timeAt(i)).isGreaterThan(result.timeAt(i - 1));
+            }
+            // Điểm giữ lại là điểm gốc, không nội suy
+            int index = (int) ((result.timeAt(i) - data.timeAt(0)) / 1000);
+            assertThat(result.valueAt(i)).isEqualTo(data.valueAt(index));
+        }
+    }
+
+    @Test
+    void preservesIsolatedSpikes() {
+        SeriesChunk.Builder builder = SeriesChunk.builder();
+        for (int i = 0; i < 5_000; i++) {
+            double value = i == 1_234 ? 100 : i == 3_210 ? -100 : 20;
+            builder.add(i * 1000L, value);
+        }
+
+        SeriesChunk result = LttbDownsampler.downsample(builder.build(), 50);
+
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < result.size(); i++) {
+            values.add(result.valueAt(i));
+        }
+        assertThat(values).contains(100.0, -100.0);
+    }
+
+    @Test
+    void tinyBudgetsKeepEdges() {
+        SeriesChunk data = series(10);
+
+        SeriesChunk one = LttbDownsampler.downsample(data, 1);
+        SeriesChunk two = LttbDownsampler.downsample(data, 2);
+
+        assertThat(one.size()).isEqualTo(1);
+        assertThat(one.timeAt(0)).isEqualTo(data.timeAt(0));
+        assertThat(two.size()).isEqualTo(2);
+        assertThat(two.timeAt(1)).isEqualTo(data.timeAt(9));
+    }
+
+    @Test
+    void downsampleAllKeepsKeyOrder() {
+        Map<String, SeriesChunk> input = new LinkedHashMap<>();
+        input.put("c", series(1_000));
+        input.put("a", series(10));
+        input.put("b", series(2_000));
+
+        Map<String, SeriesChunk> result = LttbDownsampler.downsampleAll(input, 100);
+
+        assertThat(result.keySet()).containsExactly("c", "a", "b");
+        assertThat(result.get("a")).isSameAs(input.get("a"));
+        assertThat(result.get("b").size()).isEqualTo(100);
+    }
+
+    private static SeriesChunk series(int size) {
+        SeriesChunk.Builder builder = SeriesChunk.builder();
+        for (int i = 0; i < size; i++) {
+            builder.add(1_700_000_000_000L + i * 1000L, Math.sin(i / 50.0) * 10 + (i % 7));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.iotserver.timeseries;
+
+import com.example.iotserver.exception.GlobalExceptionHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class TimeSeriesReadsTest {
+
+    private ThreadPoolTaskExecutor executor;
+    // Chặn tác vụ đang chạy để lấp đầy pool; được mở khi test kết thúc
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(1);
+        executor.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    void resultIsReturnedFromThePool() throws Exception {
+        TimeSeriesReads reads = new TimeSeriesReads(executor, Duration.ofSeconds(5));
+
+        assertThat(reads.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS))
+                .startsWith(executor.getThreadNamePrefix());
+    }
+
+    @Test
+    void timeoutFailsTheFutureAndInterruptsTheQuery() throws Exception {
+        TimeSeriesReads reads = new TimeSeriesReads(executor, Duration.ofMillis(50));
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        CompletableFuture<String> future = reads.submit(() -> block(interrupted));
+
+        assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(TimeoutException.class);
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void cancellingTheFutureInterruptsTheQuery() throws Exception {
+        TimeSeriesReads reads = new TimeSeriesReads(executor, Duration.ofSeconds(30));
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        CompletableFuture<String> future = reads.submit(() -> {
+            started.countDown();
+            return block(interrupted);
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        future.cancel(true);
+
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void fullPoolRejectsImmediately() {
+        TimeSeriesReads reads = new TimeSeriesReads(executor, Duration.ofSeconds(30));
+        // Một tác vụ chạy, một tác vụ trong hàng đợi
+        reads.submit(() -> block(new CountDownLatch(1)));
+        reads.submit(() -> block(new CountDownLatch(1)));
+
+        assertThatThrownBy(() -> reads.submit(() -> "x")).isInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    void timeoutMapsTo504AndRejectionTo503() throws Exception {
+        TimeSeriesReads reads = new TimeSeriesReads(executor, Duration.ofMillis(50));
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new SlowController(reads))
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+
+        MvcResult slow = mockMvc.perform(get("/slow")).andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(slow)).andExpect(status().isGatewayTimeout());
+
+        // Lấp đầy pool (tác vụ chạy + hàng đợi) rồi gửi thêm một request
+        reads.submit(() -> block(new CountDownLatch(1)));
+        reads.submit(() -> block(new CountDownLatch(1)));
+        mockMvc.perform(get("/slow")).andExpect(status().isServiceUnavailable());
+
+        release.countDown();
+        while (executor.getActiveCount() > 0 || !executor.getThreadPoolExecutor().getQueue().isEmpty()) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        MvcResult fast = mockMvc.perform(get("/fast")).andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(fast)).andExpect(status().isOk()).andExpect(content().string("ok"));
+    }
+
+    // Chờ tới khi test kết thúc; báo lại nếu bị interrupt
+    private String block(CountDownLatch interrupted) {
+        try {
+            release.await();
+            return "done";
+        } catch (InterruptedException e) {
+            interrupted.countDown();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @RestController
+    private class SlowController {
+        private final TimeSeriesReads reads;
+
+        SlowController(TimeSeriesReads reads) {
+            this.reads = reads;
+        }
+
+        @GetMapping("/slow")
+        public CompletableFuture<String> slow() {
+            return reads.submit(() -> block(new CountDownLatch(1)));
+        }
+
+        @GetMapping("/fast")
+        public CompletableFuture<String> fast() {
+            return reads.submit(() -> "ok");
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.iotserver.timeseries.embedded;
+
+import com.example.iotserver.dto.SensorDataDTO;
+import com.example.iotserver.timeseries.SensorReading;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmbeddedSensorDataStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private final long base = System.currentTimeMillis() - Duration.ofHours(1).toMillis();
+    private EmbeddedSensorDataStore store;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    void compactionKeepsLastWrittenValueForDuplicateTimestamps() throws IOException {
+        store = open();
+        write("d1", base, 1.0);
+        write("d1", base + 1000, 2.0);
+        store.flush();
+        // Ghi lại cùng timestamp (timestamp lùi nên mở block mới ở segment khác)
+        write("d1", base, 10.0);
+        store.flush();
+        // Segment size 1 byte: mỗi lần flush seal segment trước, nên cần thêm một block để seal block cuối của d1
+        write("d2", base, 0.0);
+        store.flush();
+
+        assertThat(temperatures("d1")).containsExactly(10.0, 2.0);
+        store.compact();
+        assertThat(levels()).contains(1);
+        assertThat(temperatures("d1")).containsExactly(10.0, 2.0);
+
+        store.close();
+        store = open();
+        assertThat(temperatures("d1")).containsExactly(10.0, 2.0);
+        SensorDataDTO latest = store.latest("d1", Instant.ofEpochMilli(base));
+        assertThat(latest.getTemperature()).isEqualTo(2.0);
+        assertThat(latest.getTimestamp()).isEqualTo(Instant.ofEpochMilli(base + 1000));
+    }
+
+    @Test
+    void compactionDropsPointsOlderThanRetention() throws IOException {
+        store = open();
+        long old = System.currentTimeMillis() - Duration.ofDays(40).toMillis();
+        write("d1", old, 1.0);
+        write("d1", base, 2.0);
+        store.flush();
+        write("d2", base, 0.0);
+        store.flush();
+
+        store.compact();
+
+        assertThat(temperatures("d1", old)).containsExactly(2.0);
+    }
+
+    @Test
+    void latestForSeveralDevicesHonoursWindowAndSkipsDevicesWithoutData() throws IOException {
+        store = open();
+        write("d1", base, 1.0);
+        write("d1", base + 10_000, 2.0);
+        store.flush();
+        write("d1", base + 20_000, 3.0);
+        write("d2", base + 5_000, 7.0);
+
+        Map<String, SensorDataDTO> open = store.latest(List.of("d1", "d2", "d3"), Instant.ofEpochMilli(base), null);
+        assertThat(open).containsOnlyKeys("d1", "d2");
+        assertThat(open.get("d1").getTemperature()).isEqualTo(3.0);
+        assertThat(open.get("d1").getTimestamp()).isEqualTo(Instant.ofEpochMilli(base + 20_000));
+
+        // Cửa sổ đóng [base, base + 15s): điểm cuối trong cửa sổ, kể cả khi nằm ở block đã flush
+        Map<String, SensorDataDTO> window = store.latest(List.of("d1", "d2"), Instant.ofEpochMilli(base),
+                Instant.ofEpochMilli(base + 15_000));
+        assertThat(window.get("d1").getTemperature()).isEqualTo(2.0);
+        assertThat(window.get("d1").getTimestamp()).isEqualTo(Instant.ofEpochMilli(base + 10_000));
+        assertThat(window.get("d2").getTemperature()).isEqualTo(7.0);
+
+        assertThat(store.latest(List.of("d2"), Instant.ofEpochMilli(base + 6_000), Instant.ofEpochMilli(base + 15_000)))
+                .isEmpty();
+    }
+
+    private EmbeddedSensorDataStore open() throws IOException {
+        EmbeddedSensorDataStore opened = new EmbeddedSensorDataStore();
+        ReflectionTestUtils.setField(opened, "directory", dir.toString());
+        ReflectionTestUtils.setField(opened, "blockPoints", 4);
+        ReflectionTestUtils.setField(opened, "flushInterval", Duration.ofHours(1));
+        ReflectionTestUtils.setField(opened, "segmentSize", 1L);
+        ReflectionTestUtils.setField(opened, "retention", Duration.ofDays(30));
+        ReflectionTestUtils.setField(opened, "compactionInterval", Duration.ofHours(1));
+        opened.open();
+        return opened;
+    }
+
+    private void write(String deviceId, long time, double temperature) {
+        SensorReading reading = new SensorReading();
+        reading.deviceId(deviceId);
+        reading.timestamp(time);
+        reading.set(SensorReading.TEMPERATURE, temperature);
+        store.write(reading);
+    }
+
+    private List<Double> temperatures(String deviceId) throws IOException {
+        return temperatures(deviceId, base);
+    }
+
+    private List<Double> temperatures(String deviceId, long from) throws IOException {
+        List<Double> values = new ArrayList<>();
+        store.range(deviceId, Instant.ofEpochMilli(from), Instant.ofEpochMilli(base + 60_000),
+                row -> values.add(row.getTemperature()));
+        return values;
+    }
+
+    private List<Integer> levels() throws IOException {
+        List<Integer> levels = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                try (Segment segment = Segment.open(file, 0, (key, block) -> { })) {
+                    levels.add(segment.level());
+                }
+            }
+        }
+        return levels;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.iotserver.timeseries.embedded;
+
+import com.example.iotserver.timeseries.gorilla.GorillaDecoder;
+import com.example.iotserver.timeseries.gorilla.GorillaEncoder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopenTruncatesTornTailAndKeepsAppending() throws IOException {
+        Path file = Segment.fileName(dir, 1);
+        long intactSize;
+        try (Segment segment = Segment.create(dir, 1, 0)) {
+            append(segment, "d1/temperature", 1000, 20.0);
+            intactSize = segment.size();
+            append(segment, "d1/humidity", 1000, 60.0);
+        }
+        // Mô phỏng tắt đột ngột giữa lúc ghi record thứ hai
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 5);
+        }
+
+        List<String> keys = new ArrayList<>();
+        try (Segment segment = Segment.open(file, 1, (key, block) -> keys.add(key))) {
+            assertThat(keys).containsExactly("d1/temperature");
+            assertThat(Files.size(file)).isEqualTo(intactSize);
+            append(segment, "d1/humidity", 2000, 61.0);
+        }
+
+        keys.clear();
+        List<BlockRef> blocks = new ArrayList<>();
+        try (Segment segment = Segment.open(file, 1, (key, block) -> {
+            keys.add(key);
+            blocks.add(block);
+        })) {
+            assertThat(keys).containsExactly("d1/temperature", "d1/humidity");
+            GorillaDecoder decoder = blocks.get(1).decoder();
+            assertThat(decoder.next()).isTrue();
+            assertThat(decoder.time()).isEqualTo(2000);
+            assertThat(decoder.value()).isEqualTo(61.0);
+        }
+    }
+
+    @Test
+    void reopenStopsAtCorruptedRecord() throws IOException {
+        Path file = Segment.fileName(dir, 2);
+        long firstEnd;
+        try (Segment segment = Segment.create(dir, 2, 0)) {
+            append(segment, "a", 1000, 1.0);
+            firstEnd = segment.size();
+            append(segment, "b", 1000, 2.0);
+            append(segment, "c", 1000, 3.0);
+        }
+        // Lật một byte trong dữ liệu của record thứ hai: CRC sai
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, firstEnd + 32);
+            one.put(0, (byte) ~one.get(0)).rewind();
+            channel.write(one, firstEnd + 32);
+        }
+
+        List<String> keys = new ArrayList<>();
+        try (Segment segment = Segment.open(file, 2, (key, block) -> keys.add(key))) {
+            assertThat(keys).containsExactly("a");
+            assertThat(segment.size()).isEqualTo(firstEnd);
+        }
+    }
+
+    @Test
+    void rejectsFileWithoutHeader() throws IOException {
+        Path file = Segment.fileName(dir, 3);
+        Files.write(file, new byte[] { 1, 2, 3 });
+
+        assertThatThrownBy(() -> Segment.open(file, 3, (key, block) -> { }))
+                .isInstanceOf(IOException.class);
+    }
+
+    private static void append(Segment segment, String key, long time, double value) throws IOException {
+        GorillaEncoder encoder = new GorillaEncoder(1);
+        encoder.append(time, value);
+        segment.append(key, time, time, 1, encoder.toByteArray());
+    }
+}
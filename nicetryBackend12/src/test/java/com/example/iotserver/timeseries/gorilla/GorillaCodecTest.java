@@ -0,0 +1,98 @@
+package com.example.iotserver.timeseries.gorilla;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GorillaCodecTest {
+
+    @Test
+    void deltaOfDeltaBoundariesRoundTrip() {
+        // Biên của từng khoảng dod: 7 bit [-63, 64], 9 bit [-255, 256], 12 bit [-2047, 2048], còn lại 64 bit
+        long[] dods = { 0, -63, 64, -64, 65, -255, 256, -256, 257, -2047, 2048, -2048, 2049, 1L << 40, -(1L << 40) };
+        long[] times = new long[dods.length + 2];
+        times[0] = 1_700_000_000_000L;
+        long delta = 1L << 42;
+        times[1] = times[0] + delta;
+        for (int i = 0; i < dods.length; i++) {
+            delta += dods[i];
+            times[i + 2] = times[i + 1] + delta;
+        }
+        double[] values = new double[times.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 20.0 + i * 0.25;
+        }
+
+        assertRoundTrip(times, values);
+    }
+
+    @Test
+    void xorWithAllSixtyFourBitsMeaningfulRoundTrips() {
+        // XOR của hai giá trị có bit đầu và bit cuối khác nhau: 64 bit có nghĩa, ghi độ dài là 0
+        double first = Double.longBitsToDouble(0x0000000000000001L);
+        double second = Double.longBitsToDouble(0x8000000000000000L);
+        long[] times = { 1000, 2000, 3000, 4000, 5000 };
+        double[] values = { first, second, first, Double.NaN, -0.0 };
+
+        assertRoundTrip(times, values);
+    }
+
+    @Test
+    void reusesPreviousXorWindow() {
+        long[] times = new long[100];
+        double[] values = new double[100];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = 1000L * i;
+            values[i] = 25.0 + (i % 7) * 0.5;
+        }
+
+        assertRoundTrip(times, values);
+    }
+
+    @Test
+    void rejectsDecreasingTimestamp() {
+        GorillaEncoder encoder = new GorillaEncoder(4);
+
+        assertThat(encoder.append(2000, 1.0)).isTrue();
+        assertThat(encoder.append(1000, 2.0)).isFalse();
+        assertThat(encoder.append(2000, 3.0)).isTrue();
+        assertThat(encoder.count()).isEqualTo(2);
+    }
+
+    @Test
+    void fixedRegionStopsWhenFullWithoutCorruptingEarlierPoints() {
+        ByteBuffer page = ByteBuffer.allocateDirect(128);
+        GorillaEncoder encoder = new GorillaEncoder(page, 16, 96);
+        int appended = 0;
+        while (encoder.append(1000L * appended * appended, Math.sin(appended) * 100)) {
+            appended++;
+        }
+
+        assertThat(appended).isGreaterThan(1);
+        GorillaDecoder decoder = new GorillaDecoder(page, 16, 96, encoder.count());
+        int read = 0;
+        while (decoder.next()) {
+            assertThat(decoder.time()).isEqualTo(1000L * read * read);
+            read++;
+        }
+        assertThat(read).isEqualTo(appended);
+    }
+
+    private static void assertRoundTrip(long[] times, double[] values) {
+        GorillaEncoder encoder = new GorillaEncoder(times.length);
+        for (int i = 0; i < times.length; i++) {
+            assertThat(encoder.append(times[i], values[i])).isTrue();
+        }
+        byte[] block = encoder.toByteArray();
+
+        GorillaDecoder decoder = new GorillaDecoder(ByteBuffer.wrap(block), 0, block.length, encoder.count());
+        for (int i = 0; i < times.length; i++) {
+            assertThat(decoder.next()).isTrue();
+            assertThat(decoder.time()).isEqualTo(times[i]);
+            assertThat(Double.doubleToRawLongBits(decoder.value())).isEqualTo(Double.doubleToRawLongBits(values[i]));
+        }
+        assertThat(decoder.next()).isFalse();
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.iotserver.timeseries.hot;
+
+import com.example.iotserver.dto.SensorDataDTO;
+import com.example.iotserver.timeseries.SensorReading;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotWindowStoreTest {
+
+    private static final List<String> TEMPERATURE = List.of("temperature");
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void expiredPagesAreEvictedAndCoverageMovesPastThem() {
+        HotWindowStore store = open(Duration.ofHours(1), 1L << 20);
+        long now = System.currentTimeMillis();
+        write(store, "d1", now - 1000, 20.0);
+        assertThat(store.coverageStart(List.of("d1"), TEMPERATURE)).isLessThanOrEqualTo(now);
+
+        // Thu nhỏ cửa sổ: điểm cũ ra khỏi cửa sổ ở lần ghi kế tiếp
+        ReflectionTestUtils.setField(store, "duration", Duration.ofMillis(500));
+        write(store, "d1", now, 21.0);
+
+        assertThat(store.coverageStart(List.of("d1"), TEMPERATURE)).isGreaterThanOrEqualTo(now - 1000 + 1);
+        assertThat(temperatures(store, "d1", now - 2000)).containsExactly(21.0);
+        assertThat(pool(store).usedBytes()).isEqualTo(256);
+    }
+
+    @Test
+    void latePointOpensNewPageAndLaterWriteWinsOnDuplicateTimestamp() throws IOException {
+        HotWindowStore store = open(Duration.ofHours(1), 1L << 20);
+        long base = System.currentTimeMillis() - 60_000;
+        write(store, "d1", base, 1.0);
+        write(store, "d1", base + 2000, 2.0);
+        // Timestamp lùi: trang mới, cùng timestamp với điểm đầu
+        write(store, "d1", base, 10.0);
+        write(store, "d1", base + 1000, 11.0);
+
+        assertThat(pool(store).usedBytes()).isEqualTo(2 * 256);
+        assertThat(temperatures(store, "d1", base)).containsExactly(10.0, 11.0, 2.0);
+        SensorDataDTO latest = store.latest("d1", base);
+        assertThat(latest.getTemperature()).isEqualTo(2.0);
+        assertThat(latest.getTimestamp().toEpochMilli()).isEqualTo(base + 2000);
+    }
+
+    @Test
+    void seriesIsDroppedWhenPoolIsExhaustedAndCoveredAgainOnceAPageIsFree() {
+        // 2 trang cho cả store
+        HotWindowStore store = open(Duration.ofHours(1), 512);
+        long now = System.currentTimeMillis();
+        write(store, "d1", now, 1.0);
+        write(store, "d2", now, 2.0);
+        write(store, "d3", now, 3.0);
+
+        assertThat(store.coverageStart(List.of("d3"), TEMPERATURE)).isEqualTo(Long.MAX_VALUE);
+        assertThat(store.latest("d3", 0)).isNull();
+        assertThat(meterRegistry.counter("sensor.hot_window.dropped").count()).isEqualTo(1);
+        // Chuỗi khác không bị ảnh hưởng
+        assertThat(store.latest("d1", 0).getTemperature()).isEqualTo(1.0);
+
+        // d1 hết hạn và được sweep dọn, trả trang về pool
+        ReflectionTestUtils.setField(store, "duration", Duration.ofMillis(1));
+        sleep(5);
+        store.sweep();
+        ReflectionTestUtils.setField(store, "duration", Duration.ofHours(1));
+
+        long rewrite = System.currentTimeMillis();
+        write(store, "d3", rewrite, 4.0);
+        assertThat(store.latest("d3", 0).getTemperature()).isEqualTo(4.0);
+        // Chỉ đủ dữ liệu từ lúc được cấp trang lại
+        assertThat(store.coverageStart(List.of("d3"), TEMPERATURE)).isGreaterThanOrEqualTo(rewrite);
+    }
+
+    @Test
+    void sweepRacingWritesNeitherLosesNewPointsNorLeaksPages() throws Exception {
+        HotWindowStore store = open(Duration.ofMillis(20), 1L << 20);
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(4);
+        ExecutorService threads = Executors.newFixedThreadPool(5);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            String deviceId = "d" + (w % 2);
+            writers.add(threads.submit(() -> {
+                started.countDown();
+                for (int i = 0; i < 20_000; i++) {
+                    write(store, deviceId, System.currentTimeMillis(), i);
+                }
+            }));
+        }
+        Future<?> sweeper = threads.submit(() -> {
+            while (running.get()) {
+                store.sweep();
+            }
+        });
+        started.await();
+        for (Future<?> writer : writers) {
+            writer.get(30, TimeUnit.SECONDS);
+        }
+
+        // Điểm ghi ngay sau một lần sweep phải đọc lại được
+        long last = System.currentTimeMillis();
+        write(store, "d0", last, 42.0);
+        assertThat(store.latest("d0", last).getTemperature()).isEqualTo(42.0);
+
+        running.set(false);
+        sweeper.get(30, TimeUnit.SECONDS);
+        threads.shutdown();
+
+        // Mọi điểm hết hạn: sweep phải trả hết trang về pool
+        sleep(40);
+        store.sweep();
+        assertThat(pool(store).usedBytes()).isZero();
+    }
+
+    private HotWindowStore open(Duration duration, long maxBytes) {
+        HotWindowStore store = new HotWindowStore(meterRegistry);
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "duration", duration);
+        ReflectionTestUtils.setField(store, "pageSize", 256);
+        ReflectionTestUtils.setField(store, "arenaSize", 512);
+        ReflectionTestUtils.setField(store, "maxBytes", maxBytes);
+        store.init();
+        return store;
+    }
+
+    private static OffHeapPagePool pool(HotWindowStore store) {
+        return (OffHeapPagePool) ReflectionTestUtils.getField(store, "pool");
+    }
+
+    private static void write(HotWindowStore store, String deviceId, long time, double temperature) {
+        SensorReading reading = new SensorReading();
+        reading.deviceId(deviceId);
+        reading.farmId(1L);
+        reading.timestamp(time);
+        reading.set(SensorReading.TEMPERATURE, temperature);
+        store.write(reading);
+    }
+
+    private static List<Double> temperatures(HotWindowStore store, String deviceId, long from) {
+        List<Double> values = new ArrayList<>();
+        try {
+            store.range(deviceId, from, System.currentTimeMillis() + 1, row -> values.add(row.getTemperature()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return values;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
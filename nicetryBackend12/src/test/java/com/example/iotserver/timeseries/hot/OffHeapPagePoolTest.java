@@ -0,0 +1,77 @@
+package com.example.iotserver.timeseries.hot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OffHeapPagePoolTest {
+
+    @Test
+    void allocatesArenasLazilyUpToMaxBytes() {
+        // 4 trang mỗi arena, tối đa 2 arena
+        OffHeapPagePool pool = new OffHeapPagePool(128, 512, 1024);
+        assertThat(pool.reservedBytes()).isZero();
+
+        Set<Integer> pages = new HashSet<>();
+        for (int i = 0; i < 8; i++) {
+            int page = pool.allocate();
+            assertThat(page).isNotNegative();
+            pages.add(page);
+            if (i == 0) {
+                assertThat(pool.reservedBytes()).isEqualTo(512);
+            }
+        }
+
+        assertThat(pages).hasSize(8);
+        assertThat(pool.reservedBytes()).isEqualTo(1024);
+        assertThat(pool.usedBytes()).isEqualTo(1024);
+        assertThat(pool.allocate()).isEqualTo(-1);
+    }
+
+    @Test
+    void freedPagesAreReused() {
+        OffHeapPagePool pool = new OffHeapPagePool(128, 256, 256);
+        int first = pool.allocate();
+        int second = pool.allocate();
+        assertThat(pool.allocate()).isEqualTo(-1);
+
+        pool.free(first);
+        assertThat(pool.usedBytes()).isEqualTo(128);
+        assertThat(pool.allocate()).isEqualTo(first);
+        assertThat(pool.allocate()).isEqualTo(-1);
+
+        pool.free(second);
+        pool.free(first);
+        assertThat(pool.usedBytes()).isZero();
+        assertThat(pool.reservedBytes()).isEqualTo(256);
+    }
+
+    @Test
+    void pagesDoNotOverlapInsideTheirArena() {
+        OffHeapPagePool pool = new OffHeapPagePool(100, 350, 700);
+        // 3 trang mỗi arena (50 byte cuối bỏ trống)
+        int[] pages = new int[6];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = pool.allocate();
+        }
+
+        for (int i = 0; i < pages.length; i++) {
+            pool.arena(pages[i]).putInt(pool.offset(pages[i]), i);
+            assertThat(pool.offset(pages[i]) + pool.pageSize()).isLessThanOrEqualTo(350);
+        }
+        for (int i = 0; i < pages.length; i++) {
+            assertThat(pool.arena(pages[i]).getInt(pool.offset(pages[i]))).isEqualTo(i);
+        }
+        assertThat(pool.arena(pages[0])).isSameAs(pool.arena(pages[2])).isNotSameAs(pool.arena(pages[3]));
+    }
+
+    @Test
+    void rejectsArenaSmallerThanPage() {
+        assertThatThrownBy(() -> new OffHeapPagePool(512, 256, 1024)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new OffHeapPagePool(0, 256, 1024)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.iotserver.timeseries.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FixedHistogramTest {
+
+    @Test
+    void countsValuesIntoBucketsAndOverflow() {
+        FixedHistogram histogram = new FixedHistogram(0, 100, 10);
+        histogram.add(-0.1);
+        histogram.add(0);
+        histogram.add(9.999);
+        histogram.add(10);
+        histogram.add(99.999);
+        histogram.add(100);
+        histogram.add(Double.NaN);
+
+        assertThat(histogram.underflow()).isEqualTo(1);
+        assertThat(histogram.overflow()).isEqualTo(1);
+        assertThat(histogram.counts()).containsExactly(2, 1, 0, 0, 0, 0, 0, 0, 0, 1);
+    }
+
+    @Test
+    void mergeAddsCountsOfSameLayout() {
+        FixedHistogram a = new FixedHistogram(0, 14, 7);
+        FixedHistogram b = new FixedHistogram(0, 14, 7);
+        a.add(1);
+        a.add(15);
+        b.add(1.5);
+        b.add(13);
+        b.add(-1);
+
+        a.merge(b);
+
+        assertThat(a.counts()).containsExactly(2, 0, 0, 0, 0, 0, 1);
+        assertThat(a.underflow()).isEqualTo(1);
+        assertThat(a.overflow()).isEqualTo(1);
+        assertThatThrownBy(() -> a.merge(new FixedHistogram(0, 14, 14)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void serializationRoundTrips() {
+        FixedHistogram histogram = new FixedHistogram(3.5, 9, 11);
+        for (double v = 0; v < 12; v += 0.3) {
+            histogram.add(v);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.byteSize());
+        histogram.writeTo(buffer);
+        assertThat(buffer.hasRemaining()).isFalse();
+
+        FixedHistogram read = FixedHistogram.readFrom(buffer.flip());
+
+        assertThat(read.sameLayout(histogram)).isTrue();
+        assertThat(read.counts()).containsExactly(histogram.counts());
+        assertThat(read.underflow()).isEqualTo(histogram.underflow());
+        assertThat(read.overflow()).isEqualTo(histogram.overflow());
+    }
+}
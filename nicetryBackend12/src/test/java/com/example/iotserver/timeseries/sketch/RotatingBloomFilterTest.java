@@ -0,0 +1,76 @@
+package com.example.iotserver.timeseries.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RotatingBloomFilterTest {
+
+    private static final long WINDOW = 60_000;
+
+    @Test
+    void remembersEntriesForAtLeastOneWindow() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.001, WINDOW);
+        long hash = RotatingBloomFilter.mix(1);
+
+        assertThat(filter.put(hash, 1_000)).isFalse();
+        assertThat(filter.put(hash, 2_000)).isTrue();
+        // Sau một lần xoay, phần tử nằm ở thế hệ trước nhưng vẫn được nhớ
+        assertThat(filter.mightContain(hash, 1_000 + WINDOW)).isTrue();
+        assertThat(filter.mightContain(hash, 1_000 + 2 * WINDOW - 1)).isTrue();
+        // Xoay lần thứ hai: thế hệ chứa phần tử bị bỏ
+        assertThat(filter.mightContain(hash, 1_000 + 2 * WINDOW)).isFalse();
+    }
+
+    @Test
+    void forgetsEverythingAfterIdleGapOfTwoWindows() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.001, WINDOW);
+        long hash = RotatingBloomFilter.mix(2);
+        filter.put(hash, 1_000);
+
+        assertThat(filter.put(hash, 1_000 + 2 * WINDOW)).isFalse();
+    }
+
+    @Test
+    void rotatesEarlyWhenCapacityIsReached() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(100, 0.001, WINDOW);
+        for (int i = 0; i < 100; i++) {
+            filter.put(RotatingBloomFilter.mix(i), 1_000);
+        }
+        // Thế hệ đầy: lần put tiếp theo xoay, phần tử cũ chuyển sang thế hệ trước
+        filter.put(RotatingBloomFilter.mix(1_000), 1_001);
+        assertThat(filter.mightContain(RotatingBloomFilter.mix(0), 1_002)).isTrue();
+
+        for (int i = 1_001; i < 1_100; i++) {
+            filter.put(RotatingBloomFilter.mix(i), 1_003);
+        }
+        filter.put(RotatingBloomFilter.mix(2_000), 1_004);
+        assertThat(filter.mightContain(RotatingBloomFilter.mix(0), 1_005)).isFalse();
+        assertThat(filter.mightContain(RotatingBloomFilter.mix(1_000), 1_005)).isTrue();
+    }
+
+    @Test
+    void falsePositiveRateStaysNearConfiguredBound() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(10_000, 0.001, WINDOW);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put(RotatingBloomFilter.mix(i), 1_000);
+        }
+
+        int falsePositives = 0;
+        for (int i = 1_000_000; i < 1_100_000; i++) {
+            if (filter.mightContain(RotatingBloomFilter.mix(i), 1_000)) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives / 100_000.0).isLessThan(0.002);
+    }
+
+    @Test
+    void rejectsInvalidConfiguration() {
+        assertThatThrownBy(() -> new RotatingBloomFilter(0, 0.01, WINDOW))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new RotatingBloomFilter(10, 1, WINDOW))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
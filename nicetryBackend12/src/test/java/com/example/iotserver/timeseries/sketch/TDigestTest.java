@@ -0,0 +1,103 @@
+package com.example.iotserver.timeseries.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class TDigestTest {
+
+    private static final double[] QUANTILES = { 0.001, 0.01, 0.1, 0.5, 0.9, 0.95, 0.99, 0.999 };
+
+    @Test
+    void quantilesOfSkewedDistributionStayWithinRankError() {
+        double[] data = exponential(100_000, 42);
+        TDigest digest = new TDigest(100);
+        for (double value : data) {
+            digest.add(value);
+        }
+
+        assertRankError(digest, data);
+        assertThat(digest.count()).isEqualTo(data.length);
+    }
+
+    @Test
+    void mergedDigestMatchesSingleDigest() {
+        double[] data = exponential(100_000, 7);
+        TDigest merged = new TDigest(100);
+        for (int part = 0; part < 24; part++) {
+            TDigest hourly = new TDigest(100);
+            for (int i = part; i < data.length; i += 24) {
+                hourly.add(data[i]);
+            }
+            merged.merge(hourly);
+        }
+
+        assertRankError(merged, data);
+        double[] sorted = data.clone();
+        Arrays.sort(sorted);
+        assertThat(merged.min()).isEqualTo(sorted[0]);
+        assertThat(merged.max()).isEqualTo(sorted[sorted.length - 1]);
+        assertThat(merged.quantile(0)).isEqualTo(sorted[0]);
+        assertThat(merged.quantile(1)).isEqualTo(sorted[sorted.length - 1]);
+    }
+
+    @Test
+    void serializationRoundTrips() {
+        TDigest digest = new TDigest(100);
+        for (double value : exponential(10_000, 3)) {
+            digest.add(value);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(digest.byteSize());
+        digest.writeTo(buffer);
+        assertThat(buffer.hasRemaining()).isFalse();
+
+        TDigest read = TDigest.readFrom(buffer.flip());
+
+        assertThat(read.count()).isEqualTo(digest.count());
+        for (double q : QUANTILES) {
+            assertThat(read.quantile(q)).isEqualTo(digest.quantile(q));
+        }
+    }
+
+    @Test
+    void emptyAndSingleValueDigests() {
+        TDigest digest = new TDigest(100);
+        assertThat(digest.quantile(0.5)).isNaN();
+        assertThat(digest.min()).isNaN();
+
+        digest.add(Double.NaN);
+        digest.add(21.5);
+
+        assertThat(digest.count()).isEqualTo(1);
+        assertThat(digest.quantile(0.99)).isEqualTo(21.5);
+        assertThatThrownBy(() -> digest.quantile(1.5)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // Sai số theo hạng: tỉ lệ điểm nhỏ hơn ước lượng phải gần q, chặt hơn ở hai đuôi
+    private static void assertRankError(TDigest digest, double[] data) {
+        double[] sorted = data.clone();
+        Arrays.sort(sorted);
+        for (double q : QUANTILES) {
+            double estimate = digest.quantile(q);
+            int rank = Arrays.binarySearch(sorted, estimate);
+            double actual = (double) (rank >= 0 ? rank : -rank - 1) / sorted.length;
+            double tolerance = Math.min(q, 1 - q) < 0.05 ? 0.002 : 0.01;
+            assertThat(actual).as("hạng của p%s", q * 100).isCloseTo(q, within(tolerance));
+        }
+    }
+
+    private static double[] exponential(int n, long seed) {
+        Random random = new Random(seed);
+        double[] data = new double[n];
+        for (int i = 0; i < n; i++) {
+            data[i] = -Math.log(1 - random.nextDouble()) * 10;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.iotserver.timeseries.spool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SpoolLogTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+    // Mỗi record trong test: header 8 byte + payload int 4 byte
+    private static final int RECORD_SIZE = SpoolSegment.RECORD_HEADER + 4;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopenResumesAfterCommittedPosition() throws IOException {
+        try (SpoolLog spool = SpoolLog.open(dir, SEGMENT_SIZE, 1 << 20)) {
+            appendRange(spool, 0, 10);
+            List<Integer> values = new ArrayList<>();
+            spool.commit(spool.read(4, payload -> values.add(payload.getInt())));
+            assertThat(values).containsExactly(0, 1, 2, 3);
+        }
+
+        try (SpoolLog spool = SpoolLog.open(dir, SEGMENT_SIZE, 1 << 20)) {
+            assertThat(spool.pendingRecords()).isEqualTo(6);
+            assertThat(readAll(spool)).containsExactly(4, 5, 6, 7, 8, 9);
+            assertThat(spool.isEmpty()).isTrue();
+        }
+    }
+
+    @Test
+    void uncommittedRecordsAreReadAgainAfterReopen() throws IOException {
+        try (SpoolLog spool = SpoolLog.open(dir, SEGMENT_SIZE, 1 << 20)) {
+            appendRange(spool, 0, 3);
+            spool.read(3, payload -> { });
+        }
+
+        try (SpoolLog spool = SpoolLog.open(dir, SEGMENT_SIZE, 1 << 20)) {
+            assertThat(readAll(spool)).containsExactly(0, 1, 2);
+        }
+    }
+
+    @Test
+    void reopenTruncatesAtCorruptedRecordAndKeepsAppending() throws IOException {
+        try (SpoolLog spool = SpoolLog.open(dir, SEGMENT_SIZE, 1 << 20)) {
+            appendRange(spool, 0, 4);
+        }
+        // Hỏng payload của record thứ ba (ghi dở khi tắt đột ngột): CRC không khớp
+        Path segment = SpoolSegment.fileName(dir, 1);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0x7F }),
+                    SpoolSegment.HEADER_SIZE + 2L * RECORD_SIZE + SpoolSegment.RECORD_HEADER);
+        }
+
+        try (SpoolLog spool = SpoolLog.open(dir, SEGMENT_SIZE, 1 << 20)) {
+            assertThat(spool.pendingRecords()).isEqualTo(2);
+            appendRange(spool, 100, 101);
+        }
+
+        // Record cũ sau chỗ hỏng không được sống lại khi record mới ghi đè đúng vị trí hỏng
+        try (SpoolLog spool = SpoolLog.open(dir, SEGMENT_SIZE, 1 << 20)) {
+            assertThat(spool.pendingRecords()).isEqualTo(3);
+            assertThat(readAll(spool)).containsExactly(0, 1, 100);
+        }
+    }
+
+    @Test
+    void invalidCursorRestartsFromOldestSegment() throws IOException {
+        try (SpoolLog spool = SpoolLog.open(dir, SEGMENT_SIZE, 1 << 20)) {
+            appendRange(spool, 0, 5);
+            spool.commit(spool.read(2, payload -> { }));
+        }
+        try (FileChannel channel = FileChannel.open(dir.resolve("cursor"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 12345), 12);
+        }
+
+        try (SpoolLog spool = SpoolLog.open(dir, SEGMENT_SIZE, 1 << 20)) {
+            assertThat(readAll(spool)).containsExactly(0, 1, 2, 3, 4);
+        }
+    }
+
+    @Test
+    void rollsOverSegmentsAndDropsOldestBeyondCap() throws IOException {
+        int perSegment = (256 - SpoolSegment.HEADER_SIZE) / RECORD_SIZE;
+        try (SpoolLog spool = SpoolLog.open(dir, 256, 512)) {
+            appendRange(spool, 0, perSegment * 3);
+
+            assertThat(spool.segmentCount()).isEqualTo(2);
+            assertThat(spool.droppedRecords()).isEqualTo(perSegment);
+            List<Integer> values = readAll(spool);
+            assertThat(values).hasSize(perSegment * 2);
+            assertThat(values.get(0)).isEqualTo(perSegment);
+            assertThat(values.get(values.size() - 1)).isEqualTo(perSegment * 3 - 1);
+            assertThat(spool.segmentCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void rejectsRecordLargerThanSegment() throws IOException {
+        try (SpoolLog spool = SpoolLog.open(dir, 256, 512)) {
+            assertThatThrownBy(() -> spool.append(ByteBuffer.allocate(256)))
+                    .isInstanceOf(IOException.class);
+        }
+    }
+
+    private static void appendRange(SpoolLog spool, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            spool.append(ByteBuffer.allocate(4).putInt(0, i));
+        }
+    }
+
+    private static List<Integer> readAll(SpoolLog spool) {
+        List<Integer> values = new ArrayList<>();
+        SpoolLog.Position position;
+        while ((position = spool.read(3, payload -> values.add(payload.getInt()))) != null) {
+            spool.commit(position);
+        }
+        return values;
+    }
+}